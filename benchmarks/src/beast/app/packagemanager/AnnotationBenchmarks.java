@@ -0,0 +1,56 @@
+package beast.app.packagemanager;
+
+import beast.core.BEASTObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extract citations from the loaded classes by {@link ReflectionScanner#getCitationList(Class)},
+ * or from the class file bytes by {@link ClassFileInfo#parse(byte[])}.
+ *
+ * @author Walter Xie
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AnnotationBenchmarks extends BenchmarkFixtures {
+
+    private List<Class<?>> beastClasses;
+    private List<byte[]> classFiles;
+
+    @Setup
+    public void setUp() throws IOException {
+        beastClasses = new ArrayList<>();
+        classFiles = readClassFiles();
+        // loaded by the application class loader, which is not closed
+        for (String className : scan().keySet()) {
+            try {
+                Class<?> c = Class.forName(className, false, AnnotationBenchmarks.class.getClassLoader());
+                if (BEASTObject.class.isAssignableFrom(c))
+                    beastClasses.add(c);
+            } catch (ClassNotFoundException | LinkageError e) {
+                // not in the class path
+            }
+        }
+    }
+
+    @Benchmark
+    public void getCitationList(Blackhole bh) {
+        for (Class<?> c : beastClasses)
+            bh.consume(ReflectionScanner.getCitationList(c));
+    }
+
+    @Benchmark
+    public void parseClassFiles(Blackhole bh) throws IOException {
+        for (byte[] b : classFiles)
+            bh.consume(ClassFileInfo.parse(b));
+    }
+}
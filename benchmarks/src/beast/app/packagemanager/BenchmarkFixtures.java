@@ -0,0 +1,86 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * The inputs shared by all benchmarks, which are given by <code>ant benchmark</code>:
+ * the jar to scan, which is beast.jar by default, and the directory of recorded fixtures.
+ *
+ * @author Walter Xie
+ */
+@State(Scope.Benchmark)
+public abstract class BenchmarkFixtures {
+
+    // the jar containing BEAST classes, and its dependencies must be in the class path
+    @Param("")
+    public String jar;
+
+    // the directory of recorded responses
+    @Param("benchmarks/fixtures")
+    public String fixtures;
+
+    protected File jarFile;
+
+    @Setup
+    public void setUpFixtures() throws IOException {
+        // the benchmarked code is not measured by printing
+        Log.setLevel(Log.Level.error);
+        jarFile = new File(jar);
+        if (!jarFile.isFile())
+            throw new IOException("Cannot find jar " + jar + ", set it by -p jar=...");
+    }
+
+    /**
+     * @return a new class loader only containing the jar, which must be closed.
+     * @throws IOException
+     */
+    protected PackageClassLoader newClassLoader() throws IOException {
+        return new PackageClassLoader(jarFile.getName(), new URL[]{jarFile.toURI().toURL()},
+                Collections.emptyList(), BenchmarkFixtures.class.getClassLoader());
+    }
+
+    /**
+     * @return the bytes of all classes accepted by {@link PackagePrefixFilter#DEFAULT}.
+     * @throws IOException
+     */
+    protected List<byte[]> readClassFiles() throws IOException {
+        List<byte[]> classFiles = new ArrayList<>();
+        try (JarClassReader reader = new JarClassReader(jarFile, PackagePrefixFilter.DEFAULT)) {
+            for (JarClassReader.ClassEntry entry : reader)
+                classFiles.add(entry.readBytes());
+        }
+        return classFiles;
+    }
+
+    /**
+     * @return the cited classes in the jar, where key is the class name.
+     * @throws IOException
+     */
+    protected Map<String, CitedClass> scan() throws IOException {
+        try (PackageClassLoader loader = newClassLoader()) {
+            return new BytecodeScanner().getAllCitedClasses(jarFile, loader);
+        }
+    }
+
+    /**
+     * @param name  the file name in fixtures
+     * @return the bytes of a recorded fixture
+     * @throws IOException
+     */
+    protected byte[] readFixture(String name) throws IOException {
+        File file = new File(fixtures, name);
+        if (!file.isFile())
+            throw new IOException("Cannot find fixture " + file + ", set the directory by -p fixtures=...");
+        return Files.readAllBytes(file.toPath());
+    }
+}
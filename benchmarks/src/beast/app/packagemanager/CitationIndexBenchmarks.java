@@ -0,0 +1,113 @@
+package beast.app.packagemanager;
+
+import beast.util.Package;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load the cited classes in the jar from a JSON Lines report against opening {@link CitationIndexFile},
+ * and the lookups in both, where the cited classes are split into packages as {@link DOIBenchmarks}.
+ * The sizes of both files are printed at setup.
+ *
+ * @author Walter Xie
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CitationIndexBenchmarks extends BenchmarkFixtures {
+
+    private File jsonFile;
+    private File indexFile;
+    private Map<String, PackageCitations> loaded;
+    private CitationIndexFile index;
+    private List<String> dois;
+    private List<String> classNames;
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<String, Map<String, CitedClass>> byPackage = new TreeMap<>();
+        for (Map.Entry<String, CitedClass> entry : scan().entrySet()) {
+            String[] names = entry.getKey().split("\\.");
+            String pkgName = names.length > 2 ? names[0] + "." + names[1] : names[0];
+            byPackage.computeIfAbsent(pkgName, k -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+        }
+        Map<String, PackageCitations> processedPkgMap = new TreeMap<>();
+        for (Map.Entry<String, Map<String, CitedClass>> entry : byPackage.entrySet())
+            processedPkgMap.put(entry.getKey(), new PackageCitations(new Package(entry.getKey()), entry.getValue()));
+
+        jsonFile = File.createTempFile("citations", ".jsonl");
+        try (ReportSink sink = ReportSink.open("json", jsonFile)) {
+            for (Map.Entry<String, PackageCitations> entry : processedPkgMap.entrySet()) {
+                for (CitedClass citedClass : entry.getValue().getCitedClassMap().values())
+                    sink.write(entry.getKey(), citedClass);
+            }
+        }
+        indexFile = File.createTempFile("citations", ".idx");
+        CitationIndexFile.write(processedPkgMap, indexFile);
+        System.out.println("\nJSON Lines " + jsonFile.length() + " bytes, index " + indexFile.length() + " bytes");
+
+        loaded = loadJSON();
+        index = CitationIndexFile.open(indexFile);
+        dois = index.getDOIs();
+        classNames = new ArrayList<>();
+        for (PackageCitations packageCitations : processedPkgMap.values())
+            classNames.addAll(packageCitations.getCitedClassMap().keySet());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(jsonFile.toPath());
+        Files.deleteIfExists(indexFile.toPath());
+    }
+
+    @Benchmark
+    public Map<String, PackageCitations> loadJSON() throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(jsonFile), StandardCharsets.UTF_8))) {
+            return JSONLinesReportSink.read(reader);
+        }
+    }
+
+    @Benchmark
+    public CitationIndexFile openIndex() throws IOException {
+        return CitationIndexFile.open(indexFile);
+    }
+
+    // the JSON has to be indexed before the DOIs can be looked up
+    @Benchmark
+    public void loadJSONQueryDOIs(Blackhole bh) throws IOException {
+        DOIIndex doiIndex = new DOIIndex(loadJSON());
+        for (String doi : dois)
+            bh.consume(doiIndex.getPackages(doi));
+    }
+
+    @Benchmark
+    public void openIndexQueryDOIs(Blackhole bh) throws IOException {
+        CitationIndexFile opened = CitationIndexFile.open(indexFile);
+        for (String doi : dois)
+            bh.consume(opened.getPackages(doi));
+    }
+
+    @Benchmark
+    public void queryIndexClasses(Blackhole bh) {
+        for (String className : classNames)
+            bh.consume(index.getCitedClasses(className));
+    }
+
+    @Benchmark
+    public void queryLoadedClasses(Blackhole bh) {
+        for (String className : classNames) {
+            for (PackageCitations packageCitations : loaded.values())
+                bh.consume(packageCitations.getCitedClassMap().get(className));
+        }
+    }
+}
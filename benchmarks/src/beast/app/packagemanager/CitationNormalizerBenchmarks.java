@@ -0,0 +1,51 @@
+package beast.app.packagemanager;
+
+import beast.core.Citation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalize all @Citation annotated in the jar by {@link CitationNormalizer},
+ * or by the regular expressions of the previous <code>CitedClass#getCitations(String)</code>.
+ *
+ * @author Walter Xie
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CitationNormalizerBenchmarks extends BenchmarkFixtures {
+
+    private List<Citation> corpus;
+
+    @Setup
+    public void setUp() throws IOException {
+        corpus = new ArrayList<>();
+        for (byte[] b : readClassFiles())
+            corpus.addAll(ClassFileInfo.parse(b).citations);
+    }
+
+    @Benchmark
+    public void regex(Blackhole bh) {
+        for (Citation citation : corpus) {
+            String simpleCi = citation.value().replaceAll("\n", "").replaceAll("\t", "");
+            simpleCi = simpleCi.replaceAll("  ", " ");
+            bh.consume(citation.DOI() + "\t" + simpleCi);
+        }
+    }
+
+    @Benchmark
+    public void normalizer(Blackhole bh) {
+        for (Citation citation : corpus) {
+            NormalizedCitation normalized = CitationNormalizer.normalize(citation);
+            bh.consume(normalized.doi + "\t" + normalized.text);
+        }
+    }
+}
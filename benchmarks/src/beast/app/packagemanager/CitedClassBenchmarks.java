@@ -0,0 +1,48 @@
+package beast.app.packagemanager;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CitedClass} normalization at construction, and string formatting.
+ *
+ * @author Walter Xie
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CitedClassBenchmarks extends BenchmarkFixtures {
+
+    private List<CitedClass> citedClasses;
+
+    @Setup
+    public void setUp() throws IOException {
+        citedClasses = new ArrayList<>(scan().values());
+    }
+
+    @Benchmark
+    public void newCitedClass(Blackhole bh) {
+        for (CitedClass citedClass : citedClasses)
+            bh.consume(new CitedClass(citedClass.className, citedClass.citations));
+    }
+
+    @Benchmark
+    public void getCitations(Blackhole bh) {
+        for (CitedClass citedClass : citedClasses)
+            bh.consume(citedClass.getCitations());
+    }
+
+    @Benchmark
+    public void getCitationsDelimited(Blackhole bh) {
+        for (CitedClass citedClass : citedClasses)
+            bh.consume(citedClass.getCitations("\t"));
+    }
+}
@@ -0,0 +1,46 @@
+package beast.app.packagemanager;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse the recorded CrossRef responses in fixtures/crossref,
+ * by org.json as {@link CrossRef#parseAuthorsToJSON(String, boolean)},
+ * or by {@link CrossRefWorkParser} streaming.
+ *
+ * @author Walter Xie
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CrossRefBenchmarks extends BenchmarkFixtures {
+
+    @Param({"journal.pcbi.1003537.json", "journal.pcbi.1006650.json"})
+    public String response;
+
+    private byte[] bytes;
+    private CrossRef crossRef;
+
+    @Setup
+    public void setUp() throws IOException {
+        bytes = readFixture("crossref/" + response);
+        crossRef = new CrossRef(response);
+    }
+
+    @Benchmark
+    public JSONObject orgJson() throws Exception {
+        return crossRef.parseAuthorsToJSON(CrossRefClient.readBody(new ByteArrayInputStream(bytes)), false);
+    }
+
+    @Benchmark
+    public CrossRefWork streaming() throws IOException {
+        return CrossRefWorkParser.parse(new ByteArrayInputStream(bytes), null);
+    }
+}
@@ -0,0 +1,59 @@
+package beast.app.packagemanager;
+
+import beast.util.Package;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DOI aggregation, where the cited classes in the jar are split into packages
+ * by the 2nd level of Java package names, e.g. beast.evolution.
+ *
+ * @author Walter Xie
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DOIBenchmarks extends BenchmarkFixtures {
+
+    private Map<String, PackageCitations> processedPkgMap;
+    private DOIIndex doiIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<String, Map<String, CitedClass>> byPackage = new TreeMap<>();
+        for (Map.Entry<String, CitedClass> entry : scan().entrySet()) {
+            String[] names = entry.getKey().split("\\.");
+            String pkgName = names.length > 2 ? names[0] + "." + names[1] : names[0];
+            byPackage.computeIfAbsent(pkgName, k -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+        }
+        processedPkgMap = new TreeMap<>();
+        for (Map.Entry<String, Map<String, CitedClass>> entry : byPackage.entrySet())
+            processedPkgMap.put(entry.getKey(), new PackageCitations(new Package(entry.getKey()), entry.getValue()));
+        doiIndex = new DOIIndex(processedPkgMap);
+    }
+
+    @Benchmark
+    public DOIIndex buildDOIIndex() {
+        return new DOIIndex(processedPkgMap);
+    }
+
+    @Benchmark
+    public Object uniqueDOIs() {
+        return doiIndex.getAllMappings();
+    }
+
+    @Benchmark
+    public void queryDOIIndex(Blackhole bh) {
+        for (String doi : doiIndex.getDOIs())
+            bh.consume(doiIndex.getPackages(doi));
+    }
+}
@@ -0,0 +1,135 @@
+package beast.app.packagemanager;
+
+import beast.core.Citation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link DOIMatcher} over thousands of citations without DOI.
+ * The documents are the cited classes in the jar having DOIs, and synthetic CrossRef works,
+ * whose titles and authors are drawn from a fixed vocabulary by a fixed seed.
+ * Each citation is a synthetic work cited with a few title words dropped or misspelt,
+ * the year sometimes missing, and a journal, volume and pages added.
+ *
+ * @author Walter Xie
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DOIMatcherBenchmarks extends BenchmarkFixtures {
+
+    // the number of synthetic works
+    @Param({"10000", "100000"})
+    public int works;
+
+    // the number of citations to match
+    @Param("5000")
+    public int citations;
+
+    private List<CitedClass> scanned;
+    private List<CrossRefWork> workList;
+    private DOIMatcher matcher;
+    private List<String> texts;
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        scanned = new ArrayList<>(scan().values());
+        Random random = new Random(777);
+        String[] vocabulary = new String[5000];
+        for (int i = 0; i < vocabulary.length; i++)
+            vocabulary[i] = word(random, 2 + random.nextInt(3));
+        String[] surnames = new String[3000];
+        for (int i = 0; i < surnames.length; i++)
+            surnames[i] = word(random, 3);
+
+        workList = new ArrayList<>(works);
+        for (int i = 0; i < works; i++) {
+            StringBuilder title = new StringBuilder();
+            int n = 5 + random.nextInt(10);
+            for (int k = 0; k < n; k++) {
+                // Zipf-like, so that some words are very common
+                int w = (int) Math.pow(vocabulary.length, random.nextDouble()) - 1;
+                title.append(k == 0 ? "" : k % 4 == 2 ? " of " : " ").append(vocabulary[w]);
+            }
+            int nAuthors = 1 + random.nextInt(5);
+            String[] given = new String[nAuthors];
+            String[] family = new String[nAuthors];
+            for (int k = 0; k < nAuthors; k++) {
+                given[k] = "A";
+                family[k] = surnames[random.nextInt(surnames.length)];
+            }
+            workList.add(new CrossRefWork("10.1000/synthetic." + i, given, family, title.toString(),
+                    "Publisher", 1990 + random.nextInt(30)));
+        }
+        matcher = newMatcher();
+
+        texts = new ArrayList<>(citations);
+        for (int i = 0; i < citations; i++) {
+            CrossRefWork work = workList.get(random.nextInt(works));
+            StringBuilder text = new StringBuilder(String.join(", ", work.getAuthors()));
+            text.append(random.nextDouble() < 0.8 ? " (" + work.year + ") " : ". ");
+            for (String word : work.title.split(" ")) {
+                double p = random.nextDouble();
+                if (p < 0.1)
+                    continue;
+                text.append(p < 0.18 ? word.substring(1) : word).append(' ');
+            }
+            text.append(". Journal of ").append(vocabulary[random.nextInt(200)]).append(' ')
+                    .append(random.nextInt(50)).append(':').append(random.nextInt(900));
+            texts.add(text.toString());
+        }
+    }
+
+    private static String word(Random random, int syllables) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < syllables; i++)
+            word.append("bcdfghklmnprstvz".charAt(random.nextInt(16))).append("aeiou".charAt(random.nextInt(5)));
+        return word.toString();
+    }
+
+    private DOIMatcher newMatcher() {
+        DOIMatcher.Builder builder = new DOIMatcher.Builder();
+        for (CitedClass citedClass : scanned) {
+            for (Citation citation : citedClass.citations) {
+                if (!citation.DOI().isEmpty())
+                    builder.addCitation(citation);
+            }
+        }
+        for (CrossRefWork work : workList)
+            builder.addWork(work);
+        return builder.build();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public DOIMatcher buildMatcher() {
+        return newMatcher();
+    }
+
+    // citations per second
+    @Benchmark
+    public List<DOIMatcher.Candidate> matchCitation() {
+        String text = texts.get(next);
+        next = (next + 1) % texts.size();
+        return matcher.match(text, 3, 0.3);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void matchAllCitations(Blackhole bh) {
+        for (String text : texts)
+            bh.consume(matcher.match(text, 3, 0.3));
+    }
+}
@@ -0,0 +1,101 @@
+package beast.app.packagemanager;
+
+import beast.core.BEASTObject;
+import beast.util.PackageManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "Is a BEASTObject" of every class in the jar: {@link PackageManager#isSubclass(Class, Class)}
+ * on the loaded classes, which walks the hierarchy for each class,
+ * against {@link ClassHierarchyIndex}, either built for each invocation or memoized.
+ *
+ * @author Walter Xie
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HierarchyBenchmarks extends BenchmarkFixtures {
+
+    private Collection<ClassFileInfo> classFiles;
+    private List<String> classNames;
+    private PackageClassLoader loader;
+    private List<Class<?>> classes;
+    private ClassHierarchyIndex memoized;
+
+    @Setup
+    public void setUp() throws IOException, ClassNotFoundException {
+        classFiles = new BytecodeScanner().readClassFiles(jarFile).values();
+        classNames = new ArrayList<>(classFiles.size());
+        for (ClassFileInfo info : classFiles)
+            classNames.add(info.getClassName());
+
+        loader = newClassLoader();
+        classes = new ArrayList<>(classNames.size());
+        for (String className : classNames)
+            classes.add(Class.forName(className, false, loader));
+
+        memoized = newIndex();
+        for (String className : classNames)
+            memoized.isBEASTObject(className);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        loader.close();
+    }
+
+    private ClassHierarchyIndex newIndex() {
+        ClassHierarchyIndex index = new ClassHierarchyIndex();
+        index.addClasses(jarFile, "benchmark", classFiles);
+        return index;
+    }
+
+    @Benchmark
+    public int reflectionIsSubclass() {
+        int n = 0;
+        for (Class<?> c : classes) {
+            if (PackageManager.isSubclass(BEASTObject.class, c))
+                n++;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int indexIsBEASTObject() {
+        ClassHierarchyIndex index = newIndex();
+        int n = 0;
+        for (String className : classNames) {
+            if (index.isBEASTObject(className))
+                n++;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int indexIsBEASTObjectMemoized() {
+        int n = 0;
+        for (String className : classNames) {
+            if (memoized.isBEASTObject(className))
+                n++;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int indexEffectiveCitations() {
+        ClassHierarchyIndex index = newIndex();
+        int n = 0;
+        for (String className : classNames)
+            n += index.getEffectiveCitations(className).size();
+        return n;
+    }
+}
@@ -0,0 +1,46 @@
+package beast.app.packagemanager;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jar enumeration and {@link ClassScanner#getAllCitedClasses(java.io.File, ClassLoader)},
+ * where each invocation uses a new class loader, so classes are loaded again.
+ *
+ * @author Walter Xie
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScanBenchmarks extends BenchmarkFixtures {
+
+    @Benchmark
+    public int enumerateJar() throws IOException {
+        int n = 0;
+        try (JarClassReader reader = new JarClassReader(jarFile, PackagePrefixFilter.DEFAULT)) {
+            for (JarClassReader.ClassEntry entry : reader)
+                n += entry.getClassName().length();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public Map<String, CitedClass> reflectionScan() throws IOException {
+        try (PackageClassLoader loader = newClassLoader()) {
+            return new ReflectionScanner().getAllCitedClasses(jarFile, loader);
+        }
+    }
+
+    @Benchmark
+    public Map<String, CitedClass> bytecodeScan() throws IOException {
+        try (PackageClassLoader loader = newClassLoader()) {
+            return new BytecodeScanner().getAllCitedClasses(jarFile, loader);
+        }
+    }
+}
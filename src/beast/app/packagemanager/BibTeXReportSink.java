@@ -0,0 +1,108 @@
+package beast.app.packagemanager;
+
+import beast.core.Citation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * One <code>@misc</code> entry per unique citation, where the citation text is the note,
+ * and the packages are not repeated for the same citation cited by many classes.
+ * Only the keys of written citations are kept in memory.
+ *
+ * @author Walter Xie
+ */
+public class BibTeXReportSink extends WriterReportSink {
+
+    // DOI, or citation text if no DOI
+    private final Set<String> written = new HashSet<>();
+    private final Set<String> keys = new HashSet<>();
+
+    public BibTeXReportSink(Writer out) {
+        super(out);
+    }
+
+    @Override
+    public void write(String pkgName, CitedClass citedClass) throws IOException {
+        for (int i = 0; i < citedClass.normalized.length; i++) {
+            NormalizedCitation citation = citedClass.normalized[i];
+            if (!written.add(citation.hasDOI() ? citation.doi : citation.text))
+                continue;
+            Citation raw = citedClass.citations.get(i);
+
+            out.write("@misc{");
+            out.write(createKey(raw, citation));
+            out.write(",\n  note = {");
+            escape(citation.text);
+            out.write('}');
+            if (citation.hasDOI()) {
+                out.write(",\n  doi = {");
+                escape(citation.doi);
+                out.write('}');
+            }
+            if (raw.year() > 0) {
+                out.write(",\n  year = {");
+                out.write(Integer.toString(raw.year()));
+                out.write('}');
+            }
+            out.write(",\n  keywords = {");
+            escape(pkgName);
+            out.write("}\n}\n\n");
+        }
+        records++;
+    }
+
+    // surname + year, or the DOI suffix, with a, b, c ... if duplicated
+    private String createKey(Citation raw, NormalizedCitation citation) {
+        StringBuilder key = new StringBuilder();
+        String surname = raw.firstAuthorSurname();
+        if (surname.length() > 0 && raw.year() > 0) {
+            key.append(surname.toLowerCase(Locale.ROOT)).append(raw.year());
+        } else if (citation.hasDOI()) {
+            key.append("doi:").append(citation.doi);
+        } else {
+            key.append("citation");
+        }
+        for (int i = key.length() - 1; i >= 0; i--) {
+            char c = key.charAt(i);
+            if (Character.isWhitespace(c) || c == ',' || c == '{' || c == '}' || c == '%' || c == '#' || c == '\\')
+                key.setCharAt(i, '_');
+        }
+        String base = key.toString();
+        String unique = base;
+        for (int n = 0; !keys.add(unique); n++)
+            unique = base + suffix(n);
+        return unique;
+    }
+
+    // a, b, ..., z, aa, ab, ...
+    private static String suffix(int n) {
+        String s = "";
+        do {
+            s = (char) ('a' + n % 26) + s;
+            n = n / 26 - 1;
+        } while (n >= 0);
+        return s;
+    }
+
+    // escape the LaTeX special characters
+    private void escape(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '{': case '}': case '%': case '&': case '#': case '$': case '_':
+                    out.write('\\');
+                    out.write(c);
+                    break;
+                case '\\':
+                    out.write("\\textbackslash{}");
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package beast.app.packagemanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read @Citation and @Description from the class file bytes in the jar,
+ * without loading any class, so that a class with missing dependencies
+ * does not stop the scan.
+ * The super classes which are not in the jar are read as resources
+ * from the package {@link ClassLoader}, but never defined.
+ * It selects the same classes as {@link ReflectionScanner}.
+ *
+ * @author Walter Xie
+ */
+public class BytecodeScanner implements ClassScanner {
+
+    public static final String BEAST_OBJECT = "beast/core/BEASTObject";
+
+    protected final PackagePrefixFilter filter;
+    // classes from the loader shared by all packages, such as beast.jar, key is internal name
+    protected final Map<String, Optional<ClassFileInfo>> sharedClasses = new ConcurrentHashMap<>();
+    // if not null, skip the broken class files
+    protected ScanErrors errors;
+
+    public BytecodeScanner() {
+        this(PackagePrefixFilter.DEFAULT);
+    }
+
+    /**
+     * @param filter  which classes in the jar to read
+     */
+    public BytecodeScanner(PackagePrefixFilter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public void setErrors(ScanErrors errors) {
+        this.errors = errors;
+    }
+
+    @Override
+    public ScanErrors getErrors() {
+        return errors;
+    }
+
+    @Override
+    public String getConfiguration() {
+        return getClass().getSimpleName() + " " + filter;
+    }
+
+    @Override
+    public Map<String, CitedClass> getAllCitedClasses(File libFile, ClassLoader loader) throws IOException {
+        Metrics.Subject metrics = Metrics.forJar(libFile);
+        Metrics.Timer scanTimer = metrics.start(Metrics.Phase.JAR_SCAN);
+        // key is internal name
+        Map<String, ClassFileInfo> classes = readClassFiles(libFile);
+
+        Map<String, CitedClass> citedClassMap = new TreeMap<>();
+        for (ClassFileInfo info : classes.values()) {
+            if (info.citations.isEmpty())
+                continue;
+            // same as ReflectionScanner: derived from BEASTObject
+            Metrics.Timer timer = metrics.start(Metrics.Phase.CLASS_LOAD);
+            boolean isBEASTObject = !info.isInterface() && isBEASTObject(info, classes, loader);
+            timer.stop(info.name);
+            if (isBEASTObject) {
+                String className = info.getClassName();
+                CitedClass citedClass = new CitedClass(className, info.citations);
+                citedClass.setDescription(info.description == null ? CitedClass.NOT_DOCUMENTED : info.description);
+                citedClassMap.put(className, citedClass);
+                Metrics.count(Metrics.Counter.CLASSES_CITED);
+            }
+        }
+        scanTimer.stop(null);
+        return citedClassMap;
+    }
+
+    /**
+     * read all *.class in the jar, excluding the packages by the filter.
+     * If {@link ScanErrors} is set, a broken class file is recorded and skipped.
+     * @param libFile jar file
+     * @return {@link ClassFileInfo} map, where key is the internal class name
+     * @throws IOException
+     */
+    public Map<String, ClassFileInfo> readClassFiles(File libFile) throws IOException {
+        Metrics.Subject metrics = Metrics.forJar(libFile);
+        Map<String, ClassFileInfo> classes = new HashMap<>();
+        Metrics.Timer timer = metrics.start(Metrics.Phase.JAR_OPEN);
+        try (JarClassReader reader = new JarClassReader(libFile, filter)) {
+            timer.stop(null);
+            Iterator<JarClassReader.ClassEntry> it = reader.iterator();
+            while (true) {
+                timer = metrics.start(Metrics.Phase.JAR_ENUMERATE);
+                if (!it.hasNext())
+                    break;
+                JarClassReader.ClassEntry classEntry = it.next();
+                timer.stop(null);
+                Metrics.count(Metrics.Counter.CLASSES_SCANNED);
+
+                ClassFileInfo info;
+                try {
+                    timer = metrics.start(Metrics.Phase.CLASS_READ);
+                    byte[] bytes = classEntry.readBytes();
+                    timer.stop(null);
+
+                    timer = metrics.start(Metrics.Phase.ANNOTATION_READ);
+                    info = ClassFileInfo.parse(bytes);
+                    timer.stop(info.name);
+                } catch (IOException | RuntimeException e) {
+                    if (errors == null)
+                        throw e;
+                    errors.add(classEntry.getClassName(), libFile, e, false);
+                    continue;
+                }
+                classes.put(info.name, info);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * walk the super classes using the class files,
+     * same as {@link beast.util.PackageManager#isSubclass(Class, Class)}.
+     * @param info    the class
+     * @param classes the classes in the same jar, key is internal name
+     * @param loader  to find the class files outside the jar
+     * @return true if it is BEASTObject or derived from it.
+     */
+    protected boolean isBEASTObject(ClassFileInfo info, Map<String, ClassFileInfo> classes, ClassLoader loader) {
+        // stop at depth 100 for cyclic hierarchy in broken jars
+        for (int depth = 0; info != null && depth < 100; depth++) {
+            if (BEAST_OBJECT.equals(info.name))
+                return true;
+            String superName = info.superName;
+            if (superName == null || "java/lang/Object".equals(superName))
+                return false;
+            if (BEAST_OBJECT.equals(superName))
+                return true;
+            ClassFileInfo superInfo = classes.get(superName);
+            info = superInfo != null ? superInfo : getExternalClass(superName, loader);
+        }
+        return false;
+    }
+
+    // read the class bytes as resource, null if not found.
+    // Only cache the classes from the parent of a package loader, which are the same for all packages.
+    protected ClassFileInfo getExternalClass(String internalName, ClassLoader loader) {
+        ClassLoader shared = loader instanceof PackageClassLoader ? loader.getParent() : loader;
+        ClassFileInfo info = sharedClasses.computeIfAbsent(internalName,
+                n -> Optional.ofNullable(readClassFile(n, shared))).orElse(null);
+        if (info == null && shared != loader)
+            info = readClassFile(internalName, loader);
+        return info;
+    }
+
+    // Not getResourceAsStream, which shares the cached JarFile with other loaders,
+    // and closing this loader will close the jar being read by the others.
+    static ClassFileInfo readClassFile(String internalName, ClassLoader loader) {
+        URL url = loader.getResource(internalName + ".class");
+        if (url == null)
+            return null;
+        try {
+            URLConnection conn = url.openConnection();
+            conn.setUseCaches(false);
+            try (InputStream in = conn.getInputStream()) {
+                return ClassFileInfo.parse(readAllBytes(in, -1));
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static byte[] readAllBytes(InputStream in, int sizeHint) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint > 0 ? sizeHint : 4096);
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0)
+            out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,71 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Only scan the jars which are changed since the last run, using {@link ScanCache}.
+ * The cached result is valid as long as the jar is not changed and the scanner has the same
+ * {@link ClassScanner#getConfiguration() configuration}, e.g. the same -include and -exclude,
+ * but note it does not track the changes in the jars of depended packages.
+ * A scanner which is not {@link ClassScanner#isCacheable() cacheable}, such as {@link HierarchyScanner},
+ * scans every jar.
+ *
+ * @author Walter Xie
+ */
+public class CachedScanner implements ClassScanner {
+
+    protected final ClassScanner scanner;
+    protected final ScanCache cache;
+
+    public CachedScanner(ClassScanner scanner, ScanCache cache) {
+        this.scanner = scanner;
+        this.cache = cache;
+        if (!scanner.isCacheable())
+            Log.warning.println(scanner.getClass().getSimpleName() + " depends on other jars, " +
+                    "so its results are not cached !");
+    }
+
+    @Override
+    public Map<String, CitedClass> getAllCitedClasses(File libFile, ClassLoader loader) throws IOException {
+        if (!scanner.isCacheable())
+            return scanner.getAllCitedClasses(libFile, loader);
+        String configuration = scanner.getConfiguration();
+        Map<String, CitedClass> citedClassMap = cache.get(libFile, configuration);
+        if (citedClassMap == null) {
+            citedClassMap = scanner.getAllCitedClasses(libFile, loader);
+            // scan the jar again next time, if some classes are missed
+            ScanErrors errors = scanner.getErrors();
+            if (errors == null || !errors.hasErrors(libFile))
+                cache.put(libFile, configuration, citedClassMap);
+        }
+        return citedClassMap;
+    }
+
+    @Override
+    public void setErrors(ScanErrors errors) {
+        scanner.setErrors(errors);
+    }
+
+    @Override
+    public ScanErrors getErrors() {
+        return scanner.getErrors();
+    }
+
+    @Override
+    public String getConfiguration() {
+        return scanner.getConfiguration();
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return scanner.isCacheable();
+    }
+
+    public ScanCache getCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,451 @@
+package beast.app.packagemanager;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Group the near-duplicate citation texts of all packages into publications in near-linear time,
+ * instead of comparing all texts pairwise.
+ * Each unique normalized text is folded into lower case letters and digits,
+ * cut into {@link #SHINGLE}-character shingles, and summarised by a MinHash signature of
+ * {@link #BANDS} x {@link #ROWS} hashes.
+ * Locality-sensitive hashing puts the texts having the same rows in any band into one bucket,
+ * and a text is only compared with the first {@link #MAX_REPRESENTATIVES} texts of its bucket,
+ * which are merged if their estimated Jaccard similarity is at least {@link #THRESHOLD}.
+ * The texts having the same DOI are always merged, but the texts having different DOIs never.
+ * The canonical text of a publication is its most cited variant.
+ * The clusters can be written as JSON Lines by {@link #write(Writer)},
+ * and read back as the map from every variant to its canonical text by {@link #readCanonicalMap(Reader)}.
+ *
+ * @author Walter Xie
+ */
+public class CitationClusters {
+
+    public static final int SHINGLE = 5;
+    public static final int BANDS = 16;
+    public static final int ROWS = 4;
+    public static final double THRESHOLD = 0.5;
+    public static final int MAX_REPRESENTATIVES = 4;
+
+    private static final int HASHES = BANDS * ROWS;
+    // the odd multipliers and the offsets of the hash functions, from a fixed seed
+    private static final long[] A = new long[HASHES];
+    private static final long[] B = new long[HASHES];
+
+    static {
+        Random random = new Random(0x5eed);
+        for (int i = 0; i < HASHES; i++) {
+            A[i] = random.nextLong() | 1L;
+            B[i] = random.nextLong();
+        }
+    }
+
+    // id -> unique normalized text
+    private final List<String> texts = new ArrayList<>();
+    private final Map<String, Integer> textIds = new HashMap<>();
+    // normalized DOI of each text, or empty
+    private final List<String> dois = new ArrayList<>();
+    // "package class" of each text
+    private final List<List<String>> occurrences = new ArrayList<>();
+
+    private int[] parents;
+    // the DOI of each root
+    private String[] rootDOIs;
+    private long comparisons = 0;
+    private List<Cluster> clusters;
+    // text id -> index in clusters
+    private int[] clusterOf;
+
+    /**
+     * A publication, and all citation texts of it.
+     */
+    public static class Cluster {
+        public final int id;
+        public final String canonical;
+        // normalized DOI, or empty
+        public final String doi;
+        // the variants in descending order of citations
+        public final List<String> variants;
+        // the number of cited classes of each variant
+        public final List<Integer> counts;
+
+        Cluster(int id, String canonical, String doi, List<String> variants, List<Integer> counts) {
+            this.id = id;
+            this.canonical = canonical;
+            this.doi = doi;
+            this.variants = variants;
+            this.counts = counts;
+        }
+
+        /**
+         * @return the number of cited classes of all variants.
+         */
+        public int getCitations() {
+            int n = 0;
+            for (int count : counts)
+                n += count;
+            return n;
+        }
+
+        @Override
+        public String toString() {
+            return variants.size() + " variants, " + getCitations() + " citations\t" + doi + "\t" + canonical;
+        }
+    }
+
+    public CitationClusters() { }
+
+    /**
+     * add the citations of all packages, then cluster them.
+     * @param processedPkgMap  key is package name
+     */
+    public CitationClusters(Map<String, PackageCitations> processedPkgMap) {
+        for (Map.Entry<String, PackageCitations> entry : processedPkgMap.entrySet()) {
+            for (CitedClass citedClass : entry.getValue().getCitedClassMap().values()) {
+                for (NormalizedCitation citation : citedClass.normalized)
+                    add(citation, entry.getKey() + " " + citedClass.className);
+            }
+        }
+        cluster();
+    }
+
+    /**
+     * add one citation before {@link #cluster()}.
+     * @param citation    {@link NormalizedCitation}
+     * @param occurrence  where the citation is, e.g. package and class name
+     */
+    public void add(NormalizedCitation citation, String occurrence) {
+        if (citation.text.isEmpty())
+            return;
+        Integer id = textIds.get(citation.text);
+        if (id == null) {
+            id = texts.size();
+            texts.add(citation.text);
+            textIds.put(citation.text, id);
+            dois.add(citation.doi);
+            occurrences.add(new ArrayList<>(1));
+        } else if (dois.get(id).isEmpty()) {
+            dois.set(id, citation.doi);
+        }
+        occurrences.get(id).add(occurrence);
+    }
+
+    /**
+     * group the texts added into clusters.
+     */
+    public void cluster() {
+        int n = texts.size();
+        parents = new int[n];
+        rootDOIs = new String[n];
+        for (int i = 0; i < n; i++) {
+            parents[i] = i;
+            rootDOIs[i] = dois.get(i);
+        }
+        comparisons = 0;
+
+        // the same DOI is the same publication
+        Map<String, Integer> doiFirst = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            if (dois.get(i).isEmpty())
+                continue;
+            Integer first = doiFirst.putIfAbsent(dois.get(i), i);
+            if (first != null)
+                union(first, i);
+        }
+
+        int[][] signatures = new int[n][];
+        for (int i = 0; i < n; i++)
+            signatures[i] = signature(texts.get(i));
+
+        // sort (bucket, text) of each band, so that each bucket is a run
+        long[] keys = new long[n];
+        for (int b = 0; b < BANDS; b++) {
+            for (int i = 0; i < n; i++)
+                keys[i] = ((long) bandHash(signatures[i], b) << 32) | i;
+            Arrays.sort(keys);
+            int start = 0;
+            while (start < n) {
+                int end = start + 1;
+                while (end < n && (keys[end] >>> 32) == (keys[start] >>> 32))
+                    end++;
+                int reps = Math.min(MAX_REPRESENTATIVES, end - start);
+                for (int k = start + 1; k < end; k++) {
+                    int i = (int) keys[k];
+                    for (int r = start; r < start + Math.min(reps, k - start); r++) {
+                        int j = (int) keys[r];
+                        if (find(i) == find(j))
+                            break;
+                        comparisons++;
+                        if (similarity(signatures[i], signatures[j]) >= THRESHOLD && union(i, j))
+                            break;
+                    }
+                }
+                start = end;
+            }
+        }
+        buildClusters();
+    }
+
+    // the clusters in descending order of citations
+    private void buildClusters() {
+        int n = texts.size();
+        Map<Integer, List<Integer>> members = new HashMap<>();
+        for (int i = 0; i < n; i++)
+            members.computeIfAbsent(find(i), k -> new ArrayList<>()).add(i);
+
+        List<List<Integer>> groups = new ArrayList<>(members.values());
+        for (List<Integer> group : groups) {
+            // the most cited first, then the one having DOI, then the longer text
+            group.sort((a, b) -> {
+                int c = Integer.compare(occurrences.get(b).size(), occurrences.get(a).size());
+                if (c != 0) return c;
+                c = Boolean.compare(!dois.get(b).isEmpty(), !dois.get(a).isEmpty());
+                if (c != 0) return c;
+                c = Integer.compare(texts.get(b).length(), texts.get(a).length());
+                return c != 0 ? c : texts.get(a).compareTo(texts.get(b));
+            });
+        }
+        groups.sort((a, b) -> {
+            int c = Integer.compare(citations(b), citations(a));
+            return c != 0 ? c : texts.get(a.get(0)).compareTo(texts.get(b.get(0)));
+        });
+
+        clusters = new ArrayList<>(groups.size());
+        clusterOf = new int[n];
+        for (List<Integer> group : groups) {
+            List<String> variants = new ArrayList<>(group.size());
+            List<Integer> counts = new ArrayList<>(group.size());
+            for (int i : group) {
+                variants.add(texts.get(i));
+                counts.add(occurrences.get(i).size());
+                clusterOf[i] = clusters.size();
+            }
+            clusters.add(new Cluster(clusters.size(), variants.get(0), rootDOIs[find(group.get(0))],
+                    Collections.unmodifiableList(variants), Collections.unmodifiableList(counts)));
+        }
+    }
+
+    private int citations(List<Integer> group) {
+        int n = 0;
+        for (int i : group)
+            n += occurrences.get(i).size();
+        return n;
+    }
+
+    //****** query ******//
+
+    /**
+     * @return the clusters in descending order of citations.
+     */
+    public List<Cluster> getClusters() {
+        return Collections.unmodifiableList(clusters);
+    }
+
+    /**
+     * @param text  citation text, which is normalized
+     * @return the cluster of the text, or null if the text was not added.
+     */
+    public Cluster getCluster(String text) {
+        Integer id = textIds.get(CitationNormalizer.normalizeText(text));
+        return id == null ? null : clusters.get(clusterOf[id]);
+    }
+
+    /**
+     * @return the number of unique normalized texts.
+     */
+    public int getTextCount() {
+        return texts.size();
+    }
+
+    /**
+     * @return the number of signature comparisons, which is at most
+     *         the number of texts x {@link #BANDS} x {@link #MAX_REPRESENTATIVES}.
+     */
+    public long getComparisons() {
+        return comparisons;
+    }
+
+    @Override
+    public String toString() {
+        return getTextCount() + " citation texts in " + clusters.size() + " publications, " +
+                comparisons + " comparisons";
+    }
+
+    //****** MinHash ******//
+
+    // fold into lower case letters and digits separated by one space
+    static String fold(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+                space = false;
+            } else if (!space) {
+                sb.append(' ');
+                space = true;
+            }
+        }
+        int len = sb.length();
+        if (len > 0 && sb.charAt(len - 1) == ' ')
+            sb.setLength(len - 1);
+        return sb.toString();
+    }
+
+    /**
+     * @param text  citation text
+     * @return the MinHash signature of the shingles of the folded text.
+     */
+    static int[] signature(String text) {
+        String folded = fold(text);
+        int[] signature = new int[HASHES];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        int shingles = Math.max(1, folded.length() - SHINGLE + 1);
+        for (int s = 0; s < shingles; s++) {
+            long h = 0;
+            for (int k = s; k < Math.min(folded.length(), s + SHINGLE); k++)
+                h = h * 31 + folded.charAt(k);
+            h = mix(h);
+            for (int i = 0; i < HASHES; i++) {
+                // the high bits of a multiply-add hash, as a non-negative int
+                int v = (int) ((A[i] * h + B[i]) >>> 33);
+                if (v < signature[i])
+                    signature[i] = v;
+            }
+        }
+        return signature;
+    }
+
+    // estimated Jaccard similarity
+    static double similarity(int[] a, int[] b) {
+        int same = 0;
+        for (int i = 0; i < HASHES; i++) {
+            if (a[i] == b[i])
+                same++;
+        }
+        return (double) same / HASHES;
+    }
+
+    private static int bandHash(int[] signature, int band) {
+        long h = band;
+        for (int r = band * ROWS; r < (band + 1) * ROWS; r++)
+            h = h * 0x9E3779B97F4A7C15L + signature[r];
+        return (int) (mix(h) >>> 32);
+    }
+
+    // the finalizer of SplitMix64
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    //****** union-find ******//
+
+    private int find(int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    // return false if they have different DOIs
+    private boolean union(int i, int j) {
+        int a = find(i), b = find(j);
+        if (a == b)
+            return true;
+        if (!rootDOIs[a].isEmpty() && !rootDOIs[b].isEmpty() && !rootDOIs[a].equals(rootDOIs[b]))
+            return false;
+        if (a > b) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        parents[b] = a;
+        if (rootDOIs[a].isEmpty())
+            rootDOIs[a] = rootDOIs[b];
+        return true;
+    }
+
+    //****** read/write ******//
+
+    /**
+     * one JSON object per line for each cluster:
+     * <code>{"cluster":0, "doi":"", "canonical":"", "variants":[{"text":"", "classes":["package class"]}]}</code>
+     * @param out  which is not closed
+     * @throws IOException
+     */
+    public void write(Writer out) throws IOException {
+        for (Cluster cluster : clusters) {
+            out.write("{\"cluster\":");
+            out.write(Integer.toString(cluster.id));
+            out.write(",\"doi\":");
+            JSONLinesReportSink.quote(out, cluster.doi);
+            out.write(",\"canonical\":");
+            JSONLinesReportSink.quote(out, cluster.canonical);
+            out.write(",\"variants\":[");
+            for (int v = 0; v < cluster.variants.size(); v++) {
+                String text = cluster.variants.get(v);
+                if (v > 0)
+                    out.write(',');
+                out.write("{\"text\":");
+                JSONLinesReportSink.quote(out, text);
+                out.write(",\"classes\":[");
+                List<String> where = occurrences.get(textIds.get(text));
+                for (int k = 0; k < where.size(); k++) {
+                    if (k > 0)
+                        out.write(',');
+                    JSONLinesReportSink.quote(out, where.get(k));
+                }
+                out.write("]}");
+            }
+            out.write("]}\n");
+        }
+        out.flush();
+    }
+
+    /**
+     * read the clusters written by {@link #write(Writer)}.
+     * @param reader  JSON Lines, which is not closed
+     * @return the canonical text of every variant, where key is the variant.
+     * @throws IOException if the JSON is invalid
+     */
+    public static Map<String, String> readCanonicalMap(Reader reader) throws IOException {
+        Map<String, String> canonicalMap = new HashMap<>();
+        JsonPullParser p = new JsonPullParser(reader);
+        JsonPullParser.Token t;
+        while ((t = p.next()) == JsonPullParser.Token.START_OBJECT) {
+            String canonical = null;
+            List<String> variants = new ArrayList<>();
+            while (p.next() == JsonPullParser.Token.NAME) {
+                if (p.textEquals("canonical")) {
+                    canonical = p.nextString();
+                } else if (p.textEquals("variants") && (t = p.next()) == JsonPullParser.Token.START_ARRAY) {
+                    while (p.next() == JsonPullParser.Token.START_OBJECT) {
+                        while (p.next() == JsonPullParser.Token.NAME) {
+                            if (p.textEquals("text"))
+                                variants.add(p.nextString());
+                            else
+                                p.skipValue(p.next());
+                        }
+                    }
+                } else if (p.textEquals("variants")) {
+                    p.skipValue(t);
+                } else {
+                    p.skipValue(p.next());
+                }
+            }
+            if (canonical == null)
+                throw new IOException("Citation cluster has no canonical text in JSON !");
+            for (String variant : variants)
+                canonicalMap.put(variant, canonical);
+        }
+        if (t != JsonPullParser.Token.END)
+            throw new IOException("Citation cluster is not a JSON object !");
+        return canonicalMap;
+    }
+}
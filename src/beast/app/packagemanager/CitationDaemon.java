@@ -0,0 +1,573 @@
+package beast.app.packagemanager;
+
+import beast.app.util.Arguments;
+import beast.core.util.Log;
+import beast.util.Package;
+import beast.util.PackageDependency;
+import beast.util.PackageManager;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Keep the citations of all installed packages in memory, and watch the BEAST package directories,
+ * so that only the installed, updated or removed package and the packages depending on it are scanned again.
+ * The queries are answered from an immutable {@link Snapshot}, which is replaced after each rescan,
+ * by a HTTP server on the loopback address:
+ * <pre>
+ *     GET /class?name=beast.evolution.likelihood.TreeLikelihood[&amp;format=tsv|json|bibtex|xml]
+ *     GET /doi?doi=10.1371/journal.pcbi.1003537
+ *     GET /package?name=BEAST
+ *     GET /dois
+ *     GET /status
+ * </pre>
+ * Usage: CitationDaemon [-port 8765] [-dir dir] [-scanner reflection|bytecode|hierarchy] [-threads N]
+ *                       [-include packages] [-exclude packages]
+ *
+ * @author Walter Xie
+ */
+public class CitationDaemon implements Closeable {
+
+    public static final int DEFAULT_PORT = 8765;
+    // wait for no more changes, e.g. a package is still being unzipped
+    public static final long DEFAULT_QUIET_MILLIS = 500;
+
+    protected final List<Path> roots;
+    protected final ClassScanner scanner;
+    protected final int threads;
+
+    private final WatchService watchService;
+    // the watched package directories, their lib, and the roots
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    private long quietMillis = DEFAULT_QUIET_MILLIS;
+
+    // only changed by the watcher thread, key is package name
+    private Map<String, Package> packageMap = new TreeMap<>(Comparator.comparing(String::toLowerCase));
+    private final Map<String, PackageCitations> processedPkgMap = new TreeMap<>(Comparator.comparing(String::toLowerCase));
+    private int rescans = 0;
+
+    private volatile Snapshot snapshot;
+    private volatile boolean running = false;
+    private Thread watcher;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+
+    /**
+     * @param roots    the directories containing installed packages,
+     *                 such as {@link PackageManager#getBeastDirectories()}
+     * @param scanner  {@link ClassScanner}
+     * @param threads  the number of threads to scan
+     * @throws IOException
+     */
+    public CitationDaemon(List<File> roots, ClassScanner scanner, int threads) throws IOException {
+        this.roots = new ArrayList<>();
+        for (File root : roots)
+            this.roots.add(root.toPath().toAbsolutePath().normalize());
+        this.scanner = scanner;
+        this.threads = threads;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    public void setQuietMillis(long quietMillis) {
+        this.quietMillis = quietMillis;
+    }
+
+    /**
+     * @return the latest index, which never changes.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * scan all installed packages, then watch the package directories in a daemon thread.
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        for (Path root : roots)
+            watchTree(root);
+
+        long start = System.currentTimeMillis();
+        packageMap = getInstalledPackages();
+        try (PackageClassLoaders classLoaders = new PackageClassLoaders(packageMap)) {
+            PackageScanScheduler scheduler = new PackageScanScheduler(packageMap, classLoaders, scanner, threads);
+            processedPkgMap.putAll(scheduler.process(null));
+        }
+        snapshot = new Snapshot(processedPkgMap, rescans);
+        Log.info.println("Scan " + processedPkgMap.size() + " packages in " +
+                (System.currentTimeMillis() - start) + " ms : " + snapshot.getDOIIndex() + ".");
+
+        running = true;
+        watcher = new Thread(this::watch, "citation-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * start the HTTP server on the loopback address.
+     * @param port  0 to choose a free port
+     * @return the port
+     * @throws IOException
+     */
+    public int startServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/class", exchange -> handle(exchange, this::queryClass));
+        server.createContext("/doi", exchange -> handle(exchange, this::queryDOI));
+        server.createContext("/package", exchange -> handle(exchange, this::queryPackage));
+        server.createContext("/dois", exchange -> handle(exchange, this::queryDOIs));
+        server.createContext("/status", exchange -> handle(exchange, this::queryStatus));
+        serverExecutor = Executors.newFixedThreadPool(Math.max(2, threads));
+        server.setExecutor(serverExecutor);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (server != null) {
+            server.stop(0);
+            serverExecutor.shutdown();
+        }
+        // wake up the watcher
+        watchService.close();
+        if (watcher != null) {
+            try {
+                watcher.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    //****** watch ******//
+
+    private Map<String, Package> getInstalledPackages() {
+        Map<String, Package> map = new TreeMap<>(Comparator.comparing(String::toLowerCase));
+        PackageManager.addInstalledPackages(map);
+        // only the packages in the watched directories
+        map.values().removeIf(pkg -> getPackageRoot(pkg) == null);
+        return map;
+    }
+
+    private Path getPackageRoot(Package pkg) {
+        Path dir = Paths.get(PackageManager.getPackageDir(pkg, pkg.getLatestVersion(), false, null))
+                .toAbsolutePath().normalize();
+        return roots.contains(dir.getParent()) ? dir.getParent() : null;
+    }
+
+    // a root, its package directories, and their lib
+    private void watchTree(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            Log.warning.println("Cannot watch " + root + ", which is not a directory.");
+            return;
+        }
+        register(root);
+        try (DirectoryStream<Path> pkgDirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path pkgDir : pkgDirs)
+                watchPackage(pkgDir);
+        }
+    }
+
+    private void watchPackage(Path pkgDir) throws IOException {
+        register(pkgDir);
+        Path libDir = pkgDir.resolve("lib");
+        if (Files.isDirectory(libDir))
+            register(libDir);
+    }
+
+    private void register(Path dir) throws IOException {
+        if (!watchedDirs.containsValue(dir))
+            watchedDirs.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+    }
+
+    // the watcher thread
+    private void watch() {
+        while (running) {
+            try {
+                // block until the first change, then collect the changes until it is quiet
+                Set<String> changed = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+                boolean overflow = poll(watchService.take(), changed);
+                WatchKey key;
+                while ((key = watchService.poll(quietMillis, TimeUnit.MILLISECONDS)) != null)
+                    overflow |= poll(key, changed);
+
+                if (overflow)
+                    changed.addAll(processedPkgMap.keySet());
+                if (!changed.isEmpty())
+                    rescan(changed);
+            } catch (ClosedWatchServiceException | InterruptedException e) {
+                break;
+            } catch (RuntimeException | IOException e) {
+                // keep serving the last snapshot
+                Log.err.println("Failed to rescan packages : " + e);
+            }
+        }
+    }
+
+    // add the names of changed packages, and return true if events are lost
+    private boolean poll(WatchKey key, Set<String> changed) throws IOException {
+        Path dir = watchedDirs.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            Path root = getRoot(path);
+            if (root == null)
+                continue;
+            Path pkgDir = root.resolve(root.relativize(path).getName(0));
+            changed.add(pkgDir.getFileName().toString());
+            // a new package, or its lib is created after the package directory
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path))
+                watchPackage(pkgDir);
+        }
+        // the directory is deleted
+        if (!key.reset())
+            watchedDirs.remove(key);
+        return overflow;
+    }
+
+    private Path getRoot(Path path) {
+        for (Path root : roots) {
+            if (path.startsWith(root) && !path.equals(root))
+                return root;
+        }
+        return null;
+    }
+
+    /**
+     * scan the changed packages and all packages depending on them again,
+     * and then replace the {@link Snapshot}.
+     * It is only called in the watcher thread, or before {@link #start()}.
+     * @param changed  the names of installed, updated or removed packages
+     * @throws IOException
+     */
+    protected void rescan(Set<String> changed) throws IOException {
+        long start = System.currentTimeMillis();
+        Map<String, Package> oldPackageMap = packageMap;
+        packageMap = getInstalledPackages();
+
+        Set<String> affected = getDependents(changed, oldPackageMap);
+        affected.addAll(getDependents(changed, packageMap));
+        processedPkgMap.keySet().removeAll(affected);
+        removeFromIndex(affected, oldPackageMap);
+
+        int scanned = 0;
+        ForkJoinPool jarExecutor = threads > 1 ? new ForkJoinPool(threads) : null;
+        try (PackageClassLoaders classLoaders = new PackageClassLoaders(packageMap)) {
+            // the dependencies first
+            Set<String> order = new LinkedHashSet<>();
+            for (String pkgName : affected) {
+                Package pkg = packageMap.get(pkgName);
+                if (pkg != null)
+                    order.addAll(classLoaders.getTransitiveDependencies(pkg));
+            }
+            order.retainAll(affected);
+
+            for (String pkgName : order) {
+                Package pkg = packageMap.get(pkgName);
+                try {
+                    processedPkgMap.put(pkg.getName(), new PackageCitations(pkg,
+                            classLoaders.getClassLoader(pkg), scanner, jarExecutor, false));
+                    scanned++;
+                } catch (RuntimeException e) {
+                    Log.err.println("Failed to scan package " + pkgName + " : " + e);
+                }
+            }
+        } finally {
+            if (jarExecutor != null)
+                jarExecutor.shutdown();
+        }
+
+        rescans++;
+        snapshot = new Snapshot(processedPkgMap, rescans);
+        Log.info.println("Changed " + changed + ", rescan " + scanned + " of " + affected.size() +
+                " affected packages in " + (System.currentTimeMillis() - start) + " ms : " + snapshot.getDOIIndex() + ".");
+    }
+
+    /**
+     * remove the classes of the affected packages and the deleted jars from the {@link ClassHierarchyIndex},
+     * so that the parent classes of a removed or updated package are not used any more.
+     * @param affected       the names of packages to scan again or removed
+     * @param oldPackageMap  the packages before the change, key is package name
+     */
+    private void removeFromIndex(Set<String> affected, Map<String, Package> oldPackageMap) {
+        if (!(scanner instanceof HierarchyScanner))
+            return;
+        ClassHierarchyIndex index = ((HierarchyScanner) scanner).getIndex();
+        for (String pkgName : affected) {
+            // the name in the index may be in another case than the directory
+            Package pkg = oldPackageMap.containsKey(pkgName) ? oldPackageMap.get(pkgName) : packageMap.get(pkgName);
+            index.removePackage(pkg == null ? pkgName : pkg.getName());
+        }
+        for (String jar : index.getJars()) {
+            if (!new File(jar).isFile())
+                index.removeJar(new File(jar));
+        }
+    }
+
+    /**
+     * @param changed     package names
+     * @param packageMap  key is package name
+     * @return the changed packages, and the packages in the map depending on them directly or indirectly.
+     */
+    public static Set<String> getDependents(Set<String> changed, Map<String, Package> packageMap) {
+        // key is the depended package name, which may not be installed
+        Map<String, Set<String>> dependents = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Package pkg : packageMap.values()) {
+            Set<PackageDependency> dependencies = pkg.getDependencies(pkg.getLatestVersion());
+            if (dependencies == null)
+                continue;
+            for (PackageDependency dependency : dependencies)
+                dependents.computeIfAbsent(dependency.dependencyName, k -> new HashSet<>()).add(pkg.getName());
+        }
+
+        Set<String> affected = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        Deque<String> queue = new ArrayDeque<>(changed);
+        while (!queue.isEmpty()) {
+            String pkgName = queue.poll();
+            if (affected.add(pkgName))
+                queue.addAll(dependents.getOrDefault(pkgName, Collections.emptySet()));
+        }
+        return affected;
+    }
+
+    //****** query ******//
+
+    private interface Query {
+        String answer(Map<String, String> params) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, Query query) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            body = query.answer(parseQuery(exchange.getRequestURI().getRawQuery()));
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = e.getMessage() + "\n";
+        } catch (RuntimeException e) {
+            status = 500;
+            body = e + "\n";
+        }
+        if (body == null) {
+            status = 404;
+            body = "Not found\n";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null)
+            return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0)
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+        return params;
+    }
+
+    private static String getRequired(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty())
+            throw new IllegalArgumentException("Missing the parameter " + name + " !");
+        return value;
+    }
+
+    // the cited class in each package containing it, in the format of report
+    private String queryClass(Map<String, String> params) throws IOException {
+        String className = getRequired(params, "name");
+        List<PackageCitations> packages = snapshot.getPackages(className);
+        if (packages.isEmpty())
+            return null;
+        StringWriter writer = new StringWriter();
+        try (ReportSink sink = ReportSink.forName(params.get("format"), writer)) {
+            for (PackageCitations packageCitations : packages)
+                sink.write(packageCitations.pkg.getName(), packageCitations.getCitedClassMap().get(className));
+        }
+        return writer.toString();
+    }
+
+    // package and class citing the DOI, tab-delimited
+    private String queryDOI(Map<String, String> params) {
+        List<DOIMapping> mappings = snapshot.getDOIIndex().getMappings(getRequired(params, "doi"));
+        if (mappings.isEmpty())
+            return null;
+        StringBuilder body = new StringBuilder();
+        for (DOIMapping mapping : mappings)
+            body.append(mapping.pkgName).append('\t').append(mapping.className).append('\n');
+        return body.toString();
+    }
+
+    private String queryPackage(Map<String, String> params) {
+        String pkgName = getRequired(params, "name");
+        if (!snapshot.getProcessedPkgMap().containsKey(pkgName))
+            return null;
+        return lines(snapshot.getDOIIndex().getDOIs(pkgName));
+    }
+
+    private String queryDOIs(Map<String, String> params) {
+        return lines(snapshot.getDOIIndex().getDOIs());
+    }
+
+    private String queryStatus(Map<String, String> params) {
+        Snapshot s = snapshot;
+        return "packages\t" + s.getProcessedPkgMap().size() + "\n" +
+                "classes\t" + s.getClassCount() + "\n" +
+                "dois\t" + s.getDOIIndex().getDOICount() + "\n" +
+                "rescans\t" + s.getRescans() + "\n" +
+                "updated\t" + new Date(s.getTime()) + "\n";
+    }
+
+    private static String lines(List<String> values) {
+        StringBuilder body = new StringBuilder();
+        for (String value : values)
+            body.append(value).append('\n');
+        return body.toString();
+    }
+
+    /**
+     * The index of all cited classes at one time, which is not changed after created.
+     */
+    public static class Snapshot {
+        // key is package name
+        private final Map<String, PackageCitations> processedPkgMap;
+        // key is class name, the value is the packages containing the cited class
+        private final Map<String, List<PackageCitations>> classMap = new HashMap<>();
+        private final DOIIndex doiIndex;
+        private final int rescans;
+        private final long time = System.currentTimeMillis();
+
+        Snapshot(Map<String, PackageCitations> processedPkgMap, int rescans) {
+            Map<String, PackageCitations> copy = new TreeMap<>(Comparator.comparing(String::toLowerCase));
+            copy.putAll(processedPkgMap);
+            this.processedPkgMap = Collections.unmodifiableMap(copy);
+            for (PackageCitations packageCitations : copy.values()) {
+                for (String className : packageCitations.getCitedClassMap().keySet())
+                    classMap.computeIfAbsent(className, k -> new ArrayList<>(1)).add(packageCitations);
+            }
+            this.doiIndex = new DOIIndex(copy);
+            this.rescans = rescans;
+        }
+
+        public Map<String, PackageCitations> getProcessedPkgMap() {
+            return processedPkgMap;
+        }
+
+        /**
+         * @param className  the full class name
+         * @return the packages containing the cited class, or empty list.
+         */
+        public List<PackageCitations> getPackages(String className) {
+            return Collections.unmodifiableList(classMap.getOrDefault(className, Collections.emptyList()));
+        }
+
+        public int getClassCount() {
+            return classMap.size();
+        }
+
+        public DOIIndex getDOIIndex() {
+            return doiIndex;
+        }
+
+        /**
+         * @return the number of rescans before this snapshot, 0 for the first full scan.
+         */
+        public int getRescans() {
+            return rescans;
+        }
+
+        public long getTime() {
+            return time;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.IntegerOption("port",
+                                "The port of HTTP server on the loopback address. " +
+                                        "The default is " + DEFAULT_PORT + ". (optional)"),
+                        new Arguments.StringOption("dir", "dir",
+                                "Comma separated directories of installed packages to watch. " +
+                                        "The default is all BEAST directories. (optional)"),
+                        new Arguments.StringOption("scanner", "reflection|bytecode|hierarchy",
+                                "Load classes by reflection, or read annotations from class files " +
+                                        "without loading them, or also resolve the citations inherited " +
+                                        "from parent classes in all packages. The default is reflection. (optional)"),
+                        new Arguments.IntegerOption("threads",
+                                "The number of threads to scan packages and jars in parallel. " +
+                                        "The default is the number of processors. (optional)"),
+                        new Arguments.StringOption("include", "packages",
+                                "Comma separated package prefixes, only scan the classes in them. (optional)"),
+                        new Arguments.StringOption("exclude", "packages",
+                                "Comma separated package prefixes, do not scan the classes in them. " +
+                                        "The default is " + PackagePrefixFilter.DEFAULT_EXCLUDES + ". (optional)"),
+                });
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        List<File> roots = new ArrayList<>();
+        if (arguments.hasOption("dir")) {
+            for (String dir : arguments.getStringOption("dir").split(","))
+                roots.add(new File(dir.trim()));
+        } else {
+            for (String dir : PackageManager.getBeastDirectories())
+                roots.add(new File(dir));
+        }
+        PackagePrefixFilter filter = new PackagePrefixFilter(arguments.getStringOption("include"),
+                arguments.hasOption("exclude") ? arguments.getStringOption("exclude") : PackagePrefixFilter.DEFAULT_EXCLUDES);
+        ClassScanner scanner = ClassScanner.forName(arguments.getStringOption("scanner"), filter);
+        int threads = arguments.hasOption("threads") ?
+                arguments.getIntegerOption("threads") : Runtime.getRuntime().availableProcessors();
+        if (threads < 1) {
+            Log.err.println("The number of threads must be at least 1, but it is " + threads + " !");
+            arguments.printUsage("CitationDaemon", "");
+            return;
+        }
+        int port = arguments.hasOption("port") ? arguments.getIntegerOption("port") : DEFAULT_PORT;
+
+        CitationDaemon daemon = new CitationDaemon(roots, scanner, threads);
+        daemon.start();
+        port = daemon.startServer(port);
+        Log.info.println("Watch " + daemon.roots + ", and answer queries at http://localhost:" + port + "/");
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                daemon.close();
+            } catch (IOException e) {
+                Log.warning.println("Cannot close the daemon : " + e.getMessage());
+            }
+        }));
+        // the server threads are not daemon threads
+        Thread.currentThread().join();
+    }
+}
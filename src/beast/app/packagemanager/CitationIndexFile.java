@@ -0,0 +1,700 @@
+package beast.app.packagemanager;
+
+import beast.app.util.Arguments;
+import beast.core.Citation;
+import beast.core.util.Log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * The final result of {@link PackageCitationsManager.ProcessedPackage} in a compact binary file,
+ * which is opened by {@link FileChannel#map} and queried in place without deserialization,
+ * so that other tools can look up citations without scanning the packages again.
+ * <p>
+ * The file is a header followed by sections of big-endian int arrays, and the UTF-8 string data at last.
+ * Every string is stored once and referred by its id, where the bytes of string i are in
+ * <code>STRING_DATA[STRING_OFFSETS[i], STRING_OFFSETS[i+1])</code>.
+ * Packages (by lower case name), classes (by name) and DOIs are sorted by their UTF-8 bytes,
+ * so that they are found by binary search comparing the bytes in the file.
+ * The classes are grouped by package, and the postings of a package, a class or a DOI
+ * are the ranges given by the offset arrays, the same as {@link DOIIndex}.
+ * The file is rejected if it was written by a different {@link #FORMAT_VERSION format version}.
+ *
+ * Usage: CitationIndexFile -index file [-package name] [-class name] [-doi doi] [-dois] [-json file]
+ *     -index   the index file written by PackageCitationsManager -index
+ *     -package print the cited classes and DOIs of the package (optional)
+ *     -class   print the citations of the class in every package containing it (optional)
+ *     -doi     print the packages and classes citing the DOI (optional)
+ *     -dois    print all DOIs (optional)
+ *     -json    the JSON Lines report of the same packages, to compare its size and load time (optional)
+ *
+ * @author Walter Xie
+ */
+public class CitationIndexFile {
+
+    public static final int MAGIC = 0x434D4958; // CMIX
+    // increase it when the file format is changed
+    public static final int FORMAT_VERSION = 1;
+
+    //****** sections ******//
+    // string i is in STRING_DATA[STRING_OFFSETS[i], STRING_OFFSETS[i+1])
+    static final int STRING_OFFSETS = 0;
+    // 2 ints per package: name, lower case name, sorted by lower case name
+    static final int PACKAGES = 1;
+    // classes of package i are [PKG_CLASS_OFFSETS[i], PKG_CLASS_OFFSETS[i+1])
+    static final int PKG_CLASS_OFFSETS = 2;
+    // DOI ids of package i are in PKG_DOIS[PKG_DOI_OFFSETS[i], PKG_DOI_OFFSETS[i+1])
+    static final int PKG_DOI_OFFSETS = 3;
+    static final int PKG_DOIS = 4;
+    // 3 ints per class: name, package id, description, sorted by package then name
+    static final int CLASSES = 5;
+    // class ids sorted by name then package
+    static final int CLASSES_BY_NAME = 6;
+    // citation ids of class i are in CLASS_CITATIONS[CLASS_CITATION_OFFSETS[i], CLASS_CITATION_OFFSETS[i+1])
+    static final int CLASS_CITATION_OFFSETS = 7;
+    static final int CLASS_CITATIONS = 8;
+    // 6 ints per unique citation: value, DOI, year, first author surname, normalized text, normalized DOI id or -1
+    static final int CITATIONS = 9;
+    // normalized DOI strings, sorted
+    static final int DOIS = 10;
+    // class ids citing DOI i are in DOI_CLASSES[DOI_CLASS_OFFSETS[i], DOI_CLASS_OFFSETS[i+1]), sorted
+    static final int DOI_CLASS_OFFSETS = 11;
+    static final int DOI_CLASSES = 12;
+    // bytes
+    static final int STRING_DATA = 13;
+    static final int SECTIONS = 14;
+
+    private static final int PACKAGE_INTS = 2;
+    private static final int CLASS_INTS = 3;
+    private static final int CITATION_INTS = 6;
+    // magic, version, the number of sections, then position and length of each section
+    private static final int HEADER_BYTES = 12 + SECTIONS * 8;
+
+    protected final ByteBuffer buffer;
+    // the byte position and the number of elements of each section
+    private final int[] positions = new int[SECTIONS];
+    private final int[] lengths = new int[SECTIONS];
+
+    /**
+     * @param buffer  the whole index file, which is only read by absolute positions,
+     *                so one instance can be queried by many threads.
+     * @throws IOException if it is not a valid index
+     */
+    public CitationIndexFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+            throw new IOException("not a citation index");
+        int version = buffer.getInt(4);
+        if (version != FORMAT_VERSION)
+            throw new IOException("format version " + version + " is not " + FORMAT_VERSION);
+        if (buffer.getInt(8) != SECTIONS)
+            throw new IOException("expect " + SECTIONS + " sections, but find " + buffer.getInt(8));
+        for (int s = 0; s < SECTIONS; s++) {
+            positions[s] = buffer.getInt(12 + s * 8);
+            lengths[s] = buffer.getInt(16 + s * 8);
+            long bytes = (long) lengths[s] * (s == STRING_DATA ? 1 : 4);
+            if (positions[s] < HEADER_BYTES || lengths[s] < 0 || positions[s] + bytes > buffer.capacity())
+                throw new IOException("section " + s + " is out of the file");
+        }
+    }
+
+    /**
+     * map the index file into memory, where nothing is read until it is queried.
+     * @param file  the index file
+     * @return {@link CitationIndexFile}
+     * @throws IOException if it is not a valid index
+     */
+    public static CitationIndexFile open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(file + " is larger than 2 GB");
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CitationIndexFile(buffer);
+        }
+    }
+
+    //****** query ******//
+
+    public int getPackageCount() {
+        return lengths[PACKAGES] / PACKAGE_INTS;
+    }
+
+    public int getClassCount() {
+        return lengths[CLASSES] / CLASS_INTS;
+    }
+
+    /**
+     * @return the number of unique citations.
+     */
+    public int getCitationCount() {
+        return lengths[CITATIONS] / CITATION_INTS;
+    }
+
+    public int getDOICount() {
+        return lengths[DOIS];
+    }
+
+    /**
+     * @return the size of the index in bytes.
+     */
+    public int getSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return all package names, sorted by lower case.
+     */
+    public List<String> getPackages() {
+        List<String> list = new ArrayList<>(getPackageCount());
+        for (int p = 0; p < getPackageCount(); p++)
+            list.add(getString(getInt(PACKAGES, p * PACKAGE_INTS)));
+        return list;
+    }
+
+    /**
+     * @return all normalized DOIs, sorted.
+     */
+    public List<String> getDOIs() {
+        List<String> list = new ArrayList<>(getDOICount());
+        for (int d = 0; d < getDOICount(); d++)
+            list.add(getString(getInt(DOIS, d)));
+        return list;
+    }
+
+    /**
+     * @param pkgName  package name, case insensitive
+     * @return the names of the cited classes in the package, sorted, or empty list.
+     */
+    public List<String> getClassNames(String pkgName) {
+        int p = findPackage(pkgName);
+        if (p < 0)
+            return Collections.emptyList();
+        int from = getInt(PKG_CLASS_OFFSETS, p), to = getInt(PKG_CLASS_OFFSETS, p + 1);
+        List<String> list = new ArrayList<>(to - from);
+        for (int c = from; c < to; c++)
+            list.add(getString(getInt(CLASSES, c * CLASS_INTS)));
+        return list;
+    }
+
+    /**
+     * @param pkgName  package name, case insensitive
+     * @return the normalized DOIs cited in the package, sorted, or empty list.
+     */
+    public List<String> getDOIs(String pkgName) {
+        int p = findPackage(pkgName);
+        if (p < 0)
+            return Collections.emptyList();
+        int from = getInt(PKG_DOI_OFFSETS, p), to = getInt(PKG_DOI_OFFSETS, p + 1);
+        List<String> list = new ArrayList<>(to - from);
+        for (int k = from; k < to; k++)
+            list.add(getString(getInt(DOIS, getInt(PKG_DOIS, k))));
+        return list;
+    }
+
+    /**
+     * @param doi DOI, which is normalized
+     * @return the packages citing this DOI, sorted by lower case, or empty list.
+     */
+    public List<String> getPackages(String doi) {
+        List<String> list = new ArrayList<>();
+        int prev = -1;
+        for (int c : getDOIClasses(doi)) {
+            int p = getInt(CLASSES, c * CLASS_INTS + 1);
+            if (p != prev)
+                list.add(getString(getInt(PACKAGES, p * PACKAGE_INTS)));
+            prev = p;
+        }
+        return list;
+    }
+
+    /**
+     * @param doi DOI, which is normalized
+     * @return the (package, class) citing this DOI, sorted by package then class, or empty list.
+     */
+    public List<DOIMapping> getMappings(String doi) {
+        String normalized = CitationNormalizer.normalizeDOI(doi);
+        int[] classes = getDOIClasses(normalized);
+        List<DOIMapping> list = new ArrayList<>(classes.length);
+        for (int c : classes) {
+            int p = getInt(CLASSES, c * CLASS_INTS + 1);
+            list.add(new DOIMapping(normalized, getString(getInt(PACKAGES, p * PACKAGE_INTS)),
+                    getString(getInt(CLASSES, c * CLASS_INTS))));
+        }
+        return list;
+    }
+
+    /**
+     * @param pkgName    package name, case insensitive
+     * @param className  class name
+     * @return the {@link CitedClass} in the package, or null if not found.
+     */
+    public CitedClass getCitedClass(String pkgName, String className) {
+        int p = findPackage(pkgName);
+        if (p < 0)
+            return null;
+        byte[] key = className.getBytes(StandardCharsets.UTF_8);
+        int lo = getInt(PKG_CLASS_OFFSETS, p), hi = getInt(PKG_CLASS_OFFSETS, p + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(getInt(CLASSES, mid * CLASS_INTS), key);
+            if (cmp < 0)
+                lo = mid + 1;
+            else if (cmp > 0)
+                hi = mid - 1;
+            else
+                return getCitedClass(mid);
+        }
+        return null;
+    }
+
+    /**
+     * @param className  class name
+     * @return the {@link CitedClass} in each package containing the class,
+     *         where key is package name, or empty map.
+     */
+    public Map<String, CitedClass> getCitedClasses(String className) {
+        byte[] key = className.getBytes(StandardCharsets.UTF_8);
+        int n = lengths[CLASSES_BY_NAME];
+        // the first class with this name
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(getInt(CLASSES, getInt(CLASSES_BY_NAME, mid) * CLASS_INTS), key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        Map<String, CitedClass> map = new LinkedHashMap<>();
+        for (int k = lo; k < n; k++) {
+            int c = getInt(CLASSES_BY_NAME, k);
+            if (compare(getInt(CLASSES, c * CLASS_INTS), key) != 0)
+                break;
+            int p = getInt(CLASSES, c * CLASS_INTS + 1);
+            map.put(getString(getInt(PACKAGES, p * PACKAGE_INTS)), getCitedClass(c));
+        }
+        return map;
+    }
+
+    // create the CitedClass of class id c
+    private CitedClass getCitedClass(int c) {
+        int from = getInt(CLASS_CITATION_OFFSETS, c), to = getInt(CLASS_CITATION_OFFSETS, c + 1);
+        List<Citation> citations = new ArrayList<>(to - from);
+        // the normalized forms are stored, so they are not normalized again
+        NormalizedCitation[] normalized = new NormalizedCitation[to - from];
+        for (int k = from; k < to; k++) {
+            int row = getInt(CLASS_CITATIONS, k) * CITATION_INTS;
+            citations.add(new CitationRecord(getString(getInt(CITATIONS, row)), getString(getInt(CITATIONS, row + 1)),
+                    getInt(CITATIONS, row + 2), getString(getInt(CITATIONS, row + 3))));
+            int doiId = getInt(CITATIONS, row + 5);
+            normalized[k - from] = new NormalizedCitation(getString(getInt(CITATIONS, row + 4)),
+                    doiId < 0 ? "" : getString(getInt(DOIS, doiId)));
+        }
+        return new CitedClass(getString(getInt(CLASSES, c * CLASS_INTS)), getString(getInt(CLASSES, c * CLASS_INTS + 2)),
+                citations, normalized);
+    }
+
+    // class ids citing the normalized DOI
+    private int[] getDOIClasses(String doi) {
+        byte[] key = CitationNormalizer.normalizeDOI(doi).getBytes(StandardCharsets.UTF_8);
+        int d = binarySearch(DOIS, 1, 0, key);
+        if (d < 0)
+            return new int[0];
+        int from = getInt(DOI_CLASS_OFFSETS, d), to = getInt(DOI_CLASS_OFFSETS, d + 1);
+        int[] classes = new int[to - from];
+        for (int k = from; k < to; k++)
+            classes[k - from] = getInt(DOI_CLASSES, k);
+        return classes;
+    }
+
+    // package id by lower case name, or -1
+    private int findPackage(String pkgName) {
+        return binarySearch(PACKAGES, PACKAGE_INTS, 1, pkgName.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // rows of the section are sorted by the string at column, return the row or -1
+    private int binarySearch(int section, int rowInts, int column, byte[] key) {
+        int lo = 0, hi = lengths[section] / rowInts - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(getInt(section, mid * rowInts + column), key);
+            if (cmp < 0)
+                lo = mid + 1;
+            else if (cmp > 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private int getInt(int section, int i) {
+        return buffer.getInt(positions[section] + i * 4);
+    }
+
+    private String getString(int id) {
+        int from = getInt(STRING_OFFSETS, id), to = getInt(STRING_OFFSETS, id + 1);
+        byte[] bytes = new byte[to - from];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(positions[STRING_DATA] + from);
+        slice.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // compare the UTF-8 bytes of string id with the key as unsigned bytes, without decoding
+    private int compare(int id, byte[] key) {
+        int from = positions[STRING_DATA] + getInt(STRING_OFFSETS, id);
+        int len = getInt(STRING_OFFSETS, id + 1) - getInt(STRING_OFFSETS, id);
+        int n = Math.min(len, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (buffer.get(from + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return len - key.length;
+    }
+
+    @Override
+    public String toString() {
+        return getPackageCount() + " packages, " + getClassCount() + " classes, " + getCitationCount() +
+                " citations, " + getDOICount() + " DOIs, " + getSize() / 1024 + " KB";
+    }
+
+    //****** write ******//
+
+    /**
+     * write the cited classes of all packages into an index file,
+     * to a temp file then rename, so that a broken run does not corrupt the index.
+     * @param processedPkgMap  key is package name
+     * @param file             the index file
+     * @throws IOException
+     */
+    public static void write(Map<String, PackageCitations> processedPkgMap, File file) throws IOException {
+        Writer writer = new Writer(processedPkgMap);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Cannot create dir " + parent);
+        File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                writer.write(out);
+            }
+            if (file.exists() && !file.delete())
+                throw new IOException("Cannot replace " + file);
+            if (!tmp.renameTo(file))
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+        } finally {
+            if (tmp.exists() && !tmp.delete())
+                Log.warning.println("Cannot delete " + tmp);
+        }
+    }
+
+    // compare strings by their UTF-8 bytes, the same as the lookup in the file
+    private static final Comparator<byte[]> UTF8_ORDER = (a, b) -> {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return a.length - b.length;
+    };
+
+    // intern the strings, and build all sections in memory
+    private static class Writer {
+        final List<byte[]> strings = new ArrayList<>();
+        final Map<String, Integer> stringIds = new HashMap<>();
+        final int[][] sections = new int[SECTIONS][];
+
+        Writer(Map<String, PackageCitations> processedPkgMap) {
+            // packages sorted by lower case name
+            List<String> pkgNames = sort(processedPkgMap.keySet(), name -> name.toLowerCase(Locale.ROOT));
+
+            // classes sorted by package then name
+            List<String> classNames = new ArrayList<>();
+            List<CitedClass> classes = new ArrayList<>();
+            int[] pkgClassOffsets = new int[pkgNames.size() + 1];
+            for (int p = 0; p < pkgNames.size(); p++) {
+                pkgClassOffsets[p] = classes.size();
+                Map<String, CitedClass> citedClassMap = processedPkgMap.get(pkgNames.get(p)).getCitedClassMap();
+                for (String name : sort(citedClassMap.keySet(), name -> name)) {
+                    classNames.add(name);
+                    classes.add(citedClassMap.get(name));
+                }
+            }
+            pkgClassOffsets[pkgNames.size()] = classes.size();
+            int[] classPackages = new int[classes.size()];
+            for (int p = 0; p < pkgNames.size(); p++)
+                Arrays.fill(classPackages, pkgClassOffsets[p], pkgClassOffsets[p + 1], p);
+
+            // normalized DOIs sorted
+            TreeMap<byte[], String> sortedDOIs = new TreeMap<>(UTF8_ORDER);
+            for (CitedClass citedClass : classes) {
+                for (NormalizedCitation citation : citedClass.normalized) {
+                    if (citation.hasDOI())
+                        sortedDOIs.put(bytes(citation.doi), citation.doi);
+                }
+            }
+            Map<String, Integer> doiIds = new HashMap<>();
+            int[] dois = new int[sortedDOIs.size()];
+            for (String doi : sortedDOIs.values()) {
+                dois[doiIds.size()] = intern(doi);
+                doiIds.put(doi, doiIds.size());
+            }
+
+            // unique citations, and the citations and DOIs of each class
+            Map<List<Object>, Integer> citationIds = new HashMap<>();
+            IntList citationRows = new IntList();
+            IntList classCitations = new IntList();
+            int[] classCitationOffsets = new int[classes.size() + 1];
+            int[] classRows = new int[classes.size() * CLASS_INTS];
+            List<TreeSet<Integer>> doiClasses = new ArrayList<>();
+            for (int d = 0; d < dois.length; d++)
+                doiClasses.add(new TreeSet<>());
+            for (int c = 0; c < classes.size(); c++) {
+                CitedClass citedClass = classes.get(c);
+                classRows[c * CLASS_INTS] = intern(classNames.get(c));
+                classRows[c * CLASS_INTS + 1] = classPackages[c];
+                classRows[c * CLASS_INTS + 2] = intern(citedClass.getDescription());
+                classCitationOffsets[c] = classCitations.size;
+                for (int i = 0; i < citedClass.normalized.length; i++) {
+                    Citation raw = citedClass.citations.get(i);
+                    NormalizedCitation normalized = citedClass.normalized[i];
+                    int doiId = normalized.hasDOI() ? doiIds.get(normalized.doi) : -1;
+                    List<Object> key = Arrays.asList(raw.value(), raw.DOI(), raw.year(), raw.firstAuthorSurname());
+                    Integer id = citationIds.get(key);
+                    if (id == null) {
+                        id = citationIds.size();
+                        citationIds.put(key, id);
+                        citationRows.add(intern(raw.value()), intern(raw.DOI()), raw.year(),
+                                intern(raw.firstAuthorSurname()), intern(normalized.text), doiId);
+                    }
+                    classCitations.add(id);
+                    if (doiId >= 0)
+                        doiClasses.get(doiId).add(c);
+                }
+            }
+            classCitationOffsets[classes.size()] = classCitations.size;
+
+            // class ids sorted by name then package
+            Integer[] byName = new Integer[classes.size()];
+            for (int c = 0; c < byName.length; c++)
+                byName[c] = c;
+            Arrays.sort(byName, (a, b) -> {
+                int cmp = UTF8_ORDER.compare(strings.get(classRows[a * CLASS_INTS]), strings.get(classRows[b * CLASS_INTS]));
+                return cmp != 0 ? cmp : Integer.compare(a, b);
+            });
+
+            // DOI -> classes, and package -> DOIs, which visits DOIs in order, so each package list is sorted
+            int[] doiClassOffsets = new int[dois.length + 1];
+            IntList doiClassList = new IntList();
+            List<TreeSet<Integer>> pkgDOISets = new ArrayList<>();
+            for (int p = 0; p < pkgNames.size(); p++)
+                pkgDOISets.add(new TreeSet<>());
+            for (int d = 0; d < dois.length; d++) {
+                doiClassOffsets[d] = doiClassList.size;
+                for (int c : doiClasses.get(d)) {
+                    doiClassList.add(c);
+                    pkgDOISets.get(classPackages[c]).add(d);
+                }
+            }
+            doiClassOffsets[dois.length] = doiClassList.size;
+            int[] pkgDOIOffsets = new int[pkgNames.size() + 1];
+            IntList pkgDOIs = new IntList();
+            int[] packages = new int[pkgNames.size() * PACKAGE_INTS];
+            for (int p = 0; p < pkgNames.size(); p++) {
+                packages[p * PACKAGE_INTS] = intern(pkgNames.get(p));
+                packages[p * PACKAGE_INTS + 1] = intern(pkgNames.get(p).toLowerCase(Locale.ROOT));
+                pkgDOIOffsets[p] = pkgDOIs.size;
+                for (int d : pkgDOISets.get(p))
+                    pkgDOIs.add(d);
+            }
+            pkgDOIOffsets[pkgNames.size()] = pkgDOIs.size;
+
+            sections[PACKAGES] = packages;
+            sections[PKG_CLASS_OFFSETS] = pkgClassOffsets;
+            sections[PKG_DOI_OFFSETS] = pkgDOIOffsets;
+            sections[PKG_DOIS] = pkgDOIs.toArray();
+            sections[CLASSES] = classRows;
+            sections[CLASSES_BY_NAME] = Arrays.stream(byName).mapToInt(Integer::intValue).toArray();
+            sections[CLASS_CITATION_OFFSETS] = classCitationOffsets;
+            sections[CLASS_CITATIONS] = classCitations.toArray();
+            sections[CITATIONS] = citationRows.toArray();
+            sections[DOIS] = dois;
+            sections[DOI_CLASS_OFFSETS] = doiClassOffsets;
+            sections[DOI_CLASSES] = doiClassList.toArray();
+            // after all strings are interned
+            int[] stringOffsets = new int[strings.size() + 1];
+            for (int i = 0; i < strings.size(); i++)
+                stringOffsets[i + 1] = stringOffsets[i] + strings.get(i).length;
+            sections[STRING_OFFSETS] = stringOffsets;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            long dataBytes = sections[STRING_OFFSETS][strings.size()];
+            long pos = HEADER_BYTES;
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(SECTIONS);
+            for (int s = 0; s < SECTIONS; s++) {
+                int length = s == STRING_DATA ? (int) dataBytes : sections[s].length;
+                out.writeInt((int) pos);
+                out.writeInt(length);
+                pos += s == STRING_DATA ? dataBytes : 4L * length;
+            }
+            if (pos > Integer.MAX_VALUE)
+                throw new IOException("The index is larger than 2 GB");
+            for (int s = 0; s < STRING_DATA; s++) {
+                for (int v : sections[s])
+                    out.writeInt(v);
+            }
+            for (byte[] bytes : strings)
+                out.write(bytes);
+        }
+
+        private int intern(String s) {
+            if (s == null)
+                s = "";
+            Integer id = stringIds.get(s);
+            if (id == null) {
+                id = strings.size();
+                strings.add(bytes(s));
+                stringIds.put(s, id);
+            }
+            return id;
+        }
+
+        // sort the strings by the UTF-8 bytes of their keys, which are encoded once
+        private static List<String> sort(Collection<String> values, java.util.function.Function<String, String> key) {
+            TreeMap<byte[], String> sorted = new TreeMap<>(UTF8_ORDER);
+            for (String value : values)
+                sorted.put(bytes(key.apply(value)), value);
+            return new ArrayList<>(sorted.values());
+        }
+
+        private static byte[] bytes(String s) {
+            return s.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    // growable int array
+    private static class IntList {
+        int[] values = new int[64];
+        int size = 0;
+
+        void add(int... ints) {
+            if (size + ints.length > values.length)
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + ints.length));
+            System.arraycopy(ints, 0, values, size, ints.length);
+            size += ints.length;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    //****** query CLI ******//
+
+    public static void main(String[] args) throws IOException {
+        Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.StringOption("index", "file",
+                                "The index file written by PackageCitationsManager -index."),
+                        new Arguments.StringOption("package", "name",
+                                "Print the cited classes and DOIs of the package. (optional)"),
+                        new Arguments.StringOption("class", "name",
+                                "Print the citations of the class in every package containing it. (optional)"),
+                        new Arguments.StringOption("doi", "doi",
+                                "Print the packages and classes citing the DOI. (optional)"),
+                        new Arguments.Option("dois", "Print all DOIs. (optional)"),
+                        new Arguments.StringOption("json", "file",
+                                "The JSON Lines report of the same packages, " +
+                                        "to compare its size and load time. (optional)"),
+                });
+
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException e) {
+            e.printStackTrace();
+        }
+        if (!arguments.hasOption("index")) {
+            arguments.printUsage("CitationIndexFile", "");
+            return;
+        }
+
+        File file = new File(arguments.getStringOption("index"));
+        long start = System.nanoTime();
+        CitationIndexFile index = open(file);
+        String openMillis = millis(start);
+        Log.info.println("Open " + file + " : " + index + ", in " + openMillis + " ms.\n");
+
+        if (arguments.hasOption("package")) {
+            String pkgName = arguments.getStringOption("package");
+            start = System.nanoTime();
+            List<String> classNames = index.getClassNames(pkgName);
+            List<String> dois = index.getDOIs(pkgName);
+            Log.info.println("Package " + pkgName + " has " + classNames.size() + " cited classes, " +
+                    dois.size() + " DOIs, found in " + millis(start) + " ms.");
+            for (String className : classNames)
+                Log.info.println("  " + className);
+            for (String doi : dois)
+                Log.info.println("  " + doi);
+            Log.info.println();
+        }
+        if (arguments.hasOption("class")) {
+            String className = arguments.getStringOption("class");
+            start = System.nanoTime();
+            Map<String, CitedClass> citedClasses = index.getCitedClasses(className);
+            Log.info.println("Class " + className + " is in " + citedClasses.size() + " packages, found in " +
+                    millis(start) + " ms.");
+            for (Map.Entry<String, CitedClass> entry : citedClasses.entrySet()) {
+                Log.info.println("  " + entry.getKey() + " : " + entry.getValue().getDescription());
+                Log.info.println(entry.getValue().getCitations());
+            }
+        }
+        if (arguments.hasOption("doi")) {
+            String doi = arguments.getStringOption("doi");
+            start = System.nanoTime();
+            List<DOIMapping> mappings = index.getMappings(doi);
+            Log.info.println("DOI " + doi + " is cited by " + mappings.size() + " classes, found in " +
+                    millis(start) + " ms.");
+            for (DOIMapping mapping : mappings)
+                Log.info.println("  " + mapping.pkgName + "\t" + mapping.className);
+            Log.info.println();
+        }
+        if (arguments.hasOption("dois")) {
+            for (String doi : index.getDOIs())
+                Log.info.println(doi);
+        }
+
+        if (arguments.hasOption("json")) {
+            File json = new File(arguments.getStringOption("json"));
+            start = System.nanoTime();
+            Map<String, PackageCitations> processedPkgMap;
+            try (Reader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(json), StandardCharsets.UTF_8))) {
+                processedPkgMap = JSONLinesReportSink.read(reader);
+            }
+            String jsonMillis = millis(start);
+            int classes = 0;
+            for (PackageCitations packageCitations : processedPkgMap.values())
+                classes += packageCitations.getCitedClassMap().size();
+            Log.info.println("JSON Lines " + json + " : " + processedPkgMap.size() + " packages, " + classes +
+                    " classes, " + json.length() / 1024 + " KB, loaded in " + jsonMillis + " ms.");
+            Log.info.println("Index " + file + " : " + index.getSize() / 1024 + " KB (" +
+                    String.format("%.1f", 100.0 * index.getSize() / Math.max(1, json.length())) +
+                    "% of JSON), opened in " + openMillis + " ms.\n");
+        }
+    }
+
+    private static String millis(long startNanos) {
+        return String.format("%.3f", (System.nanoTime() - startNanos) / 1e6);
+    }
+}
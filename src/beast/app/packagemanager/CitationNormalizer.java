@@ -0,0 +1,149 @@
+package beast.app.packagemanager;
+
+import java.text.Normalizer;
+
+/**
+ * Normalize the citation text and DOI in one pass, which are used to print, export and index citations.
+ * The text is composed into Unicode NFC, all whitespaces including line breaks, tabs and
+ * non-breaking spaces are collapsed into one space, and control or zero-width characters are removed.
+ * The DOI is lower case without the resolver prefix, e.g. "https://doi.org/", "doi:" and leading '/'.
+ * The input string is returned if it is already normalized, so no allocation in the common case.
+ *
+ * @author Walter Xie
+ */
+public final class CitationNormalizer {
+
+    private static final String DOI_RESOLVER = "doi.org/";
+    private static final String DOI_SCHEME = "doi:";
+
+    private CitationNormalizer() { }
+
+    /**
+     * @param citation {@link beast.core.Citation}
+     * @return the normalized text and DOI.
+     */
+    public static NormalizedCitation normalize(beast.core.Citation citation) {
+        return new NormalizedCitation(normalizeText(citation.value()), normalizeDOI(citation.DOI()));
+    }
+
+    /**
+     * collapse whitespaces, remove control and zero-width characters, and trim.
+     * @param text
+     * @return the normalized text, or an empty string if null.
+     */
+    public static String normalizeText(String text) {
+        if (text == null)
+            return "";
+        if (!isBelowCombining(text) && !Normalizer.isNormalized(text, Normalizer.Form.NFC))
+            text = Normalizer.normalize(text, Normalizer.Form.NFC);
+
+        final int len = text.length();
+        // find the 1st char to change, and only copy the string after it
+        int i = 0;
+        boolean prevSpace = true; // trim the leading spaces
+        for (; i < len; i++) {
+            char c = text.charAt(i);
+            if (c == ' ') {
+                if (prevSpace)
+                    break;
+                prevSpace = true;
+            } else if (isSpace(c) || isRemoved(c)) {
+                break;
+            } else {
+                prevSpace = false;
+            }
+        }
+        if (i == len)
+            return prevSpace && len > 0 ? text.substring(0, len - 1) : text;
+
+        StringBuilder sb = new StringBuilder(len);
+        sb.append(text, 0, i);
+        for (; i < len; i++) {
+            char c = text.charAt(i);
+            if (c == ' ' || isSpace(c)) {
+                if (!prevSpace)
+                    sb.append(' ');
+                prevSpace = true;
+            } else if (!isRemoved(c)) {
+                sb.append(c);
+                prevSpace = false;
+            }
+        }
+        // trim the trailing space
+        int last = sb.length() - 1;
+        if (last >= 0 && sb.charAt(last) == ' ')
+            sb.setLength(last);
+        return sb.toString();
+    }
+
+    /**
+     * lower case, and remove the resolver prefix and leading '/'.
+     * @param doi
+     * @return the normalized DOI, or an empty string if no DOI.
+     */
+    public static String normalizeDOI(String doi) {
+        if (doi == null)
+            return "";
+        int start = 0, end = doi.length();
+        while (start < end && isTrimmed(doi.charAt(start)))
+            start++;
+        while (end > start && isTrimmed(doi.charAt(end - 1)))
+            end--;
+
+        int i = indexOfIgnoreCase(doi, DOI_RESOLVER, start, end);
+        if (i >= 0)
+            start = i + DOI_RESOLVER.length();
+        else if (doi.regionMatches(true, start, DOI_SCHEME, 0, DOI_SCHEME.length()))
+            start += DOI_SCHEME.length();
+        while (start < end && (doi.charAt(start) == '/' || isTrimmed(doi.charAt(start))))
+            start++;
+
+        // only allocate if there is an upper case
+        boolean lower = true;
+        for (int k = start; k < end && lower; k++)
+            lower = Character.toLowerCase(doi.charAt(k)) == doi.charAt(k);
+        if (lower)
+            return start == 0 && end == doi.length() ? doi : doi.substring(start, end);
+        char[] chars = new char[end - start];
+        for (int k = start; k < end; k++)
+            chars[k - start] = Character.toLowerCase(doi.charAt(k));
+        return new String(chars);
+    }
+
+    // the chars before the combining diacritical marks U+0300 are always NFC
+    private static boolean isBelowCombining(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= '\u0300')
+                return false;
+        }
+        return true;
+    }
+
+    private static int indexOfIgnoreCase(String s, String target, int start, int end) {
+        for (int i = start; i <= end - target.length(); i++) {
+            if (s.regionMatches(true, i, target, 0, target.length()))
+                return i;
+        }
+        return -1;
+    }
+
+    // whitespaces except ' '
+    private static boolean isSpace(char c) {
+        return c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == '\u000B' ||
+                (c > 0x7F && Character.isSpaceChar(c));
+    }
+
+    // control chars, zero-width spaces and joiners, BOM, and soft hyphen
+    private static boolean isRemoved(char c) {
+        if (c < 0x20)
+            return !isSpace(c);
+        if (c < 0x7F)
+            return false;
+        return c == 0x7F || (c >= 0x80 && c < 0xA0) || c == '\u00AD' ||
+                (c >= '\u200B' && c <= '\u200D') || c == '\u2060' || c == '\uFEFF';
+    }
+
+    private static boolean isTrimmed(char c) {
+        return c <= ' ' || isSpace(c) || isRemoved(c);
+    }
+}
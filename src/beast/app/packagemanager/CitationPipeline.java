@@ -0,0 +1,477 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+import beast.util.Package;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process all packages in a chain of concurrent stages:
+ * scan jars -&gt; extract citations -&gt; dedupe DOIs -&gt; enrich via CrossRef -&gt; write report,
+ * where the stages are connected by bounded queues.
+ * A stage blocks when the queue to the next stage is full, so a slow stage, e.g. CrossRef lookups,
+ * slows down the scanning instead of piling up the scanned packages, and the wall time is about
+ * the time of the slowest stage.
+ * Only the packages in the queues are kept in memory, and a package is dropped after it is written,
+ * so the packages are not kept as {@link PackageCitationsManager.ProcessedPackage} does.
+ * A package is scanned after the packages it depends on, as {@link PackageScanScheduler} does,
+ * so that {@link HierarchyScanner} finds their classes.
+ * The packages are written in the order they are scanned, not the order of the serial run.
+ * If the batch size is set, the enrich stage holds the packages until their new DOIs fill a batch,
+ * and resolves the batch by one request of {@link CrossRefBatchResolver}.
+ *
+ * @author Walter Xie
+ */
+public class CitationPipeline {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+
+    // the end of stream
+    private static final Batch END = new Batch(null);
+
+    // key is package name
+    protected final Map<String, Package> packageMap;
+    protected final ClassScanner scanner;
+    protected final int threads;
+    protected final int queueCapacity;
+
+    // write the cited classes, or print them to the screen if null
+    private ReportSink sink;
+    // enrich the new DOIs if not null
+    private CrossRefClient client;
+    private String baseURL = CrossRefClient.DEFAULT_BASE_URL;
+    // write the CrossRef metadata of each DOI, if not null
+    private Writer worksOut;
+    // resolve the DOIs of several packages by one request, if not null
+    private CrossRefBatchResolver resolver;
+
+    private final List<Stage> stages = new ArrayList<>();
+    // normalized DOIs, only touched by the dedupe stage
+    private final Set<String> seenDOIs = new HashSet<>();
+    private final AtomicInteger citedClasses = new AtomicInteger();
+    private final AtomicInteger resolved = new AtomicInteger();
+    private final AtomicInteger unresolved = new AtomicInteger();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private final List<Thread> running = new ArrayList<>();
+
+    /**
+     * @param packageMap     key is package name
+     * @param scanner        {@link ClassScanner} to find cited classes in each jar
+     * @param threads        the number of threads to scan packages
+     * @param queueCapacity  the maximum number of packages waiting between two stages
+     */
+    public CitationPipeline(Map<String, Package> packageMap, ClassScanner scanner, int threads, int queueCapacity) {
+        this.packageMap = packageMap;
+        this.scanner = scanner;
+        this.threads = Math.max(1, threads);
+        this.queueCapacity = queueCapacity;
+    }
+
+    public CitationPipeline(Map<String, Package> packageMap, ClassScanner scanner, int threads) {
+        this(packageMap, scanner, threads, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param sink  write the cited classes of each package, or print them to the screen if null.
+     *              The sink is not closed here.
+     */
+    public void setReportSink(ReportSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * look up each new DOI in CrossRef while the other packages are scanned.
+     * @param client    {@link CrossRefClient}, which limits the concurrent requests
+     * @param baseURL   the URL before DOI, such as {@link CrossRefClient#DEFAULT_BASE_URL}
+     * @param worksOut  write the metadata of each DOI as a line of JSON, or null. It is not closed here.
+     */
+    public void setEnrichment(CrossRefClient client, String baseURL, Writer worksOut) {
+        this.client = client;
+        this.baseURL = baseURL;
+        this.worksOut = worksOut;
+    }
+
+    /**
+     * resolve the new DOIs of several packages by one request per batch, after {@link #setEnrichment}.
+     * @param batchSize  the maximum number of DOIs per request, such as
+     *                   {@link CrossRefBatchResolver#DEFAULT_BATCH_SIZE}, or 0 to request each DOI.
+     */
+    public void setBatchSize(int batchSize) {
+        if (client == null)
+            throw new IllegalStateException("Set enrichment before batch size !");
+        resolver = batchSize > 0 ? new CrossRefBatchResolver(client, baseURL, batchSize) : null;
+    }
+
+    /**
+     * run all stages, and wait for them to finish.
+     * @throws IOException if a stage fails, where the other stages are stopped.
+     */
+    public void run() throws IOException {
+        stages.clear();
+        running.clear();
+        BlockingQueue<Batch> scanned = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Batch> extracted = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Batch> deduped = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Batch> enriched = new ArrayBlockingQueue<>(queueCapacity);
+
+        try (PackageClassLoaders classLoaders = new PackageClassLoaders(packageMap)) {
+            // the dependencies first, so that their loaders are released early
+            List<Package> order = new PackageScanScheduler(packageMap, classLoaders, scanner, threads)
+                    .getTopologicalOrder();
+            Queue<Package> todo = new ConcurrentLinkedQueue<>(order);
+            // key is package name, counted down when the package is scanned
+            Map<String, CountDownLatch> scannedLatches = new HashMap<>();
+            Map<String, List<CountDownLatch>> depLatches = new HashMap<>();
+            for (Package pkg : order) {
+                List<CountDownLatch> latches = new ArrayList<>();
+                for (Package depPkg : classLoaders.getDependencies(pkg)) {
+                    // not created only if the dependency is cyclic
+                    CountDownLatch latch = scannedLatches.get(depPkg.getName());
+                    if (latch != null) latches.add(latch);
+                }
+                depLatches.put(pkg.getName(), latches);
+                scannedLatches.put(pkg.getName(), new CountDownLatch(1));
+            }
+            Stage scan = new Stage("scan", scanned);
+            AtomicInteger scanning = new AtomicInteger(threads);
+            for (int i = 0; i < threads; i++) {
+                create(scan, i, () -> {
+                    Package pkg;
+                    while ((pkg = todo.poll()) != null) {
+                        Batch batch;
+                        try {
+                            // the dependencies are taken before, so they are being scanned or done
+                            for (CountDownLatch latch : depLatches.get(pkg.getName()))
+                                latch.await();
+                            long start = System.nanoTime();
+                            try {
+                                batch = new Batch(new PackageCitations(pkg, classLoaders.getClassLoader(pkg),
+                                        scanner, null, false));
+                            } catch (RuntimeException e) {
+                                Log.err.println("Failed to scan package " + pkg.getName() + " : " + e);
+                                throw e;
+                            } finally {
+                                classLoaders.release(pkg.getName());
+                            }
+                            scan.busy(start);
+                        } finally {
+                            scannedLatches.get(pkg.getName()).countDown();
+                        }
+                        scan.put(batch);
+                    }
+                    // the last scanner ends the stream
+                    if (scanning.decrementAndGet() == 0)
+                        scan.put(END);
+                });
+            }
+            startStage(new Stage("extract", extracted), scanned, this::extract);
+            startStage(new Stage("dedupe", deduped), extracted, this::dedupe);
+            if (resolver == null)
+                startStage(new Stage("enrich", enriched), deduped, this::enrich);
+            else
+                startBatchEnrichStage(new Stage("enrich", enriched), deduped);
+            startStage(new Stage("write", null), enriched, this::write);
+
+            // all threads are created before any starts, so that a failure can stop them all
+            for (Thread thread : running)
+                thread.start();
+            for (Thread thread : running) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fail(e);
+                }
+            }
+        }
+
+        Exception e = failure.get();
+        if (e instanceof IOException)
+            throw (IOException) e;
+        if (e != null)
+            throw new IOException("Citation pipeline failed : " + e, e);
+    }
+
+    //****** stages ******//
+
+    // the cited classes and their DOIs
+    private void extract(Batch batch) {
+        batch.citedClasses = new ArrayList<>(batch.packageCitations.getCitedClassMap().values());
+        for (CitedClass citedClass : batch.citedClasses) {
+            for (NormalizedCitation citation : citedClass.normalized) {
+                if (citation.hasDOI())
+                    batch.dois.add(citation.doi);
+            }
+        }
+    }
+
+    // keep the DOIs not seen in the previous packages
+    private void dedupe(Batch batch) {
+        batch.dois.removeIf(doi -> !seenDOIs.add(doi.toLowerCase(Locale.ROOT)));
+    }
+
+    // request the new DOIs without waiting for the responses
+    private void enrich(Batch batch) {
+        if (client == null)
+            return;
+        for (String doi : batch.dois) {
+            try {
+                batch.works.add(new CrossRef(doi, baseURL, client).submitWork());
+            } catch (MalformedURLException e) {
+                Log.warning.println("Cannot request CrossRef for " + doi + " : " + e.getMessage());
+                unresolved.incrementAndGet();
+            }
+        }
+    }
+
+    // wait for the CrossRef responses of this package, then write it
+    private void write(Batch batch) throws IOException {
+        if (batch.resolved != null) {
+            Map<String, String> results = batch.resolved.join();
+            for (String doi : batch.dois) {
+                String result = results.get(doi);
+                if (result == null) {
+                    unresolved.incrementAndGet();
+                    continue;
+                }
+                try {
+                    batch.works.add(CompletableFuture.completedFuture(CrossRefWorkParser.parse(result, doi)));
+                } catch (IOException | RuntimeException e) {
+                    Log.warning.println("Cannot parse CrossRef result of " + doi + " : " + e.getMessage());
+                    unresolved.incrementAndGet();
+                }
+            }
+        }
+        for (CompletableFuture<CrossRefWork> future : batch.works) {
+            CrossRefWork work;
+            try {
+                work = CrossRef.join(future);
+            } catch (Exception e) {
+                Log.warning.println("Cannot resolve DOI in package " + batch.getName() + " : " + e.getMessage());
+                unresolved.incrementAndGet();
+                continue;
+            }
+            resolved.incrementAndGet();
+            if (worksOut != null) {
+                worksOut.write(work.toJSON().toString());
+                worksOut.write('\n');
+            }
+        }
+        if (sink == null) {
+            citedClasses.addAndGet(batch.packageCitations.printCitedClasses(false));
+        } else {
+            for (CitedClass citedClass : batch.citedClasses)
+                sink.write(batch.getName(), citedClass);
+            sink.flush();
+            citedClasses.addAndGet(batch.citedClasses.size());
+        }
+        if (worksOut != null)
+            worksOut.flush();
+    }
+
+    //****** threads ******//
+
+    private interface Step {
+        void process(Batch batch) throws Exception;
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    // one thread taking the batches from the queue, until the end of stream
+    private void startStage(Stage stage, BlockingQueue<Batch> in, Step step) {
+        create(stage, 0, () -> {
+            Batch batch;
+            while ((batch = in.take()) != END) {
+                long start = System.nanoTime();
+                step.process(batch);
+                stage.busy(start);
+                stage.put(batch);
+            }
+            stage.put(END);
+        });
+    }
+
+    // hold the packages having new DOIs until they fill a batch, or the stream ends,
+    // but the packages without new DOIs pass through
+    private void startBatchEnrichStage(Stage stage, BlockingQueue<Batch> in) {
+        create(stage, 0, () -> {
+            List<Batch> held = new ArrayList<>();
+            Set<String> dois = new LinkedHashSet<>();
+            Batch batch;
+            while ((batch = in.take()) != END) {
+                if (batch.dois.isEmpty()) {
+                    stage.put(batch);
+                    continue;
+                }
+                held.add(batch);
+                dois.addAll(batch.dois);
+                if (dois.size() >= resolver.batchSize)
+                    submitHeld(stage, held, dois);
+            }
+            if (!held.isEmpty())
+                submitHeld(stage, held, dois);
+            stage.put(END);
+        });
+    }
+
+    // one resolver call for the held packages, whose responses are waited by the write stage
+    private void submitHeld(Stage stage, List<Batch> held, Set<String> dois) throws InterruptedException {
+        long start = System.nanoTime();
+        CompletableFuture<Map<String, String>> resolved = resolver.submit(dois);
+        stage.busy(start);
+        for (Batch batch : held) {
+            batch.resolved = resolved;
+            stage.put(batch);
+        }
+        held.clear();
+        dois.clear();
+    }
+
+    // the thread is started in run()
+    private void create(Stage stage, int index, Task task) {
+        if (index == 0)
+            stages.add(stage);
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (InterruptedException e) {
+                // stopped by the failure of another stage
+            } catch (Exception e) {
+                fail(e);
+            }
+        }, "pipeline-" + stage.name + "-" + index);
+        thread.setDaemon(true);
+        running.add(thread);
+    }
+
+    // keep the first failure, and stop all stages
+    private void fail(Exception e) {
+        if (failure.compareAndSet(null, e)) {
+            for (Thread thread : running)
+                thread.interrupt();
+        }
+    }
+
+    //****** results ******//
+
+    /**
+     * @return the number of cited classes written.
+     */
+    public int getCitedClassCount() {
+        return citedClasses.get();
+    }
+
+    /**
+     * @return the number of unique DOIs.
+     */
+    public int getDOICount() {
+        return seenDOIs.size();
+    }
+
+    public int getResolvedCount() {
+        return resolved.get();
+    }
+
+    public int getUnresolvedCount() {
+        return unresolved.get();
+    }
+
+    /**
+     * @return the time and backpressure of each stage.
+     */
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Find total " + getCitedClassCount() + " cited classes, " +
+                getDOICount() + " unique DOIs");
+        if (client != null)
+            sb.append(", resolved ").append(getResolvedCount()).append(", unresolved ").append(getUnresolvedCount());
+        sb.append(".");
+        for (Stage stage : stages)
+            sb.append("\n  ").append(stage);
+        return sb.toString();
+    }
+
+    /**
+     * the statistics of a stage, where the blocked time is the time waiting for the next stage.
+     */
+    public static class Stage {
+        public final String name;
+        // the queue to the next stage, or null for the last stage
+        private final BlockingQueue<Batch> out;
+        private final AtomicInteger items = new AtomicInteger();
+        private final AtomicInteger maxQueued = new AtomicInteger();
+        private volatile long busyNanos, blockedNanos;
+
+        Stage(String name, BlockingQueue<Batch> out) {
+            this.name = name;
+            this.out = out;
+        }
+
+        // the scan stage has more than one thread
+        synchronized void busy(long start) {
+            busyNanos += System.nanoTime() - start;
+        }
+
+        void put(Batch batch) throws InterruptedException {
+            if (batch != END)
+                items.incrementAndGet();
+            if (out == null)
+                return;
+            long start = System.nanoTime();
+            out.put(batch);
+            synchronized (this) {
+                blockedNanos += System.nanoTime() - start;
+            }
+            maxQueued.accumulateAndGet(out.size(), Math::max);
+        }
+
+        public int getItems() {
+            return items.get();
+        }
+
+        public long getBusyMillis() {
+            return busyNanos / 1000000;
+        }
+
+        public long getBlockedMillis() {
+            return blockedNanos / 1000000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-8s %6d packages, busy %8d ms, blocked %8d ms, max queued %3d",
+                    name, getItems(), getBusyMillis(), getBlockedMillis(), maxQueued.get());
+        }
+    }
+
+    // a package passing through the stages
+    private static class Batch {
+        final PackageCitations packageCitations;
+        List<CitedClass> citedClasses;
+        // normalized DOIs in this package, then only the new ones after dedupe
+        final Set<String> dois = new LinkedHashSet<>();
+        final List<CompletableFuture<CrossRefWork>> works = new ArrayList<>();
+        // the results of the batch containing the DOIs of this package, key is DOI
+        CompletableFuture<Map<String, String>> resolved;
+
+        Batch(PackageCitations packageCitations) {
+            this.packageCitations = packageCitations;
+        }
+
+        String getName() {
+            return packageCitations.pkg.getName();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package beast.app.packagemanager;
+
+import beast.core.Citation;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * A {@link Citation} which is not an annotation proxy,
+ * so that it can be created from the class file bytes or a cache,
+ * and does not hold any {@link Class} or {@link ClassLoader}.
+ *
+ * @author Walter Xie
+ */
+public class CitationRecord implements Citation {
+
+    protected final String value;
+    protected final String doi;
+    protected final int year;
+    protected final String firstAuthorSurname;
+
+    public CitationRecord(String value, String doi, int year, String firstAuthorSurname) {
+        this.value = value == null ? "" : value;
+        this.doi = doi == null ? "" : doi;
+        this.year = year;
+        this.firstAuthorSurname = firstAuthorSurname == null ? "" : firstAuthorSurname;
+    }
+
+    /**
+     * copy an annotation proxy into a record.
+     * @param citation
+     */
+    public static CitationRecord of(Citation citation) {
+        if (citation instanceof CitationRecord)
+            return (CitationRecord) citation;
+        return new CitationRecord(citation.value(), citation.DOI(), citation.year(), citation.firstAuthorSurname());
+    }
+
+    @Override
+    public String value() {
+        return value;
+    }
+
+    @Override
+    public String DOI() {
+        return doi;
+    }
+
+    @Override
+    public int year() {
+        return year;
+    }
+
+    @Override
+    public String firstAuthorSurname() {
+        return firstAuthorSurname;
+    }
+
+    @Override
+    public Class<? extends Annotation> annotationType() {
+        return Citation.class;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CitationRecord)) return false;
+        CitationRecord that = (CitationRecord) o;
+        return year == that.year && value.equals(that.value) && doi.equals(that.doi) &&
+                firstAuthorSurname.equals(that.firstAuthorSurname);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * value.hashCode() + doi.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "@Citation(value=" + value + ", DOI=" + doi + ", year=" + year + ")";
+    }
+}
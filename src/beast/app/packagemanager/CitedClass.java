@@ -3,24 +3,70 @@ package beast.app.packagemanager;
 import beast.core.Citation;
 import beast.core.util.Log;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * @author Walter Xie
  */
 public class CitedClass {
 
+    public static final String NOT_DOCUMENTED = "Not documented!!!";
+
     protected final String className;
     protected String description = "";
     protected List<Citation> citations = new ArrayList<>();
+    // normalized at construction, in the same order of citations
+    protected final NormalizedCitation[] normalized;
+    // the result of getCitations(), not cached in a compact copy
+    private String formatted;
+    private final boolean compact;
 
 
-    public CitedClass(String className, List<Citation> citations) {
+    public CitedClass(String className, List<? extends Citation> citations) {
         this.className = className;
         this.citations.addAll(citations);
+        normalized = new NormalizedCitation[citations.size()];
+        for (int i = 0; i < normalized.length; i++)
+            normalized[i] = CitationNormalizer.normalize(citations.get(i));
+        compact = false;
+    }
+
+    // the citations with their normalized forms, which are read from a CitationIndexFile
+    CitedClass(String className, String description, List<? extends Citation> citations,
+               NormalizedCitation[] normalized) {
+        this.className = className;
+        this.description = description;
+        this.citations.addAll(citations);
+        this.normalized = normalized;
+        compact = false;
+    }
+
+    // compact copy, where the citations are records
+    private CitedClass(String className, String description, Citation[] citations, NormalizedCitation[] normalized) {
+        this.className = className;
+        this.description = description;
+        this.citations = Arrays.asList(citations);
+        this.normalized = normalized;
+        compact = true;
+    }
+
+    /**
+     * @param pool  share the equal strings with other classes
+     * @return a copy only keeping strings, where the citations are {@link CitationRecord}s
+     *         of the value and DOI as annotated, so that it does not hold any annotation proxy,
+     *         {@link Class} or {@link ClassLoader}. The normalized citations are kept,
+     *         where all strings are taken from the pool.
+     */
+    public CitedClass compact(StringPool pool) {
+        Citation[] records = new Citation[citations.size()];
+        NormalizedCitation[] compactNormalized = new NormalizedCitation[normalized.length];
+        for (int i = 0; i < records.length; i++) {
+            Citation citation = citations.get(i);
+            records[i] = new CitationRecord(pool.get(citation.value()), pool.get(citation.DOI()), citation.year(),
+                    pool.get(citation.firstAuthorSurname()));
+            compactNormalized[i] = new NormalizedCitation(pool.get(normalized[i].text), pool.get(normalized[i].doi));
+        }
+        return new CitedClass(pool.get(className), pool.get(description), records, compactNormalized);
     }
 
     public String getDescription() {
@@ -32,37 +78,48 @@ public class CitedClass {
     }
 
     public String getCitations() {
-        String citaStr = "";
-        for (Citation citation : citations) {
-            citaStr += citation.value() + "\n";
-            // print DOI
-            if (citation.DOI().length() > 0) {
-                citaStr += citation.DOI() + "\n";
+        if (formatted == null) {
+            StringBuilder citaStr = new StringBuilder();
+            for (Citation citation : citations) {
+                citaStr.append(citation.value()).append("\n");
+                // print DOI
+                if (citation.DOI().length() > 0)
+                    citaStr.append(citation.DOI()).append("\n");
             }
+            // a compact copy only keeps the pooled strings
+            if (compact)
+                return citaStr.toString();
+            formatted = citaStr.toString();
         }
-        return citaStr;
+        return formatted;
     }
 
+    /**
+     * @param delimiter
+     * @return a list of normalized DOI, delimiter, and then one line citation text.
+     */
     public List<String> getCitations(String delimiter) {
-        List<String> cL = new ArrayList<>();
-        for (Citation citation : citations) {
-            // rm all \n \t
-            String simpleCi = citation.value().replaceAll("\n", "").replaceAll("\t", "");
-            // replace 2 spaces to 1
-            simpleCi = simpleCi.replaceAll("  ", " ");
-            cL.add(citation.DOI() + delimiter + simpleCi);
-        }
+        List<String> cL = new ArrayList<>(normalized.length);
+        for (NormalizedCitation citation : normalized)
+            cL.add(citation.doi + delimiter + citation.text);
         return cL;
     }
 
+    /**
+     * @return the normalized citations, in the same order of the annotations.
+     */
+    public List<NormalizedCitation> getNormalizedCitations() {
+        return Collections.unmodifiableList(Arrays.asList(normalized));
+    }
+
     public Set<String> getDOIs() {
         Set<String> dois = new HashSet<>();
-        for (Citation citation : citations) {
+        for (NormalizedCitation citation : normalized) {
             // print DOI
-            if (citation.DOI().length() > 0) {
-                dois.add(citation.DOI());
+            if (citation.hasDOI()) {
+                dois.add(citation.doi);
             } else {
-                Log.warning("No DOI found in " + citation.value() +
+                Log.warning("No DOI found in " + citation.text +
                         " !\n Class name = " + className);
             }
         }
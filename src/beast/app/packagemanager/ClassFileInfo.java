@@ -0,0 +1,329 @@
+package beast.app.packagemanager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What we need from a class file, read straight from its bytes
+ * without loading the class: the access flags, the super class,
+ * the interfaces, and the values of @Citation, @Citation.Citations and @Description.
+ * All class names are internal names, such as <code>beast/core/BEASTObject</code>.
+ *
+ * @see <a href="https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html">JVM class file format</a>
+ * @author Walter Xie
+ */
+public class ClassFileInfo {
+
+    public static final String CITATION_DESC = "Lbeast/core/Citation;";
+    public static final String CITATIONS_DESC = "Lbeast/core/Citation$Citations;";
+    public static final String DESCRIPTION_DESC = "Lbeast/core/Description;";
+
+    static final int ACC_INTERFACE = 0x0200;
+    static final int ACC_ABSTRACT = 0x0400;
+
+    public final String name;
+    public final String superName;
+    public final List<String> interfaces;
+    public final int access;
+    public final List<CitationRecord> citations;
+    // null if no @Description
+    public final String description;
+
+    public ClassFileInfo(String name, String superName, List<String> interfaces, int access,
+                         List<CitationRecord> citations, String description) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.access = access;
+        this.citations = citations;
+        this.description = description;
+    }
+
+    public boolean isInterface() {
+        return (access & ACC_INTERFACE) != 0;
+    }
+
+    public boolean isAbstract() {
+        return (access & ACC_ABSTRACT) != 0;
+    }
+
+    /**
+     * @return the class name with '.', such as <code>beast.core.BEASTObject</code>
+     */
+    public String getClassName() {
+        return name.replace('/', '.');
+    }
+
+    /**
+     * parse a class file.
+     * @param b the class file bytes
+     * @return {@link ClassFileInfo}
+     * @throws IOException if it is not a valid class file
+     */
+    public static ClassFileInfo parse(byte[] b) throws IOException {
+        try {
+            return new Parser(b).parse();
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated class file !", e);
+        }
+    }
+
+    // only the constant pool offsets are kept, UTF8 strings are decoded on demand
+    private static class Parser {
+        final byte[] b;
+        int pos;
+        int[] cpOffset;
+
+        Parser(byte[] b) {
+            this.b = b;
+        }
+
+        ClassFileInfo parse() throws IOException {
+            if (u4() != 0xCAFEBABE)
+                throw new IOException("Not a class file !");
+            pos += 4; // minor, major version
+            readConstantPool();
+
+            int access = u2();
+            String name = className(u2());
+            int superIdx = u2();
+            String superName = superIdx == 0 ? null : className(superIdx);
+            int nInterfaces = u2();
+            List<String> interfaces = nInterfaces == 0 ? Collections.emptyList() : new ArrayList<>(nInterfaces);
+            for (int i = 0; i < nInterfaces; i++)
+                interfaces.add(className(u2()));
+
+            skipMembers(); // fields
+            skipMembers(); // methods
+
+            List<CitationRecord> citations = Collections.emptyList();
+            String description = null;
+            int nAttributes = u2();
+            for (int i = 0; i < nAttributes; i++) {
+                int nameIdx = u2();
+                int len = u4();
+                int end = pos + len;
+                if (utf8Equals(nameIdx, "RuntimeVisibleAnnotations")) {
+                    int nAnnotations = u2();
+                    for (int a = 0; a < nAnnotations; a++) {
+                        int typeIdx = u2();
+                        if (utf8Equals(typeIdx, CITATION_DESC)) {
+                            if (citations.isEmpty()) citations = new ArrayList<>();
+                            citations.add(readCitation());
+                        } else if (utf8Equals(typeIdx, CITATIONS_DESC)) {
+                            if (citations.isEmpty()) citations = new ArrayList<>();
+                            readCitations(citations);
+                        } else if (utf8Equals(typeIdx, DESCRIPTION_DESC)) {
+                            description = readDescription();
+                        } else {
+                            skipPairs();
+                        }
+                    }
+                }
+                pos = end;
+            }
+            return new ClassFileInfo(name, superName, interfaces, access, citations, description);
+        }
+
+        void readConstantPool() throws IOException {
+            int count = u2();
+            cpOffset = new int[count];
+            for (int i = 1; i < count; i++) {
+                cpOffset[i] = pos;
+                int tag = b[pos++];
+                switch (tag) {
+                    case 1: // Utf8
+                        int len = u2();
+                        pos += len;
+                        break;
+                    case 7: case 8: case 16: case 19: case 20: // Class, String, MethodType, Module, Package
+                        pos += 2;
+                        break;
+                    case 15: // MethodHandle
+                        pos += 3;
+                        break;
+                    case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                        pos += 4;
+                        break;
+                    case 5: case 6: // Long, Double take two slots
+                        pos += 8;
+                        i++;
+                        break;
+                    default:
+                        throw new IOException("Unknown constant pool tag " + tag + " !");
+                }
+            }
+        }
+
+        void skipMembers() {
+            int count = u2();
+            for (int i = 0; i < count; i++) {
+                pos += 6; // access, name, descriptor
+                skipAttributes();
+            }
+        }
+
+        void skipAttributes() {
+            int count = u2();
+            for (int i = 0; i < count; i++) {
+                pos += 2;
+                int len = u4();
+                pos += len;
+            }
+        }
+
+        // @Citation(value, DOI, year, firstAuthorSurname), after type_index
+        CitationRecord readCitation() throws IOException {
+            String value = "", doi = "", surname = "";
+            int year = 0;
+            int nPairs = u2();
+            for (int p = 0; p < nPairs; p++) {
+                int nameIdx = u2();
+                int tag = b[pos++];
+                if (tag == 's' && utf8Equals(nameIdx, "value")) {
+                    value = utf8(u2());
+                } else if (tag == 's' && utf8Equals(nameIdx, "DOI")) {
+                    doi = utf8(u2());
+                } else if (tag == 's' && utf8Equals(nameIdx, "firstAuthorSurname")) {
+                    surname = utf8(u2());
+                } else if (tag == 'I' && utf8Equals(nameIdx, "year")) {
+                    year = integer(u2());
+                } else {
+                    skipElementValue(tag);
+                }
+            }
+            return new CitationRecord(value, doi, year, surname);
+        }
+
+        // @Citation.Citations({@Citation, ...}), after type_index
+        void readCitations(List<CitationRecord> citations) throws IOException {
+            int nPairs = u2();
+            for (int p = 0; p < nPairs; p++) {
+                int nameIdx = u2();
+                int tag = b[pos++];
+                if (tag == '[' && utf8Equals(nameIdx, "value")) {
+                    int n = u2();
+                    for (int i = 0; i < n; i++) {
+                        int elementTag = b[pos++];
+                        if (elementTag == '@' && utf8Equals(u2(), CITATION_DESC)) {
+                            citations.add(readCitation());
+                        } else {
+                            // malformed, skip this element
+                            if (elementTag == '@') skipPairs();
+                            else skipElementValue(elementTag);
+                        }
+                    }
+                } else {
+                    skipElementValue(tag);
+                }
+            }
+        }
+
+        String readDescription() throws IOException {
+            String description = null;
+            int nPairs = u2();
+            for (int p = 0; p < nPairs; p++) {
+                int nameIdx = u2();
+                int tag = b[pos++];
+                if (tag == 's' && utf8Equals(nameIdx, "value"))
+                    description = utf8(u2());
+                else
+                    skipElementValue(tag);
+            }
+            return description;
+        }
+
+        void skipPairs() throws IOException {
+            int nPairs = u2();
+            for (int p = 0; p < nPairs; p++) {
+                pos += 2;
+                skipElementValue(b[pos++]);
+            }
+        }
+
+        void skipElementValue(int tag) throws IOException {
+            switch (tag) {
+                case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 's': case 'c':
+                    pos += 2;
+                    break;
+                case 'e':
+                    pos += 4;
+                    break;
+                case '@':
+                    pos += 2;
+                    skipPairs();
+                    break;
+                case '[':
+                    int n = u2();
+                    for (int i = 0; i < n; i++)
+                        skipElementValue(b[pos++]);
+                    break;
+                default:
+                    throw new IOException("Unknown annotation element tag " + (char) tag + " !");
+            }
+        }
+
+        String className(int classIdx) throws IOException {
+            int off = cpOffset[classIdx];
+            if (b[off] != 7)
+                throw new IOException("Constant " + classIdx + " is not a class !");
+            return utf8(((b[off + 1] & 0xFF) << 8) | (b[off + 2] & 0xFF));
+        }
+
+        int integer(int idx) {
+            int off = cpOffset[idx] + 1;
+            return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+        }
+
+        // compare an ASCII string without decoding the constant
+        boolean utf8Equals(int idx, String s) {
+            int off = cpOffset[idx];
+            if (b[off] != 1) return false;
+            int len = ((b[off + 1] & 0xFF) << 8) | (b[off + 2] & 0xFF);
+            if (len != s.length()) return false;
+            for (int i = 0; i < len; i++) {
+                if (b[off + 3 + i] != s.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        // decode modified UTF-8
+        String utf8(int idx) throws IOException {
+            int off = cpOffset[idx];
+            if (b[off] != 1)
+                throw new IOException("Constant " + idx + " is not UTF8 !");
+            int len = ((b[off + 1] & 0xFF) << 8) | (b[off + 2] & 0xFF);
+            int i = off + 3, end = i + len;
+            char[] chars = new char[len];
+            int n = 0;
+            while (i < end) {
+                int c = b[i] & 0xFF;
+                if (c < 0x80) {
+                    chars[n++] = (char) c;
+                    i++;
+                } else if ((c & 0xE0) == 0xC0) {
+                    chars[n++] = (char) (((c & 0x1F) << 6) | (b[i + 1] & 0x3F));
+                    i += 2;
+                } else {
+                    chars[n++] = (char) (((c & 0x0F) << 12) | ((b[i + 1] & 0x3F) << 6) | (b[i + 2] & 0x3F));
+                    i += 3;
+                }
+            }
+            return new String(chars, 0, n);
+        }
+
+        int u2() {
+            int v = ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+            pos += 2;
+            return v;
+        }
+
+        int u4() {
+            int v = ((b[pos] & 0xFF) << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+            pos += 4;
+            return v;
+        }
+    }
+}
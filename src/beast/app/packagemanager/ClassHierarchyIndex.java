@@ -0,0 +1,517 @@
+package beast.app.packagemanager;
+
+import beast.app.util.Arguments;
+import beast.core.util.Log;
+import beast.util.Package;
+import beast.util.PackageManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The super class and interface graph of all classes in the package jars, which is built once from the class files,
+ * so that "is a BEASTObject" and the citations inherited from the parent classes
+ * are resolved by walking the graph instead of loading classes.
+ * Both results are memoized in each class on the path, so every class is only visited once.
+ * The classes are kept per jar and package, so that an updated or removed jar or package
+ * is replaced or removed by {@link #addClasses(File, String, Collection)}, {@link #removeJar(File)}
+ * and {@link #removePackage(String)}.
+ * The classes outside the added jars, such as beast.jar, are read as resources from a {@link ClassLoader}.
+ * Same as @Citation and @Description by reflection, if a class has no citation,
+ * it uses the citations of the nearest parent class having them.
+ * All class names in the arguments can be either <code>beast.core.BEASTObject</code>
+ * or <code>beast/core/BEASTObject</code>.
+ * Usage: ClassHierarchyIndex -class classes [-include packages] [-exclude packages]
+ *
+ * @author Walter Xie
+ */
+public class ClassHierarchyIndex {
+
+    // stop at depth 100 for cyclic hierarchy in broken jars
+    public static final int MAX_DEPTH = 100;
+
+    // key is internal name
+    private final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<>();
+    // the internal names not found by any loader
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+    // key is the jar path, the value is the classes read from it
+    private final ConcurrentMap<String, List<Node>> jars = new ConcurrentHashMap<>();
+    // key is package name, the value is the paths of its jars
+    private final ConcurrentMap<String, Set<String>> packageJars = new ConcurrentHashMap<>();
+    // find the classes outside the added jars, which are shared by all packages
+    private final ClassLoader sharedLoader;
+
+    public ClassHierarchyIndex() {
+        this(ClassHierarchyIndex.class.getClassLoader());
+    }
+
+    /**
+     * @param sharedLoader  to find the classes not in the package jars, such as beast.jar
+     */
+    public ClassHierarchyIndex(ClassLoader sharedLoader) {
+        this.sharedLoader = sharedLoader;
+    }
+
+    // a class, and its memoized results
+    private static final class Node {
+        final ClassFileInfo info;
+        // null if it is not in a package jar
+        final String pkgName;
+        // 0 unknown, 1 derived from BEASTObject, -1 not
+        volatile byte beastObject;
+        // the nearest class in the super class chain, itself included, having citations or description,
+        // NONE if no class has them, or null if not resolved
+        volatile Node citedBy;
+        volatile Node describedBy;
+
+        Node(ClassFileInfo info, String pkgName) {
+            this.info = info;
+            this.pkgName = pkgName;
+        }
+    }
+
+    private static final Node NONE = new Node(null, null);
+
+    //****** build ******//
+
+    /**
+     * add the classes of all installed packages.
+     * @param packageMap  key is package name
+     * @param filter      which classes in the jars to read
+     */
+    public void addPackages(Map<String, Package> packageMap, PackagePrefixFilter filter) {
+        BytecodeScanner reader = new BytecodeScanner(filter);
+        for (Package pkg : packageMap.values()) {
+            try {
+                for (File jar : PackageCitations.guessLibJarFile(pkg))
+                    addClasses(jar, pkg.getName(), reader.readClassFiles(jar).values());
+            } catch (IOException e) {
+                Log.warning.println("Skip package " + pkg.getName() + " : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * add the classes read from a jar. If a class is in more than one jar, the last added is used.
+     * If the jar is added again, e.g. it is updated, its previous classes are replaced.
+     * The memoized results are cleared if any class is replaced.
+     * @param jar      the jar file
+     * @param pkgName  the package containing the jar
+     * @param classes  {@link ClassFileInfo} read by {@link BytecodeScanner#readClassFiles(File)}
+     */
+    public synchronized void addClasses(File jar, String pkgName, Collection<ClassFileInfo> classes) {
+        String path = jar.getAbsolutePath();
+        List<Node> added = new ArrayList<>(classes.size());
+        for (ClassFileInfo info : classes)
+            added.add(new Node(info, pkgName));
+        List<Node> previous = jars.put(path, added);
+        boolean replaced = previous != null && removeNodes(previous);
+        if (pkgName != null)
+            packageJars.computeIfAbsent(pkgName, k -> ConcurrentHashMap.newKeySet()).add(path);
+
+        for (Node node : added) {
+            // a newer definition replaces the class in another jar, or read from the shared loader
+            if (nodes.put(node.info.name, node) != null)
+                replaced = true;
+            // the classes not found before may be in this jar
+            if (missing.remove(node.info.name))
+                replaced = true;
+        }
+        if (replaced)
+            clearMemo();
+    }
+
+    /**
+     * remove the classes read from a jar, e.g. it is deleted. If a class is also in another jar, that one is used.
+     * @param jar  the jar file
+     * @return true if the jar was added.
+     */
+    public synchronized boolean removeJar(File jar) {
+        return removeJar(jar.getAbsolutePath());
+    }
+
+    private boolean removeJar(String path) {
+        List<Node> previous = jars.remove(path);
+        if (previous == null)
+            return false;
+        for (Set<String> paths : packageJars.values())
+            paths.remove(path);
+        removeNodes(previous);
+        clearMemo();
+        return true;
+    }
+
+    /**
+     * remove the classes of all jars in a package, e.g. it is uninstalled, or before it is scanned again.
+     * @param pkgName  package name
+     * @return the number of jars removed.
+     */
+    public synchronized int removePackage(String pkgName) {
+        Set<String> paths = packageJars.remove(pkgName);
+        if (paths == null)
+            return 0;
+        int removed = 0;
+        for (String path : new ArrayList<>(paths)) {
+            if (removeJar(path))
+                removed++;
+        }
+        return removed;
+    }
+
+    // remove the nodes still in use, and use the same classes in the other jars instead, if any
+    private boolean removeNodes(List<Node> previous) {
+        boolean removed = false;
+        for (Node node : previous) {
+            if (!nodes.remove(node.info.name, node))
+                continue;
+            removed = true;
+            for (List<Node> other : jars.values()) {
+                for (Node n : other) {
+                    if (n.info.name.equals(node.info.name))
+                        nodes.put(n.info.name, n);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the paths of the jars added.
+     */
+    public Set<String> getJars() {
+        return new HashSet<>(jars.keySet());
+    }
+
+    private void clearMemo() {
+        for (Node node : nodes.values()) {
+            node.beastObject = 0;
+            node.citedBy = null;
+            node.describedBy = null;
+        }
+    }
+
+    /**
+     * @return the number of classes, including the classes read from the shared loader.
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    //****** query ******//
+
+    private static String internalName(String className) {
+        return className.replace('.', '/');
+    }
+
+    private Node getNode(String internalName) {
+        return getNode(internalName, null);
+    }
+
+    // null if not found. The classes only found by the package loader are not kept.
+    private Node getNode(String internalName, ClassLoader loader) {
+        Node node = nodes.get(internalName);
+        if (node != null || internalName == null)
+            return node;
+        if (!missing.contains(internalName)) {
+            ClassFileInfo info = BytecodeScanner.readClassFile(internalName, sharedLoader);
+            if (info != null)
+                return nodes.computeIfAbsent(internalName, n -> new Node(info, null));
+            missing.add(internalName);
+        }
+        if (loader != null && loader != sharedLoader) {
+            ClassFileInfo info = BytecodeScanner.readClassFile(internalName, loader);
+            if (info != null)
+                return new Node(info, null);
+        }
+        return null;
+    }
+
+    /**
+     * @param className  class name
+     * @return true if the class is in the index, or found by the shared loader.
+     */
+    public boolean contains(String className) {
+        return getNode(internalName(className)) != null;
+    }
+
+    /**
+     * @param className  class name
+     * @return the package containing the class, or null if it is not in a package jar.
+     */
+    public String getPackageName(String className) {
+        Node node = getNode(internalName(className));
+        return node == null ? null : node.pkgName;
+    }
+
+    /**
+     * @param className  class name
+     * @return the super classes from the parent to java.lang.Object, as many as found, in internal names.
+     */
+    public List<String> getSuperClasses(String className) {
+        List<String> supers = new ArrayList<>();
+        Node node = getNode(internalName(className));
+        while (node != null && node.info.superName != null && supers.size() < MAX_DEPTH) {
+            supers.add(node.info.superName);
+            node = getNode(node.info.superName);
+        }
+        return supers;
+    }
+
+    /**
+     * @param className      class name
+     * @param interfaceName  interface name
+     * @return true if the class or any of its super classes implements the interface, directly or indirectly.
+     */
+    public boolean hasInterface(String className, String interfaceName) {
+        String target = internalName(interfaceName);
+        Set<String> visited = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(internalName(className));
+        while (!queue.isEmpty()) {
+            String name = queue.poll();
+            if (!visited.add(name))
+                continue;
+            Node node = getNode(name);
+            if (node == null)
+                continue;
+            if (node.info.interfaces.contains(target))
+                return true;
+            queue.addAll(node.info.interfaces);
+            if (node.info.superName != null)
+                queue.add(node.info.superName);
+        }
+        return false;
+    }
+
+    /**
+     * @param className  class name
+     * @return true if the class is BEASTObject or derived from it, same as
+     *         {@link beast.util.PackageManager#isSubclass(Class, Class)}.
+     */
+    public boolean isBEASTObject(String className) {
+        return isBEASTObject(getNode(internalName(className)), null);
+    }
+
+    // memoize the result in every class on the path, but not if a super class is missing,
+    // which may be added later
+    private boolean isBEASTObject(Node node, ClassLoader loader) {
+        List<Node> path = new ArrayList<>();
+        byte result = -1;
+        boolean complete = false;
+        while (node != null && path.size() < MAX_DEPTH) {
+            if (node.beastObject != 0) {
+                result = node.beastObject;
+                complete = true;
+                break;
+            }
+            path.add(node);
+            String superName = node.info.superName;
+            if (BytecodeScanner.BEAST_OBJECT.equals(node.info.name) || BytecodeScanner.BEAST_OBJECT.equals(superName)) {
+                result = 1;
+                break;
+            }
+            if (superName == null || "java/lang/Object".equals(superName)) {
+                complete = true;
+                break;
+            }
+            node = getNode(superName, loader);
+        }
+        if (result == 1 || complete) {
+            for (Node n : path)
+                n.beastObject = result;
+        }
+        return result == 1;
+    }
+
+    // the nearest class in the super class chain having citations (or description), or NONE
+    private Node resolve(Node node, ClassLoader loader, boolean citation) {
+        List<Node> path = new ArrayList<>();
+        Node found = NONE;
+        boolean complete = false;
+        while (node != null && path.size() < MAX_DEPTH) {
+            Node memo = citation ? node.citedBy : node.describedBy;
+            if (memo != null) {
+                found = memo;
+                complete = true;
+                break;
+            }
+            path.add(node);
+            if (citation ? !node.info.citations.isEmpty() : node.info.description != null) {
+                found = node;
+                break;
+            }
+            if (node.info.superName == null) {
+                complete = true;
+                break;
+            }
+            node = getNode(node.info.superName, loader);
+        }
+        if (found != NONE || complete) {
+            for (Node n : path) {
+                if (citation)
+                    n.citedBy = found;
+                else
+                    n.describedBy = found;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param className  class name
+     * @return the citations of the class, or inherited from the nearest parent class having them,
+     *         or empty list.
+     */
+    public List<CitationRecord> getEffectiveCitations(String className) {
+        Node node = getNode(internalName(className));
+        Node source = node == null ? NONE : resolve(node, null, true);
+        return source == NONE ? Collections.emptyList() : source.info.citations;
+    }
+
+    /**
+     * @param className  class name
+     * @return the class declaring the effective citations, which is itself if not inherited,
+     *         or null if no citation.
+     */
+    public String getCitationSource(String className) {
+        Node node = getNode(internalName(className));
+        if (node == null)
+            return null;
+        Node source = resolve(node, null, true);
+        return source == NONE ? null : source.info.getClassName();
+    }
+
+    /**
+     * @param className  class name
+     * @return the description of the class, or inherited from the nearest parent class, or null.
+     */
+    public String getEffectiveDescription(String className) {
+        Node node = getNode(internalName(className));
+        Node source = node == null ? NONE : resolve(node, null, false);
+        return source == NONE ? null : source.info.description;
+    }
+
+    /**
+     * @param className  class name
+     * @return the {@link CitedClass} with the effective citations,
+     *         or null if it is not a cited BEASTObject, see {@link #getCitedClasses(String)}.
+     */
+    public CitedClass getCitedClass(String className) {
+        return getCitedClass(getNode(internalName(className)), null);
+    }
+
+    /**
+     * A class is cited if it is derived from BEASTObject but not an interface,
+     * and has its own citations, or is not abstract and inherits citations.
+     * @param node    the class
+     * @param loader  to find the super classes which are not in the index, or null
+     * @return {@link CitedClass}, or null
+     */
+    private CitedClass getCitedClass(Node node, ClassLoader loader) {
+        if (node == null || node.info.isInterface())
+            return null;
+        Node citedBy = resolve(node, loader, true);
+        if (citedBy == NONE || (citedBy != node && node.info.isAbstract()))
+            return null;
+        if (!isBEASTObject(node, loader))
+            return null;
+        CitedClass citedClass = new CitedClass(node.info.getClassName(), citedBy.info.citations);
+        Node describedBy = resolve(node, loader, false);
+        citedClass.setDescription(describedBy == NONE ? CitedClass.NOT_DOCUMENTED : describedBy.info.description);
+        return citedClass;
+    }
+
+    /**
+     * @param classes  the classes of a jar, which are added by {@link #addClasses(File, String, Collection)}
+     * @param loader   to find the super classes which are neither in the index nor in the shared loader
+     * @return the cited classes, where key is the class name.
+     */
+    public Map<String, CitedClass> getCitedClasses(Collection<ClassFileInfo> classes, ClassLoader loader) {
+        Map<String, CitedClass> citedClassMap = new TreeMap<>();
+        for (ClassFileInfo info : classes) {
+            Node node = nodes.get(info.name);
+            // if the class is also in a later jar, use the later one as the index does
+            CitedClass citedClass = getCitedClass(node != null ? node : new Node(info, null), loader);
+            if (citedClass != null)
+                citedClassMap.put(citedClass.className, citedClass);
+        }
+        return citedClassMap;
+    }
+
+    /**
+     * @param pkgName  package name
+     * @return the cited classes in the package, where key is the class name.
+     */
+    public Map<String, CitedClass> getCitedClasses(String pkgName) {
+        Map<String, CitedClass> citedClassMap = new TreeMap<>();
+        for (Node node : nodes.values()) {
+            if (pkgName.equals(node.pkgName)) {
+                CitedClass citedClass = getCitedClass(node, null);
+                if (citedClass != null)
+                    citedClassMap.put(citedClass.className, citedClass);
+            }
+        }
+        return citedClassMap;
+    }
+
+    @Override
+    public String toString() {
+        return size() + " classes from " + jars.size() + " jars, " + missing.size() + " missing classes";
+    }
+
+    // print the effective citations of the given classes in the installed packages
+    public static void main(String[] args) {
+        Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.StringOption("class", "classes",
+                                "Comma separated class names to print their effective citations."),
+                        new Arguments.StringOption("include", "packages",
+                                "Comma separated package prefixes, only read the classes in them. (optional)"),
+                        new Arguments.StringOption("exclude", "packages",
+                                "Comma separated package prefixes, do not read the classes in them. " +
+                                        "The default is " + PackagePrefixFilter.DEFAULT_EXCLUDES + ". (optional)"),
+                });
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!arguments.hasOption("class")) {
+            arguments.printUsage("ClassHierarchyIndex", "");
+            return;
+        }
+
+        Map<String, Package> packageMap = new TreeMap<>(Comparator.comparing(String::toLowerCase));
+        PackageManager.addInstalledPackages(packageMap);
+        PackagePrefixFilter filter = new PackagePrefixFilter(arguments.getStringOption("include"),
+                arguments.hasOption("exclude") ? arguments.getStringOption("exclude") : PackagePrefixFilter.DEFAULT_EXCLUDES);
+        long start = System.currentTimeMillis();
+        ClassHierarchyIndex index = new ClassHierarchyIndex();
+        index.addPackages(packageMap, filter);
+        Log.info.println("Index " + index + " in " + (System.currentTimeMillis() - start) + " ms.\n");
+
+        for (String className : arguments.getStringOption("class").split(",")) {
+            className = className.trim();
+            if (!index.contains(className)) {
+                Log.warning.println("Cannot find class " + className + " !\n");
+                continue;
+            }
+            Log.info.println(className + " in package " + index.getPackageName(className) +
+                    (index.isBEASTObject(className) ? ", BEASTObject" : ", not BEASTObject"));
+            String source = index.getCitationSource(className);
+            if (source == null) {
+                Log.info.println("No citation.\n");
+                continue;
+            }
+            if (!source.equals(className))
+                Log.info.println("Inherit citations from " + source);
+            for (CitationRecord citation : index.getEffectiveCitations(className))
+                Log.info.println(citation.value() + (citation.DOI().isEmpty() ? "" : "\n" + citation.DOI()));
+            Log.info.println();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package beast.app.packagemanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Find all cited {@link beast.core.BEASTObject BEASTObject}s in one jar file.
+ * @see ReflectionScanner
+ * @see BytecodeScanner
+ * @see HierarchyScanner
+ *
+ * @author Walter Xie
+ */
+public interface ClassScanner {
+
+    /**
+     * find all cited classes from a jar file.
+     * @param libFile jar file
+     * @param loader  the {@link ClassLoader} of the package containing the jar,
+     *                which also finds the classes of its depended packages
+     * @return {@link CitedClass} map, where key is the class name
+     * @throws IOException
+     */
+    Map<String, CitedClass> getAllCitedClasses(File libFile, ClassLoader loader) throws IOException;
+
+    /**
+     * @param errors  record the classes which cannot be scanned and keep scanning the jar,
+     *                or null to throw {@link IOException} at the first broken class.
+     */
+    default void setErrors(ScanErrors errors) { }
+
+    /**
+     * @return {@link ScanErrors}, or null if the scan stops at the first broken class.
+     */
+    default ScanErrors getErrors() {
+        return null;
+    }
+
+    /**
+     * @return the scanner and its settings which decide the result of a jar, such as the package filter,
+     *         so that a cached result is only used by the same configuration.
+     */
+    default String getConfiguration() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * @return false if the result of a jar also depends on other jars, which cannot be cached by the jar.
+     */
+    default boolean isCacheable() {
+        return true;
+    }
+
+    /**
+     * @param name  "reflection", "bytecode" or "hierarchy"
+     * @return the scanner given its name
+     */
+    static ClassScanner forName(String name) {
+        return forName(name, PackagePrefixFilter.DEFAULT);
+    }
+
+    /**
+     * @param name    "reflection", "bytecode" or "hierarchy"
+     * @param filter  which classes in the jar to scan
+     * @return the scanner given its name
+     */
+    static ClassScanner forName(String name, PackagePrefixFilter filter) {
+        if (name == null || name.equalsIgnoreCase("reflection"))
+            return new ReflectionScanner(filter);
+        if (name.equalsIgnoreCase("bytecode"))
+            return new BytecodeScanner(filter);
+        if (name.equalsIgnoreCase("hierarchy"))
+            return new HierarchyScanner(filter);
+        throw new IllegalArgumentException("Unknown scanner " + name + " !");
+    }
+}
@@ -5,12 +5,14 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import javax.net.ssl.HttpsURLConnection;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Pass one or many dois to Crossref to get publication(s) metadata.
@@ -21,39 +23,69 @@ public class CrossRef {
 
     public final String doi;
     protected final URL url;
+    protected final CrossRefClient client;
 
     public CrossRef(String doi) throws MalformedURLException {
+        this(doi, CrossRefClient.DEFAULT_BASE_URL, CrossRefClient.getDefault());
+    }
+
+    /**
+     * @param doi      DOI
+     * @param baseURL  the URL before DOI, such as {@link CrossRefClient#DEFAULT_BASE_URL}
+     * @param client   {@link CrossRefClient} to send the request
+     * @throws MalformedURLException
+     */
+    public CrossRef(String doi, String baseURL, CrossRefClient client) throws MalformedURLException {
         // rm / in the 1st char and last char
         if (doi.startsWith("/")) doi = doi.substring(1);
 //        if (doi.endsWith("/")) doi = doi.substring(0, doi.length()-1);
 
         this.doi = doi;
-        url = new URL("https://api.crossref.org/works/" + doi);
+        this.client = client;
+        url = new URL(baseURL + doi);
 
         Log.info("Requesting " + url.toString());
     }
 
     /**
-     * request CrossRef API
+     * request CrossRef API, which is limited by the rate limit of the {@link CrossRefClient},
+     * or get it from the {@link CrossRefCache} of the client.
      *
      * @return a JSON result
      * @throws Exception
      */
     public String get() throws Exception {
-        HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-        InputStream is = conn.getInputStream();
-        InputStreamReader isr = new InputStreamReader(is);
-        BufferedReader br = new BufferedReader(isr);
-
-        StringBuilder sb = new StringBuilder();
-        String inputLine;
-        while ((inputLine = br.readLine()) != null) {
-            sb.append(inputLine).append("\n");
-        }
+        return client.get(doi, url);
+    }
+
+    /**
+     * request CrossRef API in the background.
+     *
+     * @return a JSON result
+     */
+    public CompletableFuture<String> submit() {
+        return client.submit(doi, url);
+    }
 
-        br.close();
-        Thread.sleep(1000); // be nice to server
-        return sb.toString();
+    /**
+     * request CrossRef API, and only parse the DOI, authors, title, publisher and year
+     * while reading the response.
+     * @see CrossRefWorkParser
+     *
+     * @return {@link CrossRefWork}
+     * @throws Exception
+     */
+    public CrossRefWork getWork() throws Exception {
+        return client.getWork(doi, url);
+    }
+
+    /**
+     * {@link #getWork()} in the background.
+     *
+     * @return {@link CrossRefWork}
+     */
+    public CompletableFuture<CrossRefWork> submitWork() {
+        return client.submitWork(doi, url);
     }
 
     /**
@@ -130,15 +162,24 @@ public class CrossRef {
     }
 
 
+    /**
+     * request all DOIs in parallel through their {@link CrossRefClient},
+     * and print the authors in the same order as the given DOIs.
+     * @param out
+     * @param crossRefs
+     */
     public static void process(PrintStream out, CrossRef... crossRefs) {
-        String result;
         List<String> authors;
         String line;
 
-        for (CrossRef crossRef : crossRefs) {
+        List<CompletableFuture<CrossRefWork>> futures = new ArrayList<>();
+        for (CrossRef crossRef : crossRefs)
+            futures.add(crossRef.submitWork());
+
+        for (int i = 0; i < crossRefs.length; i++) {
+            CrossRef crossRef = crossRefs[i];
             try {
-                result = crossRef.get();
-                authors = crossRef.parseAuthors(result, false);
+                authors = join(futures.get(i)).getAuthors();
 
 //                authors.forEach(System.out::println);
                 line = String.join("\t", authors);
@@ -149,20 +190,91 @@ public class CrossRef {
                 e.printStackTrace();
             }
         }
-        out.close();
+        if (out != System.out)
+            out.close();
+    }
+
+    /**
+     * resolve all DOIs by {@link CrossRefBatchResolver}, which uses one request per batch,
+     * and print the authors in the same order as the given DOIs.
+     * @param out
+     * @param resolver
+     * @param crossRefs
+     */
+    public static void process(PrintStream out, CrossRefBatchResolver resolver, CrossRef... crossRefs) {
+        List<String> dois = new ArrayList<>();
+        for (CrossRef crossRef : crossRefs)
+            dois.add(crossRef.doi);
+        Map<String, String> results = resolver.resolve(dois);
+
+        for (CrossRef crossRef : crossRefs) {
+            String result = results.get(crossRef.doi);
+            if (result == null) {
+                Log.warning.println("Cannot resolve " + crossRef.doi + " !");
+                continue;
+            }
+            try {
+                List<String> authors = CrossRefWorkParser.parse(result, crossRef.doi).getAuthors();
+                out.println(crossRef.doi + "\t" + String.join("\t", authors));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        if (out != System.out)
+            out.close();
+    }
+
+    // rethrow the cause of failure
+    static <T> T join(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
     }
 
+    // Usage: CrossRef [-cache dir] [-offline] [-batch] [doi ...]
     public static void main(String[] args) {
+        CrossRefClient client = CrossRefClient.getDefault();
+        boolean batch = false;
+        List<String> dois = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-cache") && i + 1 < args.length) {
+                try {
+                    client.setCache(new CrossRefCache(new File(args[++i])));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else if (args[i].equals("-offline")) {
+                client.setOffline(true);
+            } else if (args[i].equals("-batch")) {
+                batch = true;
+            } else {
+                dois.add(args[i]);
+            }
+        }
+
         // one doi
-        String doi = "10.1093/molbev/mss086";
+        if (dois.isEmpty())
+            dois.add("10.1093/molbev/mss086");
 
-        CrossRef crossRef = null;
-        try {
-            crossRef = new CrossRef(doi);
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
+        List<CrossRef> crossRefList = new ArrayList<>();
+        for (String doi : dois) {
+            try {
+                crossRefList.add(new CrossRef(doi));
+            } catch (MalformedURLException e) {
+                e.printStackTrace();
+            }
         }
-        CrossRef.process(System.out, crossRef);
+        CrossRef[] crossRefs = crossRefList.toArray(new CrossRef[0]);
+        if (batch)
+            CrossRef.process(System.out, new CrossRefBatchResolver(client), crossRefs);
+        else
+            CrossRef.process(System.out, crossRefs);
+        Log.info.println("CrossRef requests : " + client.getRequestCount());
+        if (client.getCache() != null)
+            Log.info.println(client.getCache());
+        Metrics.printSummary();
 
         // many
 //        String[] dois = new String[]{"10.1371/journal.pcbi.1003537", "10.3851/IMP2656", "10.1534/genetics.110.125260",
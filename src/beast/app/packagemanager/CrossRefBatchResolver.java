@@ -0,0 +1,215 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolve many DOIs with one request per batch, using the CrossRef filter query
+ * <code>/works?filter=doi:...,doi:...</code>, and split the items back to each DOI.
+ * The result of each DOI is the same as the response of <code>/works/{doi}</code>,
+ * so it can be parsed by {@link CrossRef#parseAuthors(String, boolean)}
+ * and {@link CrossRef#parseAuthorsToJSON(String, boolean)}.
+ * The DOIs not in a batch response are requested one by one.
+ * Used by <code>CrossRef -batch</code> and <code>PackageCitationsManager -enrich file -batch</code>.
+ *
+ * @author Walter Xie
+ */
+public class CrossRefBatchResolver {
+
+    public static final int DEFAULT_BATCH_SIZE = 20;
+
+    protected final CrossRefClient client;
+    // such as https://api.crossref.org/works/
+    protected final String baseURL;
+    protected final int batchSize;
+
+    public CrossRefBatchResolver(CrossRefClient client) {
+        this(client, CrossRefClient.DEFAULT_BASE_URL, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param client     {@link CrossRefClient} to send the requests
+     * @param baseURL    the URL before DOI, such as {@link CrossRefClient#DEFAULT_BASE_URL}
+     * @param batchSize  the maximum number of DOIs per request
+     */
+    public CrossRefBatchResolver(CrossRefClient client, String baseURL, int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive !");
+        this.client = client;
+        this.baseURL = baseURL.endsWith("/") ? baseURL : baseURL + "/";
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param dois  DOIs, duplicates are requested once
+     * @return the JSON result of each DOI in the given order, where key is the given DOI.
+     *         The DOIs which cannot be resolved are not in the map.
+     */
+    public Map<String, String> resolve(Collection<String> dois) {
+        return submit(dois).join();
+    }
+
+    /**
+     * {@link #resolve(Collection)} in the background, which never blocks the caller,
+     * so that it can be used by a stage of {@link CitationPipeline}.
+     * @param dois  DOIs, duplicates are requested once
+     * @return the JSON result of each DOI in the given order, where key is the given DOI.
+     *         The DOIs which cannot be resolved are not in the map.
+     */
+    public CompletableFuture<Map<String, String>> submit(Collection<String> dois) {
+        List<String> given = new ArrayList<>(dois);
+        // key is lower case DOI, DOI is case insensitive
+        Map<String, String> pending = new LinkedHashMap<>();
+        for (String doi : given) {
+            String d = normalise(doi);
+            if (d.length() > 0)
+                pending.putIfAbsent(d.toLowerCase(Locale.ROOT), d);
+        }
+
+        // filled by one callback after another
+        Map<String, String> results = new ConcurrentHashMap<>();
+        CrossRefCache cache = client.getCache();
+        if (cache != null) {
+            for (Iterator<Map.Entry<String, String>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, String> e = it.next();
+                CrossRefCache.Entry entry = cache.get(e.getValue());
+                if (entry != null && (entry.isFresh() || client.isOffline())) {
+                    cache.countHit();
+                    results.put(e.getKey(), entry.body);
+                    it.remove();
+                }
+            }
+        }
+        if (client.isOffline() || pending.isEmpty())
+            return CompletableFuture.completedFuture(inGivenOrder(given, results));
+
+        // a comma in DOI breaks the filter
+        List<String> batchable = new ArrayList<>();
+        List<String> singles = new ArrayList<>();
+        for (String doi : pending.values())
+            (doi.contains(",") ? singles : batchable).add(doi);
+
+        List<CompletableFuture<String>> batches = new ArrayList<>();
+        for (int i = 0; i < batchable.size(); i += batchSize) {
+            List<String> batch = batchable.subList(i, Math.min(i + batchSize, batchable.size()));
+            try {
+                batches.add(client.submit(getBatchURL(batch)));
+            } catch (MalformedURLException e) {
+                Log.warning.println("Cannot create batch request : " + e.getMessage());
+                singles.addAll(batch);
+            }
+        }
+
+        return allDone(batches).thenCompose(v -> {
+            for (CompletableFuture<String> batch : batches) {
+                try {
+                    splitItems(CrossRef.join(batch), results, cache);
+                } catch (Exception e) {
+                    // the DOIs of the failed batch are requested one by one
+                    Log.warning.println("Batch request failed : " + e.getMessage());
+                }
+            }
+
+            // not returned by batch requests
+            for (Map.Entry<String, String> e : pending.entrySet()) {
+                if (!results.containsKey(e.getKey()) && !singles.contains(e.getValue()))
+                    singles.add(e.getValue());
+            }
+            Map<String, CompletableFuture<String>> singleFutures = new LinkedHashMap<>();
+            for (String doi : singles) {
+                try {
+                    singleFutures.put(doi, client.submit(doi, new URL(baseURL + doi)));
+                } catch (MalformedURLException e) {
+                    Log.warning.println("Cannot request " + doi + " : " + e.getMessage());
+                }
+            }
+            return allDone(singleFutures.values()).thenApply(w -> {
+                for (Map.Entry<String, CompletableFuture<String>> e : singleFutures.entrySet()) {
+                    try {
+                        results.put(e.getKey().toLowerCase(Locale.ROOT), CrossRef.join(e.getValue()));
+                    } catch (Exception ex) {
+                        Log.warning.println("Cannot resolve " + e.getKey() + " : " + ex.getMessage());
+                    }
+                }
+                return inGivenOrder(given, results);
+            });
+        });
+    }
+
+    // complete when all are done, even if some failed
+    private static CompletableFuture<Void> allDone(Collection<? extends CompletableFuture<?>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).handle((v, t) -> null);
+    }
+
+    // in the given order, and keyed by the given DOI
+    private static Map<String, String> inGivenOrder(List<String> given, Map<String, String> results) {
+        Map<String, String> resolved = new LinkedHashMap<>();
+        for (String doi : given) {
+            String result = results.get(normalise(doi).toLowerCase(Locale.ROOT));
+            if (result != null)
+                resolved.put(doi, result);
+        }
+        return resolved;
+    }
+
+    /**
+     * @param batch DOIs
+     * @return such as https://api.crossref.org/works?filter=doi:10.1/a,doi:10.1/b&amp;rows=2
+     * @throws MalformedURLException
+     */
+    protected URL getBatchURL(List<String> batch) throws MalformedURLException {
+        StringBuilder filter = new StringBuilder();
+        for (String doi : batch) {
+            if (filter.length() > 0) filter.append(',');
+            filter.append("doi:").append(doi);
+        }
+        try {
+            return new URL(baseURL.substring(0, baseURL.length() - 1) + "?filter=" +
+                    URLEncoder.encode(filter.toString(), "UTF-8") + "&rows=" + batch.size());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // wrap each item as the response of a single DOI
+    protected void splitItems(String result, Map<String, String> results, CrossRefCache cache) {
+        JSONArray items = new JSONObject(result).getJSONObject("message").getJSONArray("items");
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            String doi = item.getString("DOI");
+            JSONObject single = new JSONObject();
+            single.put("status", "ok");
+            single.put("message-type", "work");
+            single.put("message", item);
+            String json = single.toString();
+            results.put(doi.toLowerCase(Locale.ROOT), json);
+            if (cache != null) {
+                cache.countMiss();
+                cache.put(doi, json, null, null);
+            }
+        }
+    }
+
+    // same as CrossRef constructor
+    private static String normalise(String doi) {
+        doi = doi.trim();
+        return doi.startsWith("/") ? doi.substring(1) : doi;
+    }
+
+    /**
+     * @return the number of requests sent by the client so far.
+     */
+    public int getRequestCount() {
+        return client.getRequestCount();
+    }
+}
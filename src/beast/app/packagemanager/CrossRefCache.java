@@ -0,0 +1,322 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk store of CrossRef responses, one gzipped file per DOI in the cache dir.
+ * An entry is fresh for the given time to live, after which it is revalidated
+ * by ETag or Last-Modified, if the server gave them.
+ * The least recently used entries are removed when the total size is over the limit.
+ * The lock only guards the index, the files are read and written outside it.
+ * @see CrossRefClient#setCache(CrossRefCache)
+ *
+ * @author Walter Xie
+ */
+public class CrossRefCache {
+
+    public static final int MAGIC = 0x434D4352; // CMCR
+    public static final int FORMAT_VERSION = 1;
+    public static final long DEFAULT_TTL = 30L * 24 * 3600 * 1000; // 30 days
+    public static final long DEFAULT_MAX_BYTES = 100L * 1024 * 1024; // 100 MB
+
+    protected final File dir;
+    protected final long ttlMillis;
+    protected final long maxBytes;
+    // key is lower case DOI, access order for LRU
+    protected final LinkedHashMap<String, Meta> index = new LinkedHashMap<>(16, 0.75f, true);
+    protected long totalBytes = 0;
+
+    protected final AtomicInteger hits = new AtomicInteger();
+    protected final AtomicInteger revalidated = new AtomicInteger();
+    protected final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param dir        cache dir, created if not exist
+     * @param ttlMillis  how long an entry is fresh
+     * @param maxBytes   the maximum total size of the cache files
+     * @throws IOException
+     */
+    public CrossRefCache(File dir, long ttlMillis, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.ttlMillis = ttlMillis;
+        this.maxBytes = maxBytes;
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Cannot create cache dir " + dir);
+        loadIndex();
+    }
+
+    public CrossRefCache(File dir) throws IOException {
+        this(dir, DEFAULT_TTL, DEFAULT_MAX_BYTES);
+    }
+
+    // read the header of every file, ordered by last access time which is the file modified time
+    private void loadIndex() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".json.gz"));
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File f : files) {
+            try (DataInputStream in = open(f)) {
+                Meta meta = readMeta(in, f);
+                index.put(meta.doi.toLowerCase(Locale.ROOT), meta);
+                totalBytes += meta.size;
+            } catch (IOException e) {
+                Log.warning.println("Remove broken CrossRef cache file " + f + " : " + e.getMessage());
+                f.delete();
+            }
+        }
+        evict();
+    }
+
+    /**
+     * @param doi DOI
+     * @return the cached entry, fresh or not, or null if not cached.
+     */
+    public Entry get(String doi) {
+        String key = key(doi);
+        Meta meta;
+        synchronized (this) {
+            meta = index.get(key);
+        }
+        if (meta == null)
+            return null;
+        // the file is replaced atomically, so read the header with the body
+        try (DataInputStream in = open(meta.file)) {
+            Meta current = readMeta(in, meta.file);
+            String body = ScanCache.readString(in);
+            // mark the last access for LRU after restart
+            meta.file.setLastModified(System.currentTimeMillis());
+            return new Entry(current, body);
+        } catch (IOException e) {
+            Log.warning.println("Cannot read CrossRef cache of " + doi + " : " + e.getMessage());
+            synchronized (this) {
+                // unless it has been replaced meanwhile
+                if (index.get(key) == meta)
+                    remove(doi);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * add or replace the response of a DOI, which is fresh from now.
+     * @param doi          DOI
+     * @param body         the JSON response
+     * @param etag         ETag header or null
+     * @param lastModified Last-Modified header or null
+     */
+    public void put(String doi, String body, String etag, String lastModified) {
+        String key = key(doi);
+        File f = new File(dir, fileName(key));
+        Meta meta = new Meta(doi, f, System.currentTimeMillis() + ttlMillis, etag, lastModified);
+        File tmp = null;
+        try {
+            tmp = write(meta, body);
+            // rename with the index update, so that they always agree
+            synchronized (this) {
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                Meta old = index.put(key, meta);
+                if (old != null)
+                    totalBytes -= old.size;
+                totalBytes += meta.size;
+                evict();
+            }
+        } catch (IOException e) {
+            Log.warning.println("Cannot write CrossRef cache of " + doi + " : " + e.getMessage());
+            if (tmp != null)
+                tmp.delete();
+        }
+    }
+
+    /**
+     * the server says the entry is not modified, so it is fresh again.
+     * @param doi DOI
+     */
+    public void refresh(String doi) {
+        Entry entry = get(doi);
+        if (entry != null)
+            put(entry.meta.doi, entry.body, entry.meta.etag, entry.meta.lastModified);
+    }
+
+    public synchronized void remove(String doi) {
+        Meta meta = index.remove(key(doi));
+        if (meta != null) {
+            totalBytes -= meta.size;
+            meta.file.delete();
+        }
+    }
+
+    // remove the least recently used entries until the total size is under the limit
+    protected void evict() {
+        Iterator<Meta> it = index.values().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Meta meta = it.next();
+            it.remove();
+            totalBytes -= meta.size;
+            meta.file.delete();
+        }
+    }
+
+    // write to a new temp file in the cache dir, which is not a .json.gz file
+    private File write(Meta meta, String body) throws IOException {
+        File tmp = File.createTempFile(meta.file.getName() + "-", ".tmp", dir);
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            ScanCache.writeString(out, meta.doi);
+            out.writeLong(meta.expires);
+            ScanCache.writeString(out, meta.etag == null ? "" : meta.etag);
+            ScanCache.writeString(out, meta.lastModified == null ? "" : meta.lastModified);
+            ScanCache.writeString(out, body);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        meta.size = tmp.length();
+        return tmp;
+    }
+
+    private static DataInputStream open(File f) throws IOException {
+        return new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(f))));
+    }
+
+    private static Meta readMeta(DataInputStream in, File f) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("not a CrossRef cache file");
+        int version = in.readInt();
+        if (version != FORMAT_VERSION)
+            throw new IOException("format version " + version + " is not " + FORMAT_VERSION);
+        String doi = ScanCache.readString(in);
+        long expires = in.readLong();
+        String etag = ScanCache.readString(in);
+        String lastModified = ScanCache.readString(in);
+        Meta meta = new Meta(doi, f, expires, etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified);
+        meta.size = f.length();
+        return meta;
+    }
+
+    // DOI is case insensitive
+    private static String key(String doi) {
+        return doi.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // DOI has '/' and other characters not allowed in file names
+    private static String fileName(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash)
+                sb.append(String.format("%02x", b));
+            return sb.append(".json.gz").toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void countHit() {
+        hits.incrementAndGet();
+    }
+
+    public void countRevalidated() {
+        revalidated.incrementAndGet();
+    }
+
+    public void countMiss() {
+        misses.incrementAndGet();
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return the DOIs of all cached responses, fresh or not.
+     */
+    public synchronized List<String> getDOIs() {
+        List<String> dois = new ArrayList<>(index.size());
+        for (Meta meta : index.values())
+            dois.add(meta.doi);
+        return dois;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the fraction of lookups answered without downloading the body.
+     */
+    public double getHitRate() {
+        int n = hits.get() + revalidated.get() + misses.get();
+        return n == 0 ? 0 : (double) (hits.get() + revalidated.get()) / n;
+    }
+
+    @Override
+    public String toString() {
+        return "CrossRef cache : " + hits.get() + " hits, " + revalidated.get() + " revalidated, " +
+                misses.get() + " misses, hit rate " + String.format("%.1f", getHitRate() * 100) + "%, " +
+                size() + " DOIs in " + getTotalBytes() / 1024 + " KB.";
+    }
+
+    // the header of a cache file
+    protected static class Meta {
+        final String doi;
+        final File file;
+        final long expires;
+        final String etag;
+        final String lastModified;
+        long size;
+
+        Meta(String doi, File file, long expires, String etag, String lastModified) {
+            this.doi = doi;
+            this.file = file;
+            this.expires = expires;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * a cached response.
+     */
+    public static class Entry {
+        protected final Meta meta;
+        public final String body;
+
+        Entry(Meta meta, String body) {
+            this.meta = meta;
+            this.body = body;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() < meta.expires;
+        }
+
+        /**
+         * @return true if the server gave ETag or Last-Modified
+         */
+        public boolean canRevalidate() {
+            return meta.etag != null || meta.lastModified != null;
+        }
+
+        public String getETag() {
+            return meta.etag;
+        }
+
+        public String getLastModified() {
+            return meta.lastModified;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Send requests to CrossRef API in parallel, but no more than the given number at the same time,
+ * and no faster than the rate limit, which follows the <code>X-Rate-Limit-*</code> headers
+ * returned by the server. It replaces sleeping 1 second after each request.
+ * @see <a href="https://api.crossref.org/swagger-ui/index.html">CrossRef API etiquette</a>
+ *
+ * @author Walter Xie
+ */
+public class CrossRefClient implements Closeable {
+
+    public static final String DEFAULT_BASE_URL = "https://api.crossref.org/works/";
+    // CrossRef public pool: 5 concurrent requests
+    public static final int DEFAULT_MAX_CONCURRENCY = 5;
+    // until the server tells the limit
+    public static final int DEFAULT_RATE_LIMIT = 10;
+    public static final int MAX_RETRIES = 3;
+
+    private static CrossRefClient defaultClient;
+
+    protected final RateLimiter rateLimiter;
+    protected final ExecutorService executor;
+    protected final int maxConcurrency;
+    protected int connectTimeout = 10000;
+    protected int readTimeout = 30000;
+
+    protected final AtomicInteger requests = new AtomicInteger();
+
+    protected CrossRefCache cache;
+    // only use cache
+    protected boolean offline = false;
+
+    /**
+     * @param maxConcurrency  the maximum number of requests at the same time
+     * @param rateLimit       the initial number of requests per second
+     */
+    public CrossRefClient(int maxConcurrency, int rateLimit) {
+        this.maxConcurrency = maxConcurrency;
+        this.rateLimiter = new RateLimiter(rateLimit, 1000);
+        AtomicInteger n = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxConcurrency, r -> {
+            Thread t = new Thread(r, "CrossRef-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @return the client shared by all {@link CrossRef} instances.
+     */
+    public static synchronized CrossRefClient getDefault() {
+        if (defaultClient == null)
+            defaultClient = new CrossRefClient(DEFAULT_MAX_CONCURRENCY, DEFAULT_RATE_LIMIT);
+        return defaultClient;
+    }
+
+    /**
+     * @param cache  the store of responses by DOI, or null not to cache
+     */
+    public void setCache(CrossRefCache cache) {
+        this.cache = cache;
+    }
+
+    public CrossRefCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @param offline  if true, never connect to the server, and use the cache even it is expired.
+     */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeout = connectTimeoutMillis;
+        this.readTimeout = readTimeoutMillis;
+    }
+
+    /**
+     * request in the background.
+     * @param url  request URL
+     * @return the response body
+     */
+    public CompletableFuture<String> submit(URL url) {
+        Metrics.Timer queued = getMetrics(url).start(Metrics.Phase.CROSSREF_QUEUE);
+        return CompletableFuture.supplyAsync(() -> {
+            queued.stop(null);
+            try {
+                return get(url);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * request the metadata of a DOI in the background, using the cache if set.
+     * @param doi  DOI as the cache key
+     * @param url  request URL
+     * @return the response body
+     */
+    public CompletableFuture<String> submit(String doi, URL url) {
+        Metrics.Timer queued = getMetrics(url).start(Metrics.Phase.CROSSREF_QUEUE);
+        return CompletableFuture.supplyAsync(() -> {
+            queued.stop(doi);
+            try {
+                return get(doi, url);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * request the metadata of a DOI in the caller thread.
+     * If the cache is set, a fresh entry is used without connecting to the server,
+     * and an expired entry is revalidated by ETag or Last-Modified.
+     * @param doi  DOI as the cache key
+     * @param url  request URL
+     * @return the response body
+     * @throws IOException
+     */
+    public String get(String doi, URL url) throws IOException {
+        if (cache == null) {
+            if (offline)
+                throw new IOException("Offline without cache, cannot request " + url);
+            return get(url);
+        }
+
+        CrossRefCache.Entry entry = cache.get(doi);
+        if (entry != null && (offline || entry.isFresh())) {
+            cache.countHit();
+            Metrics.count(Metrics.Counter.CROSSREF_CACHE_HIT);
+            return entry.body;
+        }
+        if (offline) {
+            cache.countMiss();
+            Metrics.count(Metrics.Counter.CROSSREF_CACHE_MISS);
+            throw new IOException("Offline, " + doi + " is not in the cache !");
+        }
+
+        Response<String> response = entry != null && entry.canRevalidate() ?
+                request(url, entry.getETag(), entry.getLastModified()) : request(url, null, null);
+        if (response.notModified) {
+            cache.countRevalidated();
+            Metrics.count(Metrics.Counter.CROSSREF_CACHE_REVALIDATED);
+            cache.refresh(doi);
+            return entry.body;
+        }
+        cache.countMiss();
+        Metrics.count(Metrics.Counter.CROSSREF_CACHE_MISS);
+        cache.put(doi, response.body, response.etag, response.lastModified);
+        return response.body;
+    }
+
+    /**
+     * request the metadata of a DOI, and parse the response while it is downloading,
+     * if the cache is not set. Otherwise, the response is cached as a String and then parsed.
+     * @param doi  DOI as the cache key
+     * @param url  request URL
+     * @return {@link CrossRefWork}
+     * @throws IOException
+     */
+    public CrossRefWork getWork(String doi, URL url) throws IOException {
+        if (cache != null || offline) {
+            String body = get(doi, url);
+            Metrics.Timer timer = getMetrics(url).start(Metrics.Phase.CROSSREF_PARSE);
+            CrossRefWork work = CrossRefWorkParser.parse(body, doi);
+            timer.stop(doi);
+            return work;
+        }
+        // parsed while downloading, so the parse time is in the http time
+        return request(url, null, null, is -> CrossRefWorkParser.parse(is, doi)).body;
+    }
+
+    /**
+     * {@link #getWork(String, URL)} in the background.
+     * @param doi  DOI as the cache key
+     * @param url  request URL
+     * @return {@link CrossRefWork}
+     */
+    public CompletableFuture<CrossRefWork> submitWork(String doi, URL url) {
+        Metrics.Timer queued = getMetrics(url).start(Metrics.Phase.CROSSREF_QUEUE);
+        return CompletableFuture.supplyAsync(() -> {
+            queued.stop(doi);
+            try {
+                return getWork(doi, url);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * request in the caller thread, but still follow the rate limit.
+     * Retry when the server returns 429 or 503.
+     * @param url  request URL
+     * @return the response body
+     * @throws IOException
+     */
+    public String get(URL url) throws IOException {
+        return request(url, null, null).body;
+    }
+
+    /**
+     * send a GET request, which is conditional if ETag or Last-Modified is given.
+     * @param url           request URL
+     * @param etag          If-None-Match, or null
+     * @param lastModified  If-Modified-Since, or null
+     * @return the response
+     * @throws IOException
+     */
+    protected Response<String> request(URL url, String etag, String lastModified) throws IOException {
+        return request(url, etag, lastModified, CrossRefClient::readBody);
+    }
+
+    /**
+     * send a GET request, which is conditional if ETag or Last-Modified is given,
+     * and read the response body while it is downloading.
+     * @param url           request URL
+     * @param etag          If-None-Match, or null
+     * @param lastModified  If-Modified-Since, or null
+     * @param bodyReader    read the body from the connection
+     * @return the response
+     * @throws IOException
+     */
+    protected <T> Response<T> request(URL url, String etag, String lastModified,
+                                      BodyReader<T> bodyReader) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                rateLimiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted before requesting " + url);
+            }
+            requests.incrementAndGet();
+            Metrics.count(Metrics.Counter.CROSSREF_REQUESTS);
+            if (attempt > 0)
+                Metrics.count(Metrics.Counter.CROSSREF_RETRIES);
+            Metrics.Timer timer = getMetrics(url).start(Metrics.Phase.CROSSREF_HTTP);
+
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            conn.setConnectTimeout(connectTimeout);
+            conn.setReadTimeout(readTimeout);
+            conn.setRequestProperty("User-Agent", "CitationManager (https://github.com/walterxie/CitationManager)");
+            if (etag != null)
+                conn.setRequestProperty("If-None-Match", etag);
+            if (lastModified != null)
+                conn.setRequestProperty("If-Modified-Since", lastModified);
+            try {
+                int code = conn.getResponseCode();
+                updateRateLimit(conn);
+                if ((code == 429 || code == 503) && attempt < MAX_RETRIES) {
+                    long wait = getRetryAfterMillis(conn, attempt);
+                    Log.warning.println("CrossRef returns " + code + ", retry " + url + " after " + wait + " ms");
+                    rateLimiter.pause(wait);
+                    continue;
+                }
+                if (code == HttpURLConnection.HTTP_NOT_MODIFIED)
+                    return new Response<>(null, null, null, true);
+                if (code != HttpURLConnection.HTTP_OK)
+                    throw new IOException("CrossRef returns " + code + " for " + url);
+                try (InputStream is = conn.getInputStream()) {
+                    return new Response<>(bodyReader.read(is), conn.getHeaderField("ETag"),
+                            conn.getHeaderField("Last-Modified"), false);
+                }
+            } finally {
+                conn.disconnect();
+                timer.stop(url.getPath());
+            }
+        }
+    }
+
+    // the timings of each host
+    private static Metrics.Subject getMetrics(URL url) {
+        return Metrics.forSubject(url.getProtocol() + "://" + url.getHost());
+    }
+
+    // X-Rate-Limit-Limit: 50, X-Rate-Limit-Interval: 1s
+    protected void updateRateLimit(HttpURLConnection conn) {
+        String limit = conn.getHeaderField("X-Rate-Limit-Limit");
+        String interval = conn.getHeaderField("X-Rate-Limit-Interval");
+        if (limit == null || interval == null)
+            return;
+        try {
+            int l = Integer.parseInt(limit.trim());
+            long millis = parseInterval(interval.trim());
+            rateLimiter.setLimit(l, millis);
+        } catch (IllegalArgumentException e) {
+            Log.debug("Ignore rate limit headers " + limit + " / " + interval);
+        }
+    }
+
+    /**
+     * @param interval  such as 1s, 500ms, 1m
+     * @return milliseconds
+     */
+    static long parseInterval(String interval) {
+        if (interval.endsWith("ms"))
+            return Long.parseLong(interval.substring(0, interval.length() - 2));
+        if (interval.endsWith("s"))
+            return (long) (Double.parseDouble(interval.substring(0, interval.length() - 1)) * 1000);
+        if (interval.endsWith("m"))
+            return (long) (Double.parseDouble(interval.substring(0, interval.length() - 1)) * 60000);
+        return (long) (Double.parseDouble(interval) * 1000);
+    }
+
+    private long getRetryAfterMillis(HttpURLConnection conn, int attempt) {
+        String retryAfter = conn.getHeaderField("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return Long.parseLong(retryAfter.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                // HTTP date is not supported
+            }
+        }
+        // exponential back off
+        return 1000L << attempt;
+    }
+
+    static String readBody(InputStream is) throws IOException {
+        try (Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8)) {
+            StringBuilder sb = new StringBuilder();
+            char[] buf = new char[8192];
+            int n;
+            while ((n = reader.read(buf)) > 0)
+                sb.append(buf, 0, n);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @return the number of requests sent, including retries.
+     */
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * read the response body from the connection.
+     */
+    public interface BodyReader<T> {
+        T read(InputStream is) throws IOException;
+    }
+
+    protected static class Response<T> {
+        final T body;
+        final String etag;
+        final String lastModified;
+        final boolean notModified;
+
+        Response(T body, String etag, String lastModified, boolean notModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.notModified = notModified;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package beast.app.packagemanager;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The metadata of a publication from CrossRef, only keeping
+ * the DOI, authors, title, publisher and the year created.
+ * @see CrossRefWorkParser
+ *
+ * @author Walter Xie
+ */
+public class CrossRefWork {
+
+    public final String doi;
+    // given names and family names in the same order
+    protected final String[] given;
+    protected final String[] family;
+    public final String title;
+    public final String publisher;
+    // 0 if unknown
+    public final int year;
+
+    public CrossRefWork(String doi, String[] given, String[] family, String title, String publisher, int year) {
+        if (given.length != family.length)
+            throw new IllegalArgumentException("Given names and family names must have the same length !");
+        this.doi = doi;
+        this.given = given;
+        this.family = family;
+        this.title = title;
+        this.publisher = publisher;
+        this.year = year;
+    }
+
+    public int getAuthorCount() {
+        return family.length;
+    }
+
+    public String getGivenName(int i) {
+        return given[i];
+    }
+
+    public String getFamilyName(int i) {
+        return family[i];
+    }
+
+    /**
+     * a list of authors using APA format, same as {@link CrossRef#parseAuthors(String, boolean)}:
+     * surename, firstname (one space after ,)
+     * @return
+     */
+    public List<String> getAuthors() {
+        if (family.length == 0)
+            return Collections.emptyList();
+        List<String> authors = new ArrayList<>(family.length);
+        for (int i = 0; i < family.length; i++)
+            authors.add(family[i] + ", " + given[i]);
+        return authors;
+    }
+
+    /**
+     * the same fields as {@link CrossRef#parseAuthorsToJSON(String, boolean)},
+     * but the authors only have "given" and "family".
+     * @return
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("doi", doi);
+        JSONArray authors = new JSONArray();
+        for (int i = 0; i < family.length; i++) {
+            JSONObject author = new JSONObject();
+            author.put("given", given[i]);
+            author.put("family", family[i]);
+            authors.put(author);
+        }
+        json.put("author", authors);
+        json.put("title", title);
+        json.put("publisher", publisher);
+        json.put("year", Integer.toString(year));
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return doi + "\t" + String.join("\t", getAuthors());
+    }
+}
@@ -0,0 +1,174 @@
+package beast.app.packagemanager;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parse a CrossRef <code>/works/{doi}</code> response into {@link CrossRefWork} while reading it,
+ * and skip everything else, such as the often huge "reference" array, without creating objects.
+ * It replaces building the whole response as a String and then a JSON tree.
+ *
+ * @author Walter Xie
+ */
+public class CrossRefWorkParser {
+
+    /**
+     * @param in  the response, which is not closed
+     * @param doi the requested DOI, used if the response has no DOI
+     * @return {@link CrossRefWork}
+     * @throws IOException if the JSON is invalid or has no "message".
+     */
+    public static CrossRefWork parse(InputStream in, String doi) throws IOException {
+        return parse(new InputStreamReader(in, StandardCharsets.UTF_8), doi);
+    }
+
+    /**
+     * @param result the response as a String
+     * @param doi    the requested DOI, used if the response has no DOI
+     * @return {@link CrossRefWork}
+     * @throws IOException if the JSON is invalid or has no "message".
+     */
+    public static CrossRefWork parse(String result, String doi) throws IOException {
+        return parse(new StringReader(result), doi);
+    }
+
+    public static CrossRefWork parse(Reader reader, String doi) throws IOException {
+        JsonPullParser p = new JsonPullParser(reader);
+        if (p.next() != JsonPullParser.Token.START_OBJECT)
+            throw new IOException("CrossRef response is not a JSON object !");
+        JsonPullParser.Token t;
+        while ((t = p.next()) == JsonPullParser.Token.NAME) {
+            if (p.textEquals("message")) {
+                if (p.next() != JsonPullParser.Token.START_OBJECT)
+                    throw new IOException("CrossRef message is not a JSON object !");
+                // ignore the rest
+                return parseMessage(p, doi);
+            }
+            p.skipValue(p.next());
+        }
+        throw new IOException("Cannot find message in CrossRef response !");
+    }
+
+    // after the START_OBJECT of the message
+    private static CrossRefWork parseMessage(JsonPullParser p, String doi) throws IOException {
+        List<String> given = new ArrayList<>();
+        List<String> family = new ArrayList<>();
+        String title = null, publisher = null;
+        int year = 0;
+
+        while (p.next() == JsonPullParser.Token.NAME) {
+            if (p.textEquals("DOI")) {
+                String d = p.nextString();
+                if (d != null) doi = d;
+            } else if (p.textEquals("author")) {
+                parseAuthors(p, given, family);
+            } else if (p.textEquals("title")) {
+                title = parseTitle(p);
+            } else if (p.textEquals("publisher")) {
+                publisher = p.nextString();
+            } else if (p.textEquals("created")) {
+                year = parseCreatedYear(p);
+            } else {
+                p.skipValue(p.next());
+            }
+        }
+        return new CrossRefWork(doi, given.toArray(new String[0]), family.toArray(new String[0]),
+                title, publisher, year);
+    }
+
+    // "author": [ { "given": "...", "family": "...", "affiliation": [] }, ... ]
+    private static void parseAuthors(JsonPullParser p, List<String> given, List<String> family) throws IOException {
+        JsonPullParser.Token t = p.next();
+        if (t != JsonPullParser.Token.START_ARRAY) {
+            p.skipValue(t);
+            return;
+        }
+        while ((t = p.next()) != JsonPullParser.Token.END_ARRAY) {
+            if (t != JsonPullParser.Token.START_OBJECT) {
+                p.skipValue(t);
+                continue;
+            }
+            String g = "", f = "";
+            while (p.next() == JsonPullParser.Token.NAME) {
+                if (p.textEquals("given")) {
+                    String s = p.nextString();
+                    if (s != null) g = s;
+                } else if (p.textEquals("family")) {
+                    String s = p.nextString();
+                    if (s != null) f = s;
+                } else {
+                    p.skipValue(p.next());
+                }
+            }
+            given.add(g);
+            family.add(f);
+        }
+    }
+
+    // CrossRef make title as an array, joined by a space
+    private static String parseTitle(JsonPullParser p) throws IOException {
+        JsonPullParser.Token t = p.next();
+        if (t == JsonPullParser.Token.STRING)
+            return p.getText();
+        if (t != JsonPullParser.Token.START_ARRAY) {
+            p.skipValue(t);
+            return null;
+        }
+        StringBuilder title = null;
+        while ((t = p.next()) != JsonPullParser.Token.END_ARRAY) {
+            if (t == JsonPullParser.Token.STRING) {
+                if (title == null) title = new StringBuilder(p.getText());
+                else title.append(' ').append(p.getText());
+            } else {
+                p.skipValue(t);
+            }
+        }
+        return title == null ? null : title.toString();
+    }
+
+    // "created": { "date-parts": [ [ 2014, 4, 10 ] ], ... }
+    private static int parseCreatedYear(JsonPullParser p) throws IOException {
+        JsonPullParser.Token t = p.next();
+        if (t != JsonPullParser.Token.START_OBJECT) {
+            p.skipValue(t);
+            return 0;
+        }
+        int year = 0;
+        while (p.next() == JsonPullParser.Token.NAME) {
+            if (!p.textEquals("date-parts")) {
+                p.skipValue(p.next());
+                continue;
+            }
+            // outer array
+            t = p.next();
+            if (t != JsonPullParser.Token.START_ARRAY) {
+                p.skipValue(t);
+                continue;
+            }
+            t = p.next();
+            if (t == JsonPullParser.Token.END_ARRAY)
+                continue;
+            if (t == JsonPullParser.Token.START_ARRAY) {
+                // inner array [ 2014, 4, 10 ]
+                t = p.next();
+                if (t == JsonPullParser.Token.NUMBER)
+                    year = (int) Double.parseDouble(p.getText());
+                if (t != JsonPullParser.Token.END_ARRAY) {
+                    p.skipValue(t);
+                    skipRest(p);
+                }
+            } else {
+                p.skipValue(t);
+            }
+            skipRest(p);
+        }
+        return year;
+    }
+
+    // skip the rest of the current array or object
+    private static void skipRest(JsonPullParser p) throws IOException {
+        p.skipValue(JsonPullParser.Token.START_ARRAY);
+    }
+}
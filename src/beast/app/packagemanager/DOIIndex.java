@@ -0,0 +1,281 @@
+package beast.app.packagemanager;
+
+import java.util.*;
+
+/**
+ * Inverted index of the DOIs cited in BEAST packages, which is built once and queried many times.
+ * DOIs (normalized by {@link CitationNormalizer}), package names and class names are interned to int ids,
+ * and the postings are stored in int arrays:
+ * DOI -> (package, class) pairs sorted by package then class,
+ * and package -> DOI ids sorted.
+ * Both DOI and package are looked up in O(1), and their postings are returned in O(k).
+ *
+ * @author Walter Xie
+ */
+public class DOIIndex {
+
+    // id -> value
+    private final String[] dois;
+    private final String[] pkgNames;
+    private final String[] classNames;
+    // value -> id
+    private final Map<String, Integer> doiIds;
+    private final Map<String, Integer> pkgIds;
+
+    // postings of DOI i are pairs in doiPostings[doiOffsets[i], doiOffsets[i+1]),
+    // where [2j] is the package id, and [2j+1] is the class id
+    private final int[] doiOffsets;
+    private final int[] doiPostings;
+    // DOI ids of package i are in pkgPostings[pkgOffsets[i], pkgOffsets[i+1])
+    private final int[] pkgOffsets;
+    private final int[] pkgPostings;
+
+    /**
+     * @param processedPkgMap  key is package name
+     */
+    public DOIIndex(Map<String, PackageCitations> processedPkgMap) {
+        Builder builder = new Builder();
+        for (Map.Entry<String, PackageCitations> entry : processedPkgMap.entrySet()) {
+            String pkgName = entry.getKey();
+            for (CitedClass citedClass : entry.getValue().getCitedClassMap().values()) {
+                for (NormalizedCitation citation : citedClass.normalized)
+                    builder.add(citation.doi, pkgName, citedClass.className);
+            }
+        }
+
+        dois = builder.dois.toArray(new String[0]);
+        pkgNames = builder.pkgNames.toArray(new String[0]);
+        classNames = builder.classNames.toArray(new String[0]);
+        doiIds = builder.doiIds;
+        pkgIds = builder.pkgIds;
+
+        int n = builder.size;
+        int[] triples = builder.triples;
+
+        // group (package, class) by DOI, then sort and remove duplicates
+        int[] counts = new int[dois.length + 1];
+        for (int i = 0; i < n; i++)
+            counts[triples[3 * i] + 1]++;
+        for (int d = 0; d < dois.length; d++)
+            counts[d + 1] += counts[d];
+        long[] keys = new long[n];
+        int[] next = Arrays.copyOf(counts, dois.length);
+        for (int i = 0; i < n; i++)
+            keys[next[triples[3 * i]]++] = ((long) triples[3 * i + 1] << 32) | triples[3 * i + 2];
+
+        doiOffsets = new int[dois.length + 1];
+        int m = 0;
+        for (int d = 0; d < dois.length; d++) {
+            Arrays.sort(keys, counts[d], counts[d + 1]);
+            doiOffsets[d] = m;
+            for (int k = counts[d]; k < counts[d + 1]; k++) {
+                if (k == counts[d] || keys[k] != keys[k - 1])
+                    keys[m++] = keys[k];
+            }
+        }
+        doiOffsets[dois.length] = m;
+        doiPostings = new int[2 * m];
+        for (int k = 0; k < m; k++) {
+            doiPostings[2 * k] = (int) (keys[k] >>> 32);
+            doiPostings[2 * k + 1] = (int) keys[k];
+        }
+
+        // invert DOI -> package, which visits DOIs in order, so each package list is sorted
+        int[] pkgCounts = new int[pkgNames.length + 1];
+        for (int d = 0; d < dois.length; d++)
+            forEachPackage(d, p -> pkgCounts[p + 1]++);
+        for (int p = 0; p < pkgNames.length; p++)
+            pkgCounts[p + 1] += pkgCounts[p];
+        pkgOffsets = pkgCounts;
+        pkgPostings = new int[pkgCounts[pkgNames.length]];
+        int[] pkgNext = Arrays.copyOf(pkgCounts, pkgNames.length);
+        for (int d = 0; d < dois.length; d++) {
+            final int doiId = d;
+            forEachPackage(d, p -> pkgPostings[pkgNext[p]++] = doiId);
+        }
+    }
+
+    private interface IntConsumer {
+        void accept(int value);
+    }
+
+    // distinct packages of a DOI, where pairs are sorted by package
+    private void forEachPackage(int doiId, IntConsumer consumer) {
+        int prev = -1;
+        for (int k = doiOffsets[doiId]; k < doiOffsets[doiId + 1]; k++) {
+            int p = doiPostings[2 * k];
+            if (p != prev)
+                consumer.accept(p);
+            prev = p;
+        }
+    }
+
+    /**
+     * @return the number of unique DOIs.
+     */
+    public int getDOICount() {
+        return dois.length;
+    }
+
+    /**
+     * @return the number of packages citing at least one DOI.
+     */
+    public int getPackageCount() {
+        return pkgNames.length;
+    }
+
+    /**
+     * @return the number of unique class names citing at least one DOI.
+     */
+    public int getClassCount() {
+        return classNames.length;
+    }
+
+    /**
+     * @return the number of unique (DOI, package, class).
+     */
+    public int getMappingCount() {
+        return doiPostings.length / 2;
+    }
+
+    /**
+     * @return all unique normalized DOIs in the order of first found.
+     */
+    public List<String> getDOIs() {
+        return Collections.unmodifiableList(Arrays.asList(dois));
+    }
+
+    /**
+     * @param pkgName package name
+     * @return the normalized DOIs cited in the package, or empty list.
+     */
+    public List<String> getDOIs(String pkgName) {
+        Integer p = pkgIds.get(pkgName);
+        if (p == null)
+            return Collections.emptyList();
+        List<String> list = new ArrayList<>(pkgOffsets[p + 1] - pkgOffsets[p]);
+        for (int k = pkgOffsets[p]; k < pkgOffsets[p + 1]; k++)
+            list.add(dois[pkgPostings[k]]);
+        return list;
+    }
+
+    /**
+     * @param doi DOI, which is normalized
+     * @return the packages citing this DOI, or empty list.
+     */
+    public List<String> getPackages(String doi) {
+        Integer d = doiIds.get(CitationNormalizer.normalizeDOI(doi));
+        if (d == null)
+            return Collections.emptyList();
+        List<String> list = new ArrayList<>();
+        forEachPackage(d, p -> list.add(pkgNames[p]));
+        return list;
+    }
+
+    /**
+     * @param doi DOI, which is normalized
+     * @return the (package, class) citing this DOI, sorted by package then class id, or empty list.
+     */
+    public List<DOIMapping> getMappings(String doi) {
+        Integer d = doiIds.get(CitationNormalizer.normalizeDOI(doi));
+        if (d == null)
+            return Collections.emptyList();
+        return getMappings(d);
+    }
+
+    private List<DOIMapping> getMappings(int d) {
+        List<DOIMapping> list = new ArrayList<>(doiOffsets[d + 1] - doiOffsets[d]);
+        for (int k = doiOffsets[d]; k < doiOffsets[d + 1]; k++)
+            list.add(new DOIMapping(dois[d], pkgNames[doiPostings[2 * k]], classNames[doiPostings[2 * k + 1]]));
+        return list;
+    }
+
+    /**
+     * @return all unique (DOI, package, class).
+     */
+    public Set<DOIMapping> getAllMappings() {
+        Set<DOIMapping> set = new HashSet<>(getMappingCount() * 4 / 3 + 1);
+        for (int d = 0; d < dois.length; d++)
+            set.addAll(getMappings(d));
+        return set;
+    }
+
+    /**
+     * estimate the retained heap of this index in bytes,
+     * assuming a 64-bit JVM with compressed references.
+     * @return
+     */
+    public long getMemoryFootprint() {
+        long bytes = 0;
+        for (String[] strings : new String[][]{dois, pkgNames, classNames}) {
+            bytes += arrayBytes(strings.length, 4);
+            for (String s : strings)
+                bytes += stringBytes(s);
+        }
+        // the strings are shared with the arrays, so only count the entries and Integer keys
+        bytes += mapBytes(doiIds.size()) + mapBytes(pkgIds.size());
+        for (int[] ints : new int[][]{doiOffsets, doiPostings, pkgOffsets, pkgPostings})
+            bytes += arrayBytes(ints.length, 4);
+        return bytes;
+    }
+
+    // 16 bytes header, aligned to 8 bytes
+    private static long arrayBytes(int length, int elementBytes) {
+        return align(16 + (long) length * elementBytes);
+    }
+
+    // String object and its char[]
+    private static long stringBytes(String s) {
+        return 24 + arrayBytes(s.length(), 2);
+    }
+
+    // HashMap.Node 32 + Integer 16 per entry, and the table
+    private static long mapBytes(int size) {
+        return 48 + size * 48L + arrayBytes(Integer.highestOneBit(Math.max(1, size * 4 / 3)) * 2, 4);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    @Override
+    public String toString() {
+        return getDOICount() + " DOIs, " + getPackageCount() + " packages, " + getClassCount() +
+                " classes, " + getMappingCount() + " mappings, about " + getMemoryFootprint() / 1024 + " KB";
+    }
+
+    // intern the strings and collect (DOI, package, class) ids
+    private static class Builder {
+        final List<String> dois = new ArrayList<>();
+        final List<String> pkgNames = new ArrayList<>();
+        final List<String> classNames = new ArrayList<>();
+        final Map<String, Integer> doiIds = new HashMap<>();
+        final Map<String, Integer> pkgIds = new HashMap<>();
+        final Map<String, Integer> classIds = new HashMap<>();
+        int[] triples = new int[3 * 64];
+        int size = 0;
+
+        // doi is normalized
+        void add(String doi, String pkgName, String className) {
+            // no DOI
+            if (doi.isEmpty())
+                return;
+            if (3 * size + 3 > triples.length)
+                triples = Arrays.copyOf(triples, triples.length * 2);
+            triples[3 * size] = intern(doi, dois, doiIds);
+            triples[3 * size + 1] = intern(pkgName, pkgNames, pkgIds);
+            triples[3 * size + 2] = intern(className, classNames, classIds);
+            size++;
+        }
+
+        private static int intern(String s, List<String> values, Map<String, Integer> ids) {
+            Integer id = ids.get(s);
+            if (id == null) {
+                id = values.size();
+                values.add(s);
+                ids.put(s, id);
+            }
+            return id;
+        }
+    }
+}
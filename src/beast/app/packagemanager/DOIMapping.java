@@ -1,5 +1,7 @@
 package beast.app.packagemanager;
 
+import java.util.Objects;
+
 /**
  * @author Walter Xie
  */
@@ -22,8 +24,26 @@ public class DOIMapping implements Comparable<DOIMapping> {
         return doi + ", " + pkgName + ", " + className;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DOIMapping)) return false;
+        DOIMapping that = (DOIMapping) o;
+        return doi.equals(that.doi) && pkgName.equals(that.pkgName) && className.equals(that.className);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(doi, pkgName, className);
+    }
+
+    // descending order of DOI, package name, then class name
     @Override
     public int compareTo(DOIMapping o) {
-        return o.getName().compareTo(this.getName());
+        int c = o.doi.compareTo(this.doi);
+        if (c != 0) return c;
+        c = o.pkgName.compareTo(this.pkgName);
+        if (c != 0) return c;
+        return o.className.compareTo(this.className);
     }
 }
@@ -0,0 +1,578 @@
+package beast.app.packagemanager;
+
+import beast.app.util.Arguments;
+import beast.core.Citation;
+import beast.core.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.*;
+
+/**
+ * Local inverted index to infer the DOIs of citations which have no DOI, without any network call.
+ * Each DOI is a document of features, which are taken from the cached CrossRef metadata
+ * (title, family names of the first {@link #MAX_AUTHORS} authors and year) and from the citations having this DOI.
+ * A citation text is tokenized into the same features: lower case words without accents,
+ * pairs of adjacent words, and <code>y:year</code> for the years between 1900 and 2099.
+ * Stop words and other numbers, e.g. volume and pages, are ignored.
+ * <p>
+ * Each feature is weighted by its inverse document frequency, and the postings are stored
+ * in int arrays by the offsets, the same as {@link DOIIndex}.
+ * The candidates are found by the rare features, and the common features, such as years,
+ * are only looked up in the postings of the shortlisted candidates.
+ * The confidence of a candidate is the weighted Tversky similarity between the citation X and the DOI Y:
+ * <code>|X&cap;Y| / (|X&cap;Y| + {@link #QUERY_ONLY_WEIGHT} |X-Y| + {@link #DOC_ONLY_WEIGHT} |Y-X|)</code>,
+ * which is 1 if they have the same features, and is tolerant of the journal, volume and pages
+ * in the citation, but not of the title words or authors missing from it.
+ *
+ * Usage: DOIMatcher -index file [-cache dir] [-text citation] [-max N] [-min confidence]
+ *     -index  the citation index written by PackageCitationsManager -index
+ *     -cache  the CrossRef cache dir, whose responses are added as documents (optional)
+ *     -text   only match this citation text, otherwise match all citations without DOI in the index (optional)
+ *     -max    the maximum number of candidates per citation, the default is 3 (optional)
+ *     -min    the minimum confidence of candidates, the default is 0.3 (optional)
+ *
+ * @author Walter Xie
+ */
+public class DOIMatcher {
+
+    // the weight of the features only in the citation, such as the journal
+    public static final double QUERY_ONLY_WEIGHT = 0.2;
+    // the weight of the features only in the DOI, such as the title words not cited
+    public static final double DOC_ONLY_WEIGHT = 0.8;
+    // the features in more documents than this fraction are not used to find candidates, but to rank them
+    public static final double MAX_DOC_FREQUENCY = 0.01;
+    // the candidates found by the rare features, which are ranked again with the common features
+    public static final int SHORTLIST_FACTOR = 4;
+    // only the family names of the first authors of a CrossRef work are features
+    public static final int MAX_AUTHORS = 3;
+
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "a", "an", "and", "are", "as", "at", "be", "by", "et", "al", "for", "from", "in", "into",
+            "is", "it", "its", "of", "on", "or", "the", "to", "via", "with", "using", "vol", "pp", "doi"));
+
+    // id -> DOI
+    private final String[] dois;
+    // feature -> id
+    private final Map<String, Integer> featureIds;
+    // inverse document frequency of each feature
+    private final double[] idf;
+    // the sum of feature weights of each document
+    private final double[] docWeights;
+    // documents of feature i are in postings[offsets[i], offsets[i+1]), sorted
+    private final int[] offsets;
+    private final int[] postings;
+    // the postings longer than this are not used to find candidates, but to rank them
+    private final int maxPostings;
+    // the weight of a feature not in any document
+    private final double unseenWeight;
+
+    private final ThreadLocal<Scratch> scratch;
+
+    private DOIMatcher(Builder builder) {
+        int n = builder.dois.size();
+        dois = builder.dois.toArray(new String[0]);
+        featureIds = builder.featureIds;
+        int nFeatures = featureIds.size();
+
+        // unique features of each document
+        int[] df = new int[nFeatures + 1];
+        int[][] docFeatures = new int[n][];
+        for (int d = 0; d < n; d++) {
+            docFeatures[d] = builder.docFeatures.get(d).toArray();
+            for (int f : docFeatures[d])
+                df[f + 1]++;
+        }
+        idf = new double[nFeatures];
+        for (int f = 0; f < nFeatures; f++)
+            idf[f] = Math.log(1.0 + (double) n / Math.max(1, df[f + 1]));
+        unseenWeight = Math.log(1.0 + n);
+
+        // invert document -> features, which visits documents in order, so each postings list is sorted
+        for (int f = 0; f < nFeatures; f++)
+            df[f + 1] += df[f];
+        offsets = df;
+        postings = new int[offsets[nFeatures]];
+        int[] next = Arrays.copyOf(offsets, nFeatures);
+        docWeights = new double[n];
+        for (int d = 0; d < n; d++) {
+            for (int f : docFeatures[d]) {
+                postings[next[f]++] = d;
+                docWeights[d] += idf[f];
+            }
+        }
+        maxPostings = Math.max(50, (int) (n * MAX_DOC_FREQUENCY));
+        scratch = ThreadLocal.withInitial(() -> new Scratch(dois.length));
+    }
+
+    /**
+     * A DOI and its confidence of matching a citation.
+     */
+    public static class Candidate implements Comparable<Candidate> {
+        public final String doi;
+        public final double confidence;
+
+        public Candidate(String doi, double confidence) {
+            this.doi = doi;
+            this.confidence = confidence;
+        }
+
+        // descending order of confidence, then DOI
+        @Override
+        public int compareTo(Candidate o) {
+            int c = Double.compare(o.confidence, confidence);
+            return c != 0 ? c : doi.compareTo(o.doi);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f", confidence) + "\t" + doi;
+        }
+    }
+
+    /**
+     * The DOI candidates of a citation without DOI in a cited class.
+     */
+    public static class Inference {
+        public final String pkgName;
+        public final String className;
+        public final NormalizedCitation citation;
+        public final List<Candidate> candidates;
+
+        public Inference(String pkgName, String className, NormalizedCitation citation, List<Candidate> candidates) {
+            this.pkgName = pkgName;
+            this.className = className;
+            this.citation = citation;
+            this.candidates = candidates;
+        }
+    }
+
+    public int getDOICount() {
+        return dois.length;
+    }
+
+    public int getFeatureCount() {
+        return idf.length;
+    }
+
+    //****** match ******//
+
+    /**
+     * @param text           citation text
+     * @param max            the maximum number of candidates
+     * @param minConfidence  the minimum confidence of candidates
+     * @return the candidates in descending order of confidence, or empty list.
+     */
+    public List<Candidate> match(String text, int max, double minConfidence) {
+        Set<String> features = new LinkedHashSet<>();
+        addTextFeatures(text, features);
+        return match(features, max, minConfidence);
+    }
+
+    /**
+     * also use the year and the first author surname of the {@link Citation}.
+     * @param citation       {@link Citation}
+     * @param max            the maximum number of candidates
+     * @param minConfidence  the minimum confidence of candidates
+     * @return the candidates in descending order of confidence, or empty list.
+     */
+    public List<Candidate> match(Citation citation, int max, double minConfidence) {
+        Set<String> features = new LinkedHashSet<>();
+        addCitationFeatures(citation, features);
+        return match(features, max, minConfidence);
+    }
+
+    private List<Candidate> match(Set<String> features, int max, double minConfidence) {
+        if (features.isEmpty() || max < 1)
+            return Collections.emptyList();
+        Scratch s = scratch.get();
+        double queryWeight = 0;
+        // the common features, which are only checked on the shortlist
+        int[] common = new int[features.size()];
+        int nCommon = 0;
+        for (String feature : features) {
+            Integer f = featureIds.get(feature);
+            if (f == null) {
+                queryWeight += unseenWeight;
+                continue;
+            }
+            double w = idf[f];
+            queryWeight += w;
+            if (offsets[f + 1] - offsets[f] > maxPostings) {
+                common[nCommon++] = f;
+                continue;
+            }
+            for (int k = offsets[f]; k < offsets[f + 1]; k++)
+                s.add(postings[k], w);
+        }
+
+        // the shortlist by the rare features, sorted by insertion
+        int shortlist = max * SHORTLIST_FACTOR;
+        int[] top = new int[shortlist];
+        double[] topScores = new double[shortlist];
+        int size = 0;
+        for (int i = 0; i < s.size; i++) {
+            int d = s.touched[i];
+            double confidence = confidence(s.scores[d], queryWeight, d);
+            if (size == shortlist && confidence <= topScores[size - 1])
+                continue;
+            int j = size < shortlist ? size++ : size - 1;
+            while (j > 0 && topScores[j - 1] < confidence) {
+                top[j] = top[j - 1];
+                topScores[j] = topScores[j - 1];
+                j--;
+            }
+            top[j] = d;
+            topScores[j] = confidence;
+        }
+
+        // add the common features of each candidate, found by binary search in the sorted postings
+        List<Candidate> candidates = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int d = top[i];
+            double matched = s.scores[d];
+            for (int c = 0; c < nCommon; c++) {
+                int f = common[c];
+                if (Arrays.binarySearch(postings, offsets[f], offsets[f + 1], d) >= 0)
+                    matched += idf[f];
+            }
+            double confidence = confidence(matched, queryWeight, d);
+            if (confidence >= minConfidence)
+                candidates.add(new Candidate(dois[d], confidence));
+        }
+        s.clear();
+        Collections.sort(candidates);
+        return candidates.size() > max ? new ArrayList<>(candidates.subList(0, max)) : candidates;
+    }
+
+    // weighted Tversky similarity
+    private double confidence(double matched, double queryWeight, int d) {
+        return matched / (matched + QUERY_ONLY_WEIGHT * Math.max(0, queryWeight - matched) +
+                DOC_ONLY_WEIGHT * Math.max(0, docWeights[d] - matched));
+    }
+
+    /**
+     * match every citation without DOI in the processed packages.
+     * @param processedPkgMap  key is package name
+     * @param max              the maximum number of candidates per citation
+     * @param minConfidence    the minimum confidence of candidates
+     * @return the candidates of each citation without DOI, in the order of packages and classes.
+     */
+    public List<Inference> inferMissingDOIs(Map<String, PackageCitations> processedPkgMap, int max, double minConfidence) {
+        List<Inference> inferences = new ArrayList<>();
+        for (Map.Entry<String, PackageCitations> entry : processedPkgMap.entrySet()) {
+            for (CitedClass citedClass : entry.getValue().getCitedClassMap().values())
+                inferMissingDOIs(entry.getKey(), citedClass, max, minConfidence, inferences);
+        }
+        return inferences;
+    }
+
+    private void inferMissingDOIs(String pkgName, CitedClass citedClass, int max, double minConfidence,
+                                  List<Inference> inferences) {
+        for (int i = 0; i < citedClass.normalized.length; i++) {
+            NormalizedCitation citation = citedClass.normalized[i];
+            if (!citation.hasDOI() && !citation.text.isEmpty())
+                inferences.add(new Inference(pkgName, citedClass.className, citation,
+                        match(citedClass.citations.get(i), max, minConfidence)));
+        }
+    }
+
+    // the scores of the documents touched by one query, which are reset after the query
+    private static class Scratch {
+        final double[] scores;
+        final int[] touched;
+        int size = 0;
+
+        Scratch(int n) {
+            scores = new double[n];
+            touched = new int[n];
+        }
+
+        void add(int d, double w) {
+            if (scores[d] == 0)
+                touched[size++] = d;
+            scores[d] += w;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++)
+                scores[touched[i]] = 0;
+            size = 0;
+        }
+    }
+
+    //****** features ******//
+
+    static void addCitationFeatures(Citation citation, Set<String> features) {
+        addTextFeatures(citation.value(), features);
+        if (citation.year() >= 1900 && citation.year() < 2100)
+            features.add("y:" + citation.year());
+        addWords(citation.firstAuthorSurname(), features, false);
+    }
+
+    static void addWorkFeatures(CrossRefWork work, Set<String> features) {
+        addWords(work.title, features, true);
+        // a citation rarely lists more authors before "et al."
+        for (int i = 0; i < Math.min(MAX_AUTHORS, work.getAuthorCount()); i++)
+            addWords(work.getFamilyName(i), features, false);
+        if (work.year >= 1900 && work.year < 2100)
+            features.add("y:" + work.year);
+    }
+
+    // words, adjacent word pairs and years
+    static void addTextFeatures(String text, Set<String> features) {
+        addWords(text, features, true);
+    }
+
+    private static void addWords(String text, Set<String> features, boolean pairs) {
+        if (text == null || text.isEmpty())
+            return;
+        String folded = fold(text);
+        String prev = null;
+        int i = 0, len = folded.length();
+        while (i < len) {
+            while (i < len && !Character.isLetterOrDigit(folded.charAt(i)))
+                i++;
+            int start = i;
+            while (i < len && Character.isLetterOrDigit(folded.charAt(i)))
+                i++;
+            if (start == i)
+                break;
+            String word = folded.substring(start, i);
+            if (isDigits(word)) {
+                if (word.length() == 4 && (word.startsWith("19") || word.startsWith("20")))
+                    features.add("y:" + word);
+                // volume, pages or a year breaks the pairs
+                prev = null;
+            } else if (word.length() < 2 || STOP_WORDS.contains(word)) {
+                // keep pairs across stop words, e.g. "analysis of trees" -> "analysis trees"
+                if (word.length() < 2)
+                    prev = null;
+            } else {
+                features.add(word);
+                if (pairs && prev != null)
+                    features.add(prev + ' ' + word);
+                prev = word;
+            }
+        }
+    }
+
+    // lower case without accents, only decompose if there is a non-ASCII char
+    private static String fold(String text) {
+        boolean ascii = true;
+        for (int i = 0; i < text.length() && ascii; i++)
+            ascii = text.charAt(i) < 0x80;
+        if (!ascii) {
+            String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+            StringBuilder sb = new StringBuilder(decomposed.length());
+            for (int i = 0; i < decomposed.length(); i++) {
+                char c = decomposed.charAt(i);
+                if (Character.getType(c) != Character.NON_SPACING_MARK)
+                    sb.append(c);
+            }
+            text = sb.toString();
+        }
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isDigits(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (!Character.isDigit(word.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return getDOICount() + " DOIs, " + getFeatureCount() + " features, " + postings.length + " postings";
+    }
+
+    //****** build ******//
+
+    /**
+     * Add the documents, then {@link #build()} the index once.
+     * The features of the same DOI from different sources are merged.
+     */
+    public static class Builder {
+        final List<String> dois = new ArrayList<>();
+        final Map<String, Integer> docIds = new HashMap<>();
+        final List<IntSet> docFeatures = new ArrayList<>();
+        final Map<String, Integer> featureIds = new HashMap<>();
+
+        /**
+         * @param work  the CrossRef metadata, where DOI is normalized
+         * @return this
+         */
+        public Builder addWork(CrossRefWork work) {
+            Set<String> features = new LinkedHashSet<>();
+            addWorkFeatures(work, features);
+            add(work.doi, features);
+            return this;
+        }
+
+        /**
+         * @param citation  {@link Citation} having a DOI, which is normalized
+         * @return this
+         */
+        public Builder addCitation(Citation citation) {
+            Set<String> features = new LinkedHashSet<>();
+            addCitationFeatures(citation, features);
+            add(citation.DOI(), features);
+            return this;
+        }
+
+        /**
+         * add all citations having DOIs in the processed packages.
+         * @param processedPkgMap  key is package name
+         * @return this
+         */
+        public Builder addPackages(Map<String, PackageCitations> processedPkgMap) {
+            for (PackageCitations packageCitations : processedPkgMap.values()) {
+                for (CitedClass citedClass : packageCitations.getCitedClassMap().values()) {
+                    for (Citation citation : citedClass.citations) {
+                        if (!CitationNormalizer.normalizeDOI(citation.DOI()).isEmpty())
+                            addCitation(citation);
+                    }
+                }
+            }
+            return this;
+        }
+
+        /**
+         * add the metadata of every DOI in the CrossRef cache, and skip the broken responses.
+         * @param cache  {@link CrossRefCache}
+         * @return this
+         */
+        public Builder addCache(CrossRefCache cache) {
+            for (String doi : cache.getDOIs()) {
+                CrossRefCache.Entry entry = cache.get(doi);
+                if (entry == null)
+                    continue;
+                try {
+                    addWork(CrossRefWorkParser.parse(entry.body, doi));
+                } catch (IOException e) {
+                    Log.warning.println("Skip CrossRef response of " + doi + " : " + e.getMessage());
+                }
+            }
+            return this;
+        }
+
+        private void add(String doi, Set<String> features) {
+            doi = CitationNormalizer.normalizeDOI(doi);
+            if (doi.isEmpty() || features.isEmpty())
+                return;
+            Integer d = docIds.get(doi);
+            if (d == null) {
+                d = dois.size();
+                dois.add(doi);
+                docIds.put(doi, d);
+                docFeatures.add(new IntSet());
+            }
+            IntSet set = docFeatures.get(d);
+            for (String feature : features) {
+                Integer f = featureIds.get(feature);
+                if (f == null) {
+                    f = featureIds.size();
+                    featureIds.put(feature, f);
+                }
+                set.add(f);
+            }
+        }
+
+        public DOIMatcher build() {
+            return new DOIMatcher(this);
+        }
+    }
+
+    // the feature ids of a document, which are few, so linear search is fast enough
+    private static class IntSet {
+        int[] values = new int[16];
+        int size = 0;
+
+        void add(int v) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == v)
+                    return;
+            }
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    //****** CLI ******//
+
+    public static void main(String[] args) throws IOException {
+        Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.StringOption("index", "file",
+                                "The citation index written by PackageCitationsManager -index."),
+                        new Arguments.StringOption("cache", "dir",
+                                "The CrossRef cache dir, whose responses are added as documents. (optional)"),
+                        new Arguments.StringOption("text", "citation",
+                                "Only match this citation text, otherwise match all citations " +
+                                        "without DOI in the index. (optional)"),
+                        new Arguments.IntegerOption("max",
+                                "The maximum number of candidates per citation, the default is 3. (optional)"),
+                        new Arguments.RealOption("min",
+                                "The minimum confidence of candidates, the default is 0.3. (optional)"),
+                });
+
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException e) {
+            e.printStackTrace();
+        }
+        if (!arguments.hasOption("index")) {
+            arguments.printUsage("DOIMatcher", "");
+            return;
+        }
+        int max = arguments.hasOption("max") ? arguments.getIntegerOption("max") : 3;
+        double minConfidence = arguments.hasOption("min") ? arguments.getRealOption("min") : 0.3;
+
+        long start = System.currentTimeMillis();
+        CitationIndexFile index = CitationIndexFile.open(new File(arguments.getStringOption("index")));
+        // the cited classes of all packages
+        Map<String, PackageCitations> processedPkgMap = new TreeMap<>(Comparator.comparing(String::toLowerCase));
+        for (String pkgName : index.getPackages()) {
+            Map<String, CitedClass> citedClassMap = new TreeMap<>();
+            for (String className : index.getClassNames(pkgName))
+                citedClassMap.put(className, index.getCitedClass(pkgName, className));
+            processedPkgMap.put(pkgName, new PackageCitations(new beast.util.Package(pkgName), citedClassMap));
+        }
+
+        Builder builder = new Builder().addPackages(processedPkgMap);
+        if (arguments.hasOption("cache"))
+            builder.addCache(new CrossRefCache(new File(arguments.getStringOption("cache"))));
+        DOIMatcher matcher = builder.build();
+        Log.info.println("Build DOI matcher : " + matcher + ", in " + (System.currentTimeMillis() - start) + " ms.\n");
+
+        if (arguments.hasOption("text")) {
+            for (Candidate candidate : matcher.match(arguments.getStringOption("text"), max, minConfidence))
+                Log.info.println(candidate);
+            return;
+        }
+
+        start = System.nanoTime();
+        List<Inference> inferences = matcher.inferMissingDOIs(processedPkgMap, max, minConfidence);
+        long nanos = System.nanoTime() - start;
+        int inferred = 0;
+        // package, class, confidence, DOI, citation
+        for (Inference inference : inferences) {
+            if (!inference.candidates.isEmpty())
+                inferred++;
+            for (Candidate candidate : inference.candidates)
+                Log.info.println(inference.pkgName + "\t" + inference.className + "\t" + candidate + "\t" +
+                        inference.citation.text);
+        }
+        Log.info.println("\nFind DOI candidates for " + inferred + " of " + inferences.size() +
+                " citations without DOI, " + String.format("%.1f", nanos / 1e3 / Math.max(1, inferences.size())) +
+                " us per citation.");
+    }
+}
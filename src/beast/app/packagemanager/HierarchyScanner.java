@@ -0,0 +1,80 @@
+package beast.app.packagemanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Read the class files in the jar as {@link BytecodeScanner} does, and add them to a {@link ClassHierarchyIndex}
+ * shared by all jars, so that a class without @Citation also gets the citations of its parent class,
+ * even if the parent is in a depended package.
+ * The packages must be scanned after the packages they depend on,
+ * as {@link PackageCitationsManager.ProcessedPackage} does, otherwise the parent classes
+ * are read through the package {@link ClassLoader} again.
+ *
+ * @author Walter Xie
+ */
+public class HierarchyScanner implements ClassScanner {
+
+    protected final BytecodeScanner reader;
+    protected final ClassHierarchyIndex index;
+
+    public HierarchyScanner() {
+        this(PackagePrefixFilter.DEFAULT);
+    }
+
+    /**
+     * @param filter  which classes in the jar to read
+     */
+    public HierarchyScanner(PackagePrefixFilter filter) {
+        this(filter, new ClassHierarchyIndex());
+    }
+
+    /**
+     * @param filter  which classes in the jar to read
+     * @param index   {@link ClassHierarchyIndex} to add the classes
+     */
+    public HierarchyScanner(PackagePrefixFilter filter, ClassHierarchyIndex index) {
+        this.reader = new BytecodeScanner(filter);
+        this.index = index;
+    }
+
+    @Override
+    public void setErrors(ScanErrors errors) {
+        reader.setErrors(errors);
+    }
+
+    @Override
+    public ScanErrors getErrors() {
+        return reader.getErrors();
+    }
+
+    /**
+     * @return false, as the inherited citations depend on the parent classes in other jars.
+     */
+    @Override
+    public boolean isCacheable() {
+        return false;
+    }
+
+    public ClassHierarchyIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public Map<String, CitedClass> getAllCitedClasses(File libFile, ClassLoader loader) throws IOException {
+        Metrics.Subject metrics = Metrics.forJar(libFile);
+        Metrics.Timer scanTimer = metrics.start(Metrics.Phase.JAR_SCAN);
+        // key is internal name
+        Map<String, ClassFileInfo> classes = reader.readClassFiles(libFile);
+        String pkgName = loader instanceof PackageClassLoader ? ((PackageClassLoader) loader).pkgName : null;
+        index.addClasses(libFile, pkgName, classes.values());
+
+        Metrics.Timer timer = metrics.start(Metrics.Phase.HIERARCHY_RESOLVE);
+        Map<String, CitedClass> citedClassMap = index.getCitedClasses(classes.values(), loader);
+        timer.stop(null);
+        Metrics.count(Metrics.Counter.CLASSES_CITED, citedClassMap.size());
+        scanTimer.stop(null);
+        return citedClassMap;
+    }
+}
@@ -0,0 +1,60 @@
+package beast.app.packagemanager;
+
+import jdk.jfr.*;
+
+/**
+ * Record the timings in {@link Metrics} as Java Flight Recorder events,
+ * which are recorded by e.g. <code>java -XX:StartFlightRecording=filename=scan.jfr ...</code>
+ * and shown in JDK Mission Control under BEAST / Citation.
+ * Each event begins when its {@link Metrics.Timer} starts, so it has the start time and duration of the phase.
+ * This class is only loaded if JFR is available.
+ *
+ * @author Walter Xie
+ */
+public class JFREventSink implements Metrics.EventSink {
+
+    @Override
+    public Object begin() {
+        PhaseEvent event = new PhaseEvent();
+        if (!event.isEnabled())
+            return null;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void end(Object begun, Metrics.Phase phase, String subject, String detail, long nanos) {
+        if (!(begun instanceof PhaseEvent))
+            return;
+        PhaseEvent event = (PhaseEvent) begun;
+        event.end();
+        event.phase = phase.label;
+        event.subject = subject;
+        event.detail = detail;
+        event.elapsed = nanos;
+        event.commit();
+    }
+
+    @Name("beast.citation.Phase")
+    @Label("Citation Phase")
+    @Category({"BEAST", "Citation"})
+    @Description("The time of a phase to scan packages or request CrossRef")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Subject")
+        @Description("The jar or CrossRef host")
+        String subject;
+
+        @Label("Detail")
+        @Description("The class name or DOI")
+        String detail;
+
+        // "duration" is taken by Event itself
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+}
@@ -0,0 +1,151 @@
+package beast.app.packagemanager;
+
+import beast.core.Citation;
+import beast.util.Package;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * One JSON object per line for each cited class:
+ * <code>{"package":"", "class":"", "description":"", "citations":[{"doi":"", "text":"", "year":0, "firstAuthorSurname":""}]}</code>,
+ * which is written directly, so that the whole document is never built in memory,
+ * and can be read back by {@link #read(Reader)}.
+ *
+ * @author Walter Xie
+ */
+public class JSONLinesReportSink extends WriterReportSink {
+
+    public JSONLinesReportSink(Writer out) {
+        super(out);
+    }
+
+    @Override
+    public void write(String pkgName, CitedClass citedClass) throws IOException {
+        out.write("{\"package\":");
+        quote(pkgName);
+        out.write(",\"class\":");
+        quote(citedClass.className);
+        out.write(",\"description\":");
+        quote(citedClass.getDescription());
+        out.write(",\"citations\":[");
+        for (int i = 0; i < citedClass.normalized.length; i++) {
+            NormalizedCitation citation = citedClass.normalized[i];
+            Citation raw = citedClass.citations.get(i);
+            if (i > 0)
+                out.write(',');
+            out.write("{\"doi\":");
+            quote(citation.doi);
+            out.write(",\"text\":");
+            quote(citation.text);
+            out.write(",\"year\":");
+            out.write(Integer.toString(raw.year()));
+            out.write(",\"firstAuthorSurname\":");
+            quote(raw.firstAuthorSurname());
+            out.write('}');
+        }
+        out.write("]}\n");
+        records++;
+    }
+
+    private void quote(String s) throws IOException {
+        quote(out, s);
+    }
+
+    // write a JSON string with quotes
+    static void quote(Writer out, String s) throws IOException {
+        out.write('"');
+        if (s != null) {
+            int start = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029')
+                    continue;
+                out.write(s, start, i - start);
+                switch (c) {
+                    case '"': out.write("\\\""); break;
+                    case '\\': out.write("\\\\"); break;
+                    case '\n': out.write("\\n"); break;
+                    case '\r': out.write("\\r"); break;
+                    case '\t': out.write("\\t"); break;
+                    default: out.write(String.format("\\u%04x", (int) c));
+                }
+                start = i + 1;
+            }
+            out.write(s, start, s.length() - start);
+        }
+        out.write('"');
+    }
+
+    /**
+     * read the cited classes written by this sink, where the citation text is the normalized one.
+     * @param reader  JSON Lines, which is not closed
+     * @return the packages and their cited classes, where key is package name.
+     * @throws IOException if the JSON is invalid
+     */
+    public static Map<String, PackageCitations> read(Reader reader) throws IOException {
+        Map<String, Map<String, CitedClass>> byPackage = new LinkedHashMap<>();
+        JsonPullParser p = new JsonPullParser(reader);
+        JsonPullParser.Token t;
+        while ((t = p.next()) == JsonPullParser.Token.START_OBJECT) {
+            String pkgName = null, className = null, description = null;
+            List<Citation> citations = new ArrayList<>();
+            while (p.next() == JsonPullParser.Token.NAME) {
+                if (p.textEquals("package")) {
+                    pkgName = p.nextString();
+                } else if (p.textEquals("class")) {
+                    className = p.nextString();
+                } else if (p.textEquals("description")) {
+                    description = p.nextString();
+                } else if (p.textEquals("citations")) {
+                    readCitations(p, citations);
+                } else {
+                    p.skipValue(p.next());
+                }
+            }
+            if (pkgName == null || className == null)
+                throw new IOException("Cited class has no package or class name in JSON !");
+            CitedClass citedClass = new CitedClass(className, citations);
+            if (description != null)
+                citedClass.setDescription(description);
+            byPackage.computeIfAbsent(pkgName, k -> new TreeMap<>()).put(className, citedClass);
+        }
+        if (t != JsonPullParser.Token.END)
+            throw new IOException("Cited class is not a JSON object !");
+
+        Map<String, PackageCitations> processedPkgMap = new TreeMap<>(Comparator.comparing(String::toLowerCase));
+        for (Map.Entry<String, Map<String, CitedClass>> entry : byPackage.entrySet())
+            processedPkgMap.put(entry.getKey(), new PackageCitations(new Package(entry.getKey()), entry.getValue()));
+        return processedPkgMap;
+    }
+
+    // after the NAME of citations
+    private static void readCitations(JsonPullParser p, List<Citation> citations) throws IOException {
+        JsonPullParser.Token t = p.next();
+        if (t != JsonPullParser.Token.START_ARRAY) {
+            p.skipValue(t);
+            return;
+        }
+        while (p.next() == JsonPullParser.Token.START_OBJECT) {
+            String doi = null, text = null, author = null;
+            int year = 0;
+            while (p.next() == JsonPullParser.Token.NAME) {
+                if (p.textEquals("doi")) {
+                    doi = p.nextString();
+                } else if (p.textEquals("text")) {
+                    text = p.nextString();
+                } else if (p.textEquals("year")) {
+                    String y = p.nextString();
+                    year = y == null ? 0 : Integer.parseInt(y);
+                } else if (p.textEquals("firstAuthorSurname")) {
+                    author = p.nextString();
+                } else {
+                    p.skipValue(p.next());
+                }
+            }
+            citations.add(new CitationRecord(text, doi, year, author));
+        }
+    }
+}
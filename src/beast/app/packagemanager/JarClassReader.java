@@ -0,0 +1,308 @@
+package beast.app.packagemanager;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * List the *.class entries in a jar by reading its zip central directory
+ * from a memory-mapped file. The entry names are matched by {@link PackagePrefixFilter}
+ * before any {@link String} is created, and the entries are produced lazily.
+ * All central directory entries are checked when the jar is opened, so a corrupt jar fails
+ * with an {@link IOException} in the constructor, not in the middle of the iteration.
+ * Zip64 jars and jars larger than 2G are read by {@link JarFile} instead.
+ *
+ * @see <a href="https://pkware.cachefly.net/webdocs/casestudies/APPNOTE.TXT">ZIP file format</a>
+ * @author Walter Xie
+ */
+public class JarClassReader implements Closeable, Iterable<JarClassReader.ClassEntry> {
+
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int CEN_SIZE = 46;
+    private static final int LOC_SIZE = 30;
+
+    public final File jar;
+    protected final PackagePrefixFilter filter;
+    protected final FileChannel channel;
+    protected MappedByteBuffer buf;
+    protected int cenStart;
+    protected int cenEnd;
+    // only for Zip64 jars, otherwise null
+    protected JarFile jarFile;
+
+    /**
+     * @param jar     jar file
+     * @param filter  which entries to keep
+     * @throws IOException if it is not a valid jar, or any central directory entry is invalid.
+     */
+    public JarClassReader(File jar, PackagePrefixFilter filter) throws IOException {
+        this.jar = jar;
+        this.filter = filter;
+        channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                openJarFile();
+                return;
+            }
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+
+            int eocd = findEndOfCentralDirectory();
+            int cenSize = buf.getInt(eocd + 12);
+            int cenOffset = buf.getInt(eocd + 16);
+            if ((buf.getShort(eocd + 10) & 0xFFFF) == 0xFFFF || cenOffset == -1 || cenSize == -1) {
+                openJarFile();
+                return;
+            }
+            cenStart = cenOffset;
+            cenEnd = cenOffset + cenSize;
+            if (cenStart < 0 || cenEnd > eocd)
+                throw new IOException("Invalid central directory in " + jar + " !");
+            checkCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // the mapped buffer cannot hold the jar, or its offsets need the Zip64 records
+    private void openJarFile() throws IOException {
+        buf = null;
+        jarFile = new JarFile(jar, false);
+    }
+
+    // walk all entries once, so that the iterator never meets a broken entry
+    private void checkCentralDirectory() throws IOException {
+        int pos = cenStart;
+        while (pos < cenEnd) {
+            if (pos + CEN_SIZE > cenEnd || buf.getInt(pos) != CEN_SIG)
+                throw new IOException("Invalid central directory entry at " + pos + " in " + jar + " !");
+            pos = nextEntry(pos);
+            if (pos > cenEnd)
+                throw new IOException("Central directory entry exceeds the directory in " + jar + " !");
+        }
+    }
+
+    // the position of the central directory entry after the one at pos
+    private int nextEntry(int pos) {
+        int nameLen = buf.getShort(pos + 28) & 0xFFFF;
+        int extraLen = buf.getShort(pos + 30) & 0xFFFF;
+        int commentLen = buf.getShort(pos + 32) & 0xFFFF;
+        return pos + CEN_SIZE + nameLen + extraLen + commentLen;
+    }
+
+    /**
+     * @return true if the jar is read by {@link JarFile}, because it is a Zip64 jar.
+     */
+    public boolean isZip64() {
+        return jarFile != null;
+    }
+
+    // the end of central directory record is at the end, followed by a comment up to 64K
+    private int findEndOfCentralDirectory() throws IOException {
+        int last = buf.limit() - EOCD_SIZE;
+        int first = Math.max(0, last - 0xFFFF);
+        for (int i = last; i >= first; i--) {
+            if (buf.getInt(i) == EOCD_SIG)
+                return i;
+        }
+        throw new IOException("Cannot find the central directory in " + jar + " !");
+    }
+
+    /**
+     * @return an iterator reading the central directory, which skips
+     *         the directories, non-class files, and the entries excluded by the filter.
+     */
+    @Override
+    public Iterator<ClassEntry> iterator() {
+        if (jarFile != null)
+            return jarFileEntries();
+        return new Iterator<ClassEntry>() {
+            int pos = cenStart;
+            ClassEntry next = advance();
+
+            private ClassEntry advance() {
+                while (pos + CEN_SIZE <= cenEnd) {
+                    // checked in the constructor, unless the file is changed
+                    if (buf.getInt(pos) != CEN_SIG)
+                        throw new UncheckedIOException(new IOException(
+                                "Invalid central directory entry at " + pos + " in " + jar + " !"));
+                    int nameLen = buf.getShort(pos + 28) & 0xFFFF;
+                    int entry = pos;
+                    int nameStart = pos + CEN_SIZE;
+                    pos = nextEntry(pos);
+
+                    if (isClassFile(nameStart, nameLen) && filter.accept(buf, nameStart, nameLen))
+                        return new ClassEntry(entry, nameStart, nameLen);
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public ClassEntry next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                ClassEntry e = next;
+                next = advance();
+                return e;
+            }
+        };
+    }
+
+    // the same entries from JarFile, where the names are created before filtering
+    private Iterator<ClassEntry> jarFileEntries() {
+        List<ClassEntry> entries = new ArrayList<>();
+        Enumeration<JarEntry> allEntries = jarFile.entries();
+        while (allEntries.hasMoreElements()) {
+            JarEntry jarEntry = allEntries.nextElement();
+            String name = jarEntry.getName();
+            if (name.endsWith(".class") && name.length() > 6 && filter.accept(name))
+                entries.add(new ClassEntry(jarEntry));
+        }
+        return entries.iterator();
+    }
+
+    private boolean isClassFile(int nameStart, int nameLen) {
+        int end = nameStart + nameLen;
+        return nameLen > 6 && buf.get(end - 6) == '.' && buf.get(end - 5) == 'c' && buf.get(end - 4) == 'l' &&
+                buf.get(end - 3) == 'a' && buf.get(end - 2) == 's' && buf.get(end - 1) == 's';
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (jarFile != null)
+                jarFile.close();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * a *.class entry in the jar.
+     */
+    public class ClassEntry {
+        // the index of the central directory entry in the buffer
+        private final int cen;
+        private final int nameStart;
+        private final int nameLen;
+        // only for Zip64 jars, otherwise null
+        private final JarEntry jarEntry;
+
+        ClassEntry(int cen, int nameStart, int nameLen) {
+            this.cen = cen;
+            this.nameStart = nameStart;
+            this.nameLen = nameLen;
+            this.jarEntry = null;
+        }
+
+        ClassEntry(JarEntry jarEntry) {
+            this.cen = -1;
+            this.nameStart = -1;
+            this.nameLen = -1;
+            this.jarEntry = jarEntry;
+        }
+
+        /**
+         * @return internal name, such as beast/core/BEASTObject
+         */
+        public String getInternalName() {
+            if (jarEntry != null) {
+                String name = jarEntry.getName();
+                return name.substring(0, name.length() - 6);
+            }
+            byte[] b = new byte[nameLen - 6];
+            for (int i = 0; i < b.length; i++)
+                b[i] = buf.get(nameStart + i);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return class name, such as beast.core.BEASTObject
+         */
+        public String getClassName() {
+            return getInternalName().replace('/', '.');
+        }
+
+        /**
+         * @return the uncompressed bytes of the class file
+         * @throws IOException
+         */
+        public byte[] readBytes() throws IOException {
+            if (jarEntry != null) {
+                try (InputStream in = jarFile.getInputStream(jarEntry)) {
+                    return BytecodeScanner.readAllBytes(in, (int) jarEntry.getSize());
+                }
+            }
+            int method = buf.getShort(cen + 10) & 0xFFFF;
+            int compressedSize = buf.getInt(cen + 20);
+            int size = buf.getInt(cen + 24);
+            int loc = buf.getInt(cen + 42);
+            if (loc < 0 || loc + LOC_SIZE > cenStart || buf.getInt(loc) != LOC_SIG)
+                throw new IOException("Invalid local header of " + getInternalName() + " in " + jar + " !");
+            int dataStart = loc + LOC_SIZE + (buf.getShort(loc + 26) & 0xFFFF) + (buf.getShort(loc + 28) & 0xFFFF);
+            if (compressedSize < 0 || size < 0 || dataStart + compressedSize > cenStart)
+                throw new IOException("Invalid size of " + getInternalName() + " in " + jar + " !");
+
+            if (method != 0 && method != 8)
+                throw new IOException("Unsupported compression method " + method + " of " + getInternalName() + " !");
+            // inflating without zlib header needs an extra dummy byte
+            byte[] compressed = new byte[method == 0 ? compressedSize : compressedSize + 1];
+            ByteBuffer data = buf.duplicate();
+            data.position(dataStart);
+            data.get(compressed, 0, compressedSize);
+            if (method == 0)
+                return compressed;
+
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressed);
+                byte[] b = new byte[size];
+                int n = 0;
+                while (n < size) {
+                    int r = inflater.inflate(b, n, size - n);
+                    if (r == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    n += r;
+                }
+                if (n != size)
+                    throw new IOException("Truncated " + getInternalName() + " in " + jar + " !");
+                return b;
+            } catch (DataFormatException e) {
+                throw new IOException("Cannot inflate " + getInternalName() + " in " + jar + " !", e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return getInternalName();
+        }
+    }
+}
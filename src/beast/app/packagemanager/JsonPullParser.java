@@ -0,0 +1,250 @@
+package beast.app.packagemanager;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A minimal streaming JSON tokenizer, which reads one token at a time from a {@link Reader},
+ * and can skip a whole value without creating any object for it.
+ * Only the names and values asked for are decoded into {@link String}s.
+ * @see CrossRefWorkParser
+ *
+ * @author Walter Xie
+ */
+public class JsonPullParser {
+
+    public enum Token { START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, NAME, STRING, NUMBER, TRUE, FALSE, NULL, END }
+
+    private final Reader reader;
+    private final char[] buf = new char[8192];
+    private int pos = 0, limit = 0;
+
+    // the text of NAME, STRING or NUMBER
+    private final StringBuilder text = new StringBuilder();
+    // true if the next string is a name in an object
+    private boolean expectName = false;
+    // the containers, true for object; depth up to 256
+    private final boolean[] stack = new boolean[256];
+    private int depth = 0;
+
+    public JsonPullParser(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @return the next token
+     * @throws IOException if the JSON is invalid
+     */
+    public Token next() throws IOException {
+        int c = nextNonSpace();
+        // separators
+        while (c == ',' || c == ':') {
+            if (c == ',' && depth > 0 && stack[depth - 1])
+                expectName = true;
+            c = nextNonSpace();
+        }
+        switch (c) {
+            case -1:
+                return Token.END;
+            case '{':
+                push(true);
+                expectName = true;
+                return Token.START_OBJECT;
+            case '}':
+                depth--;
+                expectName = false;
+                return Token.END_OBJECT;
+            case '[':
+                push(false);
+                expectName = false;
+                return Token.START_ARRAY;
+            case ']':
+                depth--;
+                return Token.END_ARRAY;
+            case '"':
+                readString(true);
+                if (expectName) {
+                    expectName = false;
+                    return Token.NAME;
+                }
+                return Token.STRING;
+            case 't':
+                expectLiteral("rue");
+                return Token.TRUE;
+            case 'f':
+                expectLiteral("alse");
+                return Token.FALSE;
+            case 'n':
+                expectLiteral("ull");
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    text.setLength(0);
+                    text.append((char) c);
+                    while (true) {
+                        int d = peek();
+                        if ((d >= '0' && d <= '9') || d == '.' || d == 'e' || d == 'E' || d == '+' || d == '-') {
+                            text.append((char) d);
+                            pos++;
+                        } else {
+                            break;
+                        }
+                    }
+                    return Token.NUMBER;
+                }
+                throw new IOException("Unexpected character '" + (char) c + "' in JSON !");
+        }
+    }
+
+    /**
+     * @return the text of the last NAME, STRING or NUMBER token
+     */
+    public String getText() {
+        return text.toString();
+    }
+
+    /**
+     * @param s
+     * @return true if the text of the last token equals s, without creating a String
+     */
+    public boolean textEquals(String s) {
+        if (text.length() != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (text.charAt(i) != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * skip the value after a NAME token, or the rest of the container
+     * if the last token is START_OBJECT or START_ARRAY.
+     * Nothing in the skipped value is decoded.
+     * @param first the first token of the value
+     * @throws IOException
+     */
+    public void skipValue(Token first) throws IOException {
+        if (first != Token.START_OBJECT && first != Token.START_ARRAY)
+            return;
+        int target = depth - 1;
+        while (depth > target) {
+            int c = nextNonSpace();
+            switch (c) {
+                case -1:
+                    throw new IOException("Unexpected end of JSON !");
+                case '{':
+                case '[':
+                    push(c == '{');
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    break;
+                case '"':
+                    readString(false);
+                    break;
+                default:
+                    // numbers, literals, separators
+            }
+        }
+        expectName = false;
+    }
+
+    /**
+     * @return the value after a NAME token as a string, or null if it is not a string or number,
+     *         and in that case the value is skipped.
+     * @throws IOException
+     */
+    public String nextString() throws IOException {
+        Token t = next();
+        if (t == Token.STRING || t == Token.NUMBER)
+            return getText();
+        skipValue(t);
+        return null;
+    }
+
+    private void push(boolean isObject) throws IOException {
+        if (depth == stack.length)
+            throw new IOException("JSON is nested too deep !");
+        stack[depth++] = isObject;
+    }
+
+    // read after the opening quote, and decode into text if keep
+    private void readString(boolean keep) throws IOException {
+        if (keep) text.setLength(0);
+        while (true) {
+            if (pos == limit && !fill())
+                throw new IOException("Unterminated string in JSON !");
+            // copy the run without escapes at once
+            int start = pos;
+            while (pos < limit && buf[pos] != '"' && buf[pos] != '\\')
+                pos++;
+            if (keep) text.append(buf, start, pos - start);
+            if (pos == limit)
+                continue;
+            char c = buf[pos++];
+            if (c == '"')
+                return;
+            // escape
+            int e = read();
+            char decoded;
+            switch (e) {
+                case 'n': decoded = '\n'; break;
+                case 't': decoded = '\t'; break;
+                case 'r': decoded = '\r'; break;
+                case 'b': decoded = '\b'; break;
+                case 'f': decoded = '\f'; break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int h = Character.digit(read(), 16);
+                        if (h < 0)
+                            throw new IOException("Invalid unicode escape in JSON !");
+                        code = (code << 4) | h;
+                    }
+                    decoded = (char) code;
+                    break;
+                case -1:
+                    throw new IOException("Unterminated string in JSON !");
+                default:
+                    decoded = (char) e; // " \ /
+            }
+            if (keep) text.append(decoded);
+        }
+    }
+
+    private void expectLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i))
+                throw new IOException("Invalid literal in JSON !");
+        }
+    }
+
+    private int nextNonSpace() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                return c;
+        }
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill())
+            return -1;
+        return buf[pos++];
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill())
+            return -1;
+        return buf[pos];
+    }
+
+    private boolean fill() throws IOException {
+        int n = reader.read(buf, 0, buf.length);
+        if (n <= 0)
+            return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+}
@@ -0,0 +1,382 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The in-process registry of timings and counters, which shows which phase,
+ * package or jar dominates a run without attaching a profiler.
+ * Each timing is recorded into the histogram of its {@link Phase},
+ * and the total of its jar, where the jar belongs to a package.
+ * Each timing is a {@link Timer} from {@link Subject#start(Phase)} to {@link Timer#stop(String)}.
+ * If Java Flight Recorder is available, each timing is also a JFR event,
+ * which begins and ends with the timer, see {@link JFREventSink}.
+ *
+ * @author Walter Xie
+ */
+public final class Metrics {
+
+    public enum Phase {
+        JAR_OPEN("jar open"),
+        JAR_ENUMERATE("jar enumerate"),
+        CLASS_READ("class read"),
+        CLASS_LOAD("class load"),
+        ANNOTATION_READ("annotation read"),
+        HIERARCHY_RESOLVE("hierarchy resolve"),
+        JAR_SCAN("jar scan"),
+        CROSSREF_QUEUE("crossref queue"),
+        CROSSREF_HTTP("crossref http"),
+        CROSSREF_PARSE("crossref parse");
+
+        public final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    public enum Counter {
+        CLASSES_SCANNED("classes scanned"),
+        CLASSES_CITED("classes cited"),
+        CLASSES_FAILED("classes failed"),
+        CLASSES_TIMED_OUT("classes timed out"),
+        CLASSES_RECOVERED("classes recovered"),
+        CROSSREF_REQUESTS("crossref requests"),
+        CROSSREF_RETRIES("crossref retries"),
+        CROSSREF_CACHE_HIT("crossref cache hit"),
+        CROSSREF_CACHE_REVALIDATED("crossref cache revalidated"),
+        CROSSREF_CACHE_MISS("crossref cache miss");
+
+        public final String label;
+
+        Counter(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * record a timing by an external recorder, which begins when the phase starts.
+     */
+    public interface EventSink {
+        /**
+         * @return the event started now, or null if it is not recorded.
+         */
+        Object begin();
+
+        /**
+         * end and record the event.
+         * @param event  from {@link #begin()}
+         */
+        void end(Object event, Phase phase, String subject, String detail, long nanos);
+    }
+
+    private static final Histogram[] histograms = new Histogram[Phase.values().length];
+    private static final LongAdder[] counters = new LongAdder[Counter.values().length];
+    // key is the jar path, or the CrossRef host
+    private static final Map<String, Subject> subjects = new ConcurrentHashMap<>();
+    private static volatile boolean enabled = true;
+    private static final EventSink eventSink = createEventSink();
+
+    static {
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new Histogram();
+        for (int i = 0; i < counters.length; i++)
+            counters[i] = new LongAdder();
+    }
+
+    private Metrics() { }
+
+    // JFR is in Java 11, or 8u262 and later
+    private static EventSink createEventSink() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (EventSink) Class.forName(Metrics.class.getPackage().getName() + ".JFREventSink")
+                    .getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            return new EventSink() {
+                @Override
+                public Object begin() {
+                    return null;
+                }
+
+                @Override
+                public void end(Object event, Phase phase, String subject, String detail, long nanos) { }
+            };
+        }
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * get the totals of a jar, which is created at the first call.
+     * @param jar  the jar file
+     * @return {@link Subject}
+     */
+    public static Subject forJar(File jar) {
+        return forSubject(jar.getAbsolutePath());
+    }
+
+    /**
+     * @param name  jar path, or any other name
+     * @return {@link Subject}
+     */
+    public static Subject forSubject(String name) {
+        return subjects.computeIfAbsent(name, Subject::new);
+    }
+
+    /**
+     * set the package of a jar, which is used to group jars in the summary.
+     * @param jar      the jar file
+     * @param pkgName  the package name
+     */
+    public static void setPackage(File jar, String pkgName) {
+        forJar(jar).pkgName = pkgName;
+    }
+
+    public static void count(Counter counter) {
+        if (enabled)
+            counters[counter.ordinal()].increment();
+    }
+
+    public static void count(Counter counter, long delta) {
+        if (enabled)
+            counters[counter.ordinal()].add(delta);
+    }
+
+    public static long getCount(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    public static Histogram getHistogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    /**
+     * clear all timings and counters.
+     */
+    public static void reset() {
+        for (Histogram histogram : histograms)
+            histogram.reset();
+        for (LongAdder counter : counters)
+            counter.reset();
+        subjects.clear();
+    }
+
+    /**
+     * The total time of each phase in a jar or CrossRef host.
+     */
+    public static class Subject {
+        public final String name;
+        volatile String pkgName;
+        private final LongAdder[] totals = new LongAdder[Phase.values().length];
+
+        Subject(String name) {
+            this.name = name;
+            for (int i = 0; i < totals.length; i++)
+                totals[i] = new LongAdder();
+        }
+
+        /**
+         * start timing a phase, and its JFR event.
+         * @param phase   {@link Phase}
+         * @return the {@link Timer} to stop when the phase finishes.
+         */
+        public Timer start(Phase phase) {
+            if (!enabled)
+                return Timer.NONE;
+            Object event = eventSink.begin();
+            return new Timer(this, phase, System.nanoTime(), event);
+        }
+
+        private void record(Phase phase, long nanos, Object event, String detail) {
+            histograms[phase.ordinal()].record(nanos);
+            totals[phase.ordinal()].add(nanos);
+            eventSink.end(event, phase, name, detail, nanos);
+        }
+
+        public long getTotal(Phase phase) {
+            return totals[phase.ordinal()].sum();
+        }
+
+        public String getPackageName() {
+            return pkgName;
+        }
+    }
+
+    /**
+     * The time of a phase from {@link Subject#start(Phase)}, which may be stopped in another thread.
+     */
+    public static final class Timer {
+        // returned when metrics are disabled
+        static final Timer NONE = new Timer(null, null, 0, null);
+
+        private final Subject subject;
+        private final Phase phase;
+        private final long start;
+        private final Object event;
+
+        private Timer(Subject subject, Phase phase, long start, Object event) {
+            this.subject = subject;
+            this.phase = phase;
+            this.start = start;
+            this.event = event;
+        }
+
+        /**
+         * record the time from start to now.
+         * @param detail  e.g. the class name for JFR, or null
+         */
+        public void stop(String detail) {
+            if (subject != null && enabled)
+                subject.record(phase, System.nanoTime() - start, event, detail);
+        }
+    }
+
+    /**
+     * Lock-free histogram of nanoseconds in power of 2 buckets,
+     * so the percentiles are within a factor of 2.
+     */
+    public static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long nanos) {
+            if (nanos < 0)
+                nanos = 0;
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+            count.increment();
+            sum.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long n = getCount();
+            return n == 0 ? 0 : (double) getSum() / n;
+        }
+
+        /**
+         * @param q  0 to 1
+         * @return the upper bound of the bucket containing the quantile, in nanoseconds.
+         */
+        public long getPercentile(double q) {
+            long n = getCount();
+            if (n == 0)
+                return 0;
+            long rank = (long) Math.ceil(q * n);
+            long cumulative = 0;
+            for (int b = 0; b < 64; b++) {
+                cumulative += buckets.get(b);
+                if (cumulative >= rank)
+                    return Math.min(b >= 62 ? Long.MAX_VALUE : (1L << (b + 1)) - 1, getMax());
+            }
+            return getMax();
+        }
+
+        void reset() {
+            for (int b = 0; b < 64; b++)
+                buckets.set(b, 0);
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+    }
+
+    /**
+     * print the per-phase histograms, counters, and the slowest packages and jars.
+     * @param out  where to print
+     * @param top  the number of packages and jars to print
+     */
+    public static void printSummary(PrintStream out, int top) {
+        out.println("====== Metrics ======\n");
+        out.println(String.format("%-16s %10s %12s %10s %10s %10s %10s",
+                "phase", "count", "total(ms)", "mean(us)", "p50(us)", "p95(us)", "max(ms)"));
+        for (Phase phase : Phase.values()) {
+            Histogram h = getHistogram(phase);
+            if (h.getCount() == 0)
+                continue;
+            out.println(String.format("%-16s %10d %12.1f %10.1f %10.1f %10.1f %10.1f",
+                    phase.label, h.getCount(), h.getSum() / 1e6, h.getMean() / 1e3,
+                    h.getPercentile(0.5) / 1e3, h.getPercentile(0.95) / 1e3, h.getMax() / 1e6));
+        }
+        out.println();
+        for (Counter counter : Counter.values()) {
+            long c = getCount(counter);
+            if (c > 0)
+                out.println(String.format("%-28s %10d", counter.label, c));
+        }
+        out.println();
+
+        // group jars by package
+        Map<String, long[]> packages = new HashMap<>();
+        List<Subject> jars = new ArrayList<>();
+        for (Subject subject : subjects.values()) {
+            if (subject.getTotal(Phase.JAR_SCAN) == 0)
+                continue;
+            jars.add(subject);
+            String pkgName = subject.pkgName == null ? "?" : subject.pkgName;
+            long[] totals = packages.computeIfAbsent(pkgName, k -> new long[Phase.values().length]);
+            for (Phase phase : Phase.values())
+                totals[phase.ordinal()] += subject.getTotal(phase);
+        }
+        if (jars.isEmpty())
+            return;
+
+        Phase[] columns = {Phase.JAR_SCAN, Phase.JAR_OPEN, Phase.JAR_ENUMERATE,
+                Phase.CLASS_READ, Phase.CLASS_LOAD, Phase.ANNOTATION_READ, Phase.HIERARCHY_RESOLVE};
+        StringBuilder header = new StringBuilder(String.format("%-30s", "package"));
+        for (Phase phase : columns)
+            header.append(String.format(" %16s", phase.label + "(ms)"));
+
+        List<Map.Entry<String, long[]>> pkgList = new ArrayList<>(packages.entrySet());
+        pkgList.sort((a, b) -> Long.compare(b.getValue()[Phase.JAR_SCAN.ordinal()], a.getValue()[Phase.JAR_SCAN.ordinal()]));
+        out.println("Top " + Math.min(top, pkgList.size()) + " of " + pkgList.size() + " packages by scan time :");
+        out.println(header);
+        for (Map.Entry<String, long[]> entry : pkgList.subList(0, Math.min(top, pkgList.size()))) {
+            StringBuilder line = new StringBuilder(String.format("%-30s", entry.getKey()));
+            for (Phase phase : columns)
+                line.append(String.format(" %16.1f", entry.getValue()[phase.ordinal()] / 1e6));
+            out.println(line);
+        }
+        out.println();
+
+        jars.sort((a, b) -> Long.compare(b.getTotal(Phase.JAR_SCAN), a.getTotal(Phase.JAR_SCAN)));
+        out.println("Top " + Math.min(top, jars.size()) + " of " + jars.size() + " jars by scan time :");
+        for (Subject jar : jars.subList(0, Math.min(top, jars.size())))
+            out.println(String.format("%12.1f ms  %s", jar.getTotal(Phase.JAR_SCAN) / 1e6, jar.name));
+        out.println();
+    }
+
+    /**
+     * {@link #printSummary(PrintStream, int)} to Log.info.
+     */
+    public static void printSummary() {
+        printSummary(Log.info, 10);
+    }
+}
@@ -0,0 +1,29 @@
+package beast.app.packagemanager;
+
+/**
+ * The normalized text and DOI of a {@link beast.core.Citation},
+ * which is created once by {@link CitationNormalizer} and reused by all printing and exporting.
+ *
+ * @author Walter Xie
+ */
+public final class NormalizedCitation {
+
+    // one line citation text
+    public final String text;
+    // lower case DOI, or empty string if no DOI
+    public final String doi;
+
+    public NormalizedCitation(String text, String doi) {
+        this.text = text;
+        this.doi = doi;
+    }
+
+    public boolean hasDOI() {
+        return !doi.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return doi + "\t" + text;
+    }
+}
@@ -3,20 +3,18 @@ package beast.app.packagemanager;
 import beast.core.BEASTInterface;
 import beast.core.BEASTObject;
 import beast.core.Citation;
-import beast.core.Description;
 import beast.core.util.Log;
 import beast.util.Package;
 import beast.util.PackageManager;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Modifier;
+import java.io.UncheckedIOException;
 import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.*;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * Print the citation(s) annotated in a class inherited from BEASTObject,
@@ -31,64 +29,179 @@ public class PackageCitations {
 
     public final Package pkg;
 
+    protected final ClassScanner scanner;
     protected File[] libJarFile;
     protected Map<String, CitedClass> citedClassMap = new TreeMap<>();
 
     // give one package at a time
     public PackageCitations(Package pkg, boolean verbose) {
+        this(pkg, new ReflectionScanner(), verbose);
+    }
+
+    /**
+     * use a {@link PackageClassLoader} only containing the jars of this package,
+     * which is closed after the analysis.
+     * @param pkg      {@link Package beast package}
+     * @param scanner  {@link ClassScanner} to find cited classes in each jar
+     * @param verbose
+     */
+    public PackageCitations(Package pkg, ClassScanner scanner, boolean verbose) {
+        this(pkg, null, scanner, verbose);
+    }
+
+    /**
+     * @param pkg      {@link Package beast package}
+     * @param loader   {@link PackageClassLoader} of this package, which is not closed here.
+     *                 If null, create a loader only containing the jars of this package.
+     * @param scanner  {@link ClassScanner} to find cited classes in each jar
+     * @param verbose
+     */
+    public PackageCitations(Package pkg, PackageClassLoader loader, ClassScanner scanner, boolean verbose) {
+        this(pkg, loader, scanner, null, verbose);
+    }
+
+    /**
+     * @param pkg      {@link Package beast package}
+     * @param loader   {@link PackageClassLoader} of this package, which is not closed here.
+     *                 If null, create a loader only containing the jars of this package.
+     * @param scanner  {@link ClassScanner} to find cited classes in each jar
+     * @param jarExecutor  scan the jars in parallel, or one by one if null
+     * @param verbose
+     */
+    public PackageCitations(Package pkg, PackageClassLoader loader, ClassScanner scanner,
+                            Executor jarExecutor, boolean verbose) {
         this.pkg = pkg;
+        this.scanner = scanner;
         try {
             libJarFile = guessLibJarFile(pkg);
             assert libJarFile != null;
 
-            addJarFilesToClassPath();
-
-            setCitedClassMap(libJarFile, verbose);
+            if (loader != null) {
+                setCitedClassMap(libJarFile, loader, jarExecutor, verbose);
+            } else {
+                try (PackageClassLoader ownLoader = createClassLoader(pkg.getName(), libJarFile)) {
+                    setCitedClassMap(libJarFile, ownLoader, jarExecutor, verbose);
+                }
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            // the broken classes are in the error report, so only the package is left here
+            if (scanner.getErrors() == null)
+                e.printStackTrace();
+            else
+                Log.warning.println("Cannot scan package " + pkg.getName() + " : " + e.getMessage());
         }
     }
 
     /**
-     * add all jars to class path using {@link PackageManager#addURL(URL) addURL}
-     * @throws IOException
+     * use the cited classes found elsewhere, e.g. a cache or a benchmark fixture, without scanning jars.
+     * @param pkg            {@link Package beast package}
+     * @param citedClassMap  key is the class name
      */
-    public void addJarFilesToClassPath() throws IOException {
-        for (File f: libJarFile)
-            PackageManager.addURL(f.toURL());
+    public PackageCitations(Package pkg, Map<String, CitedClass> citedClassMap) {
+        this.pkg = pkg;
+        this.scanner = null;
+        this.citedClassMap.putAll(citedClassMap);
+    }
+
+    private static PackageClassLoader createClassLoader(String pkgName, File[] libJarFile) throws IOException {
+        URL[] urls = new URL[libJarFile.length];
+        for (int i = 0; i < libJarFile.length; i++)
+            urls[i] = libJarFile[i].toURI().toURL();
+        return new PackageClassLoader(pkgName, urls, Collections.emptyList(),
+                PackageCitations.class.getClassLoader());
     }
 
     /**
-     * remove all jars from class path, to clean the name space for next analysis
+     * Add all cited classes from jar files in a {@link Package beast package} lib dir.
+     * @param libJarFile jar files
+     * @param loader the {@link ClassLoader} of this package
+     * @throws IOException
      */
-    public void removeJarFilesFromClassPath() {
-        String separator = System.getProperty("path.separator");
-        String classpath = System.getProperty("java.class.path");
-        for (File f: libJarFile) {
-            String fPath = f.toString();
-            if (classpath.contains(fPath)) {
-                classpath = classpath.replace(separator + fPath, "");
-            }
-        }
-        System.setProperty("java.class.path", classpath);
+    public void setCitedClassMap(File[] libJarFile, ClassLoader loader, boolean verbose) throws IOException {
+        setCitedClassMap(libJarFile, loader, null, verbose);
     }
 
     /**
      * Add all cited classes from jar files in a {@link Package beast package} lib dir.
+     * The jars are scanned in parallel if the executor is given,
+     * but merged in the same order as they are listed,
+     * so that a class in the previous jar is always kept.
      * @param libJarFile jar files
+     * @param loader the {@link ClassLoader} of this package
+     * @param jarExecutor  scan the jars in parallel, or one by one if null
      * @throws IOException
      */
-    public void setCitedClassMap(File[] libJarFile, boolean verbose) throws IOException {
-        for (File f: libJarFile) {
-            if (verbose)
-                Log.info.println("Load classes from : " + f + "");
+    public void setCitedClassMap(File[] libJarFile, ClassLoader loader, Executor jarExecutor,
+                                 boolean verbose) throws IOException {
+        if (verbose)
+            printLoadedJars();
+        for (File f : libJarFile)
+            Metrics.setPackage(f, pkg.getName());
 
-            Map<String, CitedClass> tmp = getAllCitedClasses(f);
+        List<CompletableFuture<Map<String, CitedClass>>> futures = new ArrayList<>();
+        if (jarExecutor != null && libJarFile.length > 1) {
+            for (File f: libJarFile) {
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return scanJar(f, loader);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, jarExecutor));
+            }
+        }
+
+        for (int i = 0; i < libJarFile.length; i++) {
+            Map<String, CitedClass> tmp;
+            if (futures.isEmpty()) {
+                tmp = scanJar(libJarFile[i], loader);
+            } else {
+                try {
+                    tmp = futures.get(i).join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof IOException)
+                        throw (IOException) e.getCause();
+                    throw e;
+                }
+            }
             // add all to the final map
             tmp.keySet().removeAll(citedClassMap.keySet());
             citedClassMap.putAll(tmp);
         }
-        if (verbose) Log.info.println();
+    }
+
+    // a broken jar found during the iteration fails as IOException, same as the one found when it is opened
+    private Map<String, CitedClass> scanJar(File libFile, ClassLoader loader) throws IOException {
+        try {
+            return scanner.getAllCitedClasses(libFile, loader);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * replace the cited classes by their compact copies, and drop the jar files,
+     * so that only strings are kept after the package is scanned.
+     * @param pool  share the equal strings with other packages
+     * @see CitedClass#compact(StringPool)
+     */
+    public void compact(StringPool pool) {
+        Map<String, CitedClass> compacted = new TreeMap<>();
+        for (Map.Entry<String, CitedClass> entry : citedClassMap.entrySet())
+            compacted.put(pool.get(entry.getKey()), entry.getValue().compact(pool));
+        citedClassMap = compacted;
+        libJarFile = null;
+    }
+
+    /**
+     * print the jar files of this package, which are scanned.
+     */
+    public void printLoadedJars() {
+        if (libJarFile == null)
+            return;
+        for (File f: libJarFile)
+            Log.info.println("Load classes from : " + f + "");
+        Log.info.println();
     }
 
     /**
@@ -116,14 +229,11 @@ public class PackageCitations {
             Log.info.println("Find total " + getCitedClassMap().size() + " cited BEAST classes.");
             Log.info.println();
         } else {
-            for (Map.Entry<String, CitedClass> entry : getCitedClassMap().entrySet()) {
-                CitedClass citedClass = entry.getValue();
-                for (String citation : citedClass.getCitations("\t")) {
-                    Log.info.print(pkg.getName());
-                    Log.info.print("\t" + entry.getKey());
-                    Log.info.print("\t" + citation);
-                    Log.info.println();
-                }
+            // tab-delimited, and Log.info is not closed
+            try (ReportSink sink = ReportSink.open("tsv", Log.info)) {
+                writeCitedClasses(sink);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
         return getCitedClassMap().size();
@@ -131,29 +241,15 @@ public class PackageCitations {
 
 
     /**
-     * accumulate DOIs in the {@link Set} from all annotated {@link BEASTObject}s.
-     * @return the unique DOIs
+     * write all cited classes from a {@link Package beast package} into a report.
+     * @param sink {@link ReportSink}
+     * @return the total number of cited classes
+     * @throws IOException
      */
-    public Map<String, Set<DOIMapping>> getDOIs() {
-        Map<String, Set<DOIMapping>> dois = new HashMap<>();
-        for (Map.Entry<String, CitedClass> entry : getCitedClassMap().entrySet()) {
-            Log.info.println(entry.getKey());
-            CitedClass citedClass = entry.getValue();
-            Set<String> tmpSet = citedClass.getDOIs();
-            for (String doi : tmpSet) {
-                DOIMapping doiMapping = new DOIMapping(doi, pkg.getName(), citedClass.className);
-                if (dois.containsKey(doi)) {
-                    Set<DOIMapping> doiMappingSet = dois.get(doi);
-                    doiMappingSet.add(doiMapping);
-                } else {
-                    Set<DOIMapping> doiMappingSet = new HashSet<>();
-                    doiMappingSet.add(doiMapping);
-                    dois.put(doi, doiMappingSet);
-                }
-            }
-        }
-        Log.info.println("Find total unique " + dois.size() + " publications with DOI in " + pkg.getName() + ".\n");
-        return dois;
+    public int writeCitedClasses(ReportSink sink) throws IOException {
+        for (CitedClass citedClass : getCitedClassMap().values())
+            sink.write(pkg.getName(), citedClass);
+        return getCitedClassMap().size();
     }
 
     /**
@@ -163,19 +259,7 @@ public class PackageCitations {
      * @return
      */
     public List<Citation> getCitationList(Class<?> beastClass) {
-        final Annotation[] classAnnotations = beastClass.getAnnotations();
-        List<Citation> citations = new ArrayList<>();
-        for (final Annotation annotation : classAnnotations) {
-            if (annotation instanceof Citation) {
-                citations.add((Citation) annotation);
-            }
-            if (annotation instanceof Citation.Citations) {
-                for (Citation citation : ((Citation.Citations) annotation).value()) {
-                    citations.add(citation);
-                }
-            }
-        }
-        return citations;
+        return ReflectionScanner.getCitationList(beastClass);
     }
 
     /**
@@ -185,18 +269,16 @@ public class PackageCitations {
      * @return
      */
     public String getDescription(Class<?> beastClass) {
-        final Annotation[] classAnnotations = beastClass.getAnnotations();
-        for (final Annotation annotation : classAnnotations) {
-            if (annotation instanceof Description) {
-                final Description description = (Description) annotation;
-                return description.value();
-            }
-        }
-        return "Not documented!!!";
+        return ReflectionScanner.getDescription(beastClass);
     }
 
-    // find all *.jar in lib, but exclude *.src.jar
-    private File[] guessLibJarFile(Package pkg) throws IOException {
+    /**
+     * find all *.jar in lib, but exclude *.src.jar
+     * @param pkg {@link Package beast package}
+     * @return jar files
+     * @throws IOException if the package is not installed or has no jar.
+     */
+    public static File[] guessLibJarFile(Package pkg) throws IOException {
         // get dir where pkg is installed
         String dirName = PackageManager.getPackageDir(pkg, pkg.getLatestVersion(), false, null);
 
@@ -213,63 +295,4 @@ public class PackageCitations {
         return libFiles;
     }
 
-    // find all cited classes from a jar file, key is class name
-    private Map<String, CitedClass> getAllCitedClasses(File libFile) throws IOException {
-        // find all *.class in the jar
-        JarFile jarFile = new JarFile(libFile);
-        Enumeration allEntries = jarFile.entries();
-
-        Map<String, CitedClass> citedClassMap = new TreeMap<>();
-        while (allEntries.hasMoreElements()) {
-            JarEntry jarEntry = (JarEntry) allEntries.nextElement();
-            String name = jarEntry.getName();
-            // exclude tests, cern (colt.jar) and com (google) have troubles
-            if ( name.endsWith(".class") && !(name.startsWith("test") || name.startsWith("cern") || name.startsWith("com")) ) {
-                String className = name.replaceAll("/", "\\.");
-                className = className.substring(0, className.lastIndexOf('.'));
-
-//                if (!className.startsWith("beast"))
-//                    System.out.println(className);
-//                System.out.println(System.getProperty("java.class.path"));
-
-                // making own child classloader
-                // https://stackoverflow.com/questions/60764/how-should-i-load-jars-dynamically-at-runtime/60775#60775
-                URLClassLoader child = new URLClassLoader(new URL[]{libFile.toURL()},
-                        PackageCitations.class.getClassLoader());
-                Class<?> beastClass = null;
-                try {
-                    beastClass = Class.forName(className, false, child);
-                } catch (Throwable t) {
-                    t.printStackTrace();
-                    throw new IOException(className + " cannot be loaded by ClassLoader !");
-                }
-
-                // no abstract classes
-                if (!Modifier.isAbstract(beastClass.getModifiers()) &&
-                        // must implement interface
-                        (beastClass.isInterface() && PackageManager.hasInterface(BEASTObject.class, beastClass)) ||
-                        // must be derived from class
-                        (!beastClass.isInterface() && PackageManager.isSubclass(BEASTObject.class, beastClass))) {
-
-                    List<Citation> citations = getCitationList(beastClass);
-                    // add citations (if any)
-                    if (citations.size() > 0) {
-//                        System.out.println(className);
-                        CitedClass citedClass = new CitedClass(className, citations);
-                        String description = getDescription(beastClass);
-                        // add description when having a citation
-                        citedClass.setDescription(description);
-
-                        citedClassMap.put(className, citedClass);
-                    }
-                }
-            }
-        }
-        return citedClassMap;
-    }
-
-    private void toXML(){
-        //TODO
-    }
-
 }
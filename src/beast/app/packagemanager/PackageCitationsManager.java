@@ -3,65 +3,122 @@ package beast.app.packagemanager;
 import beast.app.util.Arguments;
 import beast.core.util.Log;
 import beast.util.Package;
-import beast.util.PackageDependency;
 import beast.util.PackageManager;
-import beast.util.PackageVersion;
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
  * List all citations from locally installed BEAST 2 packages.
- * Usage: PackageCitations [-instAll]
- *     -instAll use PackageManager to update/install all packages (optional)
+ * Usage: PackageCitations [-instAll] [-checksums] [-offline] [-refresh] [-packageList file]
+ *                         [-scanner reflection|bytecode|hierarchy] [-threads N] [-cache file]
+ *                         [-include packages] [-exclude packages] [-format tsv|json|bibtex|xml] [-out file]
+ *                         [-index file] [-clusters file] [-pipeline] [-enrich file] [-batch] [-crossrefCache dir]
+ *                         [-lowMemory] [-isolate] [-errors file] [-retry] [-classTimeout ms]
+ *     -instAll update/install all packages from one install plan, see {@link PackageInstaller} (optional)
+ *     -checksums verify each archive installed by -instAll against &lt;archive URL&gt;.sha256 (optional)
+ *     -offline never download the package lists, only use the snapshot and installed packages,
+ *              and only use the CrossRef cache (optional)
+ *     -refresh download the package lists, and update the snapshot even if it is fresh (optional)
+ *     -packageList the snapshot of package lists, see {@link PackageListCache} (optional)
+ *     -scanner how to find cited classes in jars, hierarchy also finds the classes inheriting citations,
+ *              the default is reflection (optional)
+ *     -threads the number of threads to install and scan packages, the default is the number of processors (optional)
+ *     -cache   the file to cache the scan result of each jar, and only scan the changed jars (optional)
+ *     -include comma separated package prefixes of the classes to scan (optional)
+ *     -exclude comma separated package prefixes of the classes not to scan,
+ *              the default is {@link PackagePrefixFilter#DEFAULT_EXCLUDES} (optional)
+ *     -format  the format of report, tab-delimited, JSON Lines, BibTeX or XML, the default is tsv (optional)
+ *     -out     write the report to this file, otherwise print it to the screen (optional)
+ *     -index   write the cited classes of all packages into a binary index, see {@link CitationIndexFile} (optional)
+ *     -clusters write the near-duplicate citations grouped into publications as JSON Lines,
+ *              see {@link CitationClusters} (optional)
+ *     -pipeline scan, dedupe DOIs, enrich and write the report in concurrent stages with bounded queues,
+ *              without keeping the packages, see {@link CitationPipeline} (optional)
+ *     -enrich  look up each unique DOI in CrossRef while scanning by the pipeline,
+ *              and write the metadata to this file as JSON Lines (optional)
+ *     -batch   resolve the DOIs of several packages by one CrossRef request when enriching,
+ *              see {@link CrossRefBatchResolver} (optional)
+ *     -crossrefCache cache the CrossRef responses in this dir, see {@link CrossRefCache} (optional)
+ *     -lowMemory compact each package right after it is scanned, only keeping strings shared by all packages,
+ *              and no annotation or class loader, see {@link PackageCitations#compact(StringPool)} (optional)
+ *     -isolate record the classes which cannot be scanned, and keep scanning the rest of the jar,
+ *              see {@link ScanErrors} (optional)
+ *     -errors  write the classes which cannot be scanned to this file as JSON Lines, implies -isolate (optional)
+ *     -retry   retry the classes failed for a missing class by a loader of all packages, implies -isolate (optional)
+ *     -classTimeout give up loading a class after the milliseconds, implies -isolate (optional)
  * @see PackageCitations
  *
  * @author Walter Xie
  */
 public class PackageCitationsManager {
 
-    // use PackageManager to update/install all packages
-    private static void installOrUpdateAllPackages(Map<String, Package> packageMap) throws IOException {
-        Log.info.println("\nStart update/install all packages ...\n");
-        for (Package aPackage : packageMap.values()) {
-            Map<Package, PackageVersion> packagesToInstall = new HashMap<>();
-            // always latest version
-            packagesToInstall.put(aPackage, aPackage.getLatestVersion());
+    // a short wait for the background refresh of package list snapshot before exit,
+    // after that the refresh in its daemon thread is abandoned, and the stale snapshot is refreshed by the next run
+    private static final long REFRESH_TIMEOUT = 500;
+
+    /**
+     * find all installed and available packages, where the available packages are loaded
+     * from the snapshot if it exists, otherwise downloaded and saved into the snapshot.
+     * A stale snapshot is still used, but refreshed in background for the next run.
+     * If no package list is available, only the installed packages are returned.
+     * @param cache    {@link PackageListCache}
+     * @param offline  never download the package lists
+     * @param refresh  download the package lists, even if the snapshot is fresh
+     * @return the packages, where key is package name
+     */
+    private static Map<String, Package> getInstalledAvailablePackages(PackageListCache cache,
+                                                                      boolean offline, boolean refresh) {
+        long start = System.currentTimeMillis();
+        // String::compareToIgnoreCase
+        Map<String, Package> packageMap = new TreeMap<>(Comparator.comparing(String::toLowerCase));
+        PackageManager.addInstalledPackages(packageMap);
+        String source = null;
+
+        boolean loaded = false;
+        if (!offline && (refresh || !cache.exists())) {
+            loaded = download(cache, packageMap);
+            source = "repositories, saved to " + cache.getFile();
+        }
+        // fall back to the snapshot if the download failed
+        if (!loaded && cache.exists()) {
             try {
-                // Populate given map with versions of packages to install which satisfy dependencies
-                PackageManager.populatePackagesToInstall(packageMap, packagesToInstall);
-            } catch (PackageManager.DependencyResolutionException ex) {
-                Log.err("Installation aborted: " + ex.getMessage());
-            }
-            // Look through packages to be installed,
-            // and uninstall any that are already installed but not match the version that is to be installed.
-            PackageManager.prepareForInstall(packagesToInstall, false, null);
-            // Download and install specified versions of packages
-            Map<String, String> dirs = PackageManager.installPackages(packagesToInstall, false, null);
-            if (dirs.size() == 0) {
-                Log.info.println("Skip installed latest version package " + aPackage + " " + aPackage.getLatestVersion() + ".");
-            } else {
-                for (String pkgName : dirs.keySet())
-                    Log.info.println("Package " + pkgName + " is installed in " + dirs.get(pkgName) + ".");
+                cache.load(packageMap);
+                loaded = true;
+                source = "snapshot " + cache;
+                if (!offline && !refresh && !cache.isFresh())
+                    cache.refreshInBackground();
+            } catch (IOException e) {
+                Log.warning.println("Discard package list snapshot " + cache.getFile() + " : " + e.getMessage());
+                if (!offline && !refresh) {
+                    loaded = download(cache, packageMap);
+                    source = "repositories, saved to " + cache.getFile();
+                }
             }
         }
+
+        if (loaded)
+            Log.info.println("Find installed and available " + packageMap.size() + " packages from " + source +
+                    " in " + (System.currentTimeMillis() - start) + " ms.");
+        else
+            Log.warning.println("No package list is available, only find " + packageMap.size() + " installed packages.");
+        return packageMap;
     }
 
-    //find all installed and available packages
-    private static Map<String, Package> getInstalledAvailablePackages() {
-        // String::compareToIgnoreCase
-        Map<String, Package> packageMap = new TreeMap<>(Comparator.comparing(String::toLowerCase));
+    // download the package lists and write the snapshot, return false if the package lists cannot be downloaded
+    private static boolean download(PackageListCache cache, Map<String, Package> packageMap) {
         try {
-            PackageManager.addInstalledPackages(packageMap);
-            PackageManager.addAvailablePackages(packageMap);
+            cache.refresh(packageMap);
         } catch (PackageManager.PackageListRetrievalException e) {
             Log.warning.println(e.getMessage());
             if (e.getCause() instanceof IOException)
                 Log.warning.println(PackageManager.NO_CONNECTION_MESSAGE);
-            return null;
+            return false;
+        } catch (IOException e) {
+            Log.warning.println("Cannot save package list snapshot " + cache.getFile() + " : " + e.getMessage());
         }
-        Log.info.println("Find installed and available " + packageMap.size() + " packages.");
-        return packageMap;
+        return true;
     }
 
 
@@ -71,6 +128,66 @@ public class PackageCitationsManager {
                 new Arguments.Option[]{
                         new Arguments.Option("instAll",
                                 "Be careful, it will update/install all available packages. (optional)"),
+                        new Arguments.Option("checksums",
+                                "Verify each archive installed by -instAll against <archive URL>.sha256, " +
+                                        "which is one more request per package. (optional)"),
+                        new Arguments.Option("offline",
+                                "Never download the package lists, only use the snapshot " +
+                                        "and installed packages, and only use the CrossRef cache. (optional)"),
+                        new Arguments.Option("refresh",
+                                "Download the package lists and update the snapshot, even if it is fresh. (optional)"),
+                        new Arguments.StringOption("packageList", "file",
+                                "The snapshot of package lists. The default is " +
+                                        PackageListCache.DEFAULT_FILE_NAME + " in the BEAST user package directory. (optional)"),
+                        new Arguments.StringOption("scanner", "reflection|bytecode|hierarchy",
+                                "Load classes by reflection, or read annotations from class files " +
+                                        "without loading them, or also resolve the citations inherited " +
+                                        "from parent classes in all packages. The default is reflection. (optional)"),
+                        new Arguments.IntegerOption("threads",
+                                "The number of threads to download packages, and scan packages and jars in parallel, " +
+                                        "1 to scan one by one. " +
+                                        "The default is the number of processors. (optional)"),
+                        new Arguments.StringOption("cache", "file",
+                                "Cache the cited classes of each jar in this file, " +
+                                        "and only scan the jars changed since the last run. (optional)"),
+                        new Arguments.StringOption("include", "packages",
+                                "Comma separated package prefixes, only scan the classes in them. (optional)"),
+                        new Arguments.StringOption("exclude", "packages",
+                                "Comma separated package prefixes, do not scan the classes in them. " +
+                                        "The default is " + PackagePrefixFilter.DEFAULT_EXCLUDES + ". (optional)"),
+                        new Arguments.StringOption("format", "tsv|json|bibtex|xml",
+                                "The format of report, tab-delimited, JSON Lines, BibTeX or XML. " +
+                                        "The default is tsv. (optional)"),
+                        new Arguments.StringOption("out", "file",
+                                "Write the report to this file, " +
+                                        "otherwise print it to the screen. (optional)"),
+                        new Arguments.StringOption("index", "file",
+                                "Write the cited classes of all packages into a binary index, " +
+                                        "which is queried by CitationIndexFile. (optional)"),
+                        new Arguments.StringOption("clusters", "file",
+                                "Write the near-duplicate citations grouped into publications " +
+                                        "as JSON Lines. (optional)"),
+                        new Arguments.Option("pipeline", "Scan, dedupe DOIs, enrich and write the report " +
+                                "in concurrent stages, without keeping the packages. (optional)"),
+                        new Arguments.StringOption("enrich", "file",
+                                "Look up each unique DOI in CrossRef while scanning by the pipeline, " +
+                                        "and write the metadata to this file as JSON Lines. (optional)"),
+                        new Arguments.Option("batch", "Resolve up to " + CrossRefBatchResolver.DEFAULT_BATCH_SIZE +
+                                " DOIs of several packages by one CrossRef request when enriching. (optional)"),
+                        new Arguments.StringOption("crossrefCache", "dir",
+                                "Cache the CrossRef responses in this dir, and only request the DOIs " +
+                                        "not cached or expired. (optional)"),
+                        new Arguments.Option("lowMemory", "Compact each package right after it is scanned, " +
+                                "only keeping strings. (optional)"),
+                        new Arguments.Option("isolate", "Record the classes which cannot be scanned, " +
+                                "and keep scanning the rest of the jar. (optional)"),
+                        new Arguments.StringOption("errors", "file",
+                                "Write the classes which cannot be scanned to this file as JSON Lines, " +
+                                        "implies -isolate. (optional)"),
+                        new Arguments.Option("retry", "Retry the classes failed for a missing class " +
+                                "by a loader of all packages, implies -isolate. (optional)"),
+                        new Arguments.IntegerOption("classTimeout",
+                                "Give up loading a class after the milliseconds, implies -isolate. (optional)"),
                 });
 
         try {
@@ -79,97 +196,282 @@ public class PackageCitationsManager {
             e.printStackTrace();
         }
 
+        int threads = arguments.hasOption("threads") ?
+                arguments.getIntegerOption("threads") : Runtime.getRuntime().availableProcessors();
+        if (threads < 1) {
+            Log.err.println("The number of threads must be at least 1, but it is " + threads + " !");
+            arguments.printUsage("PackageCitationsManager", "");
+            return;
+        }
+
         //****** find all installed and available packages ******//
-        Map<String, Package> packageMap = getInstalledAvailablePackages();
-        if (packageMap == null) return;
+        PackageListCache packageListCache = new PackageListCache(arguments.hasOption("packageList") ?
+                new File(arguments.getStringOption("packageList")) : PackageListCache.getDefaultFile());
+        boolean offline = arguments.hasOption("offline");
+        // install the latest versions
+        boolean refresh = arguments.hasOption("refresh") ||
+                (arguments.hasOption("instAll") && !packageListCache.isFresh());
+        Map<String, Package> packageMap = getInstalledAvailablePackages(packageListCache, offline, refresh);
 
         //****** update/install all packages ******//
-        if (arguments.hasOption("instAll"))
-            installOrUpdateAllPackages(packageMap);
+        if (arguments.hasOption("instAll")) {
+            Log.info.println("\nStart update/install all packages ...\n");
+            PackageInstaller installer = new PackageInstaller(packageMap, threads);
+            installer.setChecksums(arguments.hasOption("checksums"));
+            installer.installAll();
+        }
 
         //****** process all citations ******//
-        ProcessedPackage processedPackage = new ProcessedPackage(packageMap, false);
-        int cc = processedPackage.getTotalCitation();
-        Map<String, PackageCitations> processedPkgMap = processedPackage.getProcessedPkgMap();
-
-        Log.info.println("====== Summary ======\n");
-        Log.info.println("Find " + packageMap.size() + " BEAST packages, processed " + processedPkgMap.size() + ".");
-        Log.info.println("Find total " + cc + " cited BEAST classes. \n");
-
-        //****** save all citations to JSON ******//
-//        try {
-//            JSONObject citations = processedPackage.getJSONUniqueDOIs();
-//            processedPackage.writeToFile(citations);
-//        } catch (JSONException e) {
-//            e.printStackTrace();
-//        }
-//        Set<DOIMapping> uniqDOIs = processedPackage.getUniqueDOIs();
-//
-//        for (DOIMapping doiMapping : uniqDOIs) {
-//
-//            Log.info.println(doiMapping.getName());
-//        }
+        PackagePrefixFilter filter = new PackagePrefixFilter(arguments.getStringOption("include"),
+                arguments.hasOption("exclude") ? arguments.getStringOption("exclude") : PackagePrefixFilter.DEFAULT_EXCLUDES);
+        ClassScanner scanner = ClassScanner.forName(arguments.getStringOption("scanner"), filter);
+        ScanErrors scanErrors = null;
+        PackageClassLoader retryLoader = null;
+        if (arguments.hasOption("isolate") || arguments.hasOption("errors") ||
+                arguments.hasOption("retry") || arguments.hasOption("classTimeout")) {
+            scanErrors = new ScanErrors();
+            if (arguments.hasOption("classTimeout"))
+                scanErrors.setClassTimeout(arguments.getIntegerOption("classTimeout"));
+            if (arguments.hasOption("retry")) {
+                retryLoader = ScanErrors.createRetryLoader(packageMap);
+                scanErrors.setRetryLoader(retryLoader);
+            }
+            scanner.setErrors(scanErrors);
+        }
+        ScanCache scanCache = null;
+        if (arguments.hasOption("cache")) {
+            scanCache = new ScanCache(new File(arguments.getStringOption("cache")));
+            scanner = new CachedScanner(scanner, scanCache);
+        }
+        // print tab-delimited result to the screen by default
+        ReportSink sink = null;
+        if (arguments.hasOption("out"))
+            sink = ReportSink.open(arguments.getStringOption("format"), new File(arguments.getStringOption("out")));
+        else if (arguments.hasOption("format"))
+            sink = ReportSink.open(arguments.getStringOption("format"), System.out);
+        if (arguments.hasOption("pipeline") || arguments.hasOption("enrich")) {
+            CitationPipeline pipeline = new CitationPipeline(packageMap, scanner, threads);
+            pipeline.setReportSink(sink);
+            Writer worksOut = null;
+            try {
+                if (arguments.hasOption("enrich")) {
+                    worksOut = new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(arguments.getStringOption("enrich")), StandardCharsets.UTF_8));
+                    CrossRefClient client = CrossRefClient.getDefault();
+                    if (arguments.hasOption("crossrefCache"))
+                        client.setCache(new CrossRefCache(new File(arguments.getStringOption("crossrefCache"))));
+                    client.setOffline(offline);
+                    pipeline.setEnrichment(client, CrossRefClient.DEFAULT_BASE_URL, worksOut);
+                    if (arguments.hasOption("batch"))
+                        pipeline.setBatchSize(CrossRefBatchResolver.DEFAULT_BATCH_SIZE);
+                }
+                pipeline.run();
+            } finally {
+                if (worksOut != null)
+                    worksOut.close();
+                if (sink != null)
+                    sink.close();
+            }
 
+            Log.info.println("====== Summary ======\n");
+            Log.info.println("Find " + packageMap.size() + " BEAST packages, processed by the pipeline.");
+            Log.info.println(pipeline + "\n");
+            if (arguments.hasOption("out"))
+                Log.info.println("Write the report to " + arguments.getStringOption("out") + ".\n");
+            if (arguments.hasOption("enrich")) {
+                Log.info.println("Write the CrossRef metadata to " + arguments.getStringOption("enrich") + ".\n");
+                CrossRefClient client = CrossRefClient.getDefault();
+                Log.info.println("CrossRef requests : " + client.getRequestCount() + ".\n");
+                if (client.getCache() != null)
+                    Log.info.println(client.getCache() + "\n");
+            }
+            // the pipeline does not keep the packages
+            if (arguments.hasOption("index") || arguments.hasOption("clusters"))
+                Log.warning.println("-index and -clusters are ignored, as the pipeline does not keep the packages !\n");
+        } else {
+            ProcessedPackage processedPackage;
+            try {
+                processedPackage = new ProcessedPackage(packageMap, scanner, threads, sink,
+                        arguments.hasOption("lowMemory"), false);
+            } finally {
+                if (sink != null)
+                    sink.close();
+            }
+            int cc = processedPackage.getTotalCitation();
+            Map<String, PackageCitations> processedPkgMap = processedPackage.getProcessedPkgMap();
+
+            Log.info.println("====== Summary ======\n");
+            Log.info.println("Find " + packageMap.size() + " BEAST packages, processed " + processedPkgMap.size() + ".");
+            Log.info.println("Find total " + cc + " cited BEAST classes. \n");
+            if (arguments.hasOption("out"))
+                Log.info.println("Write the report to " + arguments.getStringOption("out") + ".\n");
+            Log.info.println("DOI index : " + processedPackage.getDOIIndex() + ".\n");
+            if (arguments.hasOption("index")) {
+                File indexFile = new File(arguments.getStringOption("index"));
+                processedPackage.writeIndex(indexFile);
+                Log.info.println("Write the citation index to " + indexFile + ", " + indexFile.length() / 1024 + " KB.\n");
+            }
+            if (arguments.hasOption("clusters")) {
+                File clustersFile = new File(arguments.getStringOption("clusters"));
+                CitationClusters clusters = processedPackage.getCitationClusters();
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(clustersFile), StandardCharsets.UTF_8))) {
+                    clusters.write(out);
+                }
+                Log.info.println("Citation clusters : " + clusters + ", write to " + clustersFile + ".\n");
+            }
+        }
+
+        if (scanErrors != null) {
+            Log.info.println("Scan errors : " + scanErrors + ".\n");
+            if (arguments.hasOption("errors")) {
+                File errorsFile = new File(arguments.getStringOption("errors"));
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(errorsFile), StandardCharsets.UTF_8))) {
+                    scanErrors.write(out);
+                }
+                Log.info.println("Write the scan errors to " + errorsFile + ".\n");
+            }
+            if (retryLoader != null)
+                retryLoader.close();
+        }
+
+        if (scanCache != null) {
+            Log.info.println("Scan cache : " + scanCache.getHits() + " hits, " + scanCache.getMisses() +
+                    " misses, " + scanCache.size() + " jars in " + arguments.getStringOption("cache") + ".\n");
+            scanCache.save();
+        }
+
+        Metrics.printSummary();
+        packageListCache.awaitRefresh(REFRESH_TIMEOUT);
     }
 
     // process all citations given all installed packages
     public static class ProcessedPackage {
         // key is package name
         private Map<String, Package> packageMap;
+        private final ClassScanner scanner;
+        private final int threads;
+        // if null, print to the screen
+        private final ReportSink sink;
         private int totalCitation = 0;
         // key is package name
         private Map<String, PackageCitations> processedPkgMap;
+        // compact each package right after it is scanned
+        private final boolean lowMemory;
+        private DOIIndex doiIndex;
+        private CitationClusters citationClusters;
 
         // if verbose is false, print tab-delimited result
         public ProcessedPackage(Map<String, Package> packageMap, boolean verbose) throws IOException {
+            this(packageMap, new ReflectionScanner(), verbose);
+        }
+
+        public ProcessedPackage(Map<String, Package> packageMap, ClassScanner scanner, boolean verbose) throws IOException {
+            this(packageMap, scanner, 1, verbose);
+        }
+
+        /**
+         * @param threads  if more than 1, scan packages and jars in parallel
+         *                 using {@link PackageScanScheduler}, and print the same result as scanning one by one.
+         */
+        public ProcessedPackage(Map<String, Package> packageMap, ClassScanner scanner, int threads, boolean verbose) throws IOException {
+            this(packageMap, scanner, threads, null, verbose);
+        }
+
+        /**
+         * @param sink  write the cited classes of each package as soon as it is processed,
+         *              or print them to the screen if null. The sink is not closed here.
+         */
+        public ProcessedPackage(Map<String, Package> packageMap, ClassScanner scanner, int threads,
+                                ReportSink sink, boolean verbose) throws IOException {
+            this(packageMap, scanner, threads, sink, false, verbose);
+        }
+
+        /**
+         * @param lowMemory  if true, each package is compacted right after it is scanned,
+         *                   so that only strings are kept, see {@link PackageCitations#compact(StringPool)}
+         */
+        public ProcessedPackage(Map<String, Package> packageMap, ClassScanner scanner, int threads,
+                                ReportSink sink, boolean lowMemory, boolean verbose) throws IOException {
             this.packageMap = packageMap;
+            this.scanner = scanner;
+            this.threads = threads;
+            this.sink = sink;
+            this.lowMemory = lowMemory;
             process(verbose);
         }
 
         private void process(boolean verbose) throws IOException {
             processedPkgMap = new TreeMap<>(Comparator.comparing(String::toLowerCase));
-            for (Map.Entry<String, Package> entry : packageMap.entrySet()) {
-                Package pkg = entry.getValue();
-                // process depended packages first
-                Set<PackageDependency> dependencies = pkg.getDependencies(pkg.getLatestVersion());
-                for (PackageDependency dependency : dependencies) {
-                    Package depPkg = packageMap.get(dependency.dependencyName);
-                    totalCitation += processCitations(depPkg, processedPkgMap, verbose);
+            // only used while processing, the pooled strings are kept by the packages
+            StringPool pool = lowMemory ? new StringPool() : null;
+            // one class loader per package, closed after the package and its dependents are processed
+            try (PackageClassLoaders classLoaders = new PackageClassLoaders(packageMap)) {
+                if (threads > 1) {
+                    PackageScanScheduler scheduler = new PackageScanScheduler(packageMap, classLoaders, scanner, threads);
+                    scheduler.setCompact(pool);
+                    try {
+                        scheduler.process((index, packageCitations) -> {
+                            if (verbose) {
+                                Log.info.println("====== Package " + index + " : " + packageCitations.pkg.getName() + " ======\n");
+                                packageCitations.printLoadedJars();
+                            }
+                            processedPkgMap.put(packageCitations.pkg.getName(), packageCitations);
+                            try {
+                                totalCitation += report(packageCitations, verbose);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+                    return;
                 }
-                totalCitation += processCitations(pkg, processedPkgMap, verbose);
 
-                cleanClassPath(processedPkgMap);
-                //System.out.println(System.getProperty("java.class.path"));
+                for (Map.Entry<String, Package> entry : packageMap.entrySet()) {
+                    Package pkg = entry.getValue();
+                    // process depended packages first
+                    for (Package depPkg : classLoaders.getDependencies(pkg))
+                        totalCitation += processCitations(depPkg, classLoaders, pool, verbose);
+                    totalCitation += processCitations(pkg, classLoaders, pool, verbose);
+                }
             }
         }
 
         // process citations for pkg and add name to processedPkgMap
-        private int processCitations(Package pkg, Map<String, PackageCitations> processedPkgMap, boolean verbose) throws IOException {
+        private int processCitations(Package pkg, PackageClassLoaders classLoaders, StringPool pool,
+                                     boolean verbose) throws IOException {
             if (processedPkgMap.containsKey(pkg.getName())) {
-                // if processed, do nothing except to add jar to class path
-                PackageCitations packageCitations = processedPkgMap.get(pkg.getName());
-                packageCitations.addJarFilesToClassPath();
+                // if processed, do nothing
                 return 0;
             } else {
                 // if not processed
                 if (verbose)
                     Log.info.println("====== Package " + (processedPkgMap.size() + 1) + " : " + pkg.getName() + " ======\n");
 
-                PackageCitations packageCitations = new PackageCitations(pkg, verbose);
+                PackageCitations packageCitations;
+                try {
+                    packageCitations = new PackageCitations(pkg, classLoaders.getClassLoader(pkg), scanner, verbose);
+                } finally {
+                    classLoaders.release(pkg.getName());
+                }
+                if (pool != null)
+                    packageCitations.compact(pool);
                 processedPkgMap.put(pkg.getName(), packageCitations);
                 // print cited class as well
-                return packageCitations.printCitedClasses(verbose);
+                return report(packageCitations, verbose);
             }
         }
 
-        private void cleanClassPath(Map<String, PackageCitations> processedPkgMap) {
-            for (Map.Entry<String, PackageCitations> entry : processedPkgMap.entrySet()) {
-                if (! (entry.getKey().equalsIgnoreCase("beast2") ||
-                        entry.getKey().equalsIgnoreCase("beast")) ) {
-                    PackageCitations packageCitations = entry.getValue();
-                    packageCitations.removeJarFilesFromClassPath();
-                }
-            }
+        // print cited classes, or write them to the report
+        private int report(PackageCitations packageCitations, boolean verbose) throws IOException {
+            if (sink == null)
+                return packageCitations.printCitedClasses(verbose);
+            int cc = packageCitations.writeCitedClasses(sink);
+            sink.flush();
+            return cc;
         }
 
         public int getTotalCitation() {
@@ -180,84 +482,43 @@ public class PackageCitationsManager {
             return processedPkgMap;
         }
 
-        public Set<DOIMapping> getUniqueDOIs() {
-            Set<DOIMapping> uniqDOIs = new HashSet<>();
+        /**
+         * build the {@link DOIIndex} of the processed packages at the first call.
+         * @return
+         */
+        public DOIIndex getDOIIndex() {
+            if (doiIndex == null)
+                doiIndex = new DOIIndex(processedPkgMap);
+            return doiIndex;
+        }
 
-            for (Map.Entry<String, PackageCitations> entry : processedPkgMap.entrySet()) {
-                String pkgName = entry.getKey();
-                PackageCitations packageCitations = entry.getValue();
-                Map<String, Set<DOIMapping>> dois = packageCitations.getDOIs();
+        /**
+         * write the processed packages into a binary index, see {@link CitationIndexFile}.
+         * @param file  the index file
+         * @throws IOException
+         */
+        public void writeIndex(File file) throws IOException {
+            CitationIndexFile.write(processedPkgMap, file);
+        }
 
-                for (Map.Entry<String, Set<DOIMapping>> entry2 : dois.entrySet()) {
-                    String doi = entry2.getKey();
-                    Set<DOIMapping> doiMappingSet = entry2.getValue();
+        /**
+         * group the near-duplicate citations of the processed packages at the first call.
+         * @return {@link CitationClusters}
+         */
+        public CitationClusters getCitationClusters() {
+            if (citationClusters == null)
+                citationClusters = new CitationClusters(processedPkgMap);
+            return citationClusters;
+        }
 
-                    uniqDOIs.addAll(doiMappingSet);
-                }
-            }
+        public Set<DOIMapping> getUniqueDOIs() {
+            DOIIndex index = getDOIIndex();
+            Set<DOIMapping> uniqDOIs = index.getAllMappings();
 
             Log.info.println("====== DOI ======\n");
-            Log.info.println("Find " + uniqDOIs.size() + " unique DOIs.\n");
+            Log.info.println("Find " + index.getDOICount() + " unique DOIs.\n");
             return uniqDOIs;
         }
 
-//        public JSONObject getJSONUniqueDOIs() throws JSONException {
-//
-//            Set<DOIMapping> uniqDOIs = getUniqueDOIs();
-//
-//            for (DOIMapping doiMapping : uniqDOIs) {
-//
-//
-//            }
-//
-//            JSONObject citations = new JSONObject();
-//            JSONArray arr = new JSONArray();
-//            for (Map.Entry<String, PackageCitations> entry : processedPkgMap.entrySet()) {
-//                String pkgName = entry.getKey();
-//                PackageCitations packageCitations = entry.getValue();
-//                Map<String, Set<String>> dois = packageCitations.getDOIs();
-//
-//                for (Map.Entry<String, Set<String>> entry2 : dois.entrySet()) {
-//                    String doi = entry2.getKey();
-//                    Set<String> classNames = entry2.getValue();
-//
-//                    JSONObject json = null;
-//                    try {
-//                        CrossRef crossRef = new CrossRef(doi);
-//                        String result = crossRef.get();
-//
-//                        json = crossRef.parseAuthorsToJSON(result, false);
-//
-//                        json.put("package", pkgName);
-//
-//                        JSONArray ja = new JSONArray();
-//                        for (String className : classNames) {
-//                            JSONObject jo = new JSONObject();
-//                            jo.put("class", className);
-//                            ja.put(jo);
-//                        }
-//                        json.put("classes", ja);
-//                    } catch (Exception e) {
-//                        e.printStackTrace();
-//                    }
-//
-//                    arr.put(json);
-//                }
-//            }
-//            citations.put("citations", arr);
-//
-//            return citations;
-//        }
-//
-//        public void writeToFile(JSONObject mainJO){
-//            try {
-//                FileWriter fileWriter = new FileWriter("citations.json");
-//                fileWriter.write(mainJO.toString(4));
-//                fileWriter.flush();
-//            } catch (Exception e) {
-//                e.printStackTrace();
-//            }
-//        }
-
     }
 }
@@ -0,0 +1,99 @@
+package beast.app.packagemanager;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+
+/**
+ * One {@link ClassLoader} for all jars in a {@link beast.util.Package beast package}.
+ * A class is looked up in the parent (beast.jar) first,
+ * then in the jars of this package, and then in the loaders of the packages it depends on.
+ * It has to be {@link #close() closed} after the package is processed.
+ * @see PackageClassLoaders
+ *
+ * @author Walter Xie
+ */
+public class PackageClassLoader extends URLClassLoader {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    public final String pkgName;
+    // the loaders of depended packages, which are created before this
+    protected final List<PackageClassLoader> dependencies;
+    // the dependencies and their dependencies in the order of the search, each once,
+    // so a class not found is not searched again through every path of the dependency graph
+    protected final List<PackageClassLoader> allDependencies;
+
+    public PackageClassLoader(String pkgName, URL[] jars, List<PackageClassLoader> dependencies, ClassLoader parent) {
+        super(jars, parent);
+        this.pkgName = pkgName;
+        this.dependencies = dependencies;
+        Set<PackageClassLoader> all = new LinkedHashSet<>();
+        for (PackageClassLoader dependency : dependencies) {
+            all.add(dependency);
+            all.addAll(dependency.allDependencies);
+        }
+        allDependencies = new ArrayList<>(all);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        Class<?> c = findPackageClass(name);
+        if (c == null)
+            throw new ClassNotFoundException(name + " is not in package " + pkgName + " or its dependencies");
+        return c;
+    }
+
+    // search this package then its dependencies, but not the parent, null if not found
+    protected Class<?> findPackageClass(String name) throws ClassNotFoundException {
+        Class<?> c = findOwnClass(name);
+        for (int i = 0; c == null && i < allDependencies.size(); i++)
+            c = allDependencies.get(i).findOwnClass(name);
+        return c;
+    }
+
+    // search the jars of this package only, null if not found
+    private Class<?> findOwnClass(String name) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c != null)
+                return c;
+            // avoid the ClassNotFoundException from URLClassLoader for the classes in other packages
+            if (super.findResource(name.replace('.', '/') + ".class") != null)
+                return super.findClass(name);
+        }
+        return null;
+    }
+
+    @Override
+    public URL findResource(String name) {
+        URL url = super.findResource(name);
+        for (int i = 0; url == null && i < allDependencies.size(); i++)
+            url = allDependencies.get(i).findOwnResource(name);
+        return url;
+    }
+
+    private URL findOwnResource(String name) {
+        return super.findResource(name);
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        List<URL> urls = new ArrayList<>(Collections.list(super.findResources(name)));
+        for (PackageClassLoader dependency : allDependencies)
+            urls.addAll(Collections.list(dependency.findOwnResources(name)));
+        return Collections.enumeration(urls);
+    }
+
+    private Enumeration<URL> findOwnResources(String name) throws IOException {
+        return super.findResources(name);
+    }
+
+    @Override
+    public String toString() {
+        return "PackageClassLoader[" + pkgName + "]";
+    }
+}
@@ -0,0 +1,161 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+import beast.util.Package;
+import beast.util.PackageDependency;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Keep one {@link PackageClassLoader} per {@link Package beast package},
+ * whose dependencies are the loaders of depended packages.
+ * A loader is closed when the package and all packages depending on it
+ * are {@link #release(String) released}, and all loaders are closed by {@link #close()}.
+ * This replaces adding jars to the system class path.
+ *
+ * @author Walter Xie
+ */
+public class PackageClassLoaders implements Closeable {
+
+    // key is package name
+    protected final Map<String, Package> packageMap;
+    protected final ClassLoader parent;
+    // key is package name
+    protected final Map<String, PackageClassLoader> loaders = new HashMap<>();
+    // how many packages (itself and the packages depending on it) still need the loader
+    protected final Map<String, Integer> holders = new HashMap<>();
+
+    public PackageClassLoaders(Map<String, Package> packageMap) {
+        this(packageMap, PackageCitations.class.getClassLoader());
+    }
+
+    public PackageClassLoaders(Map<String, Package> packageMap, ClassLoader parent) {
+        this.packageMap = packageMap;
+        this.parent = parent;
+        for (Package pkg : packageMap.values()) {
+            for (String name : getTransitiveDependencies(pkg))
+                holders.merge(name, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * @param pkg {@link Package}
+     * @return the names of all packages which the given package depends on directly or indirectly,
+     *         and the package itself, where the dependencies come before the packages depending on them.
+     */
+    public Set<String> getTransitiveDependencies(Package pkg) {
+        Set<String> visited = new LinkedHashSet<>();
+        addDependencies(pkg, visited, new HashSet<>());
+        return visited;
+    }
+
+    // depth-first, path is the current chain of packages to stop at a cycle
+    private void addDependencies(Package pkg, Set<String> visited, Set<String> path) {
+        if (visited.contains(pkg.getName()) || !path.add(pkg.getName()))
+            return;
+        for (Package depPkg : getDependencies(pkg))
+            addDependencies(depPkg, visited, path);
+        path.remove(pkg.getName());
+        visited.add(pkg.getName());
+    }
+
+    /**
+     * @param pkg {@link Package}
+     * @return the direct dependencies of a package which are in the package map.
+     */
+    public List<Package> getDependencies(Package pkg) {
+        List<Package> dependencies = new ArrayList<>();
+        Set<PackageDependency> pkgDependencies = pkg.getDependencies(pkg.getLatestVersion());
+        if (pkgDependencies != null) {
+            for (PackageDependency dependency : pkgDependencies) {
+                Package depPkg = packageMap.get(dependency.dependencyName);
+                if (depPkg != null && depPkg != pkg)
+                    dependencies.add(depPkg);
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * create the loader of the package, and the loaders of its dependencies, if not created.
+     * @param pkg {@link Package}
+     * @return the {@link PackageClassLoader} of the package.
+     */
+    public synchronized PackageClassLoader getClassLoader(Package pkg) {
+        return getClassLoader(pkg, new HashSet<>());
+    }
+
+    private PackageClassLoader getClassLoader(Package pkg, Set<String> creating) {
+        PackageClassLoader loader = loaders.get(pkg.getName());
+        if (loader != null)
+            return loader;
+        creating.add(pkg.getName());
+
+        List<PackageClassLoader> dependencies = new ArrayList<>();
+        for (Package depPkg : getDependencies(pkg)) {
+            // ignore the cyclic dependency
+            if (!creating.contains(depPkg.getName()))
+                dependencies.add(getClassLoader(depPkg, creating));
+        }
+
+        List<URL> urls = new ArrayList<>();
+        try {
+            for (File f : PackageCitations.guessLibJarFile(pkg))
+                urls.add(f.toURI().toURL());
+        } catch (IOException e) {
+            // not installed, keep an empty loader in the chain
+            Log.debug("No jar in package " + pkg.getName() + " : " + e.getMessage());
+        }
+        loader = new PackageClassLoader(pkg.getName(), urls.toArray(new URL[0]), dependencies, parent);
+        loaders.put(pkg.getName(), loader);
+        return loader;
+    }
+
+    /**
+     * the package is processed, so close its loader and the loaders of its dependencies,
+     * if no other package needs them.
+     * @param pkgName package name
+     */
+    public synchronized void release(String pkgName) {
+        Package pkg = packageMap.get(pkgName);
+        Collection<String> names = pkg == null ? Collections.singleton(pkgName) : getTransitiveDependencies(pkg);
+        for (String name : names) {
+            int n = holders.getOrDefault(name, 1) - 1;
+            if (n > 0) {
+                holders.put(name, n);
+            } else {
+                holders.remove(name);
+                closeLoader(name);
+            }
+        }
+    }
+
+    /**
+     * @return the number of loaders which are not closed.
+     */
+    public synchronized int getOpenLoaderCount() {
+        return loaders.size();
+    }
+
+    private void closeLoader(String pkgName) {
+        PackageClassLoader loader = loaders.remove(pkgName);
+        if (loader != null) {
+            try {
+                loader.close();
+            } catch (IOException e) {
+                Log.warning.println("Cannot close class loader of package " + pkgName + " : " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (String pkgName : new ArrayList<>(loaders.keySet()))
+            closeLoader(pkgName);
+        holders.clear();
+    }
+}
@@ -0,0 +1,332 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+import beast.util.Package;
+import beast.util.PackageManager;
+import beast.util.PackageVersion;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Update/install all packages from one install plan, instead of resolving the dependencies
+ * and downloading the packages one by one.
+ * The plan contains the latest version of every package which is not installed or out of date,
+ * and their dependencies resolved by {@link PackageManager#populatePackagesToInstall(Map, Map)} once.
+ * Then the archives are downloaded and extracted in parallel by a bounded number of threads.
+ * The SHA-256 of each archive is computed while downloading, and if {@link #setChecksums(boolean)} is true,
+ * compared with <code>&lt;archive URL&gt;.sha256</code> if the repository provides it,
+ * which costs one more request per package.
+ * Each archive is extracted into a temporary directory next to the package directory,
+ * which is renamed to the package directory only if all steps succeeded.
+ * Any URL supported by {@link URLConnection} works, so a local <code>file://</code> repository
+ * can stand in for the package repository.
+ *
+ * @author Walter Xie
+ */
+public class PackageInstaller {
+
+    public static final String CHECKSUM_SUFFIX = ".sha256";
+    public static final int CONNECT_TIMEOUT = 30000;
+    public static final int READ_TIMEOUT = 60000;
+
+    // key is package name
+    protected final Map<String, Package> packageMap;
+    protected final int threads;
+    protected final boolean useAppDir;
+    protected final String customDir;
+    // request <archive URL>.sha256 for each package
+    protected boolean checksums = false;
+
+    /**
+     * @param packageMap  all installed and available packages, where key is package name
+     * @param threads     the maximum number of archives downloaded and extracted at the same time
+     * @param useAppDir   see {@link PackageManager#installPackages(Map, boolean, String)}
+     * @param customDir   see {@link PackageManager#installPackages(Map, boolean, String)}
+     */
+    public PackageInstaller(Map<String, Package> packageMap, int threads, boolean useAppDir, String customDir) {
+        this.packageMap = packageMap;
+        this.threads = Math.max(1, threads);
+        this.useAppDir = useAppDir;
+        this.customDir = customDir;
+    }
+
+    public PackageInstaller(Map<String, Package> packageMap, int threads) {
+        this(packageMap, threads, false, null);
+    }
+
+    /**
+     * @param checksums  if true, request <code>&lt;archive URL&gt;.sha256</code> of each package,
+     *                   and fail the package if it does not match. The default is false.
+     */
+    public void setChecksums(boolean checksums) {
+        this.checksums = checksums;
+    }
+
+    public boolean isChecksums() {
+        return checksums;
+    }
+
+    /**
+     * The result of installing one package.
+     */
+    public static class Result {
+        public final Package pkg;
+        public final PackageVersion version;
+        public String dir;
+        public String sha256;
+        // true if the checksum is requested, the repository gives it, and it matches
+        public boolean verified = false;
+        public long bytes, millis;
+        // null if installed
+        public Exception error;
+
+        Result(Package pkg, PackageVersion version) {
+            this.pkg = pkg;
+            this.version = version;
+        }
+
+        public boolean isInstalled() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            if (error != null)
+                return "Failed to install " + pkg.getName() + " " + version + " : " + error.getMessage();
+            return pkg.getName() + " " + version + " is installed in " + dir + ", " + bytes / 1024 + " KB in " +
+                    millis + " ms, SHA-256 " + sha256 + (verified ? " (verified)" : "");
+        }
+    }
+
+    /**
+     * @param pkg {@link Package}
+     * @return true if the package is installed, and its version is not older than the latest.
+     */
+    public static boolean isUpToDate(Package pkg) {
+        PackageVersion latest = pkg.getLatestVersion();
+        return pkg.isInstalled() && (latest == null || pkg.getInstalledVersion().compareTo(latest) >= 0);
+    }
+
+    /**
+     * the latest version of every package which is available but not up-to-date,
+     * plus their dependencies which are not installed.
+     * @return the packages and the versions to install, sorted by package name.
+     * @throws PackageManager.DependencyResolutionException
+     */
+    public Map<Package, PackageVersion> getInstallPlan() throws PackageManager.DependencyResolutionException {
+        Map<Package, PackageVersion> plan = new TreeMap<>(Comparator.comparing(pkg -> pkg.getName().toLowerCase()));
+        for (Package pkg : packageMap.values()) {
+            if (pkg.isAvailable() && !isUpToDate(pkg))
+                plan.put(pkg, pkg.getLatestVersion());
+        }
+        // resolve all dependencies at once
+        PackageManager.populatePackagesToInstall(packageMap, plan);
+        // a dependency may be added in its installed version
+        plan.entrySet().removeIf(e -> e.getKey().isInstalled() &&
+                e.getKey().getInstalledVersion().compareTo(e.getValue()) == 0);
+        return plan;
+    }
+
+    /**
+     * uninstall the old versions in the plan, then download and extract all archives in parallel.
+     * @param plan  from {@link #getInstallPlan()}
+     * @return the result of each package in the order of plan.
+     * @throws IOException if the old versions cannot be uninstalled
+     */
+    public List<Result> install(Map<Package, PackageVersion> plan) throws IOException {
+        List<Result> results = new ArrayList<>(plan.size());
+        if (plan.isEmpty())
+            return results;
+        PackageManager.prepareForInstall(plan, useAppDir, customDir);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, plan.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>(plan.size());
+            for (Map.Entry<Package, PackageVersion> entry : plan.entrySet()) {
+                Result result = new Result(entry.getKey(), entry.getValue());
+                results.add(result);
+                futures.add(executor.submit(() -> install(result)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // install(Result) keeps its exception in the result
+                    throw new IllegalStateException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Installation is interrupted");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    // run in a worker thread, and keep any exception in the result
+    private void install(Result result) {
+        long start = System.currentTimeMillis();
+        Path tmpDir = null;
+        Path archive = null;
+        try {
+            URL url = result.pkg.getAvailableVersionURL(result.version);
+            if (url == null)
+                throw new IOException("No URL of version " + result.version);
+            Path dir = Paths.get(PackageManager.getPackageDir(result.pkg, result.version, useAppDir, customDir));
+            Files.createDirectories(dir.getParent());
+
+            archive = Files.createTempFile(dir.getParent(), "." + result.pkg.getName() + "-", ".zip");
+            result.sha256 = download(url, archive);
+            result.bytes = Files.size(archive);
+            String expected = checksums ? getChecksum(new URL(url.toExternalForm() + CHECKSUM_SUFFIX)) : null;
+            if (expected != null) {
+                if (!expected.equalsIgnoreCase(result.sha256))
+                    throw new IOException("SHA-256 of " + url + " is " + result.sha256 + ", but expect " + expected);
+                result.verified = true;
+            }
+
+            tmpDir = Files.createTempDirectory(dir.getParent(), "." + result.pkg.getName() + "-");
+            unzip(archive, tmpDir);
+            // the same version installed before
+            if (Files.exists(dir))
+                delete(dir);
+            Files.move(tmpDir, dir, StandardCopyOption.ATOMIC_MOVE);
+            tmpDir = null;
+            result.dir = dir.toString();
+        } catch (Exception e) {
+            result.error = e;
+        } finally {
+            try {
+                if (archive != null)
+                    Files.deleteIfExists(archive);
+                if (tmpDir != null)
+                    delete(tmpDir);
+            } catch (IOException e) {
+                Log.warning.println("Cannot delete temporary files of " + result.pkg.getName() + " : " + e.getMessage());
+            }
+            result.millis = System.currentTimeMillis() - start;
+        }
+    }
+
+    private static URLConnection open(URL url) throws IOException {
+        URLConnection conn = url.openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+        conn.setUseCaches(false);
+        return conn;
+    }
+
+    /**
+     * @return the SHA-256 in hex of the downloaded file.
+     */
+    static String download(URL url, Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(open(url).getInputStream(), digest)) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return toHex(digest.digest());
+    }
+
+    // the first word of the checksum file, as sha256sum writes, or null if the repository has no such file
+    private static String getChecksum(URL url) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(open(url).getInputStream(), StandardCharsets.US_ASCII))) {
+            String line = reader.readLine();
+            return line == null || line.trim().isEmpty() ? null : line.trim().split("\\s+")[0];
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * extract the zip file into the directory, and refuse any entry outside it.
+     * The CRC of each entry is checked by {@link ZipInputStream}.
+     */
+    static void unzip(Path zip, Path dir) throws IOException {
+        Path root = dir.toAbsolutePath().normalize();
+        try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(Files.newInputStream(zip)))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                Path path = root.resolve(entry.getName()).normalize();
+                if (!path.startsWith(root))
+                    throw new IOException("Entry " + entry.getName() + " is outside the package directory");
+                if (entry.isDirectory()) {
+                    Files.createDirectories(path);
+                } else {
+                    Files.createDirectories(path.getParent());
+                    Files.copy(in, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (java.util.stream.Stream<Path> walk = Files.walk(dir)) {
+            walk.forEach(paths::add);
+        }
+        // children first
+        for (int i = paths.size() - 1; i >= 0; i--)
+            Files.deleteIfExists(paths.get(i));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    /**
+     * update/install all packages in the package map, and print the result of each package.
+     * @return the number of packages installed.
+     * @throws IOException
+     */
+    public int installAll() throws IOException {
+        long start = System.currentTimeMillis();
+        Map<Package, PackageVersion> plan;
+        try {
+            plan = getInstallPlan();
+        } catch (PackageManager.DependencyResolutionException e) {
+            Log.err.println("Installation aborted: " + e.getMessage());
+            return 0;
+        }
+        Log.info.println("Install " + plan.size() + " packages, " + (packageMap.size() - plan.size()) +
+                " packages are up-to-date or not available, using " + threads + " threads" +
+                (checksums ? ", and verify their checksums" : "") + ".\n");
+
+        int installed = 0;
+        for (Result result : install(plan)) {
+            if (result.isInstalled()) {
+                installed++;
+                Log.info.println(result);
+            } else {
+                Log.err.println(result);
+            }
+        }
+        Log.info.println("\nInstall " + installed + " of " + plan.size() + " packages in " +
+                (System.currentTimeMillis() - start) + " ms.\n");
+        return installed;
+    }
+}
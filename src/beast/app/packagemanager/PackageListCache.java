@@ -0,0 +1,266 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+import beast.util.Package;
+import beast.util.PackageDependency;
+import beast.util.PackageManager;
+import beast.util.PackageVersion;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * On-disk snapshot of the available packages given by {@link PackageManager#addAvailablePackages(Map)},
+ * which downloads and parses the package lists of all repositories,
+ * so that a run can start from the snapshot without network.
+ * Only the available versions, their URLs and dependencies are kept,
+ * and the installed packages are always read from the disk by {@link PackageManager#addInstalledPackages(Map)}.
+ * The snapshot is fresh if it is younger than the max age, otherwise it is still used,
+ * and it can be refreshed in background by {@link #refreshInBackground()} for the next run.
+ * The file is discarded if it was written by a different {@link #FORMAT_VERSION format version}.
+ *
+ * @author Walter Xie
+ */
+public class PackageListCache {
+
+    public static final int MAGIC = 0x434D504C; // CMPL
+    // increase it when the file format is changed
+    public static final int FORMAT_VERSION = 1;
+    public static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(1);
+    public static final String DEFAULT_FILE_NAME = "package-list.snapshot";
+
+    protected final File cacheFile;
+    protected final long maxAge;
+    private volatile CompletableFuture<Boolean> refresh;
+
+    /**
+     * @param cacheFile  the snapshot file
+     * @param maxAge     milliseconds, after which the snapshot is stale
+     */
+    public PackageListCache(File cacheFile, long maxAge) {
+        this.cacheFile = cacheFile;
+        this.maxAge = maxAge;
+    }
+
+    public PackageListCache(File cacheFile) {
+        this(cacheFile, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * @return the snapshot file in the BEAST user package directory, or in the user home.
+     */
+    public static File getDefaultFile() {
+        String dir = PackageManager.getPackageUserDir();
+        if (dir == null)
+            dir = System.getProperty("user.home");
+        return new File(dir, DEFAULT_FILE_NAME);
+    }
+
+    public File getFile() {
+        return cacheFile;
+    }
+
+    public boolean exists() {
+        return cacheFile.isFile();
+    }
+
+    /**
+     * @return milliseconds since the snapshot was written, or {@link Long#MAX_VALUE} if not exist.
+     */
+    public long getAge() {
+        return exists() ? Math.max(0, System.currentTimeMillis() - cacheFile.lastModified()) : Long.MAX_VALUE;
+    }
+
+    public boolean isFresh() {
+        return getAge() < maxAge;
+    }
+
+    //****** fetch ******//
+
+    /**
+     * download the package lists from all repositories into the map, and write the snapshot.
+     * @param packageMap  key is package name
+     * @throws PackageManager.PackageListRetrievalException if any package list cannot be downloaded
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void refresh(Map<String, Package> packageMap) throws PackageManager.PackageListRetrievalException, IOException {
+        PackageManager.addAvailablePackages(packageMap);
+        save(packageMap);
+    }
+
+    /**
+     * {@link #refresh(Map)} in a daemon thread, unless a refresh is running.
+     * @return true when the snapshot is written, or false if failed.
+     */
+    public synchronized CompletableFuture<Boolean> refreshInBackground() {
+        if (refresh != null && !refresh.isDone())
+            return refresh;
+        refresh = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                refresh(new TreeMap<>(Comparator.comparing(String::toLowerCase)));
+                refresh.complete(true);
+            } catch (PackageManager.PackageListRetrievalException | IOException | RuntimeException e) {
+                Log.debug("Cannot refresh package list snapshot " + cacheFile + " : " + e.getMessage());
+                refresh.complete(false);
+            }
+        }, "package-list-refresh");
+        thread.setDaemon(true);
+        thread.start();
+        return refresh;
+    }
+
+    /**
+     * wait for the background refresh to write the snapshot before exit.
+     * The refresh runs in a daemon thread, so it is abandoned if the JVM exits after the timeout,
+     * and the previous snapshot is kept.
+     * @param timeout  milliseconds
+     * @return true if the snapshot is refreshed, false if failed, timeout or not started.
+     */
+    public boolean awaitRefresh(long timeout) {
+        CompletableFuture<Boolean> f = refresh;
+        if (f == null)
+            return false;
+        try {
+            return f.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    //****** read/write ******//
+
+    /**
+     * write the available versions of the packages,
+     * to a temp file then rename, so that a broken run does not corrupt the snapshot.
+     * @param packageMap  key is package name
+     * @throws IOException
+     */
+    public void save(Map<String, Package> packageMap) throws IOException {
+        File parent = cacheFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Cannot create dir " + parent);
+        File tmp = File.createTempFile(cacheFile.getName(), ".tmp", parent);
+        // if the background refresh is abandoned at exit
+        tmp.deleteOnExit();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                List<Package> available = new ArrayList<>();
+                for (Package pkg : packageMap.values()) {
+                    if (pkg.isAvailable())
+                        available.add(pkg);
+                }
+                out.writeInt(available.size());
+                for (Package pkg : available)
+                    writePackage(out, pkg);
+            }
+            if (cacheFile.exists() && !cacheFile.delete())
+                throw new IOException("Cannot replace " + cacheFile);
+            if (!tmp.renameTo(cacheFile))
+                throw new IOException("Cannot rename " + tmp + " to " + cacheFile);
+        } finally {
+            if (tmp.exists() && !tmp.delete())
+                Log.warning.println("Cannot delete " + tmp);
+        }
+    }
+
+    /**
+     * read the snapshot, and add the available versions to the packages in the map,
+     * or create them if not in the map, as {@link PackageManager#addAvailablePackages(Map)} does.
+     * @param packageMap  key is package name
+     * @return the number of packages in the snapshot.
+     * @throws IOException if the snapshot does not exist or is invalid
+     */
+    public int load(Map<String, Package> packageMap) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("not a package list snapshot");
+            int version = in.readInt();
+            if (version != FORMAT_VERSION)
+                throw new IOException("format version " + version + " is not " + FORMAT_VERSION);
+            int n = in.readInt();
+            for (int i = 0; i < n; i++)
+                readPackage(in, packageMap);
+            return n;
+        }
+    }
+
+    private static void writePackage(DataOutputStream out, Package pkg) throws IOException {
+        ScanCache.writeString(out, pkg.getName());
+        writeNullable(out, pkg.getDescription());
+        List<PackageVersion> versions = pkg.getAvailableVersions();
+        out.writeInt(versions.size());
+        for (PackageVersion version : versions) {
+            ScanCache.writeString(out, version.toString());
+            URL url = pkg.getAvailableVersionURL(version);
+            writeNullable(out, url == null ? null : url.toExternalForm());
+            Set<PackageDependency> dependencies = pkg.getDependencies(version);
+            if (dependencies == null) {
+                out.writeInt(0);
+                continue;
+            }
+            out.writeInt(dependencies.size());
+            for (PackageDependency dependency : dependencies) {
+                ScanCache.writeString(out, dependency.dependencyName);
+                writeNullable(out, dependency.atLeast == null ? null : dependency.atLeast.toString());
+                writeNullable(out, dependency.atMost == null ? null : dependency.atMost.toString());
+            }
+        }
+    }
+
+    private static void readPackage(DataInputStream in, Map<String, Package> packageMap) throws IOException {
+        String name = ScanCache.readString(in);
+        Package pkg = packageMap.get(name);
+        if (pkg == null) {
+            pkg = new Package(name);
+            packageMap.put(name, pkg);
+        }
+        String description = readNullable(in);
+        if (description != null)
+            pkg.setDescription(description);
+        int nVersions = in.readInt();
+        for (int v = 0; v < nVersions; v++) {
+            PackageVersion version = new PackageVersion(ScanCache.readString(in));
+            String url = readNullable(in);
+            int nDeps = in.readInt();
+            Set<PackageDependency> dependencies = new HashSet<>();
+            for (int d = 0; d < nDeps; d++) {
+                String depName = ScanCache.readString(in);
+                String atLeast = readNullable(in);
+                String atMost = readNullable(in);
+                dependencies.add(new PackageDependency(depName,
+                        atLeast == null ? null : new PackageVersion(atLeast),
+                        atMost == null ? null : new PackageVersion(atMost)));
+            }
+            pkg.addAvailableVersion(version, url == null ? null : new URL(url), null, dependencies);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            ScanCache.writeString(out, s);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? ScanCache.readString(in) : null;
+    }
+
+    @Override
+    public String toString() {
+        if (!exists())
+            return cacheFile + " (not exist)";
+        return cacheFile + " (" + TimeUnit.MILLISECONDS.toMinutes(getAge()) + " minutes old" +
+                (isFresh() ? "" : ", stale") + ")";
+    }
+}
@@ -0,0 +1,144 @@
+package beast.app.packagemanager;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Include or exclude jar entries by package prefix, such as "cern" or "beast.app",
+ * which matches whole package names, so "com" matches "com/google/..." but not "commons/...".
+ * The longest matching prefix decides, and if any include is given,
+ * an entry not matching an include is excluded.
+ * The entry name bytes in the jar are matched against a trie of package names,
+ * so no {@link String} is created for the excluded entries.
+ *
+ * @author Walter Xie
+ */
+public class PackagePrefixFilter {
+
+    /**
+     * exclude tests, cern (colt.jar) and com (google) which have troubles,
+     * and META-INF (e.g. multi-release classes).
+     */
+    public static final String DEFAULT_EXCLUDES = "test,cern,com,META-INF";
+
+    public static final PackagePrefixFilter DEFAULT = new PackagePrefixFilter(null, DEFAULT_EXCLUDES);
+
+    private static final int NONE = 0, INCLUDE = 1, EXCLUDE = 2;
+
+    private final Node root = new Node();
+    private final boolean hasInclude;
+    // the sorted prefixes, which identify the rules
+    private final String rules;
+
+    /**
+     * @param includes  comma separated package prefixes to include, or null to include all
+     * @param excludes  comma separated package prefixes to exclude, or null
+     */
+    public PackagePrefixFilter(String includes, String excludes) {
+        List<String> includeList = split(includes);
+        for (String prefix : includeList)
+            add(prefix, INCLUDE);
+        this.hasInclude = !includeList.isEmpty();
+        List<String> excludeList = split(excludes);
+        for (String prefix : excludeList)
+            add(prefix, EXCLUDE);
+        Collections.sort(includeList);
+        Collections.sort(excludeList);
+        this.rules = "include=" + String.join(",", includeList) + ";exclude=" + String.join(",", excludeList);
+    }
+
+    private static List<String> split(String prefixes) {
+        List<String> list = new ArrayList<>();
+        if (prefixes != null) {
+            for (String prefix : prefixes.split(",")) {
+                prefix = prefix.trim().replace('/', '.');
+                if (prefix.length() > 0)
+                    list.add(prefix);
+            }
+        }
+        return list;
+    }
+
+    private void add(String prefix, int rule) {
+        Node node = root;
+        for (String segment : prefix.split("\\."))
+            node = node.child(segment.getBytes(StandardCharsets.UTF_8));
+        node.rule = rule;
+    }
+
+    /**
+     * @param name  jar entry name, such as "beast/core/BEASTObject.class"
+     * @return true if the entry is kept
+     */
+    public boolean accept(String name) {
+        byte[] b = name.getBytes(StandardCharsets.UTF_8);
+        return accept(ByteBuffer.wrap(b), 0, b.length);
+    }
+
+    /**
+     * match the UTF-8 entry name in the buffer, without decoding it.
+     * @param buf    buffer containing the entry name
+     * @param start  the index of the first byte of the name
+     * @param length the number of bytes of the name
+     * @return true if the entry is kept
+     */
+    public boolean accept(ByteBuffer buf, int start, int length) {
+        int rule = hasInclude ? EXCLUDE : INCLUDE;
+        Node node = root;
+        int segStart = start, end = start + length;
+        for (int i = start; i < end && node != null; i++) {
+            // the class name itself is not a package
+            if (buf.get(i) == '/') {
+                node = node.find(buf, segStart, i - segStart);
+                if (node != null && node.rule != NONE)
+                    rule = node.rule;
+                segStart = i + 1;
+            }
+        }
+        return rule == INCLUDE;
+    }
+
+    /**
+     * @return the include and exclude prefixes in order, so that the same rules give the same string.
+     */
+    @Override
+    public String toString() {
+        return rules;
+    }
+
+    // one package name segment
+    private static class Node {
+        byte[][] labels = new byte[0][];
+        Node[] children = new Node[0];
+        int rule = NONE;
+
+        Node child(byte[] label) {
+            for (int i = 0; i < labels.length; i++) {
+                if (Arrays.equals(labels[i], label))
+                    return children[i];
+            }
+            labels = Arrays.copyOf(labels, labels.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            labels[labels.length - 1] = label;
+            return children[children.length - 1] = new Node();
+        }
+
+        Node find(ByteBuffer buf, int start, int length) {
+            for (int i = 0; i < labels.length; i++) {
+                byte[] label = labels[i];
+                if (label.length != length)
+                    continue;
+                int j = 0;
+                while (j < length && label[j] == buf.get(start + j))
+                    j++;
+                if (j == length)
+                    return children[i];
+            }
+            return null;
+        }
+    }
+}
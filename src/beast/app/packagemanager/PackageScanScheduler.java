@@ -0,0 +1,148 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+import beast.util.Package;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Scan packages in parallel, where a package is scanned after all packages it depends on,
+ * and the jars in a package are also scanned in parallel.
+ * The results are printed in the same order as the serial run,
+ * which processes the direct dependencies of each package before the package itself.
+ * @see PackageCitationsManager.ProcessedPackage
+ *
+ * @author Walter Xie
+ */
+public class PackageScanScheduler {
+
+    // key is package name
+    protected final Map<String, Package> packageMap;
+    protected final PackageClassLoaders classLoaders;
+    protected final ClassScanner scanner;
+    protected final int threads;
+
+    // compact each package right after it is scanned, if not null
+    protected StringPool stringPool;
+
+    // key is package name, filled by the workers
+    protected final ConcurrentMap<String, PackageCitations> scannedPkgMap = new ConcurrentHashMap<>();
+
+    public PackageScanScheduler(Map<String, Package> packageMap, PackageClassLoaders classLoaders,
+                                ClassScanner scanner, int threads) {
+        this.packageMap = packageMap;
+        this.classLoaders = classLoaders;
+        this.scanner = scanner;
+        this.threads = threads;
+    }
+
+    /**
+     * @param pool  if not null, compact each package in the worker right after it is scanned,
+     *              see {@link PackageCitations#compact(StringPool)}
+     */
+    public void setCompact(StringPool pool) {
+        this.stringPool = pool;
+    }
+
+    /**
+     * @return the packages in the order of the serial run: the direct dependencies
+     *         of each package in the package map, then the package itself.
+     */
+    public List<Package> getSerialOrder() {
+        Map<String, Package> order = new LinkedHashMap<>();
+        for (Package pkg : packageMap.values()) {
+            for (Package depPkg : classLoaders.getDependencies(pkg))
+                order.putIfAbsent(depPkg.getName(), depPkg);
+            order.putIfAbsent(pkg.getName(), pkg);
+        }
+        return new ArrayList<>(order.values());
+    }
+
+    /**
+     * @return all packages where the dependencies (direct or indirect) come first.
+     */
+    public List<Package> getTopologicalOrder() {
+        Set<String> names = new LinkedHashSet<>();
+        for (Package pkg : packageMap.values())
+            names.addAll(classLoaders.getTransitiveDependencies(pkg));
+        List<Package> order = new ArrayList<>(names.size());
+        for (String name : names)
+            order.add(packageMap.get(name));
+        return order;
+    }
+
+    /**
+     * scan all packages, and give each result to the consumer in the serial order,
+     * as soon as it and all packages before it are scanned.
+     * @param consumer  called in the caller thread
+     * @return the scanned packages in the serial order, where key is package name.
+     */
+    public Map<String, PackageCitations> process(PackageConsumer consumer) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // key is package name
+            Map<String, CompletableFuture<PackageCitations>> futures = new HashMap<>();
+            for (Package pkg : getTopologicalOrder()) {
+                List<CompletableFuture<PackageCitations>> depFutures = new ArrayList<>();
+                for (Package depPkg : classLoaders.getDependencies(pkg)) {
+                    // not created only if the dependency is cyclic
+                    CompletableFuture<PackageCitations> f = futures.get(depPkg.getName());
+                    if (f != null) depFutures.add(f);
+                }
+                CompletableFuture<PackageCitations> future = CompletableFuture
+                        .allOf(depFutures.toArray(new CompletableFuture<?>[0]))
+                        // run even if a dependency failed, as the serial run does
+                        .handle((v, t) -> null)
+                        .thenApplyAsync(v -> scan(pkg, pool), pool);
+                futures.put(pkg.getName(), future);
+            }
+
+            Map<String, PackageCitations> results = new LinkedHashMap<>();
+            for (Package pkg : getSerialOrder()) {
+                PackageCitations packageCitations = futures.get(pkg.getName()).join();
+                results.put(pkg.getName(), packageCitations);
+                if (consumer != null)
+                    consumer.accept(results.size(), packageCitations);
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // run in a worker thread
+    private PackageCitations scan(Package pkg, Executor jarExecutor) {
+        try {
+            PackageCitations packageCitations = new PackageCitations(pkg,
+                    classLoaders.getClassLoader(pkg), scanner, jarExecutor, false);
+            if (stringPool != null)
+                packageCitations.compact(stringPool);
+            scannedPkgMap.put(pkg.getName(), packageCitations);
+            return packageCitations;
+        } catch (RuntimeException e) {
+            Log.err.println("Failed to scan package " + pkg.getName() + " : " + e);
+            throw e;
+        } finally {
+            classLoaders.release(pkg.getName());
+        }
+    }
+
+    /**
+     * @return the packages scanned so far, which is thread-safe, where key is package name.
+     */
+    public Map<String, PackageCitations> getScannedPkgMap() {
+        return scannedPkgMap;
+    }
+
+    /**
+     * receive a scanned package in the serial order.
+     */
+    public interface PackageConsumer {
+        /**
+         * @param index  1 for the first package
+         * @param packageCitations  the scanned package
+         */
+        void accept(int index, PackageCitations packageCitations);
+    }
+}
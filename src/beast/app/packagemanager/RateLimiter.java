@@ -0,0 +1,79 @@
+package beast.app.packagemanager;
+
+/**
+ * Token bucket allowing a number of requests per interval.
+ * The limit can be changed at runtime, e.g. from the
+ * <code>X-Rate-Limit-Limit</code> and <code>X-Rate-Limit-Interval</code> headers of CrossRef.
+ *
+ * @author Walter Xie
+ */
+public class RateLimiter {
+
+    private double capacity;
+    private double tokens;
+    // tokens per nanosecond
+    private double refillRate;
+    private long lastRefill;
+
+    /**
+     * @param limit            the number of requests allowed in the interval
+     * @param intervalMillis   the interval in milliseconds
+     */
+    public RateLimiter(int limit, long intervalMillis) {
+        setLimit(limit, intervalMillis);
+        tokens = capacity;
+        lastRefill = System.nanoTime();
+    }
+
+    /**
+     * change the limit, and the tokens more than the new capacity are dropped.
+     * @param limit            the number of requests allowed in the interval
+     * @param intervalMillis   the interval in milliseconds
+     */
+    public synchronized void setLimit(int limit, long intervalMillis) {
+        if (limit < 1 || intervalMillis < 1)
+            throw new IllegalArgumentException("Invalid rate limit " + limit + " per " + intervalMillis + " ms !");
+        refill();
+        capacity = limit;
+        refillRate = limit / (intervalMillis * 1e6);
+        tokens = Math.min(tokens, capacity);
+        notifyAll();
+    }
+
+    /**
+     * @return the number of requests allowed per second
+     */
+    public synchronized double getRatePerSecond() {
+        return refillRate * 1e9;
+    }
+
+    /**
+     * block until a request is allowed.
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException {
+        refill();
+        while (tokens < 1) {
+            long waitNanos = (long) Math.ceil((1 - tokens) / refillRate);
+            // wait releases the lock, and wakes up early if the limit is changed
+            wait(Math.max(1, waitNanos / 1000000), (int) (waitNanos % 1000000));
+            refill();
+        }
+        tokens -= 1;
+    }
+
+    /**
+     * stop all requests for a while, e.g. after the server returns 429 Too Many Requests.
+     * @param millis
+     */
+    public synchronized void pause(long millis) {
+        refill();
+        tokens = Math.min(tokens, 0) - millis * 1e6 * refillRate;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * refillRate);
+        lastRefill = now;
+    }
+}
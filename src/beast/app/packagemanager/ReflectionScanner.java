@@ -0,0 +1,194 @@
+package beast.app.packagemanager;
+
+import beast.core.BEASTInterface;
+import beast.core.BEASTObject;
+import beast.core.Citation;
+import beast.core.Description;
+import beast.util.PackageManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Load every class in the jar by the package {@link ClassLoader},
+ * and then read @Citation and @Description by reflection.
+ * A class which cannot be loaded stops the scan of the jar,
+ * unless {@link ScanErrors} is set to isolate the failure of each class.
+ *
+ * @author Walter Xie
+ */
+public class ReflectionScanner implements ClassScanner {
+
+    protected final PackagePrefixFilter filter;
+    // if not null, record the broken classes and keep scanning
+    protected ScanErrors errors;
+
+    public ReflectionScanner() {
+        this(PackagePrefixFilter.DEFAULT);
+    }
+
+    /**
+     * @param filter  which classes in the jar to load
+     */
+    public ReflectionScanner(PackagePrefixFilter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public void setErrors(ScanErrors errors) {
+        this.errors = errors;
+    }
+
+    @Override
+    public ScanErrors getErrors() {
+        return errors;
+    }
+
+    @Override
+    public String getConfiguration() {
+        return getClass().getSimpleName() + " " + filter;
+    }
+
+    // find all cited classes from a jar file, key is class name
+    @Override
+    public Map<String, CitedClass> getAllCitedClasses(File libFile, ClassLoader loader) throws IOException {
+        Metrics.Subject metrics = Metrics.forJar(libFile);
+        Metrics.Timer scanTimer = metrics.start(Metrics.Phase.JAR_SCAN);
+        Map<String, CitedClass> citedClassMap = new TreeMap<>();
+        // find all *.class in the jar, excluded packages are skipped by the reader
+        Metrics.Timer timer = metrics.start(Metrics.Phase.JAR_OPEN);
+        try (JarClassReader reader = new JarClassReader(libFile, filter)) {
+            timer.stop(null);
+            Iterator<JarClassReader.ClassEntry> it = reader.iterator();
+            while (true) {
+                timer = metrics.start(Metrics.Phase.JAR_ENUMERATE);
+                if (!it.hasNext())
+                    break;
+                JarClassReader.ClassEntry classEntry = it.next();
+                String className = classEntry.getClassName();
+                timer.stop(null);
+                Metrics.count(Metrics.Counter.CLASSES_SCANNED);
+
+                CitedClass citedClass;
+                if (errors == null) {
+                    try {
+                        citedClass = scanClass(className, loader, metrics);
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                        throw new IOException(className + " cannot be loaded by ClassLoader !");
+                    }
+                } else {
+                    citedClass = scanIsolated(className, libFile, loader, metrics);
+                }
+                if (citedClass != null) {
+                    citedClassMap.put(className, citedClass);
+                    Metrics.count(Metrics.Counter.CLASSES_CITED);
+                }
+            }
+        }
+        scanTimer.stop(null);
+        return citedClassMap;
+    }
+
+    // record the failure and return null, after the retry if the loader misses a class
+    private CitedClass scanIsolated(String className, File libFile, ClassLoader loader, Metrics.Subject metrics) {
+        ClassLoader retryLoader = errors.getRetryLoader();
+        try {
+            return errors.callWithTimeLimit(() -> scanClass(className, loader, metrics));
+        } catch (Throwable t) {
+            if (retryLoader == null || retryLoader == loader || !ScanErrors.isMissingClass(t)) {
+                errors.add(className, libFile, t, false);
+                return null;
+            }
+        }
+        try {
+            CitedClass citedClass = errors.callWithTimeLimit(() -> scanClass(className, retryLoader, metrics));
+            errors.addRecovered();
+            return citedClass;
+        } catch (Throwable t) {
+            errors.add(className, libFile, t, true);
+            return null;
+        }
+    }
+
+    /**
+     * load the class without initializing it, and read its citations.
+     * @param className  class name
+     * @param loader     the package {@link ClassLoader}
+     * @param metrics    to record the time
+     * @return {@link CitedClass}, or null if it is not a cited BEAST object.
+     * @throws ClassNotFoundException if the class cannot be found,
+     *         or {@link LinkageError} if it cannot be loaded.
+     */
+    protected CitedClass scanClass(String className, ClassLoader loader, Metrics.Subject metrics)
+            throws ClassNotFoundException {
+        // the package loader is shared by all jars in the package
+        Metrics.Timer timer = metrics.start(Metrics.Phase.CLASS_LOAD);
+        Class<?> beastClass = Class.forName(className, false, loader);
+        timer.stop(className);
+
+        // no abstract classes
+        if (!Modifier.isAbstract(beastClass.getModifiers()) &&
+                // must implement interface
+                (beastClass.isInterface() && PackageManager.hasInterface(BEASTObject.class, beastClass)) ||
+                // must be derived from class
+                (!beastClass.isInterface() && PackageManager.isSubclass(BEASTObject.class, beastClass))) {
+
+            timer = metrics.start(Metrics.Phase.ANNOTATION_READ);
+            List<Citation> citations = getCitationList(beastClass);
+            CitedClass citedClass = null;
+            // add citations (if any)
+            if (citations.size() > 0) {
+                citedClass = new CitedClass(className, citations);
+                String description = getDescription(beastClass);
+                // add description when having a citation
+                citedClass.setDescription(description);
+            }
+            timer.stop(className);
+            return citedClass;
+        }
+        return null;
+    }
+
+    /**
+     * get a {@link Citation Citation} list from a beast class.
+     * @see BEASTInterface#getCitationList()
+     * @param beastClass
+     * @return
+     */
+    public static List<Citation> getCitationList(Class<?> beastClass) {
+        final Annotation[] classAnnotations = beastClass.getAnnotations();
+        List<Citation> citations = new ArrayList<>();
+        for (final Annotation annotation : classAnnotations) {
+            if (annotation instanceof Citation) {
+                citations.add((Citation) annotation);
+            }
+            if (annotation instanceof Citation.Citations) {
+                for (Citation citation : ((Citation.Citations) annotation).value()) {
+                    citations.add(citation);
+                }
+            }
+        }
+        return citations;
+    }
+
+    /**
+     * get a description from a beast class.
+     * @see BEASTInterface#getDescription()
+     * @param beastClass
+     * @return
+     */
+    public static String getDescription(Class<?> beastClass) {
+        final Annotation[] classAnnotations = beastClass.getAnnotations();
+        for (final Annotation annotation : classAnnotations) {
+            if (annotation instanceof Description) {
+                final Description description = (Description) annotation;
+                return description.value();
+            }
+        }
+        return CitedClass.NOT_DOCUMENTED;
+    }
+}
@@ -0,0 +1,98 @@
+package beast.app.packagemanager;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Write the cited classes into a report as soon as each package is processed,
+ * so that the whole report is never kept in memory.
+ * @see TSVReportSink
+ * @see JSONLinesReportSink
+ * @see BibTeXReportSink
+ * @see XMLReportSink
+ *
+ * @author Walter Xie
+ */
+public interface ReportSink extends Closeable {
+
+    int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * write one cited class.
+     * @param pkgName     the package containing the class
+     * @param citedClass  {@link CitedClass}
+     * @throws IOException
+     */
+    void write(String pkgName, CitedClass citedClass) throws IOException;
+
+    /**
+     * write the buffered records.
+     * @throws IOException
+     */
+    void flush() throws IOException;
+
+    /**
+     * finish the report, e.g. the closing tag, and close the output.
+     * @throws IOException
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * @param format  "tsv", "json", "bibtex" or "xml"
+     * @param out     where to write, which is closed with the sink
+     * @return the sink given its format
+     * @throws IOException
+     */
+    static ReportSink forName(String format, Writer out) throws IOException {
+        if (format == null || format.equalsIgnoreCase("tsv"))
+            return new TSVReportSink(out);
+        if (format.equalsIgnoreCase("json") || format.equalsIgnoreCase("jsonl"))
+            return new JSONLinesReportSink(out);
+        if (format.equalsIgnoreCase("bibtex") || format.equalsIgnoreCase("bib"))
+            return new BibTeXReportSink(out);
+        if (format.equalsIgnoreCase("xml"))
+            return new XMLReportSink(out);
+        throw new IllegalArgumentException("Unknown report format " + format + " !");
+    }
+
+    /**
+     * write the report into a file through a buffered {@link FileChannel}.
+     * @param format  "tsv", "json", "bibtex" or "xml"
+     * @param file    the report file, which is overwritten
+     * @return the sink given its format
+     * @throws IOException
+     */
+    static ReportSink open(String format, File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        Writer writer = new BufferedWriter(Channels.newWriter(channel,
+                StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+        try {
+            return forName(format, writer);
+        } catch (IllegalArgumentException e) {
+            writer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * write the report into a stream, which is not closed with the sink, such as System.out.
+     * @param format  "tsv", "json", "bibtex" or "xml"
+     * @param out     the stream
+     * @return the sink given its format
+     * @throws IOException
+     */
+    static ReportSink open(String format, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        return forName(format, writer);
+    }
+}
@@ -0,0 +1,295 @@
+package beast.app.packagemanager;
+
+import beast.core.Citation;
+import beast.core.util.Log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of the cited classes found in each jar,
+ * where the key is the jar path, and the entry is valid if it is scanned by the same scanner configuration,
+ * and the jar has the same size and modified time, or the same SHA-256 content hash.
+ * The whole cache is discarded if it was written by a different {@link #FORMAT_VERSION format version}.
+ * Use {@link CachedScanner} to scan only the changed jars.
+ *
+ * @author Walter Xie
+ */
+public class ScanCache {
+
+    public static final int MAGIC = 0x434D5343; // CMSC
+    // increase it when the file format or the scan result is changed
+    public static final int FORMAT_VERSION = 1;
+
+    protected final File cacheFile;
+    // key is the absolute path of the jar
+    protected final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // the jars used in this run, other entries are dropped when saving
+    protected final Set<String> usedPaths = ConcurrentHashMap.newKeySet();
+
+    protected final AtomicInteger hits = new AtomicInteger();
+    protected final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * load the cache file if it exists.
+     * @param cacheFile
+     */
+    public ScanCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+        if (cacheFile.exists()) {
+            try {
+                load();
+            } catch (IOException e) {
+                entries.clear();
+                Log.warning.println("Discard scan cache " + cacheFile + " : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * get the cited classes of the jar, if the cache is valid.
+     * @param jar      jar file
+     * @param scanner  {@link ClassScanner#getConfiguration()} producing the result
+     * @return the cited classes copied from the cache, or null if not cached or changed.
+     * @throws IOException
+     */
+    public Map<String, CitedClass> get(File jar, String scanner) throws IOException {
+        String path = jar.getAbsolutePath();
+        usedPaths.add(path);
+        Entry entry = entries.get(path);
+        if (entry != null && entry.scanner.equals(scanner)) {
+            if (entry.size == jar.length() && entry.lastModified == jar.lastModified()) {
+                hits.incrementAndGet();
+                return entry.toCitedClassMap();
+            }
+            // touched but maybe not changed
+            if (entry.size == jar.length() && Arrays.equals(entry.sha256, sha256(jar))) {
+                entries.put(path, new Entry(scanner, entry.size, jar.lastModified(), entry.sha256, entry.classes));
+                hits.incrementAndGet();
+                return entry.toCitedClassMap();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * add or replace the scan result of the jar.
+     * @param jar      jar file
+     * @param scanner  {@link ClassScanner#getConfiguration()} producing the result
+     * @param citedClassMap  the cited classes, where key is class name
+     * @throws IOException
+     */
+    public void put(File jar, String scanner, Map<String, CitedClass> citedClassMap) throws IOException {
+        String path = jar.getAbsolutePath();
+        usedPaths.add(path);
+        List<CachedClass> classes = new ArrayList<>(citedClassMap.size());
+        for (CitedClass citedClass : citedClassMap.values())
+            classes.add(new CachedClass(citedClass));
+        entries.put(path, new Entry(scanner, jar.length(), jar.lastModified(), sha256(jar), classes));
+    }
+
+    /**
+     * remove the entry of the jar.
+     * @param jar jar file
+     */
+    public void invalidate(File jar) {
+        entries.remove(jar.getAbsolutePath());
+    }
+
+    /**
+     * remove all entries.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * write the cache file, but drop the entries of the jars not used in this run,
+     * if their files do not exist any more.
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        entries.keySet().removeIf(path -> !usedPaths.contains(path) && !new File(path).exists());
+
+        File parent = cacheFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Cannot create dir " + parent);
+        // write to a temp file then rename, so that a broken run does not corrupt the cache
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                writeString(out, e.getKey());
+                e.getValue().write(out);
+            }
+        }
+        if (cacheFile.exists() && !cacheFile.delete())
+            throw new IOException("Cannot replace " + cacheFile);
+        if (!tmp.renameTo(cacheFile))
+            throw new IOException("Cannot rename " + tmp + " to " + cacheFile);
+    }
+
+    protected void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("not a scan cache file");
+            int version = in.readInt();
+            if (version != FORMAT_VERSION)
+                throw new IOException("format version " + version + " is not " + FORMAT_VERSION);
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String path = readString(in);
+                entries.put(path, Entry.read(in));
+            }
+        }
+    }
+
+    /**
+     * @param file
+     * @return SHA-256 of the file content
+     * @throws IOException
+     */
+    public static byte[] sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buf = new byte[65536];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                digest.update(buf, 0, n);
+        }
+        return digest.digest();
+    }
+
+    // writeUTF is limited to 64K
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0)
+            throw new IOException("negative string length");
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // the scan result of one jar
+    protected static class Entry {
+        final String scanner;
+        final long size;
+        final long lastModified;
+        final byte[] sha256;
+        final List<CachedClass> classes;
+
+        Entry(String scanner, long size, long lastModified, byte[] sha256, List<CachedClass> classes) {
+            this.scanner = scanner;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+            this.classes = classes;
+        }
+
+        Map<String, CitedClass> toCitedClassMap() {
+            Map<String, CitedClass> citedClassMap = new TreeMap<>();
+            for (CachedClass c : classes) {
+                CitedClass citedClass = new CitedClass(c.className, c.citations);
+                citedClass.setDescription(c.description);
+                citedClassMap.put(c.className, citedClass);
+            }
+            return citedClassMap;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            writeString(out, scanner);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeShort(sha256.length);
+            out.write(sha256);
+            out.writeInt(classes.size());
+            for (CachedClass c : classes) {
+                writeString(out, c.className);
+                writeString(out, c.description);
+                out.writeInt(c.citations.size());
+                for (CitationRecord citation : c.citations) {
+                    writeString(out, citation.value());
+                    writeString(out, citation.DOI());
+                    out.writeInt(citation.year());
+                    writeString(out, citation.firstAuthorSurname());
+                }
+            }
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            String scanner = readString(in);
+            long size = in.readLong();
+            long lastModified = in.readLong();
+            byte[] sha256 = new byte[in.readUnsignedShort()];
+            in.readFully(sha256);
+            int nClasses = in.readInt();
+            List<CachedClass> classes = new ArrayList<>(nClasses);
+            for (int i = 0; i < nClasses; i++) {
+                String className = readString(in);
+                String description = readString(in);
+                int nCitations = in.readInt();
+                List<CitationRecord> citations = new ArrayList<>(nCitations);
+                for (int j = 0; j < nCitations; j++) {
+                    String value = readString(in);
+                    String doi = readString(in);
+                    int year = in.readInt();
+                    citations.add(new CitationRecord(value, doi, year, readString(in)));
+                }
+                classes.add(new CachedClass(className, description, citations));
+            }
+            return new Entry(scanner, size, lastModified, sha256, classes);
+        }
+    }
+
+    // a cited class without any annotation proxy
+    protected static class CachedClass {
+        final String className;
+        final String description;
+        final List<CitationRecord> citations;
+
+        CachedClass(String className, String description, List<CitationRecord> citations) {
+            this.className = className;
+            this.description = description;
+            this.citations = citations;
+        }
+
+        CachedClass(CitedClass citedClass) {
+            this.className = citedClass.className;
+            this.description = citedClass.getDescription();
+            this.citations = new ArrayList<>(citedClass.citations.size());
+            for (Citation citation : citedClass.citations)
+                citations.add(CitationRecord.of(citation));
+        }
+    }
+}
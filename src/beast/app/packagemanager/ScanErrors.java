@@ -0,0 +1,253 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+import beast.util.Package;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The classes which cannot be scanned, and how a scanner handles them,
+ * when it is given to {@link ClassScanner#setErrors(ScanErrors)}.
+ * A broken class is recorded with its jar and the type of cause, and the scanner keeps scanning
+ * the rest of the jar, instead of throwing an {@link IOException} which loses the whole jar.
+ * Optionally, a class is given up after a time limit, so that a pathological class cannot stall the run,
+ * and a class which failed for a missing class is retried by a loader containing the jars of all packages,
+ * which finds the dependencies not declared by the package.
+ *
+ * @author Walter Xie
+ */
+public class ScanErrors {
+
+    public static final String TIMEOUT = "Timeout";
+
+    // the maximum time to load and read a class, 0 for no limit
+    protected long classTimeoutMillis = 0;
+    // retry the class failed for a missing class, if not null
+    protected ClassLoader retryLoader;
+    // run the classes with a time limit, daemon threads, so that a stuck class does not stop the JVM exit
+    private ExecutorService timeLimiter;
+
+    private final List<ScanError> errors = new ArrayList<>();
+    // jar path, which has any error
+    private final Set<String> failedJars = new HashSet<>();
+    private int retried = 0, recovered = 0;
+
+    /**
+     * a class which cannot be scanned.
+     */
+    public static class ScanError {
+        public final String className;
+        public final String jar;
+        // the simple class name of the cause, or TIMEOUT
+        public final String causeType;
+        public final String message;
+        // true if it also failed by the retry loader
+        public final boolean retried;
+
+        public ScanError(String className, String jar, String causeType, String message, boolean retried) {
+            this.className = className;
+            this.jar = jar;
+            this.causeType = causeType;
+            this.message = message == null ? "" : message;
+            this.retried = retried;
+        }
+
+        @Override
+        public String toString() {
+            return className + "\t" + jar + "\t" + causeType + "\t" + message;
+        }
+    }
+
+    /**
+     * @param classTimeoutMillis  the maximum time to load and read a class, 0 for no limit
+     */
+    public void setClassTimeout(long classTimeoutMillis) {
+        this.classTimeoutMillis = classTimeoutMillis;
+    }
+
+    public long getClassTimeout() {
+        return classTimeoutMillis;
+    }
+
+    /**
+     * @param retryLoader  the loader to retry the classes failed for a missing class, or null not to retry
+     * @see #createRetryLoader(Map)
+     */
+    public void setRetryLoader(ClassLoader retryLoader) {
+        this.retryLoader = retryLoader;
+    }
+
+    public ClassLoader getRetryLoader() {
+        return retryLoader;
+    }
+
+    /**
+     * @param packageMap  key is package name
+     * @return a loader containing the jars of all installed packages in the map,
+     *         which should be closed after scanning.
+     */
+    public static PackageClassLoader createRetryLoader(Map<String, Package> packageMap) {
+        List<URL> urls = new ArrayList<>();
+        for (Package pkg : packageMap.values()) {
+            try {
+                for (File f : PackageCitations.guessLibJarFile(pkg))
+                    urls.add(f.toURI().toURL());
+            } catch (IOException e) {
+                // not installed
+            }
+        }
+        return new PackageClassLoader("all packages", urls.toArray(new URL[0]), Collections.emptyList(),
+                PackageCitations.class.getClassLoader());
+    }
+
+    /**
+     * @param t  the failure of a class
+     * @return true if a class is missing, which may be found by the retry loader.
+     */
+    public static boolean isMissingClass(Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (t instanceof ClassNotFoundException || t instanceof NoClassDefFoundError ||
+                    t instanceof TypeNotPresentException)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * run the task in another thread if there is a time limit.
+     * @param task  load and read a class
+     * @return the result of the task
+     * @throws TimeoutException if the task is not finished in time, which is interrupted but may still run.
+     * @throws Throwable the failure of the task
+     */
+    public <T> T callWithTimeLimit(Callable<T> task) throws Throwable {
+        if (classTimeoutMillis <= 0)
+            return task.call();
+        Future<T> future = getTimeLimiter().submit(task);
+        try {
+            return future.get(classTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    private synchronized ExecutorService getTimeLimiter() {
+        if (timeLimiter == null) {
+            timeLimiter = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "class-time-limit");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return timeLimiter;
+    }
+
+    //****** report ******//
+
+    /**
+     * record a class which cannot be scanned.
+     * @param className  class name
+     * @param jar        the jar containing the class
+     * @param cause      the failure, or {@link TimeoutException}
+     * @param retried    true if it also failed by the retry loader
+     */
+    public void add(String className, File jar, Throwable cause, boolean retried) {
+        String causeType = cause instanceof TimeoutException ? TIMEOUT : cause.getClass().getSimpleName();
+        ScanError error = new ScanError(className, jar.getPath(), causeType, cause.getMessage(), retried);
+        synchronized (this) {
+            errors.add(error);
+            failedJars.add(error.jar);
+            if (retried)
+                this.retried++;
+        }
+        Metrics.count(Metrics.Counter.CLASSES_FAILED);
+        if (cause instanceof TimeoutException)
+            Metrics.count(Metrics.Counter.CLASSES_TIMED_OUT);
+        Log.debug("Cannot scan " + className + " in " + jar + " : " + cause);
+    }
+
+    /**
+     * a class failed by the package loader, but is scanned by the retry loader.
+     */
+    public synchronized void addRecovered() {
+        retried++;
+        recovered++;
+        Metrics.count(Metrics.Counter.CLASSES_RECOVERED);
+    }
+
+    public synchronized List<ScanError> getErrors() {
+        return new ArrayList<>(errors);
+    }
+
+    /**
+     * @param jar  jar file
+     * @return true if any class in the jar cannot be scanned, so that the result should not be cached.
+     */
+    public synchronized boolean hasErrors(File jar) {
+        return failedJars.contains(jar.getPath());
+    }
+
+    public synchronized int size() {
+        return errors.size();
+    }
+
+    public synchronized int getRetried() {
+        return retried;
+    }
+
+    public synchronized int getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * @return the number of errors of each cause type, in descending order.
+     */
+    public synchronized Map<String, Integer> getCauseCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (ScanError error : errors)
+            counts.merge(error.causeType, 1, Integer::sum);
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort((a, b) -> b.getValue() - a.getValue());
+        Map<String, Integer> sorted = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : entries)
+            sorted.put(entry.getKey(), entry.getValue());
+        return sorted;
+    }
+
+    /**
+     * one JSON object per line for each error:
+     * <code>{"class":"", "jar":"", "cause":"", "message":"", "retried":false}</code>
+     * @param out  which is not closed
+     * @throws IOException
+     */
+    public void write(Writer out) throws IOException {
+        for (ScanError error : getErrors()) {
+            out.write("{\"class\":");
+            JSONLinesReportSink.quote(out, error.className);
+            out.write(",\"jar\":");
+            JSONLinesReportSink.quote(out, error.jar);
+            out.write(",\"cause\":");
+            JSONLinesReportSink.quote(out, error.causeType);
+            out.write(",\"message\":");
+            JSONLinesReportSink.quote(out, error.message);
+            out.write(",\"retried\":");
+            out.write(Boolean.toString(error.retried));
+            out.write("}\n");
+        }
+        out.flush();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return size() + " classes failed, " + retried + " retried, " + recovered + " recovered" +
+                (errors.isEmpty() ? "" : ", " + getCauseCounts());
+    }
+}
@@ -0,0 +1,34 @@
+package beast.app.packagemanager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keep one instance of equal strings, such as the same citation text cited by many classes
+ * in many packages, without filling the JVM string table as {@link String#intern()} does.
+ * @see CitedClass#compact(StringPool)
+ *
+ * @author Walter Xie
+ */
+public class StringPool {
+
+    private final Map<String, String> pool = new HashMap<>();
+
+    /**
+     * @param s  string or null
+     * @return the pooled instance equal to s.
+     */
+    public synchronized String get(String s) {
+        if (s == null)
+            return null;
+        String pooled = pool.putIfAbsent(s, s);
+        return pooled == null ? s : pooled;
+    }
+
+    /**
+     * @return the number of unique strings.
+     */
+    public synchronized int size() {
+        return pool.size();
+    }
+}
@@ -0,0 +1,32 @@
+package beast.app.packagemanager;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * One line per citation: package, class, DOI and citation text, delimited by tab,
+ * which is the same as {@link PackageCitations#printCitedClasses(boolean)} not verbose.
+ *
+ * @author Walter Xie
+ */
+public class TSVReportSink extends WriterReportSink {
+
+    public TSVReportSink(Writer out) {
+        super(out);
+    }
+
+    @Override
+    public void write(String pkgName, CitedClass citedClass) throws IOException {
+        for (NormalizedCitation citation : citedClass.normalized) {
+            out.write(pkgName);
+            out.write('\t');
+            out.write(citedClass.className);
+            out.write('\t');
+            out.write(citation.doi);
+            out.write('\t');
+            out.write(citation.text);
+            out.write('\n');
+        }
+        records++;
+    }
+}
@@ -0,0 +1,48 @@
+package beast.app.packagemanager;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The base of {@link ReportSink}s writing text.
+ *
+ * @author Walter Xie
+ */
+public abstract class WriterReportSink implements ReportSink {
+
+    protected final Writer out;
+    protected int records = 0;
+
+    protected WriterReportSink(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * @return the number of cited classes written.
+     */
+    public int getRecords() {
+        return records;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * override it to write the end of report.
+     * @throws IOException
+     */
+    protected void end() throws IOException {
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            end();
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+}
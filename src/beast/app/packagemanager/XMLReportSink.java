@@ -0,0 +1,89 @@
+package beast.app.packagemanager;
+
+import beast.core.Citation;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * <pre>
+ * &lt;citations&gt;
+ *   &lt;class package="" name=""&gt;
+ *     &lt;description&gt;&lt;/description&gt;
+ *     &lt;citation doi="" year=""&gt;text&lt;/citation&gt;
+ *   &lt;/class&gt;
+ * &lt;/citations&gt;
+ * </pre>
+ *
+ * @author Walter Xie
+ */
+public class XMLReportSink extends WriterReportSink {
+
+    public XMLReportSink(Writer out) throws IOException {
+        super(out);
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<citations>\n");
+    }
+
+    @Override
+    public void write(String pkgName, CitedClass citedClass) throws IOException {
+        out.write("  <class package=\"");
+        escape(pkgName);
+        out.write("\" name=\"");
+        escape(citedClass.className);
+        out.write("\">\n    <description>");
+        escape(citedClass.getDescription());
+        out.write("</description>\n");
+        for (int i = 0; i < citedClass.normalized.length; i++) {
+            NormalizedCitation citation = citedClass.normalized[i];
+            Citation raw = citedClass.citations.get(i);
+            out.write("    <citation");
+            if (citation.hasDOI()) {
+                out.write(" doi=\"");
+                escape(citation.doi);
+                out.write('"');
+            }
+            if (raw.year() > 0) {
+                out.write(" year=\"");
+                out.write(Integer.toString(raw.year()));
+                out.write('"');
+            }
+            out.write('>');
+            escape(citation.text);
+            out.write("</citation>\n");
+        }
+        out.write("  </class>\n");
+        records++;
+    }
+
+    @Override
+    protected void end() throws IOException {
+        out.write("</citations>\n");
+    }
+
+    // escape the text or attribute value
+    private void escape(String s) throws IOException {
+        if (s == null)
+            return;
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            String entity;
+            switch (s.charAt(i)) {
+                case '<': entity = "&lt;"; break;
+                case '>': entity = "&gt;"; break;
+                case '&': entity = "&amp;"; break;
+                case '"': entity = "&quot;"; break;
+                case '\n': entity = "&#10;"; break;
+                case '\t': entity = "&#9;"; break;
+                default:
+                    // not allowed in XML 1.0
+                    entity = s.charAt(i) < 0x20 && s.charAt(i) != '\r' ? "" : null;
+            }
+            if (entity == null)
+                continue;
+            out.write(s, start, i - start);
+            out.write(entity);
+            start = i + 1;
+        }
+        out.write(s, start, s.length() - start);
+    }
+}
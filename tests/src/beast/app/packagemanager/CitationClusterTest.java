@@ -0,0 +1,237 @@
+package beast.app.packagemanager;
+
+import beast.app.util.Arguments;
+import beast.core.util.Log;
+
+import java.util.*;
+
+/**
+ * Cluster synthetic citations by {@link CitationClusters}, and report the pair precision and recall
+ * against the publications they were generated from, the time, and the number of comparisons,
+ * which should grow linearly with the number of citations.
+ * Each publication is cited in several styles, i.e. "&amp;" or "and", et al., full or abbreviated journal,
+ * missing year or pages, upper case, and a typo, where some of them have the DOI.
+ * A quarter of publications have a sibling of the same authors, year and journal but another title.
+ * Usage: CitationClusterTest [-sizes 1000,10000,100000] [-variants 5] [-seed 1]
+ *
+ * @author Walter Xie
+ */
+public class CitationClusterTest {
+
+    public static final String DEFAULT_SIZES = "1000,10000,100000";
+    // the average number of variants of each publication
+    public static final int VARIANTS = 5;
+
+    private static final String[] JOURNALS = {
+            "Molecular Biology and Evolution", "Systematic Biology", "PLoS Computational Biology",
+            "Bioinformatics", "Journal of Molecular Evolution", "Genetics", "Virus Evolution",
+            "Proceedings of the National Academy of Sciences"};
+    private static final String[] JOURNAL_ABBREVIATIONS = {
+            "Mol Biol Evol", "Syst Biol", "PLoS Comput Biol",
+            "Bioinformatics", "J Mol Evol", "Genetics", "Virus Evol",
+            "Proc Natl Acad Sci"};
+
+    /**
+     * the result of one size.
+     */
+    public static class Result {
+        public int citations, texts, publications, clusters;
+        public long truePairs, predictedPairs, correctPairs, comparisons, millis;
+
+        public double precision() {
+            return predictedPairs == 0 ? 1 : (double) correctPairs / predictedPairs;
+        }
+
+        public double recall() {
+            return truePairs == 0 ? 1 : (double) correctPairs / truePairs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%10d %10d %8d %8d %10.4f %10.4f %12d %10.2f %10.1f",
+                    citations, texts, publications, clusters, precision(), recall(), comparisons,
+                    (double) comparisons / texts, millis / 1000.0);
+        }
+
+        public static String header() {
+            return String.format("%10s %10s %8s %8s %10s %10s %12s %10s %10s",
+                    "citations", "texts", "papers", "clusters", "precision", "recall", "comparisons",
+                    "per text", "time(s)");
+        }
+    }
+
+    // a generated publication
+    private static class Paper {
+        final String[] authors;
+        final int year;
+        final String title;
+        final int journal, volume, page;
+        final String doi;
+
+        Paper(String[] authors, int year, String title, int journal, int volume, int page, String doi) {
+            this.authors = authors;
+            this.year = year;
+            this.title = title;
+            this.journal = journal;
+            this.volume = volume;
+            this.page = page;
+            this.doi = doi;
+        }
+    }
+
+    /**
+     * generate the citations of size / {@link #VARIANTS} publications, and cluster them.
+     * @param size      the number of citations
+     * @param variants  the average number of variants of each publication
+     * @param random    {@link Random}
+     * @return {@link Result}
+     */
+    public static Result run(int size, int variants, Random random) {
+        String[] vocabulary = new String[Math.max(2000, size / 10)];
+        for (int i = 0; i < vocabulary.length; i++)
+            vocabulary[i] = word(random, 2 + random.nextInt(3));
+        String[] surnames = new String[Math.max(1000, size / 20)];
+        for (int i = 0; i < surnames.length; i++)
+            surnames[i] = capitalize(word(random, 2 + random.nextInt(2)));
+
+        List<Paper> papers = new ArrayList<>();
+        while (papers.size() * variants < size) {
+            String[] authors = new String[1 + random.nextInt(6)];
+            for (int k = 0; k < authors.length; k++)
+                authors[k] = surnames[random.nextInt(surnames.length)] + " " + (char) ('A' + random.nextInt(26));
+            int year = 1990 + random.nextInt(35);
+            int journal = random.nextInt(JOURNALS.length);
+            papers.add(newPaper(authors, year, journal, vocabulary, random, papers.size()));
+            // the same authors publish again in the same year
+            if (random.nextDouble() < 0.25)
+                papers.add(newPaper(authors, year, journal, vocabulary, random, papers.size()));
+        }
+
+        // text -> paper, the first one wins if two papers give the same text
+        Map<String, Integer> truth = new HashMap<>();
+        CitationClusters clusters = new CitationClusters();
+        Result result = new Result();
+        result.publications = papers.size();
+        for (int c = 0; c < size; c++) {
+            int p = random.nextInt(papers.size());
+            Paper paper = papers.get(p);
+            NormalizedCitation citation = new NormalizedCitation(
+                    CitationNormalizer.normalizeText(cite(paper, random)),
+                    random.nextDouble() < 0.3 ? paper.doi : "");
+            truth.putIfAbsent(citation.text, p);
+            clusters.add(citation, "pkg" + c % 100 + " Class" + c);
+            result.citations++;
+        }
+
+        long start = System.currentTimeMillis();
+        clusters.cluster();
+        result.millis = System.currentTimeMillis() - start;
+        result.texts = clusters.getTextCount();
+        result.comparisons = clusters.getComparisons();
+        result.clusters = clusters.getClusters().size();
+
+        // pairs of texts of the same paper, in the same cluster, and both
+        Map<Integer, Integer> paperSizes = new HashMap<>();
+        for (int p : truth.values())
+            paperSizes.merge(p, 1, Integer::sum);
+        for (int n : paperSizes.values())
+            result.truePairs += (long) n * (n - 1) / 2;
+        for (CitationClusters.Cluster cluster : clusters.getClusters()) {
+            int n = cluster.variants.size();
+            result.predictedPairs += (long) n * (n - 1) / 2;
+            Map<Integer, Integer> shared = new HashMap<>();
+            for (String text : cluster.variants)
+                shared.merge(truth.get(text), 1, Integer::sum);
+            for (int m : shared.values())
+                result.correctPairs += (long) m * (m - 1) / 2;
+        }
+        return result;
+    }
+
+    private static Paper newPaper(String[] authors, int year, int journal, String[] vocabulary, Random random, int id) {
+        StringBuilder title = new StringBuilder();
+        int n = 6 + random.nextInt(10);
+        for (int k = 0; k < n; k++) {
+            // Zipf-like, so that some words are very common
+            int w = (int) Math.pow(vocabulary.length, random.nextDouble()) - 1;
+            title.append(k == 0 ? capitalize(vocabulary[w]) : (k % 4 == 2 ? " of " : " ") + vocabulary[w]);
+        }
+        return new Paper(authors, year, title.toString(), journal, 1 + random.nextInt(60),
+                1 + random.nextInt(3000), "10.1000/paper." + id);
+    }
+
+    // one citation style of the paper
+    private static String cite(Paper paper, Random random) {
+        StringBuilder text = new StringBuilder();
+        if (paper.authors.length > 3 && random.nextBoolean()) {
+            text.append(paper.authors[0]).append(", et al.");
+        } else {
+            String and = random.nextBoolean() ? " & " : " and ";
+            for (int k = 0; k < paper.authors.length; k++)
+                text.append(k == 0 ? "" : k == paper.authors.length - 1 ? and : ", ").append(paper.authors[k]);
+        }
+        if (random.nextDouble() < 0.85)
+            text.append(random.nextBoolean() ? " (" + paper.year + ") " : ", " + paper.year + ". ");
+        else
+            text.append(". ");
+
+        String title = paper.title;
+        if (random.nextDouble() < 0.2)
+            title = title.toUpperCase(Locale.ROOT);
+        if (random.nextDouble() < 0.3) {
+            // a typo
+            int i = random.nextInt(title.length() - 1);
+            title = title.substring(0, i) + title.charAt(i + 1) + title.charAt(i) + title.substring(i + 2);
+        }
+        text.append(title).append(random.nextBoolean() ? ". " : ", ");
+
+        text.append(random.nextBoolean() ? JOURNALS[paper.journal] : JOURNAL_ABBREVIATIONS[paper.journal]);
+        text.append(' ').append(paper.volume);
+        if (random.nextDouble() < 0.7)
+            text.append(random.nextBoolean() ? ":" : ", ").append(paper.page).append('-').append(paper.page + 9);
+        if (random.nextDouble() < 0.3)
+            text.append('.');
+        return text.toString();
+    }
+
+    private static String word(Random random, int syllables) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < syllables; i++)
+            word.append("bcdfghklmnprstvz".charAt(random.nextInt(16))).append("aeiou".charAt(random.nextInt(5)));
+        return word.toString();
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    public static void main(String[] args) {
+        Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.StringOption("sizes", "1000,10000,100000",
+                                "Comma separated numbers of citations. The default is " + DEFAULT_SIZES + ". (optional)"),
+                        new Arguments.IntegerOption("variants",
+                                "The average number of variants of each publication. " +
+                                        "The default is " + VARIANTS + ". (optional)"),
+                        new Arguments.IntegerOption("seed", "The random seed. The default is 1. (optional)"),
+                });
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        String sizes = arguments.hasOption("sizes") ? arguments.getStringOption("sizes") : DEFAULT_SIZES;
+        int variants = arguments.hasOption("variants") ? arguments.getIntegerOption("variants") : VARIANTS;
+        long seed = arguments.hasOption("seed") ? arguments.getIntegerOption("seed") : 1;
+
+        Log.info.println("Citation clusters : " + CitationClusters.BANDS + " bands x " + CitationClusters.ROWS +
+                " rows, threshold " + CitationClusters.THRESHOLD + ", " + variants + " variants per publication.");
+        Log.info.println(Result.header());
+        for (String size : sizes.split(",")) {
+            Result result = run(Integer.parseInt(size.trim()), variants, new Random(seed));
+            Log.info.println(result);
+        }
+    }
+}
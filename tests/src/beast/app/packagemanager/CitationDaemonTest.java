@@ -0,0 +1,192 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Run {@link CitationDaemon} with the {@link HierarchyScanner} on the packages in a temporary directory,
+ * and check the {@link CitationDaemon.Snapshot} after a package is installed, updated and removed,
+ * where the class <code>child.Kid</code> has no citation and inherits the citations of
+ * <code>base.Parent</code> in the package it depends on, so a stale parent class in the index is found.
+ * It prints one line per check, and exits with 1 if any check fails.
+ * Usage: CitationDaemonTest
+ *
+ * @author Walter Xie
+ */
+public class CitationDaemonTest {
+
+    // the maximum time to wait for a rescan
+    public static final long TIMEOUT_MILLIS = 20000;
+
+    private static final String PARENT = "base/Parent";
+    private static final String KID = "child.Kid";
+
+    private int failures = 0;
+    private File root;
+
+    void check(String name, boolean ok, String detail) {
+        if (!ok)
+            failures++;
+        Log.info.println(String.format("%-45s %s", name, ok ? "ok   " + detail : "FAILED : " + detail));
+    }
+
+    //****** packages ******//
+
+    /**
+     * write the package directory, its version.xml and lib/name.jar,
+     * where the jar is written to a temporary file in lib and then moved, as an unzipped package appears.
+     * @param pkgName  package name
+     * @param depends  the packages it depends on
+     * @param classes  key is the internal class name, the value is the class file bytes
+     * @throws IOException
+     */
+    private void writePackage(String pkgName, List<String> depends, Map<String, byte[]> classes) throws IOException {
+        File libDir = new File(new File(root, pkgName), "lib");
+        if (!libDir.isDirectory() && !libDir.mkdirs())
+            throw new IOException("Cannot create " + libDir);
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(libDir.getParentFile(), "version.xml")), StandardCharsets.UTF_8))) {
+            out.println("<package name='" + pkgName + "' version='" + SyntheticRepository.VERSION + "'>");
+            out.println("    <depends on='beast' atleast='2.5.0'/>");
+            for (String dependency : depends)
+                out.println("    <depends on='" + dependency + "' atleast='" + SyntheticRepository.VERSION + "'/>");
+            out.println("</package>");
+        }
+
+        // not a jar, so that it is not scanned before it is moved
+        File tmp = new File(libDir, pkgName + ".jar.tmp");
+        try (JarOutputStream jar = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                jar.putNextEntry(new JarEntry(entry.getKey() + ".class"));
+                jar.write(entry.getValue());
+                jar.closeEntry();
+            }
+        }
+        Files.move(tmp.toPath(), new File(libDir, pkgName + ".jar").toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Base containing base.Parent cited by the DOI
+    private void writeBase(String doi) throws IOException {
+        writePackage("Base", Collections.emptyList(), Collections.singletonMap(PARENT,
+                SyntheticRepository.createClass(PARENT, SyntheticRepository.BEAST_OBJECT, citation(doi), null)));
+    }
+
+    private static List<CitationRecord> citation(String doi) {
+        return Collections.singletonList(new CitationRecord("Author A (2020) Title of " + doi + ". Journal 1: 1",
+                doi, 2020, "author"));
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files)
+                delete(f);
+        }
+        file.delete();
+    }
+
+    //****** snapshot ******//
+
+    // wait until the condition is true in a snapshot, or the timeout
+    private static CitationDaemon.Snapshot await(CitationDaemon daemon, Predicate<CitationDaemon.Snapshot> condition)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        CitationDaemon.Snapshot snapshot = daemon.getSnapshot();
+        while (!condition.test(snapshot) && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+            snapshot = daemon.getSnapshot();
+        }
+        return snapshot;
+    }
+
+    // the DOIs cited by the class in any package
+    private static Set<String> getDOIs(CitationDaemon.Snapshot snapshot, String className) {
+        Set<String> dois = new TreeSet<>();
+        for (String doi : snapshot.getDOIIndex().getDOIs()) {
+            for (DOIMapping mapping : snapshot.getDOIIndex().getMappings(doi)) {
+                if (mapping.className.equals(className))
+                    dois.add(doi);
+            }
+        }
+        return dois;
+    }
+
+    private static String describe(CitationDaemon.Snapshot snapshot) {
+        return snapshot.getProcessedPkgMap().size() + " packages, " + KID + " cites " + getDOIs(snapshot, KID) +
+                ", " + snapshot.getRescans() + " rescans";
+    }
+
+    //****** checks ******//
+
+    /**
+     * @return the number of failed checks.
+     * @throws Exception
+     */
+    public int run() throws Exception {
+        failures = 0;
+        root = Files.createTempDirectory("packages").toFile().getCanonicalFile();
+        String previousDir = System.getProperty("beast.user.package.dir");
+        System.setProperty("beast.user.package.dir", root.getAbsolutePath());
+        try {
+            writeBase("10.1/base.v1");
+            writePackage("Child", Collections.singletonList("Base"), Collections.singletonMap(
+                    KID.replace('.', '/'), SyntheticRepository.createClass(KID.replace('.', '/'), PARENT,
+                            Collections.emptyList(), null)));
+
+            try (CitationDaemon daemon = new CitationDaemon(Collections.singletonList(root),
+                    new HierarchyScanner(), 2)) {
+                daemon.setQuietMillis(200);
+                daemon.start();
+                CitationDaemon.Snapshot snapshot = daemon.getSnapshot();
+                check("first scan inherits citations", snapshot.getProcessedPkgMap().size() == 2 &&
+                        getDOIs(snapshot, KID).equals(Collections.singleton("10.1/base.v1")), describe(snapshot));
+
+                writePackage("Extra", Collections.emptyList(), Collections.singletonMap("extra/Extra",
+                        SyntheticRepository.createClass("extra/Extra", SyntheticRepository.BEAST_OBJECT,
+                                citation("10.1/extra"), null)));
+                snapshot = await(daemon, s -> s.getProcessedPkgMap().containsKey("Extra"));
+                check("install a package", snapshot.getProcessedPkgMap().size() == 3 &&
+                        !snapshot.getDOIIndex().getMappings("10.1/extra").isEmpty(), describe(snapshot));
+
+                // the dependent Child is scanned again with the new parent
+                writeBase("10.1/base.v2");
+                snapshot = await(daemon, s -> !getDOIs(s, KID).contains("10.1/base.v1"));
+                check("update the parent package", getDOIs(snapshot, KID).equals(Collections.singleton("10.1/base.v2")) &&
+                        snapshot.getDOIIndex().getMappings("10.1/base.v1").isEmpty(), describe(snapshot));
+
+                delete(new File(root, "Extra"));
+                snapshot = await(daemon, s -> !s.getProcessedPkgMap().containsKey("Extra"));
+                check("remove a package", snapshot.getProcessedPkgMap().size() == 2 &&
+                        snapshot.getDOIIndex().getMappings("10.1/extra").isEmpty(), describe(snapshot));
+
+                // base.Parent must not be kept in the index after its package is removed
+                delete(new File(root, "Base"));
+                snapshot = await(daemon, s -> !s.getProcessedPkgMap().containsKey("Base"));
+                check("remove the parent package", !snapshot.getProcessedPkgMap().containsKey("Base") &&
+                        getDOIs(snapshot, KID).isEmpty() &&
+                        snapshot.getDOIIndex().getMappings("10.1/base.v2").isEmpty(), describe(snapshot));
+            }
+        } finally {
+            if (previousDir == null)
+                System.clearProperty("beast.user.package.dir");
+            else
+                System.setProperty("beast.user.package.dir", previousDir);
+            delete(root);
+        }
+        return failures;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int failures = new CitationDaemonTest().run();
+        Log.info.println(failures == 0 ? "All checks passed." : failures + " checks failed !");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
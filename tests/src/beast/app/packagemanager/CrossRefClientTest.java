@@ -0,0 +1,474 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+import beast.util.Package;
+import beast.util.PackageManager;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Run {@link CrossRefClient} against a stub CrossRef server on the loopback address,
+ * and check the concurrency limit, the rate limit from the <code>X-Rate-Limit-*</code> headers,
+ * the retry after 429 and 503, giving up after {@link CrossRefClient#MAX_RETRIES},
+ * the {@link CrossRefCache} used by the next run and in offline mode, and by concurrent threads,
+ * and the number of requests of {@link CrossRefBatchResolver}, by itself and in {@link CitationPipeline},
+ * against one request per DOI.
+ * No request goes to the real CrossRef.
+ * It prints one line per check, and exits with 1 if any check fails.
+ * Usage: CrossRefClientTest
+ *
+ * @author Walter Xie
+ */
+public class CrossRefClientTest {
+
+    private int failures = 0;
+
+    /**
+     * respond to one request of the stub server.
+     */
+    public interface Responder {
+        /**
+         * @param exchange  the request and response
+         * @param n         the number of requests received so far, including this one
+         * @throws IOException
+         */
+        void respond(HttpExchange exchange, int n) throws IOException;
+    }
+
+    /**
+     * A CrossRef server on the loopback address, which counts the requests
+     * and the maximum number of requests at the same time.
+     */
+    public static class StubServer implements Closeable {
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private final List<String> queries = new ArrayList<>();
+
+        /**
+         * @param delayMillis  the time to respond
+         * @param responder    {@link Responder}
+         * @throws IOException
+         */
+        public StubServer(long delayMillis, Responder responder) throws IOException {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.setExecutor(executor);
+            server.createContext("/works", exchange -> {
+                int n = requests.incrementAndGet();
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                synchronized (queries) {
+                    queries.add(exchange.getRequestURI().toString());
+                }
+                try {
+                    if (delayMillis > 0)
+                        Thread.sleep(delayMillis);
+                    responder.respond(exchange, n);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    inFlight.decrementAndGet();
+                    exchange.close();
+                }
+            });
+            server.start();
+        }
+
+        /**
+         * @return such as http://127.0.0.1:port/works/
+         */
+        public String getBaseURL() {
+            return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/works/";
+        }
+
+        public int getRequests() {
+            return requests.get();
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight.get();
+        }
+
+        /**
+         * @return the path and query of each request in the order received.
+         */
+        public List<String> getQueries() {
+            synchronized (queries) {
+                return new ArrayList<>(queries);
+            }
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param doi  DOI
+     * @return the response of <code>/works/{doi}</code>
+     */
+    public static String work(String doi) {
+        return "{\"status\":\"ok\",\"message-type\":\"work\",\"message\":" + workItem(doi) + "}";
+    }
+
+    /**
+     * @param doi  DOI
+     * @return the work in the message of the response
+     */
+    public static String workItem(String doi) {
+        return "{\"DOI\":\"" + doi + "\",\"author\":[{\"given\":\"Alexei\",\"family\":\"Drummond\"}]," +
+                "\"title\":[\"Title of " + doi + "\"],\"publisher\":\"Stub\"," +
+                "\"created\":{\"date-parts\":[[2020,1,1]]}}";
+    }
+
+    /**
+     * respond to <code>/works/{doi}</code>, and <code>/works?filter=doi:...,doi:...</code> of batch requests.
+     * @param exchange  the request and response
+     * @throws IOException
+     */
+    public static void sendWorks(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        if (query == null) {
+            send(exchange, 200, work(getDOI(exchange)));
+            return;
+        }
+        StringBuilder items = new StringBuilder();
+        for (String param : query.split("&")) {
+            if (!param.startsWith("filter="))
+                continue;
+            for (String filter : param.substring("filter=".length()).split(",")) {
+                if (items.length() > 0)
+                    items.append(',');
+                items.append(workItem(filter.substring("doi:".length())));
+            }
+        }
+        send(exchange, 200, "{\"status\":\"ok\",\"message-type\":\"work-list\",\"message\":{\"items\":[" +
+                items + "]}}");
+    }
+
+    /**
+     * @param exchange  the request
+     * @return the DOI after /works/
+     */
+    public static String getDOI(HttpExchange exchange) {
+        return exchange.getRequestURI().getPath().substring("/works/".length());
+    }
+
+    /**
+     * send the JSON with the status code and headers.
+     * @param exchange  the request and response
+     * @param code      HTTP status code
+     * @param body      the response body, or null
+     * @param headers   the name and value of each header
+     * @throws IOException
+     */
+    public static void send(HttpExchange exchange, int code, String body, String... headers) throws IOException {
+        for (int i = 0; i + 1 < headers.length; i += 2)
+            exchange.getResponseHeaders().add(headers[i], headers[i + 1]);
+        byte[] b = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, b.length == 0 ? -1 : b.length);
+        if (b.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(b);
+            }
+        }
+    }
+
+    void check(String name, boolean ok, String detail) {
+        if (!ok)
+            failures++;
+        Log.info.println(String.format("%-45s %s", name, ok ? "ok   " + detail : "FAILED : " + detail));
+    }
+
+    //****** checks ******//
+
+    // no more than the maximum concurrency at the same time
+    void testConcurrency() throws Exception {
+        try (StubServer server = new StubServer(100, (ex, n) -> send(ex, 200, work(getDOI(ex))));
+             CrossRefClient client = new CrossRefClient(3, 1000)) {
+            List<CompletableFuture<CrossRefWork>> futures = new ArrayList<>();
+            for (int i = 0; i < 12; i++)
+                futures.add(new CrossRef("10.1/c" + i, server.getBaseURL(), client).submitWork());
+            int resolved = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                if (CrossRef.join(futures.get(i)).doi.equals("10.1/c" + i))
+                    resolved++;
+            }
+            check("concurrency limit", resolved == 12 && server.getMaxInFlight() <= 3 &&
+                            server.getMaxInFlight() > 1,
+                    resolved + " resolved, max " + server.getMaxInFlight() + " in flight of 3");
+        }
+    }
+
+    // the limit from the server replaces the initial limit
+    void testRateLimit() throws Exception {
+        try (StubServer server = new StubServer(0, (ex, n) -> send(ex, 200, work(getDOI(ex)),
+                "X-Rate-Limit-Limit", "10", "X-Rate-Limit-Interval", "1s"));
+             CrossRefClient client = new CrossRefClient(5, 100)) {
+            long start = System.currentTimeMillis();
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 30; i++)
+                futures.add(client.submit(new URL(server.getBaseURL() + "10.1/r" + i)));
+            for (CompletableFuture<String> future : futures)
+                CrossRef.join(future);
+            long millis = System.currentTimeMillis() - start;
+            double rate = client.getRateLimiter().getRatePerSecond();
+            // at most 10 in a burst, then 10 per second
+            check("rate limit from X-Rate-Limit headers", Math.abs(rate - 10) < 1e-6 && millis >= 1000,
+                    "rate " + rate + "/s, 30 requests in " + millis + " ms");
+        }
+    }
+
+    // 429 with Retry-After, then 200
+    void testRetryAfter429() throws Exception {
+        try (StubServer server = new StubServer(0, (ex, n) -> {
+            if (n <= 2)
+                send(ex, 429, null, "Retry-After", "1");
+            else
+                send(ex, 200, work(getDOI(ex)));
+        }); CrossRefClient client = new CrossRefClient(1, 100)) {
+            long start = System.currentTimeMillis();
+            CrossRefWork work = new CrossRef("10.1/retry", server.getBaseURL(), client).getWork();
+            long millis = System.currentTimeMillis() - start;
+            check("retry after 429", work.doi.equals("10.1/retry") && server.getRequests() == 3 &&
+                            client.getRequestCount() == 3 && millis >= 2000,
+                    server.getRequests() + " requests, waited " + millis + " ms for 2 x Retry-After 1s");
+        }
+    }
+
+    // 503 without Retry-After backs off exponentially
+    void testBackOff503() throws Exception {
+        try (StubServer server = new StubServer(0, (ex, n) -> {
+            if (n == 1)
+                send(ex, 503, null);
+            else
+                send(ex, 200, work(getDOI(ex)));
+        }); CrossRefClient client = new CrossRefClient(1, 100)) {
+            long start = System.currentTimeMillis();
+            String result = new CrossRef("10.1/busy", server.getBaseURL(), client).get();
+            long millis = System.currentTimeMillis() - start;
+            check("back off after 503", result.contains("10.1/busy") && server.getRequests() == 2 && millis >= 1000,
+                    server.getRequests() + " requests, waited " + millis + " ms");
+        }
+    }
+
+    // stop after MAX_RETRIES, and the other codes are not retried
+    void testGiveUp() throws Exception {
+        try (StubServer server = new StubServer(0, (ex, n) -> send(ex, 429, null, "Retry-After", "0"));
+             CrossRefClient client = new CrossRefClient(1, 100)) {
+            String error = null;
+            try {
+                new CrossRef("10.1/never", server.getBaseURL(), client).get();
+            } catch (IOException e) {
+                error = e.getMessage();
+            }
+            check("give up after " + CrossRefClient.MAX_RETRIES + " retries",
+                    error != null && error.contains("429") && server.getRequests() == CrossRefClient.MAX_RETRIES + 1,
+                    server.getRequests() + " requests, " + error);
+        }
+        try (StubServer server = new StubServer(0, (ex, n) -> send(ex, 404, null));
+             CrossRefClient client = new CrossRefClient(1, 100)) {
+            String error = null;
+            try {
+                new CrossRef("10.1/missing", server.getBaseURL(), client).get();
+            } catch (IOException e) {
+                error = e.getMessage();
+            }
+            check("no retry after 404", error != null && error.contains("404") && server.getRequests() == 1,
+                    server.getRequests() + " requests, " + error);
+        }
+    }
+
+    // the second run and the offline run are served by the cache
+    void testCache() throws Exception {
+        File dir = Files.createTempDirectory("crossref-cache").toFile();
+        try (StubServer server = new StubServer(0, (ex, n) -> send(ex, 200, work(getDOI(ex)), "ETag", "\"v1\""))) {
+            for (int run = 0; run < 2; run++) {
+                try (CrossRefClient client = new CrossRefClient(5, 100)) {
+                    client.setCache(new CrossRefCache(dir));
+                    List<CompletableFuture<CrossRefWork>> futures = new ArrayList<>();
+                    for (int i = 0; i < 10; i++)
+                        futures.add(new CrossRef("10.1/cache" + i, server.getBaseURL(), client).submitWork());
+                    for (CompletableFuture<CrossRefWork> future : futures)
+                        CrossRef.join(future);
+                }
+            }
+            check("cache serves the next run", server.getRequests() == 10,
+                    server.getRequests() + " requests for 2 runs of 10 DOIs");
+
+            try (CrossRefClient client = new CrossRefClient(5, 100)) {
+                client.setCache(new CrossRefCache(dir));
+                client.setOffline(true);
+                CrossRefWork work = new CrossRef("10.1/cache3", server.getBaseURL(), client).getWork();
+                String error = null;
+                try {
+                    new CrossRef("10.1/uncached", server.getBaseURL(), client).getWork();
+                } catch (IOException e) {
+                    error = e.getMessage();
+                }
+                check("offline only uses the cache", work.doi.equals("10.1/cache3") && error != null &&
+                                server.getRequests() == 10,
+                        server.getRequests() + " requests, uncached : " + error);
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    // the same DOIs are written and read by several threads, where each body names its DOI
+    void testCacheThreads() throws Exception {
+        File dir = Files.createTempDirectory("crossref-cache").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CrossRefCache cache = new CrossRefCache(dir);
+            AtomicInteger wrong = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        String doi = "10.1/threads" + (i % 20);
+                        cache.put(doi, work(doi) + thread, "\"" + thread + "\"", null);
+                        CrossRefCache.Entry entry = cache.get(doi);
+                        // the header and the body are from the same put
+                        if (entry == null || !entry.body.startsWith(work(doi)) ||
+                                !entry.getETag().equals("\"" + entry.body.substring(work(doi).length()) + "\""))
+                            wrong.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+            String[] tmp = dir.list((d, name) -> name.endsWith(".tmp"));
+            CrossRefCache reloaded = new CrossRefCache(dir);
+            check("cache used by threads", wrong.get() == 0 && cache.size() == 20 && reloaded.size() == 20 &&
+                            reloaded.getTotalBytes() == cache.getTotalBytes() && tmp != null && tmp.length == 0,
+                    wrong.get() + " wrong entries, " + cache.size() + " DOIs, " + reloaded.size() + " reloaded, " +
+                            (tmp == null ? 0 : tmp.length) + " temporary files left");
+        } finally {
+            executor.shutdown();
+            delete(dir);
+        }
+    }
+
+    // one request per batch instead of one per DOI
+    void testBatch() throws Exception {
+        int[] requests = new int[2];
+        String[] lines = new String[2];
+        for (int batch = 0; batch < 2; batch++) {
+            try (StubServer server = new StubServer(0, (ex, n) -> sendWorks(ex));
+                 CrossRefClient client = new CrossRefClient(5, 1000)) {
+                CrossRef[] crossRefs = new CrossRef[100];
+                for (int i = 0; i < crossRefs.length; i++)
+                    crossRefs[i] = new CrossRef("10.1/batch" + i, server.getBaseURL(), client);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                // closed by process
+                PrintStream print = new PrintStream(out, true, "UTF-8");
+                if (batch == 0)
+                    CrossRef.process(print, crossRefs);
+                else
+                    CrossRef.process(print, new CrossRefBatchResolver(client, server.getBaseURL(),
+                            CrossRefBatchResolver.DEFAULT_BATCH_SIZE), crossRefs);
+                requests[batch] = server.getRequests();
+                lines[batch] = out.toString("UTF-8");
+            }
+        }
+        check("batch resolver", lines[0].equals(lines[1]) && lines[1].split("\n").length == 100 &&
+                        requests[1] == 100 / CrossRefBatchResolver.DEFAULT_BATCH_SIZE,
+                "100 DOIs, " + requests[0] + " requests one by one, " + requests[1] + " requests by batch");
+    }
+
+    // the pipeline enriching the synthetic packages one by one, or by batch
+    void testPipelineBatch() throws Exception {
+        File root = Files.createTempDirectory("synthetic").toFile();
+        try {
+            SyntheticRepository repository = new SyntheticRepository();
+            repository.setPackages(50);
+            repository.setClassesPerPackage(20);
+            List<String> names = repository.generate(root);
+            System.setProperty("beast.user.package.dir", root.getAbsolutePath());
+            Map<String, Package> packageMap = new TreeMap<>(Comparator.comparing(String::toLowerCase));
+            PackageManager.addInstalledPackages(packageMap);
+            packageMap.keySet().retainAll(names);
+
+            int[] requests = new int[2];
+            int[] resolved = new int[2];
+            int dois = 0;
+            for (int batch = 0; batch < 2; batch++) {
+                try (StubServer server = new StubServer(0, (ex, n) -> sendWorks(ex));
+                     CrossRefClient client = new CrossRefClient(5, 1000)) {
+                    CitationPipeline pipeline = new CitationPipeline(packageMap, new BytecodeScanner(), 2);
+                    pipeline.setReportSink(new TSVReportSink(new StringWriter()));
+                    pipeline.setEnrichment(client, server.getBaseURL(), new StringWriter());
+                    if (batch == 1)
+                        pipeline.setBatchSize(CrossRefBatchResolver.DEFAULT_BATCH_SIZE);
+                    pipeline.run();
+                    requests[batch] = server.getRequests();
+                    resolved[batch] = pipeline.getResolvedCount();
+                    dois = pipeline.getDOICount();
+                }
+            }
+            check("pipeline -enrich -batch", dois > 0 && resolved[0] == dois && resolved[1] == dois &&
+                            requests[0] == dois && requests[1] * 10 <= requests[0],
+                    packageMap.size() + " packages, " + dois + " DOIs, " + requests[0] +
+                            " requests one by one, " + requests[1] + " requests by batch");
+        } finally {
+            delete(root);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files)
+                delete(f);
+        }
+        file.delete();
+    }
+
+    /**
+     * @return the number of failed checks.
+     * @throws Exception
+     */
+    public int run() throws Exception {
+        failures = 0;
+        testConcurrency();
+        testRateLimit();
+        testRetryAfter429();
+        testBackOff503();
+        testGiveUp();
+        testCache();
+        testCacheThreads();
+        testBatch();
+        testPipelineBatch();
+        return failures;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int failures = new CrossRefClientTest().run();
+        Log.info.println(failures == 0 ? "All checks passed." : failures + " checks failed !");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,248 @@
+package beast.app.packagemanager;
+
+import beast.core.util.Log;
+import beast.util.Package;
+import beast.util.PackageDependency;
+import beast.util.PackageVersion;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Run {@link PackageInstaller} against a <code>file://</code> repository of synthetic packages
+ * in a temporary directory, and check the install plan, the installed jars,
+ * the checksums only requested by {@link PackageInstaller#setChecksums(boolean)},
+ * a checksum mismatch, and a zip entry outside the package directory (zip slip).
+ * Nothing is installed into the BEAST package directories.
+ * It prints one line per check, and exits with 1 if any check fails.
+ * Usage: PackageInstallerTest
+ *
+ * @author Walter Xie
+ */
+public class PackageInstallerTest {
+
+    public static final int PACKAGES = 10;
+    public static final String EVIL = "Evil";
+
+    private int failures = 0;
+    private Path src, repo;
+    private List<String> names;
+
+    void check(String name, boolean ok, String detail) {
+        if (!ok)
+            failures++;
+        Log.info.println(String.format("%-45s %s", name, ok ? "ok   " + detail : "FAILED : " + detail));
+    }
+
+    //****** repository ******//
+
+    /**
+     * zip the synthetic packages into the repository, with the checksum file of each archive,
+     * where the 2nd package has a wrong checksum, and the 3rd has none,
+     * and add the archive containing <code>../../escape.txt</code>.
+     * @throws IOException
+     */
+    private void createRepository() throws IOException {
+        src = Files.createTempDirectory("packages");
+        repo = Files.createTempDirectory("repository");
+        SyntheticRepository repository = new SyntheticRepository();
+        repository.setPackages(PACKAGES);
+        repository.setClassesPerPackage(20);
+        names = repository.generate(src.toFile());
+
+        for (String name : names) {
+            Path zip = repo.resolve(name + ".zip");
+            Path pkgDir = src.resolve(name);
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip));
+                 Stream<Path> walk = Files.walk(pkgDir)) {
+                for (Path path : (Iterable<Path>) walk::iterator) {
+                    if (Files.isDirectory(path))
+                        continue;
+                    out.putNextEntry(new ZipEntry(pkgDir.relativize(path).toString().replace(File.separatorChar, '/')));
+                    Files.copy(path, out);
+                    out.closeEntry();
+                }
+            }
+            String sha256 = name.equals(names.get(1)) ? "0000" : sha256(zip);
+            if (!name.equals(names.get(2)))
+                Files.write(repo.resolve(name + ".zip" + PackageInstaller.CHECKSUM_SUFFIX),
+                        (sha256 + "  " + name + ".zip\n").getBytes(StandardCharsets.US_ASCII));
+        }
+
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(repo.resolve(EVIL + ".zip")))) {
+            out.putNextEntry(new ZipEntry("../../escape.txt"));
+            out.write('x');
+            out.closeEntry();
+        }
+    }
+
+    private static String sha256(Path file) throws IOException {
+        try {
+            return PackageInstaller.toHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the available packages in the repository, where the 1st package is installed up-to-date.
+     * @throws IOException
+     */
+    private Map<String, Package> getPackageMap() throws IOException {
+        Map<String, Package> packageMap = new TreeMap<>(Comparator.comparing(String::toLowerCase));
+        PackageVersion version = new PackageVersion(SyntheticRepository.VERSION);
+        for (String name : names) {
+            Set<PackageDependency> dependencies = new HashSet<>();
+            for (String line : Files.readAllLines(src.resolve(name).resolve("version.xml"))) {
+                String dependency = line.contains("depends on=") ? line.split("'")[1] : null;
+                if (dependency != null && names.contains(dependency))
+                    dependencies.add(new PackageDependency(dependency, version, null));
+            }
+            Package pkg = new Package(name);
+            pkg.addAvailableVersion(version, repo.resolve(name + ".zip").toUri().toURL(), null, dependencies);
+            packageMap.put(name, pkg);
+        }
+        packageMap.get(names.get(0)).setInstalled(version, new HashSet<>());
+
+        Package evil = new Package(EVIL);
+        evil.addAvailableVersion(version, repo.resolve(EVIL + ".zip").toUri().toURL(), null, new HashSet<>());
+        packageMap.put(EVIL, evil);
+        return packageMap;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files)
+                delete(f);
+        }
+        file.delete();
+    }
+
+    //****** checks ******//
+
+    // install into a new directory, and return the result of each package
+    private Map<String, PackageInstaller.Result> install(File dir, boolean checksums) throws Exception {
+        PackageInstaller installer = new PackageInstaller(getPackageMap(), 4, false, dir.getAbsolutePath());
+        installer.setChecksums(checksums);
+        Map<Package, PackageVersion> plan = installer.getInstallPlan();
+        Map<String, PackageInstaller.Result> results = new TreeMap<>();
+        for (PackageInstaller.Result result : installer.install(plan))
+            results.put(result.pkg.getName(), result);
+        return results;
+    }
+
+    // the packages not installed
+    private static Set<String> getFailed(Map<String, PackageInstaller.Result> results) {
+        Set<String> failed = new TreeSet<>();
+        for (PackageInstaller.Result result : results.values()) {
+            if (!result.isInstalled())
+                failed.add(result.pkg.getName());
+        }
+        return failed;
+    }
+
+    private static int countVerified(Map<String, PackageInstaller.Result> results) {
+        int verified = 0;
+        for (PackageInstaller.Result result : results.values()) {
+            if (result.verified)
+                verified++;
+        }
+        return verified;
+    }
+
+    void testPlan(Map<String, PackageInstaller.Result> results) {
+        check("install plan", results.size() == PACKAGES && !results.containsKey(names.get(0)) &&
+                        results.containsKey(EVIL),
+                results.size() + " of " + (PACKAGES + 1) + " packages, " + names.get(0) + " is up-to-date");
+    }
+
+    void testInstalled(File dir) {
+        int jars = 0;
+        for (String name : names) {
+            if (new File(dir, name + "/lib/" + name + ".jar").isFile())
+                jars++;
+        }
+        String[] hidden = dir.list((d, name) -> name.startsWith("."));
+        check("install the archives", jars == PACKAGES - 1 && hidden != null && hidden.length == 0,
+                jars + " jars installed, " + (hidden == null ? 0 : hidden.length) + " temporary files left");
+    }
+
+    // a wrong .sha256 is not even read
+    void testChecksumsOff(Map<String, PackageInstaller.Result> results) {
+        Set<String> failed = getFailed(results);
+        check("no checksum request by default", failed.equals(Collections.singleton(EVIL)) &&
+                countVerified(results) == 0, "failed " + failed + ", " + countVerified(results) + " verified");
+    }
+
+    void testChecksumMismatch(File dir, Map<String, PackageInstaller.Result> results) {
+        String wrong = names.get(1);
+        PackageInstaller.Result result = results.get(wrong);
+        Set<String> failed = getFailed(results);
+        check("reject checksum mismatch", failed.equals(new TreeSet<>(Arrays.asList(EVIL, wrong))) &&
+                        result.error.getMessage().contains("SHA-256") && !new File(dir, wrong).exists(),
+                String.valueOf(result));
+        // all but the mismatch, the missing checksum, and Evil
+        check("verify the checksums", countVerified(results) == PACKAGES - 3 &&
+                        results.get(names.get(2)).isInstalled() && !results.get(names.get(2)).verified,
+                countVerified(results) + " verified, " + names.get(2) + " has no checksum");
+    }
+
+    void testZipSlip(File dir, Map<String, PackageInstaller.Result> results) {
+        PackageInstaller.Result result = results.get(EVIL);
+        // the archive is extracted in a temporary directory in dir
+        File escape = new File(dir.getParentFile(), "escape.txt");
+        check("reject zip slip", !result.isInstalled() && result.error.getMessage().contains("outside") &&
+                !escape.exists() && !new File(dir, EVIL).exists(), String.valueOf(result));
+    }
+
+    /**
+     * @return the number of failed checks.
+     * @throws Exception
+     */
+    public int run() throws Exception {
+        failures = 0;
+        File dir = null, verifiedDir = null;
+        String previousDir = System.getProperty("beast.user.package.dir");
+        try {
+            createRepository();
+            dir = Files.createTempDirectory("installed").toFile();
+            // the installer gets the package directory from PackageManager
+            System.setProperty("beast.user.package.dir", dir.getAbsolutePath());
+            Map<String, PackageInstaller.Result> results = install(dir, false);
+            testPlan(results);
+            testInstalled(dir);
+            testChecksumsOff(results);
+            testZipSlip(dir, results);
+
+            verifiedDir = Files.createTempDirectory("verified").toFile();
+            System.setProperty("beast.user.package.dir", verifiedDir.getAbsolutePath());
+            testChecksumMismatch(verifiedDir, install(verifiedDir, true));
+        } finally {
+            if (previousDir == null)
+                System.clearProperty("beast.user.package.dir");
+            else
+                System.setProperty("beast.user.package.dir", previousDir);
+            for (File f : new File[]{dir, verifiedDir, src == null ? null : src.toFile(), repo == null ? null : repo.toFile()}) {
+                if (f != null)
+                    delete(f);
+            }
+        }
+        return failures;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int failures = new PackageInstallerTest().run();
+        Log.info.println(failures == 0 ? "All checks passed." : failures + " checks failed !");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,274 @@
+package beast.app.packagemanager;
+
+import beast.app.util.Arguments;
+import beast.core.util.Log;
+import beast.util.Package;
+import beast.util.PackageManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Run the full pipeline, i.e. scanning all packages and building the {@link DOIIndex},
+ * on the {@link SyntheticRepository} of 10, 100 and 1000 times of the base size,
+ * and report the time, peak heap, and the heap still used by the processed packages after GC.
+ * Usage: ScaleTest [-scales 10,100,1000] [-packages 200] [-classes 50] [-broken 0.01]
+ *                  [-dir dir] [-scanner reflection|bytecode|hierarchy] [-threads N] [-pipeline] [-lowMemory] [-keep]
+ *
+ * @author Walter Xie
+ */
+public class ScaleTest {
+
+    public static final String DEFAULT_SCALES = "10,100,1000";
+    // about the size of the BEAST 2 package repository
+    public static final int BASE_PACKAGES = 200;
+    public static final int BASE_CLASSES = 50;
+
+    /**
+     * the result of one scale.
+     */
+    public static class Result {
+        public int packages, classes, citedClasses, brokenClasses, dois;
+        public long generateMillis, scanMillis, indexMillis, peakHeapBytes, keptHeapBytes, diskBytes;
+
+        @Override
+        public String toString() {
+            return String.format("%8d %10d %10d %8d %8d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f",
+                    packages, classes, citedClasses, brokenClasses, dois,
+                    generateMillis / 1000.0, scanMillis / 1000.0, indexMillis / 1000.0,
+                    peakHeapBytes / 1048576.0, keptHeapBytes / 1048576.0, diskBytes / 1048576.0);
+        }
+
+        public static String header() {
+            return String.format("%8s %10s %10s %8s %8s %10s %10s %10s %10s %10s %10s",
+                    "packages", "classes", "cited", "broken", "DOIs",
+                    "gen(s)", "scan(s)", "index(s)", "heap(MB)", "kept(MB)", "disk(MB)");
+        }
+    }
+
+    /**
+     * scan the packages in the map, and build the {@link DOIIndex}.
+     * @param packageMap  key is package name
+     * @param scanner     {@link ClassScanner}
+     * @param threads     the number of threads to scan
+     * @param result      to add the time and peak heap
+     * @return the index
+     * @throws IOException
+     */
+    public static DOIIndex process(Map<String, Package> packageMap, ClassScanner scanner,
+                                   int threads, Result result) throws IOException {
+        return process(packageMap, scanner, threads, false, result);
+    }
+
+    /**
+     * @param lowMemory  compact each package right after it is scanned,
+     *                   see {@link PackageCitations#compact(StringPool)}
+     */
+    public static DOIIndex process(Map<String, Package> packageMap, ClassScanner scanner,
+                                   int threads, boolean lowMemory, Result result) throws IOException {
+        System.gc();
+        long before = getUsedHeap();
+        resetPeakHeap();
+
+        long start = System.currentTimeMillis();
+        PackageCitationsManager.ProcessedPackage processedPackage;
+        // format the report as usual, but do not keep it
+        try (ReportSink sink = new TSVReportSink(new NullWriter())) {
+            processedPackage = new PackageCitationsManager.ProcessedPackage(packageMap, scanner, threads, sink,
+                    lowMemory, false);
+        }
+        result.scanMillis = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        DOIIndex index = processedPackage.getDOIIndex();
+        result.indexMillis = System.currentTimeMillis() - start;
+        result.dois = index.getDOICount();
+        result.peakHeapBytes = getPeakHeap();
+
+        // the processed packages and the index are still used
+        System.gc();
+        result.keptHeapBytes = getUsedHeap() - before;
+        if (processedPackage.getProcessedPkgMap().isEmpty())
+            Log.warning.println("No package is processed !");
+        return index;
+    }
+
+    /**
+     * scan the packages in the map by {@link CitationPipeline}, which does not keep the packages.
+     * @param packageMap  key is package name
+     * @param scanner     {@link ClassScanner}
+     * @param threads     the number of threads to scan
+     * @param result      to add the time and peak heap
+     * @return the pipeline
+     * @throws IOException
+     */
+    public static CitationPipeline processPipeline(Map<String, Package> packageMap, ClassScanner scanner,
+                                                   int threads, Result result) throws IOException {
+        System.gc();
+        resetPeakHeap();
+
+        long start = System.currentTimeMillis();
+        CitationPipeline pipeline = new CitationPipeline(packageMap, scanner, threads);
+        try (ReportSink sink = new TSVReportSink(new NullWriter())) {
+            pipeline.setReportSink(sink);
+            pipeline.run();
+        }
+        result.scanMillis = System.currentTimeMillis() - start;
+        // the DOIs are deduplicated while scanning
+        result.dois = pipeline.getDOICount();
+        result.peakHeapBytes = getPeakHeap();
+        return pipeline;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+        }
+    }
+
+    private static long getUsedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // the sum of the peaks of heap pools, which is the upper bound of the peak heap
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    private static long diskUsage(File dir) throws IOException {
+        return Files.walk(dir.toPath()).filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+    }
+
+    private static void delete(File dir) throws IOException {
+        List<File> files = new ArrayList<>();
+        Files.walk(dir.toPath()).forEach(p -> files.add(p.toFile()));
+        // children first
+        for (int i = files.size() - 1; i >= 0; i--) {
+            if (!files.get(i).delete())
+                Log.warning.println("Cannot delete " + files.get(i));
+        }
+    }
+
+    // discard the report
+    private static class NullWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.StringOption("scales", "10,100,1000",
+                                "Comma separated multiples of the base number of packages. " +
+                                        "The default is " + DEFAULT_SCALES + ". (optional)"),
+                        new Arguments.IntegerOption("packages",
+                                "The base number of packages. The default is " + BASE_PACKAGES + ". (optional)"),
+                        new Arguments.IntegerOption("classes",
+                                "The number of classes in each package. The default is " + BASE_CLASSES + ". (optional)"),
+                        new Arguments.RealOption("broken",
+                                "The fraction of broken classes. The default is 0. (optional)"),
+                        new Arguments.StringOption("dir", "dir",
+                                "The directory to generate packages. The default is a temporary directory. (optional)"),
+                        new Arguments.StringOption("scanner", "reflection|bytecode|hierarchy",
+                                "The default is bytecode. (optional)"),
+                        new Arguments.IntegerOption("threads",
+                                "The default is the number of processors. (optional)"),
+                        new Arguments.Option("pipeline", "Scan by the streaming pipeline, " +
+                                "which does not keep the packages. (optional)"),
+                        new Arguments.Option("lowMemory", "Compact each package right after it is scanned. (optional)"),
+                        new Arguments.Option("keep", "Do not delete the generated packages. (optional)"),
+                });
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        String scales = arguments.hasOption("scales") ? arguments.getStringOption("scales") : DEFAULT_SCALES;
+        int basePackages = arguments.hasOption("packages") ? arguments.getIntegerOption("packages") : BASE_PACKAGES;
+        int threads = arguments.hasOption("threads") ?
+                arguments.getIntegerOption("threads") : Runtime.getRuntime().availableProcessors();
+        if (threads < 1) {
+            Log.err.println("The number of threads must be at least 1, but it is " + threads + " !");
+            arguments.printUsage("ScaleTest", "");
+            return;
+        }
+        File dir = arguments.hasOption("dir") ? new File(arguments.getStringOption("dir")) :
+                Files.createTempDirectory("synthetic").toFile();
+        String scannerName = arguments.hasOption("scanner") ? arguments.getStringOption("scanner") : "bytecode";
+
+        SyntheticRepository repository = new SyntheticRepository();
+        if (arguments.hasOption("classes"))
+            repository.setClassesPerPackage(arguments.getIntegerOption("classes"));
+        if (arguments.hasOption("broken"))
+            repository.setBrokenFraction(arguments.getRealOption("broken"));
+
+        Log.info.println("Scale test in " + dir + ", " + scannerName + " scanner, " + threads + " threads, " +
+                "max heap " + Runtime.getRuntime().maxMemory() / 1048576 + " MB.\n");
+        Log.info.println(String.format("%6s ", "scale") + Result.header());
+        for (String s : scales.split(",")) {
+            int scale = Integer.parseInt(s.trim());
+            File root = new File(dir, "scale" + scale);
+            Result result = new Result();
+
+            repository.setPackages(basePackages * scale);
+            long start = System.currentTimeMillis();
+            List<String> names = repository.generate(root);
+            result.generateMillis = System.currentTimeMillis() - start;
+            result.packages = names.size();
+            result.classes = repository.getClasses();
+            result.citedClasses = repository.getCitedClasses();
+            result.brokenClasses = repository.getBrokenClasses();
+            result.diskBytes = diskUsage(root);
+
+            // find the generated packages as installed packages
+            System.setProperty("beast.user.package.dir", root.getAbsolutePath());
+            Map<String, Package> packageMap = new TreeMap<>(Comparator.comparing(String::toLowerCase));
+            PackageManager.addInstalledPackages(packageMap);
+            packageMap.keySet().retainAll(names);
+            if (packageMap.size() != names.size())
+                Log.warning.println("Find " + packageMap.size() + " of " + names.size() + " generated packages !");
+
+            try {
+                if (arguments.hasOption("pipeline"))
+                    processPipeline(packageMap, ClassScanner.forName(scannerName), threads, result);
+                else
+                    process(packageMap, ClassScanner.forName(scannerName), threads,
+                            arguments.hasOption("lowMemory"), result);
+            } catch (OutOfMemoryError e) {
+                Log.err.println("Out of memory at scale " + scale + " : " + e.getMessage());
+                break;
+            } finally {
+                if (!arguments.hasOption("keep"))
+                    delete(root);
+            }
+            Log.info.println(String.format("%5dx ", scale) + result);
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package beast.app.packagemanager;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Generate a local BEAST package repository for scale testing,
+ * which has the same layout as installed packages: <code>root/name/version.xml</code>
+ * and <code>root/name/lib/name.jar</code>, so it can be used by setting
+ * the system property beast.user.package.dir to the root.
+ * The jars contain {@link beast.core.BEASTObject} subclasses written as class files directly,
+ * where some are annotated by @Citation, @Citation.Citations and @Description,
+ * some extend the classes in the depended packages, the DOIs are drawn from a pool
+ * to create duplicates, and some classes are deliberately broken,
+ * i.e. the superclass is missing, or the class file is truncated.
+ * @see ScaleTest
+ *
+ * @author Walter Xie
+ */
+public class SyntheticRepository {
+
+    public static final String VERSION = "1.0.0";
+    public static final String JAVA_PACKAGE = "synthetic";
+    static final String BEAST_OBJECT = "beast/core/BEASTObject";
+    static final String MISSING_SUPER = JAVA_PACKAGE + "/missing/Gone";
+
+    protected int packages = 200;
+    protected int classesPerPackage = 50;
+    protected int jarsPerPackage = 1;
+    // the fraction of classes annotated by @Citation
+    protected double citedFraction = 0.3;
+    protected int maxCitationsPerClass = 3;
+    // the fraction of cited classes reusing a DOI
+    protected double duplicateDOIFraction = 0.5;
+    // the fraction of classes extending another synthetic class
+    protected double subclassFraction = 0.3;
+    protected int maxDependencies = 3;
+    // the fraction of broken classes
+    protected double brokenFraction = 0.0;
+    protected long seed = 777;
+
+    // the number of written classes
+    protected int classes, citedClasses, brokenClasses, citations;
+
+    public void setPackages(int packages) {
+        this.packages = packages;
+    }
+
+    public void setClassesPerPackage(int classesPerPackage) {
+        this.classesPerPackage = classesPerPackage;
+    }
+
+    public void setJarsPerPackage(int jarsPerPackage) {
+        this.jarsPerPackage = Math.max(1, jarsPerPackage);
+    }
+
+    public void setCitedFraction(double citedFraction) {
+        this.citedFraction = citedFraction;
+    }
+
+    public void setMaxCitationsPerClass(int maxCitationsPerClass) {
+        this.maxCitationsPerClass = Math.max(1, maxCitationsPerClass);
+    }
+
+    public void setDuplicateDOIFraction(double duplicateDOIFraction) {
+        this.duplicateDOIFraction = duplicateDOIFraction;
+    }
+
+    public void setSubclassFraction(double subclassFraction) {
+        this.subclassFraction = subclassFraction;
+    }
+
+    public void setMaxDependencies(int maxDependencies) {
+        this.maxDependencies = maxDependencies;
+    }
+
+    public void setBrokenFraction(double brokenFraction) {
+        this.brokenFraction = brokenFraction;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getClasses() {
+        return classes;
+    }
+
+    public int getCitedClasses() {
+        return citedClasses;
+    }
+
+    public int getBrokenClasses() {
+        return brokenClasses;
+    }
+
+    public int getCitations() {
+        return citations;
+    }
+
+    /**
+     * @param i  0 for the first package
+     * @return the package name
+     */
+    public static String getPackageName(int i) {
+        return String.format("Syn%06d", i);
+    }
+
+    /**
+     * write all packages into the root directory.
+     * @param root the package directory, which is created if not exist
+     * @return the package names in the order of creation,
+     *         where the dependencies are always created before.
+     * @throws IOException
+     */
+    public List<String> generate(File root) throws IOException {
+        Random random = new Random(seed);
+        classes = citedClasses = brokenClasses = citations = 0;
+        List<String> dois = new ArrayList<>();
+        // the valid classes in each package, which can be extended by its dependents
+        List<List<String>> superClasses = new ArrayList<>();
+        List<String> names = new ArrayList<>(packages);
+
+        for (int p = 0; p < packages; p++) {
+            String pkgName = getPackageName(p);
+            names.add(pkgName);
+
+            // only depend on the previous packages, so there is no cycle
+            Set<Integer> deps = new TreeSet<>();
+            int nDeps = p == 0 ? 0 : random.nextInt(Math.min(p, maxDependencies) + 1);
+            while (deps.size() < nDeps)
+                deps.add(random.nextInt(p));
+
+            File pkgDir = new File(root, pkgName);
+            File libDir = new File(pkgDir, "lib");
+            if (!libDir.isDirectory() && !libDir.mkdirs())
+                throw new IOException("Cannot create " + libDir);
+            writeVersionXML(new File(pkgDir, "version.xml"), pkgName, deps);
+
+            List<String> supers = new ArrayList<>();
+            for (int d : deps)
+                supers.addAll(superClasses.get(d));
+            List<String> valid = new ArrayList<>();
+
+            JarOutputStream[] jars = new JarOutputStream[jarsPerPackage];
+            try {
+                for (int j = 0; j < jarsPerPackage; j++) {
+                    String jarName = jarsPerPackage == 1 ? pkgName : pkgName + "." + j;
+                    jars[j] = new JarOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(new File(libDir, jarName + ".jar"))));
+                }
+                String javaPackage = JAVA_PACKAGE + "/" + pkgName.toLowerCase(Locale.ROOT) + "/";
+                for (int c = 0; c < classesPerPackage; c++) {
+                    String className = javaPackage + "C" + c;
+                    byte[] bytes;
+                    if (random.nextDouble() < brokenFraction) {
+                        bytes = createBrokenClass(className, random);
+                        brokenClasses++;
+                    } else {
+                        String superName = BEAST_OBJECT;
+                        if (random.nextDouble() < subclassFraction) {
+                            // from the same package or its dependencies
+                            int n = valid.size() + supers.size();
+                            if (n > 0) {
+                                int k = random.nextInt(n);
+                                superName = k < valid.size() ? valid.get(k) : supers.get(k - valid.size());
+                            }
+                        }
+                        bytes = createClass(className, superName, createCitations(random, dois),
+                                random.nextBoolean() ? "Synthetic class " + c + " in " + pkgName : null);
+                        valid.add(className);
+                    }
+                    JarOutputStream jar = jars[c % jarsPerPackage];
+                    jar.putNextEntry(new JarEntry(className + ".class"));
+                    jar.write(bytes);
+                    jar.closeEntry();
+                    classes++;
+                }
+            } finally {
+                for (JarOutputStream jar : jars) {
+                    if (jar != null)
+                        jar.close();
+                }
+            }
+            superClasses.add(valid);
+        }
+        return names;
+    }
+
+    // BEAST package version.xml
+    private void writeVersionXML(File file, String pkgName, Set<Integer> deps) throws IOException {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            out.println("<package name='" + pkgName + "' version='" + VERSION + "'>");
+            out.println("    <depends on='beast' atleast='2.5.0'/>");
+            for (int d : deps)
+                out.println("    <depends on='" + getPackageName(d) + "' atleast='" + VERSION + "'/>");
+            out.println("</package>");
+        }
+    }
+
+    // 0 to max citations, and duplicate DOIs are drawn from the created
+    private List<CitationRecord> createCitations(Random random, List<String> dois) {
+        if (random.nextDouble() >= citedFraction)
+            return Collections.emptyList();
+        int n = 1 + random.nextInt(maxCitationsPerClass);
+        List<CitationRecord> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String doi;
+            if (!dois.isEmpty() && random.nextDouble() < duplicateDOIFraction) {
+                doi = dois.get(random.nextInt(dois.size()));
+            } else {
+                doi = "10.5555/synthetic." + dois.size();
+                dois.add(doi);
+            }
+            int year = 1990 + random.nextInt(30);
+            String surname = "Author" + random.nextInt(1000);
+            String value = surname + " A, Coauthor B (" + year + ") Synthetic title of " + doi +
+                    ".\n  Journal of Synthetic Evolution " + random.nextInt(100) + ": " + random.nextInt(1000);
+            list.add(new CitationRecord(value, doi, year, surname.toLowerCase(Locale.ROOT)));
+        }
+        citedClasses++;
+        citations += n;
+        return list;
+    }
+
+    // the missing superclass fails when loading, or the truncated class file fails when parsing
+    private byte[] createBrokenClass(String className, Random random) {
+        byte[] bytes = createClass(className, MISSING_SUPER, Collections.singletonList(
+                new CitationRecord("Broken class", "10.5555/broken", 2000, "broken")), null);
+        if (random.nextBoolean())
+            return bytes;
+        return Arrays.copyOf(bytes, bytes.length / 2);
+    }
+
+    /**
+     * create a public class file with the default constructor and initAndValidate(),
+     * and annotate it with the citations and description.
+     * @param className    internal name, e.g. a/b/C
+     * @param superName    internal name of the superclass
+     * @param citations    none, one @Citation, or @Citation.Citations
+     * @param description  @Description, or null
+     * @return the class file bytes
+     */
+    public static byte[] createClass(String className, String superName, List<CitationRecord> citations,
+                                     String description) {
+        ClassWriter cw = new ClassWriter();
+        int thisClass = cw.classRef(className);
+        int superClass = cw.classRef(superName);
+        int init = cw.utf8("<init>");
+        int voidDesc = cw.utf8("()V");
+        int superInit = cw.methodRef(superClass, init, voidDesc);
+        int initAndValidate = cw.utf8("initAndValidate");
+        int code = cw.utf8("Code");
+
+        // annotations, which add constants before writing the body
+        ByteArrayOutputStream annotations = new ByteArrayOutputStream();
+        DataOutputStream ann = new DataOutputStream(annotations);
+        int nAnnotations = 0;
+        try {
+            if (citations.size() == 1) {
+                cw.writeCitation(ann, citations.get(0));
+                nAnnotations++;
+            } else if (citations.size() > 1) {
+                ann.writeShort(cw.utf8(ClassFileInfo.CITATIONS_DESC));
+                ann.writeShort(1);
+                ann.writeShort(cw.utf8("value"));
+                ann.writeByte('[');
+                ann.writeShort(citations.size());
+                for (CitationRecord citation : citations) {
+                    ann.writeByte('@');
+                    cw.writeCitation(ann, citation);
+                }
+                nAnnotations++;
+            }
+            if (description != null) {
+                ann.writeShort(cw.utf8(ClassFileInfo.DESCRIPTION_DESC));
+                ann.writeShort(1);
+                ann.writeShort(cw.utf8("value"));
+                ann.writeByte('s');
+                ann.writeShort(cw.utf8(description));
+                nAnnotations++;
+            }
+            int runtimeVisibleAnnotations = nAnnotations > 0 ? cw.utf8("RuntimeVisibleAnnotations") : 0;
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52); // Java 8
+            cw.writeConstantPool(out);
+            out.writeShort(0x0001 | 0x0020); // ACC_PUBLIC | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+            // public <init>() { super(); }
+            writeMethod(out, init, voidDesc, code, 1,
+                    new byte[]{0x2a, (byte) 0xb7, (byte) (superInit >> 8), (byte) superInit, (byte) 0xb1});
+            // public void initAndValidate() { }
+            writeMethod(out, initAndValidate, voidDesc, code, 0, new byte[]{(byte) 0xb1});
+            if (nAnnotations > 0) {
+                out.writeShort(1);
+                out.writeShort(runtimeVisibleAnnotations);
+                out.writeInt(2 + annotations.size());
+                out.writeShort(nAnnotations);
+                annotations.writeTo(out);
+            } else {
+                out.writeShort(0);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // not from ByteArrayOutputStream
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int desc, int code,
+                                     int maxStack, byte[] bytecode) throws IOException {
+        out.writeShort(0x0001); // ACC_PUBLIC
+        out.writeShort(name);
+        out.writeShort(desc);
+        out.writeShort(1);
+        out.writeShort(code);
+        out.writeInt(12 + bytecode.length);
+        out.writeShort(maxStack);
+        out.writeShort(1); // this
+        out.writeInt(bytecode.length);
+        out.write(bytecode);
+        out.writeShort(0); // exceptions
+        out.writeShort(0); // attributes
+    }
+
+    // the constant pool of a class file
+    private static class ClassWriter {
+        final ByteArrayOutputStream pool = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(pool);
+        final Map<String, Integer> utf8s = new HashMap<>();
+        final Map<Integer, Integer> integers = new HashMap<>();
+        int count = 1;
+
+        int utf8(String s) {
+            return utf8s.computeIfAbsent(s, k -> add(o -> {
+                o.writeByte(1);
+                o.writeUTF(k);
+            }));
+        }
+
+        int integer(int value) {
+            return integers.computeIfAbsent(value, k -> add(o -> {
+                o.writeByte(3);
+                o.writeInt(k);
+            }));
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return add(o -> {
+                o.writeByte(7);
+                o.writeShort(name);
+            });
+        }
+
+        int methodRef(int classRef, int name, int desc) {
+            int nameAndType = add(o -> {
+                o.writeByte(12);
+                o.writeShort(name);
+                o.writeShort(desc);
+            });
+            return add(o -> {
+                o.writeByte(10);
+                o.writeShort(classRef);
+                o.writeShort(nameAndType);
+            });
+        }
+
+        // @Citation(value, DOI, year, firstAuthorSurname)
+        void writeCitation(DataOutputStream ann, CitationRecord citation) throws IOException {
+            ann.writeShort(utf8(ClassFileInfo.CITATION_DESC));
+            ann.writeShort(4);
+            writeString(ann, "value", citation.value());
+            writeString(ann, "DOI", citation.DOI());
+            ann.writeShort(utf8("year"));
+            ann.writeByte('I');
+            ann.writeShort(integer(citation.year()));
+            writeString(ann, "firstAuthorSurname", citation.firstAuthorSurname());
+        }
+
+        private void writeString(DataOutputStream ann, String name, String value) throws IOException {
+            ann.writeShort(utf8(name));
+            ann.writeByte('s');
+            ann.writeShort(utf8(value));
+        }
+
+        void writeConstantPool(DataOutputStream o) throws IOException {
+            o.writeShort(count);
+            pool.writeTo(o);
+        }
+
+        private interface Entry {
+            void write(DataOutputStream o) throws IOException;
+        }
+
+        private int add(Entry entry) {
+            try {
+                entry.write(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return count++;
+        }
+    }
+}